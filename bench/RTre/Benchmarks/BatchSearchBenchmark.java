@@ -0,0 +1,80 @@
+package RTre.Benchmarks;
+
+import RTre.BatchSearchVisitor;
+import RTre.DataObject;
+import RTre.RTree;
+import RTre.SearchVisitor;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares answering a batch of small window queries one at a time with search, against answering
+ * them all with one walk of searchBatch. The time is reported per query.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BatchSearchBenchmark {
+
+    static final int BATCH = 1000;
+
+    @Param({"50", "400"})
+    public int window;
+
+    @Param({"100000", "1000000"})
+    public int size;
+
+    @Param({"8/4", "16/8"})
+    public String fanout;
+
+    @Param({DataSets.UNIFORM, DataSets.CLUSTERED})
+    public String distribution;
+
+    RTree rtree;
+    Rectangle[][] batches;
+    int nextBatch;
+
+    final SearchVisitor counter = new SearchVisitor() {
+        public boolean visit(final DataObject dataObject) {
+            return true;
+        }
+    };
+
+    final BatchSearchVisitor batchCounter = new BatchSearchVisitor() {
+        public boolean visit(final int query, final DataObject dataObject) {
+            return true;
+        }
+    };
+
+    @Setup(Level.Trial)
+    public void setupTrial() {
+        final int[] mm = DataSets.fanout(fanout);
+        rtree = DataSets.tree(DataSets.polygons(distribution, size, 0), mm[0], mm[1]);
+        batches = new Rectangle[8][];
+        for (int i = 0; i < batches.length; i++) {
+            batches[i] = DataSets.windows(BATCH, window, 10 + i);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int separate() {
+        final Rectangle[] batch = batches[nextBatch++ & (batches.length - 1)];
+        int found = 0;
+        for (int i = 0; i < batch.length; i++) {
+            found += rtree.search(batch[i], counter);
+        }
+        return found;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int batched() {
+        return rtree.searchBatch(batches[nextBatch++ & (batches.length - 1)], batchCounter);
+    }
+}
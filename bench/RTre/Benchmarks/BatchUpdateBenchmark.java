@@ -0,0 +1,85 @@
+package RTre.Benchmarks;
+
+import RTre.DataObject;
+import RTre.RTree;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares inserting and then deleting a batch of data objects one at a time, with insertTreeElement
+ * and delete, against doing the same with insertAll and deleteAll. The batch is the size of what the
+ * ADD button of the GUI can insert at once. The time is reported per data object, for the insert and
+ * the delete together.
+ *
+ * After every iteration the tree is checked, and must hold exactly the data objects it started with.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BatchUpdateBenchmark {
+
+    static final int BATCH = 2000;
+
+    @Param({"0", "100000"})
+    public int size;
+
+    @Param({"8/4", "16/8"})
+    public String fanout;
+
+    @Param({DataSets.UNIFORM, DataSets.CLUSTERED})
+    public String distribution;
+
+    RTree rtree;
+    ArrayList[] batches;
+    int nextBatch;
+
+    @Setup(Level.Trial)
+    public void setupTrial() {
+        final int[] mm = DataSets.fanout(fanout);
+        rtree = DataSets.tree(DataSets.polygons(distribution, size, 0), mm[0], mm[1]);
+        batches = new ArrayList[8];
+        for (int i = 0; i < batches.length; i++) {
+            final Polygon[] polygons = DataSets.polygons(distribution, BATCH, 1 + i);
+            batches[i] = new ArrayList(BATCH);
+            for (int j = 0; j < BATCH; j++) {
+                batches[i].add(new DataObject(rtree, polygons[j]));
+            }
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void checkTree() {
+        final int found = TreeInvariants.check(rtree);
+        if (found != size) {
+            throw new IllegalStateException("The tree holds " + found + " data objects, expected " + size);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public RTree separate() {
+        final ArrayList batch = batches[nextBatch++ & (batches.length - 1)];
+        for (int i = 0; i < batch.size(); i++) {
+            rtree.insertTreeElement((DataObject) batch.get(i));
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            rtree.delete((DataObject) batch.get(i));
+        }
+        return rtree;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public RTree batched() {
+        final ArrayList batch = batches[nextBatch++ & (batches.length - 1)];
+        rtree.insertAll(batch);
+        rtree.deleteAll(batch);
+        return rtree;
+    }
+}
@@ -0,0 +1,83 @@
+package RTre.Benchmarks;
+
+import RTre.BoundingBoxes;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the union area calculation the RTree used to do, which built two coordinate arrays and a
+ * Polygon for every call, with the allocation free version in BoundingBoxes. Run it with the GC
+ * profiler (the default in BenchmarkRunner) to see the difference in gc.alloc.rate.norm.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BoundingBoxBenchmark {
+
+    Rectangle[] boxes;
+    int next;
+
+    @Setup
+    public void setup() {
+        final Polygon[] polygons = DataSets.polygons(DataSets.UNIFORM, 1024, 0);
+        boxes = new Rectangle[polygons.length];
+        for (int i = 0; i < polygons.length; i++) {
+            boxes[i] = polygons[i].getBounds();
+        }
+    }
+
+    @Benchmark
+    public long polygonUnionArea() {
+        final int i = next++ & (boxes.length - 1);
+        return legacyUnionArea(boxes[i], boxes[(i + 1) & (boxes.length - 1)]);
+    }
+
+    @Benchmark
+    public long unionArea() {
+        final int i = next++ & (boxes.length - 1);
+        return BoundingBoxes.unionArea(boxes[i], boxes[(i + 1) & (boxes.length - 1)]);
+    }
+
+    @Benchmark
+    public long enlargement() {
+        final int i = next++ & (boxes.length - 1);
+        return BoundingBoxes.enlargement(boxes[i], boxes[(i + 1) & (boxes.length - 1)]);
+    }
+
+    @Benchmark
+    public long overlap() {
+        final int i = next++ & (boxes.length - 1);
+        return BoundingBoxes.overlap(boxes[i], boxes[(i + 1) & (boxes.length - 1)]);
+    }
+
+    /**
+     * The union area calculation as RTree.calculateArea(TreeElement, TreeElement) used to do it.
+     */
+    private static long legacyUnionArea(final Rectangle p1Bounds, final Rectangle p2Bounds) {
+        final int[] xList = {p1Bounds.x,
+                       p1Bounds.x + p1Bounds.width,
+                       p1Bounds.x + p1Bounds.width,
+                       p1Bounds.x,
+                       p2Bounds.x,
+                       p2Bounds.x + p2Bounds.width,
+                       p2Bounds.x + p2Bounds.width,
+                       p2Bounds.x
+        };
+        final int[] yList = {p1Bounds.y,
+                       p1Bounds.y,
+                       p1Bounds.y + p1Bounds.height,
+                       p1Bounds.y + p1Bounds.height,
+                       p2Bounds.y,
+                       p2Bounds.y,
+                       p2Bounds.y + p2Bounds.height,
+                       p2Bounds.y + p2Bounds.height
+        };
+        final Rectangle union = new Polygon(xList, yList, 8).getBounds();
+        return (long) union.width * union.height;
+    }
+}
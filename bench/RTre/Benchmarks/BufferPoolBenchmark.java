@@ -0,0 +1,79 @@
+package RTre.Benchmarks;
+
+import RTre.DataObject;
+import RTre.PagedRTree;
+import RTre.RTree;
+import RTre.SearchVisitor;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures window searches on a PagedRTree that is read through a buffer pool, for pools of
+ * different sizes, with and without the upper levels pinned. The hit rate and the evictions of the
+ * pool are reported next to the time (see PoolCounters). Searches on the mapped file are in
+ * PagedRTreeBenchmark.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BufferPoolBenchmark {
+
+    @Param({"1000000"})
+    public int size;
+
+    @Param({"16/8"})
+    public String fanout;
+
+    @Param({"1024", "16384", "262144"})
+    public int poolPages;
+
+    @Param({"0", "3"})
+    public int pinnedLevels;
+
+    Rectangle[] windows;
+    Path file;
+    PagedRTree paged;
+    int nextWindow;
+
+    final SearchVisitor counter = new SearchVisitor() {
+        public boolean visit(final DataObject dataObject) {
+            return true;
+        }
+    };
+
+    @Setup(Level.Trial)
+    public void setupTrial() throws IOException {
+        final int[] mm = DataSets.fanout(fanout);
+        final RTree rtree = DataSets.tree(DataSets.polygons(DataSets.UNIFORM, size, 0), mm[0], mm[1]);
+        windows = DataSets.windows(1024, RTreeBenchmark.WINDOW_SIZE, 2);
+        file = Files.createTempFile("rtree", ".pages");
+        rtree.save(file);
+        paged = PagedRTree.open(file, poolPages, pinnedLevels);
+    }
+
+    @Setup(Level.Iteration)
+    public void setupIteration() {
+        paged.getBufferPool().resetCounters();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDownTrial() throws IOException {
+        paged.close();
+        Files.delete(file);
+    }
+
+    @Benchmark
+    public int search(final PoolCounters counters) {
+        final int found = paged.search(windows[nextWindow++ & 1023], counter);
+        counters.measure(paged.getBufferPool());
+        return found;
+    }
+}
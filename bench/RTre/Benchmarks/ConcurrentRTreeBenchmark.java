@@ -0,0 +1,114 @@
+package RTre.Benchmarks;
+
+import RTre.ConcurrentRTree;
+import RTre.DataObject;
+import RTre.RTree;
+import RTre.SearchVisitor;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures ConcurrentRTree with several threads at once, and doubles as its stress test.
+ *
+ * The readOnly group runs searches on four threads, which shows how well the readers scale when
+ * no one writes. In the readWrite group three threads search while one thread keeps deleting and
+ * inserting data objects, so the readers have to wait for the writer from time to time.
+ * The number of threads in each group can be changed with -tg, for instance -tg 7,1.
+ *
+ * After every iteration the whole tree is checked: the nodes must still form a valid R-tree, and
+ * it must hold exactly the data objects that were inserted and not deleted again. A broken tree
+ * makes the benchmark fail.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ConcurrentRTreeBenchmark {
+
+    static final int EXTRA = 1024;
+
+    @Param({"100000"})
+    public int size;
+
+    @Param({"8/4", "16/8"})
+    public String fanout;
+
+    @Param({DataSets.UNIFORM, DataSets.CLUSTERED})
+    public String distribution;
+
+    RTree rtree;
+    ConcurrentRTree concurrentTree;
+    Rectangle[] windows;
+    DataObject[] extra;
+
+    final SearchVisitor counter = new SearchVisitor() {
+        public boolean visit(final DataObject dataObject) {
+            return true;
+        }
+    };
+
+    @Setup(Level.Trial)
+    public void setupTrial() {
+        final int[] mm = DataSets.fanout(fanout);
+        rtree = DataSets.tree(DataSets.polygons(distribution, size, 0), mm[0], mm[1]);
+        concurrentTree = new ConcurrentRTree(rtree);
+        windows = DataSets.windows(1024, RTreeBenchmark.WINDOW_SIZE, 2);
+        final Polygon[] polygons = DataSets.polygons(distribution, EXTRA, 1);
+        extra = new DataObject[EXTRA];
+        for (int i = 0; i < EXTRA; i++) {
+            extra[i] = new DataObject(rtree, polygons[i]);
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void checkTree() {
+        int expected = size;
+        for (int i = 0; i < EXTRA; i++) {
+            if (extra[i].getParent() != null) {
+                expected++;
+            }
+        }
+        final int found = TreeInvariants.check(rtree);
+        if (found != expected) {
+            throw new IllegalStateException("The tree holds " + found + " data objects, expected " + expected);
+        }
+    }
+
+    /**
+     * The position of each thread in the windows and in the extra data objects.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+    }
+
+    @Benchmark
+    @Group("readOnly")
+    @GroupThreads(4)
+    public int readOnlySearch(final Cursor c) {
+        return concurrentTree.search(windows[c.next++ & (windows.length - 1)], counter);
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(3)
+    public int readWriteSearch(final Cursor c) {
+        return concurrentTree.search(windows[c.next++ & (windows.length - 1)], counter);
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(1)
+    public boolean readWriteUpdate(final Cursor c) {
+        // Takes an extra data object out of the tree, if it is in it, and puts it back in,
+        // so that the tree keeps changing shape without growing
+        final DataObject d = extra[c.next++ & (EXTRA - 1)];
+        final boolean deleted = concurrentTree.delete(d);
+        concurrentTree.insertTreeElement(d);
+        return deleted;
+    }
+}
@@ -0,0 +1,87 @@
+package RTre.Benchmarks;
+
+import RTre.Core.Entry;
+import RTre.Core.RTree;
+import RTre.Core.Visitor;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the double and the float coordinate modes of the headless R-tree on longitude/latitude
+ * data: the polygons of DataSets are scaled to degrees, so the coordinates have fractions that a
+ * float cannot hold exactly. Measures building the tree and window searches.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CoordinateModeBenchmark {
+
+    static final double DEGREES = 360.0 / DataSets.WORLD_SIZE;
+
+    @Param({"1000000"})
+    public int size;
+
+    @Param({"16/8"})
+    public String fanout;
+
+    @Param({DataSets.UNIFORM, DataSets.CLUSTERED})
+    public String distribution;
+
+    @Param({"DOUBLE", "FLOAT"})
+    public String coordinates;
+
+    double[] boxes;
+    double[] windows;
+    RTree<Integer> tree;
+    int nextWindow;
+
+    final Visitor<Integer> counter = new Visitor<Integer>() {
+        public boolean visit(final Entry<Integer> entry) {
+            return true;
+        }
+    };
+
+    @Setup(Level.Trial)
+    public void setupTrial() {
+        final Polygon[] polygons = DataSets.polygons(distribution, size, 0);
+        boxes = new double[4 * size];
+        for (int i = 0; i < size; i++) {
+            final Rectangle b = polygons[i].getBounds();
+            boxes[4 * i] = b.x * DEGREES - 180;
+            boxes[4 * i + 1] = b.y * DEGREES / 2 - 90;
+            boxes[4 * i + 2] = (b.x + b.width) * DEGREES - 180;
+            boxes[4 * i + 3] = (b.y + b.height) * DEGREES / 2 - 90;
+        }
+        final Rectangle[] w = DataSets.windows(1024, RTreeBenchmark.WINDOW_SIZE, 2);
+        windows = new double[4 * w.length];
+        for (int i = 0; i < w.length; i++) {
+            windows[4 * i] = w[i].x * DEGREES - 180;
+            windows[4 * i + 1] = w[i].y * DEGREES / 2 - 90;
+            windows[4 * i + 2] = (w[i].x + w[i].width) * DEGREES - 180;
+            windows[4 * i + 3] = (w[i].y + w[i].height) * DEGREES / 2 - 90;
+        }
+        tree = build();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public RTree<Integer> build() {
+        final int[] mm = DataSets.fanout(fanout);
+        final RTree<Integer> t = new RTree<Integer>(mm[0], mm[1], "FLOAT".equals(coordinates) ? RTree.FLOAT : RTree.DOUBLE);
+        for (int i = 0; i < size; i++) {
+            t.insert(boxes[4 * i], boxes[4 * i + 1], boxes[4 * i + 2], boxes[4 * i + 3], Integer.valueOf(i));
+        }
+        return t;
+    }
+
+    @Benchmark
+    public int search() {
+        final int o = 4 * (nextWindow++ & 1023);
+        return tree.search(windows[o], windows[o + 1], windows[o + 2], windows[o + 3], counter);
+    }
+}
@@ -0,0 +1,91 @@
+package RTre.Benchmarks;
+
+import RTre.DataObject;
+import RTre.RTree;
+import RTre.SearchVisitor;
+import RTre.Core.Entry;
+import RTre.Core.Visitor;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the headless R-tree in RTre.Core with RTre.RTree on the same data: building a tree by
+ * inserting every polygon, and window searches. Both trees use Guttman's quadratic split. The
+ * headless tree only compares boxes, while RTre.RTree also tests the polygons in the leaves, so its
+ * searches do somewhat more work and may find fewer matches.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CoreRTreeBenchmark {
+
+    @Param({"100000"})
+    public int size;
+
+    @Param({"8/4", "16/8"})
+    public String fanout;
+
+    @Param({DataSets.UNIFORM, DataSets.CLUSTERED})
+    public String distribution;
+
+    Polygon[] polygons;
+    Rectangle[] windows;
+    RTree rtree;
+    RTre.Core.RTree<Polygon> core;
+    int nextWindow;
+
+    final SearchVisitor counter = new SearchVisitor() {
+        public boolean visit(final DataObject dataObject) {
+            return true;
+        }
+    };
+
+    final Visitor<Polygon> coreCounter = new Visitor<Polygon>() {
+        public boolean visit(final Entry<Polygon> entry) {
+            return true;
+        }
+    };
+
+    @Setup(Level.Trial)
+    public void setupTrial() {
+        polygons = DataSets.polygons(distribution, size, 0);
+        windows = DataSets.windows(1024, RTreeBenchmark.WINDOW_SIZE, 2);
+        rtree = buildRTree();
+        core = buildCore();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public RTree buildRTree() {
+        final int[] mm = DataSets.fanout(fanout);
+        return DataSets.tree(polygons, mm[0], mm[1]);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public RTre.Core.RTree<Polygon> buildCore() {
+        final int[] mm = DataSets.fanout(fanout);
+        final RTre.Core.RTree<Polygon> tree = new RTre.Core.RTree<Polygon>(mm[0], mm[1]);
+        for (int i = 0; i < polygons.length; i++) {
+            final Rectangle b = polygons[i].getBounds();
+            tree.insert(b.x, b.y, b.x + b.width, b.y + b.height, polygons[i]);
+        }
+        return tree;
+    }
+
+    @Benchmark
+    public int searchRTree() {
+        return rtree.search(windows[nextWindow++ & (windows.length - 1)], counter);
+    }
+
+    @Benchmark
+    public int searchCore() {
+        final Rectangle w = windows[nextWindow++ & (windows.length - 1)];
+        return core.search(w.x, w.y, w.x + w.width, w.y + w.height, coreCounter);
+    }
+}
@@ -0,0 +1,148 @@
+package RTre.Benchmarks;
+
+import RTre.DataObject;
+import RTre.RTree;
+
+import java.awt.*;
+import java.util.Random;
+
+/**
+ * Generates the polygons used by the benchmarks. Unlike the GUI, which places random polygons
+ * inside the panel, the benchmarks need large, reproducible data sets with different spatial
+ * distributions, so every data set is generated from a fixed seed inside a square world.
+ */
+public final class DataSets {
+
+    public static final int WORLD_SIZE = 40000;  // Width and height of the world the polygons are placed in
+    public static final int OBJECT_SIZE = 40;    // Maximum width and height of a single polygon
+
+    public static final String UNIFORM = "UNIFORM";
+    public static final String CLUSTERED = "CLUSTERED";
+    public static final String SKEWED = "SKEWED";
+
+    private static final int CLUSTERS = 50;
+    private static final long SEED = 2004L;
+
+    private DataSets() {
+    }
+
+    /**
+     * Creates n polygons with the given distribution.
+     *
+     * @param distribution  UNIFORM, CLUSTERED or SKEWED
+     * @param n             The number of polygons
+     * @param seed          Offset to the fixed seed, so that several independent sets can be made
+     * @return              The polygons
+     */
+    public static Polygon[] polygons(final String distribution, final int n, final long seed) {
+        final Random random = new Random(SEED + seed);
+        final Polygon[] polygons = new Polygon[n];
+
+        final int[] clusterX = new int[CLUSTERS];
+        final int[] clusterY = new int[CLUSTERS];
+        for (int i = 0; i < CLUSTERS; i++) {
+            clusterX[i] = random.nextInt(WORLD_SIZE);
+            clusterY[i] = random.nextInt(WORLD_SIZE);
+        }
+
+        final int range = WORLD_SIZE - OBJECT_SIZE;
+        int x, y;
+        for (int i = 0; i < n; i++) {
+            if (CLUSTERED.equals(distribution)) {
+                // Gaussian blobs around a fixed set of cluster centres
+                final int c = random.nextInt(CLUSTERS);
+                x = clamp(clusterX[c] + (int) (random.nextGaussian() * WORLD_SIZE / 100), range);
+                y = clamp(clusterY[c] + (int) (random.nextGaussian() * WORLD_SIZE / 100), range);
+            } else if (SKEWED.equals(distribution)) {
+                // Most of the polygons end up close to the origin
+                x = (int) (Math.pow(random.nextDouble(), 4) * range);
+                y = (int) (Math.pow(random.nextDouble(), 4) * range);
+            } else if (UNIFORM.equals(distribution)) {
+                x = random.nextInt(range);
+                y = random.nextInt(range);
+            } else {
+                throw new IllegalArgumentException("Unknown distribution: " + distribution);
+            }
+            polygons[i] = polygon(random, x, y);
+        }
+        return polygons;
+    }
+
+    /**
+     * Creates n random query windows of the given size inside the world.
+     *
+     * @param n         The number of windows
+     * @param size      The width and height of each window
+     * @param seed      Offset to the fixed seed
+     * @return          The windows
+     */
+    public static Rectangle[] windows(final int n, final int size, final long seed) {
+        final Random random = new Random(SEED + seed);
+        final Rectangle[] windows = new Rectangle[n];
+        for (int i = 0; i < n; i++) {
+            windows[i] = new Rectangle(random.nextInt(WORLD_SIZE - size), random.nextInt(WORLD_SIZE - size), size, size);
+        }
+        return windows;
+    }
+
+    /**
+     * Creates a tree with the given M and m, and inserts one DataObject per polygon.
+     *
+     * @param polygons  The polygons to insert
+     * @param max       M, the maximum number of children per node
+     * @param min       m, the minimum number of children per node
+     * @return          The filled tree
+     */
+    public static RTree tree(final Polygon[] polygons, final int max, final int min) {
+        final RTree rtree = emptyTree(max, min);
+        for (int i = 0; i < polygons.length; i++) {
+            rtree.insertTreeElement(new DataObject(rtree, polygons[i]));
+        }
+        return rtree;
+    }
+
+    /**
+     * Creates an empty tree with the given M and m.
+     *
+     * @param max   M, the maximum number of children per node
+     * @param min   m, the minimum number of children per node
+     * @return      The empty tree
+     */
+    public static RTree emptyTree(final int max, final int min) {
+        final RTree rtree = new RTree();
+        rtree.maxChildrenPerNode = max;
+        rtree.minimumChildrenPerNode = min;
+        // The root node is created with the default M, so it has to be recreated
+        rtree.clearTree();
+        return rtree;
+    }
+
+    /**
+     * Parses a "M/m" parameter string.
+     *
+     * @param fanout    A string such as "8/4"
+     * @return          {M, m}
+     */
+    public static int[] fanout(final String fanout) {
+        final int slash = fanout.indexOf('/');
+        return new int[]{Integer.parseInt(fanout.substring(0, slash)), Integer.parseInt(fanout.substring(slash + 1))};
+    }
+
+    private static Polygon polygon(final Random random, final int xOffset, final int yOffset) {
+        final int points = random.nextInt(7) + 3;  // Same range as DataObject, [3,9]
+        final int[] xList = new int[points];
+        final int[] yList = new int[points];
+        for (int i = 0; i < points; i++) {
+            xList[i] = random.nextInt(OBJECT_SIZE) + xOffset;
+            yList[i] = random.nextInt(OBJECT_SIZE) + yOffset;
+        }
+        return new Polygon(xList, yList, points);
+    }
+
+    private static int clamp(final int value, final int max) {
+        if (value < 0) {
+            return 0;
+        }
+        return value > max ? max : value;
+    }
+}
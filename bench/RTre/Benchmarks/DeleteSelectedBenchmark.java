@@ -0,0 +1,93 @@
+package RTre.Benchmarks;
+
+import RTre.DataObject;
+import RTre.RTree;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures deleting every data object in a window that covers the given share of the world: the way
+ * the GUI does it, with findLeaves followed by deleteLeaves, with a single walk of deleteWithin, and
+ * one data object at a time with delete, by object or by id.
+ *
+ * Every invocation needs a fresh tree, so each one is timed alone.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DeleteSelectedBenchmark {
+
+    @Param({"100000"})
+    public int size;
+
+    @Param({"10", "100"})
+    public int percent;
+
+    @Param({"8/4", "16/8"})
+    public String fanout;
+
+    @Param({DataSets.UNIFORM})
+    public String distribution;
+
+    Polygon[] polygons;
+    RTree rtree;
+    Rectangle window;
+    ArrayList selection;
+
+    @Setup(Level.Trial)
+    public void setupTrial() {
+        polygons = DataSets.polygons(distribution, size, 0);
+    }
+
+    @Setup(Level.Invocation)
+    public void setupInvocation() {
+        final int[] mm = DataSets.fanout(fanout);
+        rtree = DataSets.tree(polygons, mm[0], mm[1]);
+        final int width = (int) ((long) (DataSets.WORLD_SIZE + DataSets.OBJECT_SIZE) * percent / 100);
+        window = new Rectangle(0, 0, width, DataSets.WORLD_SIZE + DataSets.OBJECT_SIZE);
+        selection = rtree.search(window);
+    }
+
+    @TearDown(Level.Invocation)
+    public void checkTree() {
+        final int found = TreeInvariants.check(rtree);
+        if (found != size - selection.size()) {
+            throw new IllegalStateException("The tree holds " + found + " data objects, expected " + (size - selection.size()));
+        }
+    }
+
+    @Benchmark
+    public RTree deleteLeaves() {
+        rtree.findLeaves(window);
+        rtree.deleteLeaves();
+        return rtree;
+    }
+
+    @Benchmark
+    public RTree deleteWithin() {
+        rtree.deleteWithin(window);
+        return rtree;
+    }
+
+    @Benchmark
+    public RTree oneByOne() {
+        for (int i = 0; i < selection.size(); i++) {
+            rtree.delete((DataObject) selection.get(i));
+        }
+        return rtree;
+    }
+
+    @Benchmark
+    public RTree oneByOneById() {
+        for (int i = 0; i < selection.size(); i++) {
+            rtree.delete(((DataObject) selection.get(i)).getId());
+        }
+        return rtree;
+    }
+}
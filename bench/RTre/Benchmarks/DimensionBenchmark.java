@@ -0,0 +1,102 @@
+package RTre.Benchmarks;
+
+import RTre.Core.Entry;
+import RTre.Core.RTree;
+import RTre.Core.Visitor;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the headless R-tree with boxes of 2, 3 and 4 dimensions in both coordinate modes:
+ * building the tree, window searches and nearest neighbour searches. The boxes are spread uniformly
+ * over a cube with the side of the DataSets world, each at most OBJECT_SIZE wide in every dimension.
+ * The side of the windows is chosen so that a window covers the same share of the world as a
+ * WINDOW_SIZE square does in two dimensions, so the number of matches stays about the same.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DimensionBenchmark {
+
+    @Param({"2", "3", "4"})
+    public int dimensions;
+
+    @Param({"200000"})
+    public int size;
+
+    @Param({"16/8"})
+    public String fanout;
+
+    @Param({"DOUBLE", "FLOAT"})
+    public String coordinates;
+
+    double[][] boxes;
+    double[][] windows;
+    double[][] points;
+    RTree<Integer> tree;
+    int nextWindow;
+
+    final Visitor<Integer> counter = new Visitor<Integer>() {
+        public boolean visit(final Entry<Integer> entry) {
+            return true;
+        }
+    };
+
+    @Setup(Level.Trial)
+    public void setupTrial() {
+        final int d = dimensions;
+        final Random random = new Random(2004L + d);
+        boxes = new double[size][];
+        for (int i = 0; i < size; i++) {
+            boxes[i] = box(random, d, random.nextDouble() * DataSets.OBJECT_SIZE);
+        }
+        final double side = DataSets.WORLD_SIZE
+                * Math.pow((double) RTreeBenchmark.WINDOW_SIZE / DataSets.WORLD_SIZE, 2.0 / d);
+        windows = new double[1024][];
+        for (int i = 0; i < windows.length; i++) {
+            windows[i] = box(random, d, side);
+        }
+        points = new double[1024][];
+        for (int i = 0; i < points.length; i++) {
+            points[i] = Arrays.copyOf(box(random, d, 0), d);
+        }
+        tree = build();
+    }
+
+    private static double[] box(final Random random, final int d, final double side) {
+        final double[] box = new double[2 * d];
+        for (int k = 0; k < d; k++) {
+            box[k] = random.nextDouble() * (DataSets.WORLD_SIZE - side);
+            box[d + k] = box[k] + side;
+        }
+        return box;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public RTree<Integer> build() {
+        final int[] mm = DataSets.fanout(fanout);
+        final RTree<Integer> t = new RTree<Integer>(mm[0], mm[1],
+                "FLOAT".equals(coordinates) ? RTree.FLOAT : RTree.DOUBLE, dimensions);
+        for (int i = 0; i < size; i++) {
+            t.insert(boxes[i], Integer.valueOf(i));
+        }
+        return t;
+    }
+
+    @Benchmark
+    public int search() {
+        return tree.search(windows[nextWindow++ & 1023], counter);
+    }
+
+    @Benchmark
+    public int nearest() {
+        return tree.nearest(points[nextWindow++ & 1023], 10).size();
+    }
+}
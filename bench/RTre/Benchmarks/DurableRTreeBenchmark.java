@@ -0,0 +1,89 @@
+package RTre.Benchmarks;
+
+import RTre.DataObject;
+import RTre.DurableRTree;
+import RTre.RTree;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures durable inserts in DurableRTree: every insert returns once it is on disk. insert is one
+ * thread, so every insert waits for its own fsync; insertGrouped is eight threads that share the
+ * fsyncs through the group commit of the log. saveEach is the durable insert without a log: the
+ * whole tree is saved after each insert.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class DurableRTreeBenchmark {
+
+    @Param({"100000"})
+    public int size;
+
+    @Param({"16/8"})
+    public String fanout;
+
+    Polygon[] polygons;
+    Path directory;
+    DurableRTree durable;
+    RTree rtree;
+    Path file;
+    final AtomicInteger next = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void setupTrial() throws IOException {
+        final int[] mm = DataSets.fanout(fanout);
+        polygons = DataSets.polygons(DataSets.UNIFORM, size, 0);
+        final ArrayList dataObjects = new ArrayList(size);
+        for (int i = 0; i < size; i++) {
+            dataObjects.add(new DataObject(null, polygons[i]));
+        }
+        directory = Files.createTempDirectory("rtree");
+        durable = new DurableRTree(DataSets.emptyTree(mm[0], mm[1]), directory);
+        durable.bulkLoad(dataObjects, RTree.SORT_TILE_RECURSIVE);
+        rtree = DataSets.tree(polygons, mm[0], mm[1]);
+        file = directory.resolve("saved.pages");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDownTrial() throws IOException {
+        durable.close();
+        final DirectoryStream<Path> files = Files.newDirectoryStream(directory);
+        try {
+            for (final Path f : files) {
+                Files.delete(f);
+            }
+        } finally {
+            files.close();
+        }
+        Files.delete(directory);
+    }
+
+    @Benchmark
+    public void insert() throws IOException {
+        durable.insertTreeElement(new DataObject(null, polygons[next.getAndIncrement() % size]));
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void insertGrouped() throws IOException {
+        durable.insertTreeElement(new DataObject(null, polygons[next.getAndIncrement() % size]));
+    }
+
+    @Benchmark
+    public void saveEach() throws IOException {
+        rtree.insertTreeElement(new DataObject(rtree, polygons[next.getAndIncrement() % size]));
+        rtree.save(file);
+    }
+}
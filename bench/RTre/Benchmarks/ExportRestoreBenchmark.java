@@ -0,0 +1,88 @@
+package RTre.Benchmarks;
+
+import RTre.RTree;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures writing a tree to a file and reading it back: export and restore with the compact
+ * snapshot format, against save and load with the paged format of PagedRTree. Both read back the
+ * same nodes without inserting anything.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ExportRestoreBenchmark {
+
+    @Param({"1000000"})
+    public int size;
+
+    @Param({"16/8"})
+    public String fanout;
+
+    @Param({DataSets.UNIFORM, DataSets.CLUSTERED})
+    public String distribution;
+
+    RTree rtree;
+    Path snapshot;
+    Path pages;
+
+    @Setup(Level.Trial)
+    public void setupTrial() throws IOException {
+        final int[] mm = DataSets.fanout(fanout);
+        rtree = DataSets.tree(DataSets.polygons(distribution, size, 0), mm[0], mm[1]);
+        snapshot = Files.createTempFile("rtree", ".snapshot");
+        pages = Files.createTempFile("rtree", ".pages");
+        export();
+        rtree.save(pages);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDownTrial() throws IOException {
+        Files.delete(snapshot);
+        Files.delete(pages);
+    }
+
+    @Benchmark
+    public void export() throws IOException {
+        final FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            rtree.export(channel);
+        } finally {
+            channel.close();
+        }
+    }
+
+    @Benchmark
+    public RTree restore() throws IOException {
+        final RTree t = new RTree();
+        final FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ);
+        try {
+            t.restore(channel);
+        } finally {
+            channel.close();
+        }
+        return t;
+    }
+
+    @Benchmark
+    public void save() throws IOException {
+        rtree.save(pages);
+    }
+
+    @Benchmark
+    public RTree load() throws IOException {
+        final RTree t = new RTree();
+        t.load(pages);
+        return t;
+    }
+}
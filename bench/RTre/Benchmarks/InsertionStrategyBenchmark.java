@@ -0,0 +1,72 @@
+package RTre.Benchmarks;
+
+import RTre.DataObject;
+import RTre.RTree;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares Guttman's quadratic split with the R*-tree strategy: the cost of building a tree by
+ * inserting one element at a time, and the throughput of range queries on the resulting tree.
+ * The R*-tree is expected to build slower and answer queries faster, most of all on clustered data.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class InsertionStrategyBenchmark {
+
+    @Param({"GUTTMAN", "RSTAR"})
+    public String strategy;
+
+    @Param({"100000"})
+    public int size;
+
+    @Param({"8/3", "16/6"})
+    public String fanout;
+
+    @Param({DataSets.CLUSTERED, DataSets.UNIFORM})
+    public String distribution;
+
+    Polygon[] polygons;
+    Rectangle[] windows;
+    RTree searchTree;
+    int nextWindow;
+
+    @Setup(Level.Trial)
+    public void setupTrial() {
+        polygons = DataSets.polygons(distribution, size, 0);
+        windows = DataSets.windows(1024, RTreeBenchmark.WINDOW_SIZE, 2);
+        searchTree = build();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public RTree insertAll(final Quality quality) {
+        final RTree rtree = build();
+        quality.measure(rtree);
+        return rtree;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public RTree search() {
+        searchTree.findLeaves(windows[nextWindow++ & (windows.length - 1)]);
+        searchTree.deselect();
+        return searchTree;
+    }
+
+    private RTree build() {
+        final int[] mm = DataSets.fanout(fanout);
+        final RTree rtree = DataSets.emptyTree(mm[0], mm[1]);
+        rtree.insertionStrategy = "RSTAR".equals(strategy) ? RTree.RSTAR : RTree.GUTTMAN;
+        for (int i = 0; i < polygons.length; i++) {
+            rtree.insertTreeElement(new DataObject(rtree, polygons[i]));
+        }
+        return rtree;
+    }
+}
@@ -0,0 +1,76 @@
+package RTre.Benchmarks;
+
+import RTre.DataObject;
+import RTre.RTree;
+import RTre.SearchVisitor;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the latency of the k nearest neighbour query for K = 1, 10 and 100. The query points are
+ * spread uniformly over the world, so on clustered data many of them are far from any polygon and
+ * the search has to look further before it finds its first neighbour.
+ *
+ * The results are reported as a latency distribution, so the percentiles show the slow queries as
+ * well as the typical one.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class NearestNeighbourBenchmark {
+
+    @Param({"1", "10", "100"})
+    public int k;
+
+    @Param({"100000", "1000000"})
+    public int size;
+
+    @Param({"8/4", "16/8"})
+    public String fanout;
+
+    @Param({DataSets.UNIFORM, DataSets.CLUSTERED})
+    public String distribution;
+
+    RTree rtree;
+    int[] pointX;
+    int[] pointY;
+    int nextPoint;
+
+    final SearchVisitor counter = new SearchVisitor() {
+        public boolean visit(final DataObject dataObject) {
+            return true;
+        }
+    };
+
+    @Setup(Level.Trial)
+    public void setupTrial() {
+        final int[] mm = DataSets.fanout(fanout);
+        rtree = DataSets.tree(DataSets.polygons(distribution, size, 0), mm[0], mm[1]);
+        final Random random = new Random(3);
+        pointX = new int[1024];
+        pointY = new int[1024];
+        for (int i = 0; i < pointX.length; i++) {
+            pointX[i] = random.nextInt(DataSets.WORLD_SIZE);
+            pointY[i] = random.nextInt(DataSets.WORLD_SIZE);
+        }
+    }
+
+    @Benchmark
+    public int nearest() {
+        // Counts the neighbours without collecting them
+        final int i = nextPoint++ & (pointX.length - 1);
+        return rtree.nearest(pointX[i], pointY[i], k, counter);
+    }
+
+    @Benchmark
+    public ArrayList nearestList() {
+        final int i = nextPoint++ & (pointX.length - 1);
+        return rtree.nearest(pointX[i], pointY[i], k);
+    }
+}
@@ -0,0 +1,86 @@
+package RTre.Benchmarks;
+
+import RTre.DataObject;
+import RTre.OffHeapRTree;
+import RTre.RTree;
+import RTre.SearchVisitor;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the OffHeapRTree with the RTree on the heap: building a tree by inserting the data
+ * objects one by one, and window searches. The off-heap tree needs direct memory, which is raised
+ * to match the heap.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g", "-XX:MaxDirectMemorySize=4g"})
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class OffHeapRTreeBenchmark {
+
+    @Param({"1000000"})
+    public int size;
+
+    @Param({"16/8"})
+    public String fanout;
+
+    @Param({DataSets.UNIFORM, DataSets.CLUSTERED})
+    public String distribution;
+
+    Polygon[] polygons;
+    DataObject[] dataObjects;
+    Rectangle[] windows;
+    RTree heapTree;
+    OffHeapRTree offHeapTree;
+    int nextWindow;
+
+    final SearchVisitor counter = new SearchVisitor() {
+        public boolean visit(final DataObject dataObject) {
+            return true;
+        }
+    };
+
+    @Setup(Level.Trial)
+    public void setupTrial() {
+        polygons = DataSets.polygons(distribution, size, 0);
+        windows = DataSets.windows(1024, RTreeBenchmark.WINDOW_SIZE, 2);
+        heapTree = buildHeap();
+        dataObjects = new DataObject[size];
+        for (int i = 0; i < size; i++) {
+            dataObjects[i] = new DataObject(heapTree, polygons[i]);
+        }
+        offHeapTree = buildOffHeap();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public RTree buildHeap() {
+        final int[] mm = DataSets.fanout(fanout);
+        return DataSets.tree(polygons, mm[0], mm[1]);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public OffHeapRTree buildOffHeap() {
+        final int[] mm = DataSets.fanout(fanout);
+        final OffHeapRTree t = new OffHeapRTree(mm[0], mm[1]);
+        for (int i = 0; i < size; i++) {
+            t.insert(dataObjects[i]);
+        }
+        return t;
+    }
+
+    @Benchmark
+    public int searchHeap() {
+        return heapTree.search(windows[nextWindow++ & 1023], counter);
+    }
+
+    @Benchmark
+    public int searchOffHeap() {
+        return offHeapTree.search(windows[nextWindow++ & 1023], counter);
+    }
+}
@@ -0,0 +1,106 @@
+package RTre.Benchmarks;
+
+import RTre.DataObject;
+import RTre.PagedRTree;
+import RTre.RTree;
+import RTre.SearchVisitor;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the paged file format of PagedRTree: saving a tree, opening the file and running the
+ * first search on it, and window searches on the mapped file against the same searches on the
+ * tree in memory. reinsert is what a restart cost before: inserting all data objects again.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PagedRTreeBenchmark {
+
+    @Param({"1000000"})
+    public int size;
+
+    @Param({"16/8"})
+    public String fanout;
+
+    @Param({DataSets.UNIFORM, DataSets.CLUSTERED})
+    public String distribution;
+
+    Polygon[] polygons;
+    Rectangle[] windows;
+    RTree rtree;
+    Path file;
+    PagedRTree paged;
+    int nextWindow;
+
+    final SearchVisitor counter = new SearchVisitor() {
+        public boolean visit(final DataObject dataObject) {
+            return true;
+        }
+    };
+
+    @Setup(Level.Trial)
+    public void setupTrial() throws IOException {
+        final int[] mm = DataSets.fanout(fanout);
+        polygons = DataSets.polygons(distribution, size, 0);
+        windows = DataSets.windows(1024, RTreeBenchmark.WINDOW_SIZE, 2);
+        rtree = DataSets.tree(polygons, mm[0], mm[1]);
+        file = Files.createTempFile("rtree", ".pages");
+        rtree.save(file);
+        paged = PagedRTree.open(file);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDownTrial() throws IOException {
+        paged.close();
+        Files.delete(file);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void save() throws IOException {
+        rtree.save(file);
+    }
+
+    @Benchmark
+    public int openAndSearch() throws IOException {
+        final PagedRTree p = PagedRTree.open(file);
+        try {
+            return p.search(windows[nextWindow++ & 1023], counter);
+        } finally {
+            p.close();
+        }
+    }
+
+    @Benchmark
+    public int searchMapped() {
+        return paged.search(windows[nextWindow++ & 1023], counter);
+    }
+
+    @Benchmark
+    public int searchHeap() {
+        return rtree.search(windows[nextWindow++ & 1023], counter);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public RTree reinsert() {
+        final int[] mm = DataSets.fanout(fanout);
+        final RTree t = DataSets.emptyTree(mm[0], mm[1]);
+        final ArrayList dataObjects = new ArrayList(polygons.length);
+        for (int i = 0; i < polygons.length; i++) {
+            dataObjects.add(new DataObject(t, polygons[i]));
+        }
+        t.insertAll(dataObjects);
+        return t;
+    }
+}
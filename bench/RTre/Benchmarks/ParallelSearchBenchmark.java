@@ -0,0 +1,97 @@
+package RTre.Benchmarks;
+
+import RTre.RTree;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how the parallel range and nearest neighbour searches scale with the number of threads
+ * in the fork/join pool, next to the sequential searches on the same tree.
+ *
+ * A wide window matches tens of thousands of polygons, so there is enough work to split between the
+ * threads. A narrow window only matches a handful, and shows what the tasks cost when there is not.
+ * The nearest neighbour searches do not use the window.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ParallelSearchBenchmark {
+
+    static final int K = 100;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    @Param({"100", "4000"})
+    public int window;
+
+    @Param({"4096"})
+    public int threshold;
+
+    @Param({"1000000"})
+    public int size;
+
+    @Param({"16/8"})
+    public String fanout;
+
+    @Param({DataSets.UNIFORM})
+    public String distribution;
+
+    RTree rtree;
+    ForkJoinPool pool;
+    Rectangle[] windows;
+    int[] pointX;
+    int[] pointY;
+    int next;
+
+    @Setup(Level.Trial)
+    public void setupTrial() {
+        final int[] mm = DataSets.fanout(fanout);
+        rtree = DataSets.tree(DataSets.polygons(distribution, size, 0), mm[0], mm[1]);
+        rtree.parallelThreshold = threshold;
+        pool = new ForkJoinPool(threads);
+        windows = DataSets.windows(1024, window, 2);
+        final Random random = new Random(3);
+        pointX = new int[1024];
+        pointY = new int[1024];
+        for (int i = 0; i < pointX.length; i++) {
+            pointX[i] = random.nextInt(DataSets.WORLD_SIZE);
+            pointY[i] = random.nextInt(DataSets.WORLD_SIZE);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDownTrial() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public ArrayList search() {
+        return rtree.search(windows[next++ & (windows.length - 1)]);
+    }
+
+    @Benchmark
+    public ArrayList searchParallel() {
+        return rtree.searchParallel(windows[next++ & (windows.length - 1)], pool);
+    }
+
+    @Benchmark
+    public ArrayList nearest() {
+        final int i = next++ & (pointX.length - 1);
+        return rtree.nearest(pointX[i], pointY[i], K);
+    }
+
+    @Benchmark
+    public ArrayList nearestParallel() {
+        final int i = next++ & (pointX.length - 1);
+        return rtree.nearestParallel(pointX[i], pointY[i], K, pool);
+    }
+}
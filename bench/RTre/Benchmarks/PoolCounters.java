@@ -0,0 +1,40 @@
+package RTre.Benchmarks;
+
+import RTre.BufferPool;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Reports the counters of a buffer pool as secondary results next to the time, so that the size of
+ * the pool can be chosen from the hit rate it gives, which is hits / (hits + misses). The counters
+ * are the ones since the pool was last reset, which the benchmark should do for every iteration.
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.EVENTS)
+public class PoolCounters {
+
+    public long hits;
+    public long misses;
+    public long evictions;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+    }
+
+    /**
+     * Reads the counters of the pool. Call this once per benchmark invocation.
+     *
+     * @param pool  The pool the benchmark reads through
+     */
+    public void measure(final BufferPool pool) {
+        hits = pool.getHits();
+        misses = pool.getMisses();
+        evictions = pool.getEvictions();
+    }
+}
@@ -0,0 +1,42 @@
+package RTre.Benchmarks;
+
+import RTre.RTree;
+import RTre.TreeMetrics;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Reports the split quality of the tree a benchmark has built as secondary results next to the
+ * time, so that the shape of the tree can be tracked together with its speed. The values are the
+ * totals over all levels from TreeMetrics, in millions of square units.
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.EVENTS)
+public class Quality {
+
+    public double overlap;
+    public double coverage;
+    public double deadSpace;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        overlap = 0;
+        coverage = 0;
+        deadSpace = 0;
+    }
+
+    /**
+     * Measures the tree. Call this once per benchmark invocation.
+     *
+     * @param rtree     The tree that was built
+     */
+    public void measure(final RTree rtree) {
+        final TreeMetrics metrics = rtree.getMetrics();
+        overlap = metrics.getTotalOverlap() / 1e6;
+        coverage = metrics.getTotalCoverage() / 1e6;
+        deadSpace = metrics.getTotalDeadSpace() / 1e6;
+    }
+}
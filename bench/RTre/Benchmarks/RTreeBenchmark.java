@@ -0,0 +1,172 @@
+package RTre.Benchmarks;
+
+import RTre.DataObject;
+import RTre.RTree;
+import RTre.SearchVisitor;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the public operations of the RTree: insertTreeElement, findLeaves, deleteLeaves, rebuildTree
+ * and bulkLoad, over different tree sizes, values of M/m and data distributions.
+ *
+ * Search is measured as throughput on a tree that is built once per trial. Insert, delete and rebuild
+ * change the tree, so they run as single shots against a tree that is rebuilt before every iteration.
+ * Insert and delete do BATCH operations per shot and report the time per operation.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class RTreeBenchmark {
+
+    static final int BATCH = 1000;
+    static final int WINDOW_SIZE = 400;
+
+    @Param({"10000", "100000", "1000000"})
+    public int size;
+
+    @Param({"4/2", "8/4", "16/8"})
+    public String fanout;
+
+    @Param({DataSets.UNIFORM, DataSets.CLUSTERED, DataSets.SKEWED})
+    public String distribution;
+
+    Polygon[] polygons;
+    Polygon[] extra;
+    Rectangle[] windows;
+    RTree searchTree;
+    int nextWindow;
+
+    final SearchVisitor counter = new SearchVisitor() {
+        public boolean visit(final DataObject dataObject) {
+            return true;
+        }
+    };
+
+    @Setup(Level.Trial)
+    public void setupTrial() {
+        polygons = DataSets.polygons(distribution, size, 0);
+        extra = DataSets.polygons(distribution, BATCH, 1);
+        windows = DataSets.windows(1024, WINDOW_SIZE, 2);
+        final int[] mm = DataSets.fanout(fanout);
+        searchTree = DataSets.tree(polygons, mm[0], mm[1]);
+    }
+
+    /**
+     * A tree that is rebuilt before every iteration, for the benchmarks that change the tree.
+     */
+    @State(Scope.Thread)
+    public static class MutableTree {
+        RTree rtree;
+        DataObject[] inserted;
+
+        @Setup(Level.Iteration)
+        public void setup(final RTreeBenchmark b) {
+            final int[] mm = DataSets.fanout(b.fanout);
+            rtree = DataSets.tree(b.polygons, mm[0], mm[1]);
+            inserted = new DataObject[BATCH];
+            for (int i = 0; i < BATCH; i++) {
+                inserted[i] = new DataObject(rtree, b.extra[i]);
+            }
+        }
+    }
+
+    /**
+     * A fresh set of data objects for every iteration of the bulk load benchmarks.
+     */
+    @State(Scope.Thread)
+    public static class Unloaded {
+        RTree rtree;
+        ArrayList dataObjects;
+
+        @Setup(Level.Iteration)
+        public void setup(final RTreeBenchmark b) {
+            final int[] mm = DataSets.fanout(b.fanout);
+            rtree = DataSets.emptyTree(mm[0], mm[1]);
+            dataObjects = new ArrayList(b.size);
+            for (int i = 0; i < b.size; i++) {
+                dataObjects.add(new DataObject(rtree, b.polygons[i]));
+            }
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public RTree search() {
+        // findLeaves marks the hits as selected, so the selection is released again afterwards
+        searchTree.findLeaves(windows[nextWindow++ & (windows.length - 1)]);
+        searchTree.deselect();
+        return searchTree;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public int searchVisitor() {
+        // The side effect free search, counting the hits without collecting them
+        return searchTree.search(windows[nextWindow++ & (windows.length - 1)], counter);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public DataObject searchFirst() {
+        // Early termination: only the first hit is needed
+        final Iterator it = searchTree.iterator(windows[nextWindow++ & (windows.length - 1)]);
+        return it.hasNext() ? (DataObject) it.next() : null;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @OperationsPerInvocation(BATCH)
+    public RTree insert(final MutableTree t) {
+        for (int i = 0; i < BATCH; i++) {
+            t.rtree.insertTreeElement(t.inserted[i]);
+        }
+        return t.rtree;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @OperationsPerInvocation(BATCH)
+    public RTree delete(final MutableTree t) {
+        // Selects and deletes BATCH small windows, each around one of the original polygons
+        for (int i = 0; i < BATCH; i++) {
+            t.rtree.findLeaves(polygons[(int) ((long) i * size / BATCH)].getBounds());
+            t.rtree.deleteLeaves();
+        }
+        return t.rtree;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public RTree rebuild(final MutableTree t) {
+        t.rtree.rebuildTree();
+        return t.rtree;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public RTree bulkLoadStr(final Unloaded u) {
+        u.rtree.bulkLoad(u.dataObjects, RTree.SORT_TILE_RECURSIVE);
+        return u.rtree;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public RTree bulkLoadHilbert(final Unloaded u) {
+        u.rtree.bulkLoad(u.dataObjects, RTree.HILBERT);
+        return u.rtree;
+    }
+}
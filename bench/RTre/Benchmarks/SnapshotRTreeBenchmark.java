@@ -0,0 +1,127 @@
+package RTre.Benchmarks;
+
+import RTre.DataObject;
+import RTre.RTree;
+import RTre.SearchVisitor;
+import RTre.Snapshot;
+import RTre.SnapshotRTree;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The same workload as ConcurrentRTreeBenchmark, on a SnapshotRTree. Here the readers search the
+ * latest snapshot without locks, so they should not slow down when the writer is busy, while
+ * every write pays for copying a path of nodes.
+ *
+ * After every iteration the latest snapshot must hold exactly the data objects that were inserted
+ * and not deleted again, and a search of the whole world must find them.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class SnapshotRTreeBenchmark {
+
+    static final int EXTRA = 1024;
+
+    @Param({"100000"})
+    public int size;
+
+    @Param({"8/4", "16/8"})
+    public String fanout;
+
+    @Param({DataSets.UNIFORM, DataSets.CLUSTERED})
+    public String distribution;
+
+    SnapshotRTree snapshotTree;
+    Rectangle[] windows;
+    DataObject[] extra;
+    boolean[] inserted;
+    Rectangle world;
+    int found;          // The number of data objects a search of the whole world finds after the setup
+
+    final SearchVisitor counter = new SearchVisitor() {
+        public boolean visit(final DataObject dataObject) {
+            return true;
+        }
+    };
+
+    @Setup(Level.Trial)
+    public void setupTrial() {
+        final int[] mm = DataSets.fanout(fanout);
+        final RTree rtree = DataSets.emptyTree(mm[0], mm[1]);
+        snapshotTree = new SnapshotRTree(mm[0], mm[1]);
+        final Polygon[] polygons = DataSets.polygons(distribution, size, 0);
+        for (int i = 0; i < size; i++) {
+            snapshotTree.insert(new DataObject(rtree, polygons[i]));
+        }
+        world = new Rectangle(0, 0, DataSets.WORLD_SIZE, DataSets.WORLD_SIZE);
+        found = snapshotTree.search(world, counter);
+        windows = DataSets.windows(1024, RTreeBenchmark.WINDOW_SIZE, 2);
+        final Polygon[] extraPolygons = DataSets.polygons(distribution, EXTRA, 1);
+        extra = new DataObject[EXTRA];
+        inserted = new boolean[EXTRA];
+        for (int i = 0; i < EXTRA; i++) {
+            extra[i] = new DataObject(rtree, extraPolygons[i]);
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void checkTree() {
+        // Polygons whose points are all on one line have no area, so no search finds them
+        int expectedSize = size;
+        int expectedFound = found;
+        for (int i = 0; i < EXTRA; i++) {
+            if (inserted[i]) {
+                expectedSize++;
+                if (world.contains(extra[i].getBoundingBox()) || extra[i].intersects(world)) {
+                    expectedFound++;
+                }
+            }
+        }
+        final Snapshot s = snapshotTree.snapshot();
+        final int foundNow = s.search(world, counter);
+        if (s.size() != expectedSize || foundNow != expectedFound) {
+            throw new IllegalStateException("The snapshot holds " + s.size() + " data objects and a search finds "
+                    + foundNow + ", expected " + expectedSize + " and " + expectedFound);
+        }
+    }
+
+    /**
+     * The position of each thread in the windows and in the extra data objects.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+    }
+
+    @Benchmark
+    @Group("readOnly")
+    @GroupThreads(4)
+    public int readOnlySearch(final Cursor c) {
+        return snapshotTree.search(windows[c.next++ & (windows.length - 1)], counter);
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(3)
+    public int readWriteSearch(final Cursor c) {
+        return snapshotTree.search(windows[c.next++ & (windows.length - 1)], counter);
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(1)
+    public boolean readWriteUpdate(final Cursor c) {
+        // Takes an extra data object out of the tree, if it is in it, and puts it back in
+        final int i = c.next++ & (EXTRA - 1);
+        final boolean deleted = snapshotTree.delete(extra[i]);
+        snapshotTree.insert(extra[i]);
+        inserted[i] = true;
+        return deleted;
+    }
+}
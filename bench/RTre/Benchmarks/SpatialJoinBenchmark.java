@@ -0,0 +1,79 @@
+package RTre.Benchmarks;
+
+import RTre.DataObject;
+import RTre.JoinVisitor;
+import RTre.RTree;
+import RTre.SearchVisitor;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares three ways of finding every intersecting pair of polygons in two data sets: one range
+ * search in the second tree for every polygon of the first, the synchronized walk of RTree.join,
+ * and the same walk run in parallel by joinParallel.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SpatialJoinBenchmark {
+
+    @Param({"100000"})
+    public int size;
+
+    @Param({"8/4", "16/8"})
+    public String fanout;
+
+    @Param({DataSets.UNIFORM, DataSets.CLUSTERED})
+    public String distribution;
+
+    RTree left;
+    RTree right;
+
+    final JoinVisitor counter = new JoinVisitor() {
+        public boolean visit(final DataObject a, final DataObject b) {
+            return true;
+        }
+    };
+
+    @Setup(Level.Trial)
+    public void setupTrial() {
+        final int[] mm = DataSets.fanout(fanout);
+        left = DataSets.tree(DataSets.polygons(distribution, size, 0), mm[0], mm[1]);
+        right = DataSets.tree(DataSets.polygons(distribution, size, 1), mm[0], mm[1]);
+    }
+
+    @Benchmark
+    public long searchPerObject() {
+        // What the join replaces: a range search in the right tree for each data object in the left tree
+        final long[] found = new long[1];
+        final Iterator it = left.iterator(new Rectangle(0, 0, DataSets.WORLD_SIZE, DataSets.WORLD_SIZE));
+        while (it.hasNext()) {
+            final DataObject a = (DataObject) it.next();
+            right.search(a.getBoundingBox(), new SearchVisitor() {
+                public boolean visit(final DataObject b) {
+                    if (a.intersects(b)) {
+                        found[0]++;
+                    }
+                    return true;
+                }
+            });
+        }
+        return found[0];
+    }
+
+    @Benchmark
+    public long join() {
+        return left.join(right, counter);
+    }
+
+    @Benchmark
+    public long joinParallel() {
+        return left.joinParallel(right, counter);
+    }
+}
@@ -0,0 +1,79 @@
+package RTre.Benchmarks;
+
+import RTre.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the split policies with Guttman's insertion: the cost of building a tree by inserting
+ * one element at a time, and the throughput of range queries on the resulting tree.
+ * The exhaustive split falls back to the quadratic split for M above 12.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class SplitPolicyBenchmark {
+
+    @Param({"LINEAR", "QUADRATIC", "EXHAUSTIVE", "RSTAR"})
+    public String policy;
+
+    @Param({"100000"})
+    public int size;
+
+    @Param({"8/3", "12/4", "16/6"})
+    public String fanout;
+
+    @Param({DataSets.CLUSTERED, DataSets.UNIFORM})
+    public String distribution;
+
+    Polygon[] polygons;
+    Rectangle[] windows;
+    RTree searchTree;
+    int nextWindow;
+
+    @Setup(Level.Trial)
+    public void setupTrial() {
+        polygons = DataSets.polygons(distribution, size, 0);
+        windows = DataSets.windows(1024, RTreeBenchmark.WINDOW_SIZE, 2);
+        searchTree = build();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public RTree insertAll(final Quality quality) {
+        final RTree rtree = build();
+        quality.measure(rtree);
+        return rtree;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public RTree search() {
+        searchTree.findLeaves(windows[nextWindow++ & (windows.length - 1)]);
+        searchTree.deselect();
+        return searchTree;
+    }
+
+    private RTree build() {
+        final int[] mm = DataSets.fanout(fanout);
+        final RTree rtree = DataSets.emptyTree(mm[0], mm[1]);
+        if ("LINEAR".equals(policy)) {
+            rtree.splitPolicy = new LinearSplit();
+        } else if ("QUADRATIC".equals(policy)) {
+            rtree.splitPolicy = new QuadraticSplit();
+        } else if ("EXHAUSTIVE".equals(policy)) {
+            rtree.splitPolicy = new ExhaustiveSplit();
+        } else {
+            rtree.splitPolicy = new RStarSplit();
+        }
+        for (int i = 0; i < polygons.length; i++) {
+            rtree.insertTreeElement(new DataObject(rtree, polygons[i]));
+        }
+        return rtree;
+    }
+}
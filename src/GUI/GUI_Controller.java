@@ -40,6 +40,10 @@ public final class GUI_Controller {
         frame.setSize(FRAME_WIDTH, FRAME_HEIGHT);
         contentPane = frame.getContentPane();   // collects a reference to the contentPane.
 
+        // Random data objects are placed inside the polygon view
+        rtre.worldWidth = TREE_PANEL_WIDTH;
+        rtre.worldHeight = TREE_PANEL_HEIGHT;
+
         // Adds the mainpanel which is made with the visual editor in IntelliJ 4.5
         mainScreen = new Main(rtre);
         contentPane.add(mainScreen.mainPanel);
@@ -6,6 +6,7 @@ import RTre.DataObject;
 import javax.swing.*;
 import java.awt.event.ActionListener;
 import java.awt.event.ActionEvent;
+import java.util.ArrayList;
 import GUI.Listeners.*;
 
 /**
@@ -166,11 +167,14 @@ public final class Main {
         add.addActionListener(new ActionListener(){
             public void actionPerformed(final ActionEvent e) {
                 rtree.deselect();
+                final ArrayList newDataObjects = new ArrayList();
                 for(int i = 0; i < ((Integer)addNumber.getSelectedItem()).intValue(); i++){
                     final DataObject newDataObject = new DataObject(rtree);
                     rtree.mostRecent(newDataObject);
-                    rtree.insertTreeElement(newDataObject);
+                    newDataObjects.add(newDataObject);
                 }
+                // Inserted as one batch, so the tree above the leaves is adjusted once and not once per object
+                rtree.insertAll(newDataObjects);
                 updateGUI();
             }
         });
@@ -0,0 +1,126 @@
+package RTre;
+
+import java.awt.*;
+
+/**
+ * Answers a batch of range queries with one walk over the tree. Every node on the way down carries
+ * the subset of the queries whose windows intersect it, so a node that many queries pass through
+ * is read once for all of them, and a subtree is only entered if at least one query needs it.
+ *
+ * The subsets are kept in one int array per level of the tree, each big enough for the whole batch,
+ * so the walk allocates nothing else.
+ */
+final class BatchSearch {
+
+    private final Rectangle[] queries;
+    private final int[] qMinX, qMinY, qMaxX, qMaxY;
+    private final int[][] active;
+    private final BatchSearchVisitor visitor;
+    private int found;
+
+    /**
+     * Constructor
+     *
+     * @param queries   The query rectangles
+     * @param levels    The number of levels of nodes in the tree
+     * @param visitor   Receives the matches
+     */
+    BatchSearch(final Rectangle[] queries, final int levels, final BatchSearchVisitor visitor) {
+        this.queries = queries;
+        this.visitor = visitor;
+        final int n = queries.length;
+        qMinX = new int[n];
+        qMinY = new int[n];
+        qMaxX = new int[n];
+        qMaxY = new int[n];
+        for (int q = 0; q < n; q++) {
+            final Rectangle r = queries[q];
+            qMinX[q] = r.x;
+            qMinY[q] = r.y;
+            qMaxX[q] = r.x + r.width;
+            qMaxY[q] = r.y + r.height;
+        }
+        active = new int[levels + 1][];
+    }
+
+    /**
+     * Runs the batch from the root.
+     *
+     * @param root  The root node of the tree
+     * @return      The number of matches handed to the visitor
+     */
+    int run(final Node root) {
+        final Rectangle box = root.getBoundingBox();
+        if (box == null) {
+            return 0;
+        }
+        final int[] rootQueries = activeAt(root.getLevel());
+        int count = 0;
+        for (int q = 0; q < queries.length; q++) {
+            if (box.intersects(queries[q])) {
+                rootQueries[count++] = q;
+            }
+        }
+        if (count > 0) {
+            search(root, count);
+        }
+        return found;
+    }
+
+    private int[] activeAt(final int level) {
+        if (active[level] == null) {
+            active[level] = new int[queries.length];
+        }
+        return active[level];
+    }
+
+    /**
+     * Searches below a node for the first count queries in the subset of its level.
+     *
+     * @return  false when the visitor has stopped the search
+     */
+    private boolean search(final Node n, final int count) {
+        final int level = n.getLevel();
+        final int[] mine = active[level];
+
+        if (level == 1) {
+            for (int i = 0; i < n.getSize(); i++) {
+                DataObject d = null;
+                for (int a = 0; a < count; a++) {
+                    final int q = mine[a];
+                    // The slot box is a cheap filter before the polygon itself is tested
+                    if (n.minX[i] <= qMaxX[q] && n.maxX[i] >= qMinX[q] && n.minY[i] <= qMaxY[q] && n.maxY[i] >= qMinY[q]) {
+                        if (d == null) {
+                            d = (DataObject) n.children.get(i);
+                        }
+                        if (queries[q].contains(d.getBoundingBox()) || d.intersects(queries[q])) {
+                            found++;
+                            if (!visitor.visit(q, d)) {
+                                return false;
+                            }
+                        }
+                    }
+                }
+            }
+            return true;
+        }
+
+        final int[] below = activeAt(level - 1);
+        for (int i = 0; i < n.getSize(); i++) {
+            if (n.maxX[i] <= n.minX[i] || n.maxY[i] <= n.minY[i]) {
+                continue;
+            }
+            int subset = 0;
+            for (int a = 0; a < count; a++) {
+                final int q = mine[a];
+                if (n.minX[i] < qMaxX[q] && n.maxX[i] > qMinX[q] && n.minY[i] < qMaxY[q] && n.maxY[i] > qMinY[q]) {
+                    below[subset++] = q;
+                }
+            }
+            if (subset > 0 && !search((Node) n.children.get(i), subset)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
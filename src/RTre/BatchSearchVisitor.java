@@ -0,0 +1,20 @@
+package RTre;
+
+/**
+ * Receives the results of RTree.searchBatch one at a time, as they are found.
+ *
+ * @see RTree#searchBatch(java.awt.Rectangle[], BatchSearchVisitor)
+ */
+public interface BatchSearchVisitor {
+
+    /**
+     * Called for each DataObject that matches one of the queries. A DataObject that matches several
+     * queries is handed over once for each of them.
+     *
+     * @param query         The index of the query rectangle in the batch
+     * @param dataObject    The matching DataObject
+     * @return              true to continue the search, false to stop the whole batch
+     */
+    public boolean visit(int query, DataObject dataObject);
+
+}
@@ -0,0 +1,14 @@
+package RTre;
+
+import java.awt.*;
+
+/**
+ * Anything with a bounding box. This is all a SplitPolicy needs to know about the entries it
+ * divides, so that nodes which are not part of an RTree, such as the nodes of a SnapshotRTree,
+ * can be split by the same policies.
+ */
+public interface Bounded {
+
+    public Rectangle getBoundingBox();
+
+}
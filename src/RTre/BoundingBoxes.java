@@ -0,0 +1,115 @@
+package RTre;
+
+import java.awt.*;
+
+/**
+ * Bounding box arithmetic used when the tree chooses where to insert and how to split.
+ * Everything works directly on the min/max coordinates, so none of these methods create any
+ * objects. Areas are returned as longs, since the product of two int sides may not fit in an int.
+ */
+public final class BoundingBoxes {
+
+    private BoundingBoxes() {
+    }
+
+    /**
+     * Calculates the area of a box
+     *
+     * @return  The area of the box
+     */
+    public static long area(final int minX, final int minY, final int maxX, final int maxY) {
+        return (long) (maxX - minX) * (maxY - minY);
+    }
+
+    /**
+     * Calculates the area of the smallest box that encloses both box a and box b.
+     *
+     * @return  The area of the union of the two boxes
+     */
+    public static long unionArea(final int aMinX, final int aMinY, final int aMaxX, final int aMaxY,
+                                 final int bMinX, final int bMinY, final int bMaxX, final int bMaxY) {
+        return area(Math.min(aMinX, bMinX), Math.min(aMinY, bMinY), Math.max(aMaxX, bMaxX), Math.max(aMaxY, bMaxY));
+    }
+
+    /**
+     * Calculates how much the area of box a grows if it has to enclose box b as well.
+     *
+     * @return  The enlargement of box a
+     */
+    public static long enlargement(final int aMinX, final int aMinY, final int aMaxX, final int aMaxY,
+                                   final int bMinX, final int bMinY, final int bMaxX, final int bMaxY) {
+        return unionArea(aMinX, aMinY, aMaxX, aMaxY, bMinX, bMinY, bMaxX, bMaxY) - area(aMinX, aMinY, aMaxX, aMaxY);
+    }
+
+    /**
+     * Calculates the area that box a and box b have in common.
+     *
+     * @return  The area of the intersection, or 0 if the boxes do not intersect
+     */
+    public static long overlap(final int aMinX, final int aMinY, final int aMaxX, final int aMaxY,
+                               final int bMinX, final int bMinY, final int bMaxX, final int bMaxY) {
+        final int width = Math.min(aMaxX, bMaxX) - Math.max(aMinX, bMinX);
+        final int height = Math.min(aMaxY, bMaxY) - Math.max(aMinY, bMinY);
+        if (width <= 0 || height <= 0) {
+            return 0;
+        }
+        return (long) width * height;
+    }
+
+    /**
+     * Calculates the square of the distance from a point to the nearest point of a box, MINDIST in
+     * the nearest neighbour search of Roussopoulos et al. It is 0 when the point is inside the box.
+     * No object inside the box can be closer to the point than this.
+     *
+     * @return  The squared distance from the point to the box
+     */
+    public static long minDistSq(final int minX, final int minY, final int maxX, final int maxY,
+                                 final int x, final int y) {
+        final long dx = x < minX ? (long) minX - x : (x > maxX ? (long) x - maxX : 0);
+        final long dy = y < minY ? (long) minY - y : (y > maxY ? (long) y - maxY : 0);
+        return dx * dx + dy * dy;
+    }
+
+    /**
+     * Calculates the area of a rectangle
+     *
+     * @param r The rectangle
+     * @return  The rectangle's area
+     */
+    public static long area(final Rectangle r) {
+        return (long) r.width * r.height;
+    }
+
+    /**
+     * Calculates the area of the smallest rectangle that encloses both a and b.
+     *
+     * @param a     The first rectangle
+     * @param b     The second rectangle
+     * @return      The area of the union
+     */
+    public static long unionArea(final Rectangle a, final Rectangle b) {
+        return unionArea(a.x, a.y, a.x + a.width, a.y + a.height, b.x, b.y, b.x + b.width, b.y + b.height);
+    }
+
+    /**
+     * Calculates how much the area of a grows if it has to enclose b as well.
+     *
+     * @param a     The rectangle that is enlarged
+     * @param b     The rectangle that is added
+     * @return      The enlargement of a
+     */
+    public static long enlargement(final Rectangle a, final Rectangle b) {
+        return unionArea(a, b) - area(a);
+    }
+
+    /**
+     * Calculates the area that a and b have in common.
+     *
+     * @param a     The first rectangle
+     * @param b     The second rectangle
+     * @return      The area of the intersection, or 0 if they do not intersect
+     */
+    public static long overlap(final Rectangle a, final Rectangle b) {
+        return overlap(a.x, a.y, a.x + a.width, a.y + a.height, b.x, b.y, b.x + b.width, b.y + b.height);
+    }
+}
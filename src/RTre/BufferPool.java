@@ -0,0 +1,345 @@
+package RTre;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * A fixed number of page frames in memory, through which a PagedRTree reads its file when it is
+ * not mapped. A page is pinned while it is read, and cannot be evicted until it is unpinned. When
+ * a page is missing, a frame is taken with the CLOCK algorithm: the hand sweeps the frames, passes
+ * pinned ones, clears the referenced flag of the ones that were used since it last came by, and
+ * takes the first frame that was not. Pages that are used often therefore stay, and pages that
+ * were read once for a single search make room again.
+ *
+ * Pages can also be pinned for good, which PagedRTree does with the upper levels of the tree: every
+ * search passes them, so they should never be read twice.
+ *
+ * Any number of threads can pin pages. A missing page is read outside the lock of the pool, so
+ * threads reading different pages do not wait for each other; a thread that pins a page that is
+ * being read waits for it. A thread that finds every frame pinned waits until one is unpinned, so
+ * the threads must not pin more pages at the same time than the pool holds, or they may wait for
+ * each other forever; PagedRTree lets only as many searches in as the pool has room for. The
+ * counters of hits, misses and evictions tell how well the pool fits the queries, and can be
+ * reset to measure a new workload.
+ *
+ * The frame of each page is found in an open addressing hash table on a long and an int array,
+ * which never grows, since it holds at most one page per frame.
+ */
+public final class BufferPool {
+
+    private final FileChannel channel;
+    private final int pageSize;
+    private final ByteBuffer[] frames;
+    private final long[] pages;             // The page in each frame, -1 if none
+    private final int[] pins;               // The number of times each frame is pinned
+    private final boolean[] referenced;     // Used since the clock hand last passed the frame
+    private final boolean[] loaded;         // The page has been read into the frame
+    private final PageTable frameOf;        // The frame of each page in the pool
+    private int hand;
+    private int pinnedForGood;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * Constructor
+     *
+     * @param channel   The file the pages are read from
+     * @param pageSize  The size of a page in bytes
+     * @param capacity  The number of pages the pool can hold
+     */
+    BufferPool(final FileChannel channel, final int pageSize, final int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("A buffer pool needs at least one page, not " + capacity);
+        }
+        this.channel = channel;
+        this.pageSize = pageSize;
+        frames = new ByteBuffer[capacity];
+        pages = new long[capacity];
+        pins = new int[capacity];
+        referenced = new boolean[capacity];
+        loaded = new boolean[capacity];
+        frameOf = new PageTable(capacity);
+        for (int i = 0; i < capacity; i++) {
+            pages[i] = -1;
+        }
+    }
+
+    /**
+     * Pins a page, reading it from the file if it is not in the pool. The page stays in its frame
+     * until it is unpinned as many times as it was pinned.
+     *
+     * @param page  The page
+     * @return      The frame that holds the page
+     * @throws IOException  If the page could not be read, or the thread was interrupted while it
+     *                      waited for a frame
+     */
+    int pin(final long page) throws IOException {
+        int frame;
+        synchronized (this) {
+            while (true) {
+                final int i = frameOf.get(page);
+                if (i < 0) {
+                    frame = victim();
+                    if (frame >= 0) {
+                        break;
+                    }
+                    // Every frame is pinned. The page may have been read by another thread meanwhile,
+                    // so it is looked up again.
+                    await();
+                    continue;
+                }
+                pins[i]++;
+                referenced[i] = true;
+                try {
+                    while (!loaded[i] && pages[i] == page) {
+                        await();
+                    }
+                } catch (IOException e) {
+                    unpin(i);
+                    throw e;
+                }
+                if (pages[i] == page) {
+                    hits++;
+                    return i;
+                }
+                // The read failed, try it again
+                unpin(i);
+            }
+            misses++;
+            if (pages[frame] >= 0) {
+                frameOf.remove(pages[frame]);
+                evictions++;
+            }
+            pages[frame] = page;
+            pins[frame] = 1;
+            referenced[frame] = true;
+            loaded[frame] = false;
+            frameOf.put(page, frame);
+            if (frames[frame] == null) {
+                frames[frame] = ByteBuffer.allocate(pageSize).order(ByteOrder.LITTLE_ENDIAN);
+            }
+        }
+        try {
+            final ByteBuffer b = frames[frame];
+            b.clear();
+            final long start = page * pageSize;
+            while (b.hasRemaining() && channel.read(b, start + b.position()) >= 0) {
+                // The last page of the file may be short
+            }
+        } catch (IOException e) {
+            synchronized (this) {
+                frameOf.remove(page);
+                pages[frame] = -1;
+                pins[frame]--;
+                notifyAll();
+            }
+            throw e;
+        }
+        synchronized (this) {
+            loaded[frame] = true;
+            notifyAll();
+        }
+        return frame;
+    }
+
+    /**
+     * Unpins a frame that was pinned with pin.
+     *
+     * @param frame     The frame
+     */
+    synchronized void unpin(final int frame) {
+        if (--pins[frame] == 0) {
+            // A thread may be waiting for a frame
+            notifyAll();
+        }
+    }
+
+    /**
+     * Pins a page for as long as the pool is used.
+     *
+     * @param page  The page
+     * @return      The frame that holds the page
+     */
+    int pinForGood(final long page) throws IOException {
+        final int frame = pin(page);
+        synchronized (this) {
+            pinnedForGood++;
+        }
+        return frame;
+    }
+
+    /**
+     * Returns the buffer of a pinned frame. The page starts at position 0, and is little endian.
+     * The buffer must only be read with absolute gets, since other threads read it too.
+     *
+     * @param frame     The frame
+     */
+    ByteBuffer buffer(final int frame) {
+        return frames[frame];
+    }
+
+    /**
+     * Finds the frame for a missing page with the clock. A frame without a page is taken as soon as
+     * the hand reaches it.
+     *
+     * @return  The frame, or -1 if every frame is pinned
+     */
+    private int victim() {
+        for (int sweeps = 0; sweeps < 2 * frames.length + 1; sweeps++) {
+            final int f = hand;
+            hand = (hand + 1) % frames.length;
+            if (pins[f] > 0) {
+                continue;
+            }
+            if (pages[f] >= 0 && referenced[f]) {
+                referenced[f] = false;
+                continue;
+            }
+            return f;
+        }
+        return -1;
+    }
+
+    private void await() throws IOException {
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a page");
+        }
+    }
+
+    /**
+     * @return  The number of pages the pool can hold
+     */
+    public int getCapacity() {
+        return frames.length;
+    }
+
+    /**
+     * @return  The number of pages pinned for good, the upper levels of the tree
+     */
+    public synchronized int getPinnedPages() {
+        return pinnedForGood;
+    }
+
+    /**
+     * @return  The number of times a page was found in the pool
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return  The number of times a page had to be read from the file
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return  The number of pages that were evicted to make room for others
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return  The share of the pins that found their page in the pool, 0 if nothing was pinned
+     */
+    public synchronized double getHitRate() {
+        return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+    }
+
+    /**
+     * Sets the counters of hits, misses and evictions to 0. The pages stay in the pool.
+     */
+    public synchronized void resetCounters() {
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+    }
+
+    /**
+     * The frames of the pages in the pool, in an open addressing hash table like DataObjectIndex:
+     * a page goes in the first free slot from the hash of its number on, and removing one moves the
+     * pages after it back into the gap where their probe allows. The table has at least twice as
+     * many slots as the pool has frames, so it is at most half full.
+     */
+    static final class PageTable {
+
+        private final long[] keys;      // The page in each slot, -1 if the slot is free
+        private final int[] values;     // The frame of the page
+
+        PageTable(final int capacity) {
+            int slots = 2;
+            while (slots < 2 * capacity) {
+                slots *= 2;
+            }
+            keys = new long[slots];
+            values = new int[slots];
+            Arrays.fill(keys, -1);
+        }
+
+        /**
+         * @return  The frame of a page, or -1 if the page is not in the pool
+         */
+        int get(final long page) {
+            final int mask = keys.length - 1;
+            for (int i = slot(page, mask); keys[i] >= 0; i = (i + 1) & mask) {
+                if (keys[i] == page) {
+                    return values[i];
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Adds a page that is not in the table.
+         */
+        void put(final long page, final int frame) {
+            final int mask = keys.length - 1;
+            int i = slot(page, mask);
+            while (keys[i] >= 0) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = page;
+            values[i] = frame;
+        }
+
+        void remove(final long page) {
+            final int mask = keys.length - 1;
+            int i = slot(page, mask);
+            while (keys[i] >= 0 && keys[i] != page) {
+                i = (i + 1) & mask;
+            }
+            if (keys[i] < 0) {
+                return;
+            }
+            int gap = i;
+            for (int j = (gap + 1) & mask; keys[j] >= 0; j = (j + 1) & mask) {
+                final int home = slot(keys[j], mask);
+                if (((j - home) & mask) >= ((j - gap) & mask)) {
+                    keys[gap] = keys[j];
+                    values[gap] = values[j];
+                    gap = j;
+                }
+            }
+            keys[gap] = -1;
+        }
+
+        /**
+         * Pages of a search are mostly near each other, so they are spread over the table by
+         * multiplying with the golden ratio.
+         */
+        private static int slot(final long page, final int mask) {
+            final long h = page * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32)) & mask;
+        }
+    }
+}
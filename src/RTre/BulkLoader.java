@@ -0,0 +1,239 @@
+package RTre;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Builds a packed tree bottom-up from a complete set of elements, instead of inserting them one
+ * by one. The elements of each level are put in order, cut into groups of M, and every group
+ * becomes a node on the level above. This is repeated until a single root node is left.
+ *
+ * Two orderings are supported:
+ * Sort-Tile-Recursive (Leutenegger et al.) sorts on x, cuts the elements into vertical slices
+ * and sorts each slice on y. Hilbert ordering sorts the elements on the position of their centre
+ * along a Hilbert curve.
+ */
+final class BulkLoader {
+
+    private static final int HILBERT_ORDER = 15;  // The Hilbert curve is drawn on a 2^15 x 2^15 grid
+
+    private BulkLoader() {
+    }
+
+    /**
+     * Builds a tree from the given elements.
+     *
+     * @param elements  The DataObjects of the tree
+     * @param method    RTree.SORT_TILE_RECURSIVE or RTree.HILBERT
+     * @param max       M, the maximum number of children per node
+     * @param min       m, the minimum number of children per node
+     * @return          The root node of the new tree
+     */
+    static Node build(final ArrayList elements, final int method, final int max, final int min) {
+        if (elements.isEmpty()) {
+            final Node root = new Node(max, min);
+            root.setLevel(1);
+            return root;
+        }
+
+        TreeElement[] entries = (TreeElement[]) elements.toArray(new TreeElement[elements.size()]);
+        int level = 1;
+        do {
+            order(entries, method, max);
+            entries = pack(entries, level, max, min);
+            level++;
+        } while (entries.length > 1);
+
+        return (Node) entries[0];
+    }
+
+    /**
+     * Puts the entries of one level in the order of a bulk load method.
+     *
+     * @param entries   The entries
+     * @param method    RTree.SORT_TILE_RECURSIVE or RTree.HILBERT
+     * @param max       M
+     */
+    static void order(final Bounded[] entries, final int method, final int max) {
+        if (method == RTree.HILBERT) {
+            hilbertOrder(entries);
+        } else if (method == RTree.SORT_TILE_RECURSIVE) {
+            strOrder(entries, max);
+        } else {
+            throw new IllegalArgumentException("Unknown bulk load method: " + method);
+        }
+    }
+
+    /**
+     * Cuts a number of ordered entries into groups of M. If the last group would have fewer than
+     * m entries, it borrows from the group before it.
+     *
+     * @param n     The number of entries
+     * @param max   M
+     * @param min   m
+     * @return      The number of entries in each group
+     */
+    static int[] groupSizes(final int n, final int max, final int min) {
+        final int groups = (n + max - 1) / max;
+        final int[] sizes = new int[groups];
+
+        int lastSize = n - (groups - 1) * max;
+        int borrowed = 0;
+        if (groups > 1 && lastSize < min) {
+            borrowed = min - lastSize;
+            lastSize = min;
+        }
+
+        for (int g = 0; g < groups; g++) {
+            sizes[g] = max;
+            if (g == groups - 2) {
+                sizes[g] = max - borrowed;
+            } else if (g == groups - 1) {
+                sizes[g] = lastSize;
+            }
+        }
+        return sizes;
+    }
+
+    /**
+     * Cuts the ordered entries into groups of M and makes a node of each group.
+     *
+     * @param entries   The ordered entries
+     * @param level     The level of the new nodes
+     * @param max       M
+     * @param min       m
+     * @return          The new nodes
+     */
+    private static TreeElement[] pack(final TreeElement[] entries, final int level, final int max, final int min) {
+        final int[] sizes = groupSizes(entries.length, max, min);
+        final TreeElement[] nodes = new TreeElement[sizes.length];
+
+        int start = 0;
+        for (int g = 0; g < sizes.length; g++) {
+            final Node node = new Node(max, min);
+            node.setLevel(level);
+            for (int i = start; i < start + sizes[g]; i++) {
+                node.add(entries[i]);
+            }
+            nodes[g] = node;
+            start += sizes[g];
+        }
+        return nodes;
+    }
+
+    /**
+     * Puts the entries in Sort-Tile-Recursive order: sorted on x into vertical slices of
+     * S*M entries, where S is the square root of the number of nodes needed, and sorted on y
+     * within each slice.
+     *
+     * @param entries   The entries to order
+     * @param max       M
+     */
+    private static void strOrder(final Bounded[] entries, final int max) {
+        final int n = entries.length;
+        final int nodes = (n + max - 1) / max;
+        final int slices = (int) Math.ceil(Math.sqrt(nodes));
+        final int sliceSize = slices * max;
+
+        final long[] keys = new long[n];
+        for (int i = 0; i < n; i++) {
+            final Rectangle r = entries[i].getBoundingBox();
+            keys[i] = r.x + r.width / 2;
+        }
+        sortByKeys(entries, keys, 0, n);
+
+        for (int start = 0; start < n; start += sliceSize) {
+            final int end = Math.min(start + sliceSize, n);
+            for (int i = start; i < end; i++) {
+                final Rectangle r = entries[i].getBoundingBox();
+                keys[i] = r.y + r.height / 2;
+            }
+            sortByKeys(entries, keys, start, end);
+        }
+    }
+
+    /**
+     * Puts the entries in the order their centres are visited by a Hilbert curve drawn over the
+     * box that encloses all of them.
+     *
+     * @param entries   The entries to order
+     */
+    private static void hilbertOrder(final Bounded[] entries) {
+        final int n = entries.length;
+
+        long minCX = Long.MAX_VALUE, minCY = Long.MAX_VALUE, maxCX = Long.MIN_VALUE, maxCY = Long.MIN_VALUE;
+        final long[] cx = new long[n];
+        final long[] cy = new long[n];
+        for (int i = 0; i < n; i++) {
+            final Rectangle r = entries[i].getBoundingBox();
+            cx[i] = r.x + r.width / 2;
+            cy[i] = r.y + r.height / 2;
+            minCX = Math.min(minCX, cx[i]);
+            maxCX = Math.max(maxCX, cx[i]);
+            minCY = Math.min(minCY, cy[i]);
+            maxCY = Math.max(maxCY, cy[i]);
+        }
+
+        final int side = (1 << HILBERT_ORDER) - 1;
+        final double scaleX = maxCX > minCX ? (double) side / (maxCX - minCX) : 0;
+        final double scaleY = maxCY > minCY ? (double) side / (maxCY - minCY) : 0;
+
+        final long[] keys = new long[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = hilbertIndex((int) ((cx[i] - minCX) * scaleX), (int) ((cy[i] - minCY) * scaleY));
+        }
+        sortByKeys(entries, keys, 0, n);
+    }
+
+    /**
+     * Calculates the distance along the Hilbert curve of order HILBERT_ORDER to the cell (x, y).
+     *
+     * @param x     The column of the cell
+     * @param y     The row of the cell
+     * @return      The position of the cell on the curve
+     */
+    static long hilbertIndex(int x, int y) {
+        final int last = (1 << HILBERT_ORDER) - 1;
+        long d = 0;
+        for (int s = 1 << (HILBERT_ORDER - 1); s > 0; s >>= 1) {
+            final int rx = (x & s) > 0 ? 1 : 0;
+            final int ry = (y & s) > 0 ? 1 : 0;
+            d += (long) s * s * ((3 * rx) ^ ry);
+            // Rotates the quadrant so that the curve inside it has the right orientation
+            if (ry == 0) {
+                if (rx == 1) {
+                    x = last - x;
+                    y = last - y;
+                }
+                final int t = x;
+                x = y;
+                y = t;
+            }
+        }
+        return d;
+    }
+
+    /**
+     * Sorts entries[from..to) on the matching keys. The keys and the positions are packed into
+     * one long each and sorted as primitives, so no comparator objects are needed.
+     *
+     * @param entries   The entries
+     * @param keys      The sort key of each entry, each must fit in 32 bits with sign
+     * @param from      The first index, inclusive
+     * @param to        The last index, exclusive
+     */
+    private static void sortByKeys(final Bounded[] entries, final long[] keys, final int from, final int to) {
+        final long[] packed = new long[to - from];
+        for (int i = from; i < to; i++) {
+            packed[i - from] = (keys[i] << 32) | (i - from);
+        }
+        Arrays.sort(packed);
+
+        final Bounded[] sorted = new Bounded[to - from];
+        for (int i = 0; i < packed.length; i++) {
+            sorted[i] = entries[from + (int) (packed[i] & 0xFFFFFFFFL)];
+        }
+        System.arraycopy(sorted, 0, entries, from, sorted.length);
+    }
+}
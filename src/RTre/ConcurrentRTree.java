@@ -0,0 +1,319 @@
+package RTre;
+
+import java.awt.*;
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A thread safe view of an RTree, for many threads querying the tree while others change it.
+ *
+ * The searches of RTree only read the tree, so any number of them run in parallel under the read
+ * lock. Inserts and deletes move entries between nodes, split them and update the slot arrays in
+ * place, so they take the write lock and run one at a time. findLeaves, deleteLeaves and the rest
+ * of the selection are left out, since the selection list is shared by everyone using the tree.
+ *
+ * Searching optimistically, without the read lock, is not safe on this tree: a writer changes the
+ * children lists and slot arrays of a node in place, so a reader could see a node halfway through
+ * a split. Readers that must never wait for a writer need a tree whose nodes are not changed in place.
+ *
+ * The wrapped tree must not be used directly once it is wrapped. A visitor is called while the read
+ * lock is held, so it may start other searches, but must not change the tree.
+ */
+public final class ConcurrentRTree {
+
+    private final RTree rtree;
+    private final ReentrantReadWriteLock lock;
+
+    /**
+     * Constructor
+     * Wraps a tree. M, m and the insertion strategy should be set on the tree before it is wrapped.
+     *
+     * @param rtree     The tree to make thread safe
+     */
+    public ConcurrentRTree(final RTree rtree) {
+        this.rtree = rtree;
+        lock = new ReentrantReadWriteLock();
+    }
+
+    /**
+     * Inserts an element in the tree.
+     *
+     * @param element   The element that should be inserted
+     */
+    public void insertTreeElement(final TreeElement element) {
+        lockForWriting();
+        try {
+            rtree.insertTreeElement(element);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Inserts many data objects at once.
+     *
+     * @param dataObjects   The data objects to insert
+     */
+    public void insertAll(final Collection dataObjects) {
+        lockForWriting();
+        try {
+            rtree.insertAll(dataObjects);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Deletes a single data object from the tree.
+     *
+     * @param dataObject    The data object to delete
+     * @return              true if the data object was in the tree and has been deleted
+     */
+    public boolean delete(final DataObject dataObject) {
+        lockForWriting();
+        try {
+            return rtree.delete(dataObject);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Deletes the data object with the given id.
+     *
+     * @param id    The id of the data object
+     * @return      true if a data object with that id was in the tree and has been deleted
+     */
+    public boolean delete(final int id) {
+        lockForWriting();
+        try {
+            return rtree.delete(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Deletes many data objects at once.
+     *
+     * @param dataObjects   The data objects to delete
+     * @return              The number of data objects that were deleted
+     */
+    public int deleteAll(final Collection dataObjects) {
+        lockForWriting();
+        try {
+            return rtree.deleteAll(dataObjects);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Deletes all data objects that intersect a rectangle, or lie inside it.
+     *
+     * @param r     The rectangle
+     * @return      The number of data objects that were deleted
+     */
+    public int deleteWithin(final Rectangle r) {
+        lockForWriting();
+        try {
+            return rtree.deleteWithin(r);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Replaces the contents of the tree with the given data objects.
+     *
+     * @param dataObjects   The data objects the tree should contain
+     * @param method        RTree.SORT_TILE_RECURSIVE or RTree.HILBERT
+     */
+    public void bulkLoad(final ArrayList dataObjects, final int method) {
+        lockForWriting();
+        try {
+            rtree.bulkLoad(dataObjects, method);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Rebuilds the tree from scratch with the current M and m.
+     */
+    public void rebuildTree() {
+        lockForWriting();
+        try {
+            rtree.rebuildTree();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Searches the tree for all data objects that intersect a rectangle, or lie inside it, and hands them
+     * to a visitor as they are found.
+     *
+     * @param r         The rectangle
+     * @param visitor   Receives each match, and can stop the search by returning false
+     * @return          The number of matches handed to the visitor
+     */
+    public int search(final Rectangle r, final SearchVisitor visitor) {
+        lock.readLock().lock();
+        try {
+            return rtree.search(r, visitor);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Searches the tree for all data objects that intersect a rectangle, or lie inside it.
+     *
+     * @param r     The rectangle
+     * @return      The matching data objects
+     */
+    public ArrayList search(final Rectangle r) {
+        return search(r, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Searches the tree like search(Rectangle), but stops after a given number of matches.
+     *
+     * @param r         The rectangle
+     * @param limit     The largest number of matches to return
+     * @return          At most limit matching data objects
+     */
+    public ArrayList search(final Rectangle r, final int limit) {
+        lock.readLock().lock();
+        try {
+            return rtree.search(r, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Finds the k data objects whose polygons are closest to a point, and hands them to a visitor
+     * closest first.
+     *
+     * @param x         The x coordinate of the point
+     * @param y         The y coordinate of the point
+     * @param k         The largest number of neighbours to find
+     * @param visitor   Receives each neighbour, and can stop the search by returning false
+     * @return          The number of neighbours handed to the visitor
+     */
+    public int nearest(final int x, final int y, final int k, final SearchVisitor visitor) {
+        lock.readLock().lock();
+        try {
+            return rtree.nearest(x, y, k, visitor);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Finds the k data objects whose polygons are closest to a point.
+     *
+     * @param x     The x coordinate of the point
+     * @param y     The y coordinate of the point
+     * @param k     The largest number of neighbours to find
+     * @return      At most k data objects, closest first
+     */
+    public ArrayList nearest(final int x, final int y, final int k) {
+        lock.readLock().lock();
+        try {
+            return rtree.nearest(x, y, k);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Measures the overlap, coverage and dead space of the nodes on each level of the tree.
+     *
+     * @return  The metrics of the tree as it is now
+     */
+    public TreeMetrics getMetrics() {
+        lock.readLock().lock();
+        try {
+            return rtree.getMetrics();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the number of levels in the tree
+     *
+     * @return  Number of levels in the tree
+     */
+    public int getNumberOfLevels() {
+        lock.readLock().lock();
+        try {
+            return rtree.getNumberOfLevels();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Writes the tree to a file that PagedRTree can open. Searches go on while it is written, but
+     * changes wait until it is done.
+     *
+     * @param file  The file, which is replaced if it exists
+     */
+    public void save(final Path file) throws IOException {
+        lock.readLock().lock();
+        try {
+            rtree.save(file);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Writes the tree to a channel in the snapshot format of RTree.export. Searches go on while it
+     * is written, but changes wait until it is done.
+     *
+     * @param channel   The channel, which is not closed
+     */
+    public void export(final WritableByteChannel channel) throws IOException {
+        lock.readLock().lock();
+        try {
+            rtree.export(channel);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Replaces the contents of the tree with a snapshot written by export.
+     *
+     * @param channel   The channel, which is not closed
+     */
+    public void restore(final ReadableByteChannel channel) throws IOException {
+        lockForWriting();
+        try {
+            rtree.restore(channel);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Takes the write lock. A thread that holds the read lock, a visitor for instance, would wait
+     * for itself forever, so that is refused.
+     */
+    private void lockForWriting() {
+        if (lock.getReadHoldCount() > 0) {
+            throw new IllegalStateException("The tree cannot be changed while it is being searched");
+        }
+        lock.writeLock().lock();
+    }
+}
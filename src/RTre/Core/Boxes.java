@@ -0,0 +1,178 @@
+package RTre.Core;
+
+/**
+ * The box math of the headless R-tree, for boxes of d dimensions stored in flat double arrays.
+ * A box at offset o holds the low coordinates in o .. o+d-1 and the high coordinates in
+ * o+d .. o+2d-1. Every method is a plain loop over the dimensions on primitive arrays, which the
+ * JIT compiler can unroll and vectorize.
+ */
+final class Boxes {
+
+    private Boxes() {
+    }
+
+    /**
+     * The d dimensional volume of a box: the area in two dimensions.
+     */
+    static double volume(final double[] a, final int o, final int d) {
+        double volume = 1;
+        for (int k = 0; k < d; k++) {
+            volume *= a[o + d + k] - a[o + k];
+        }
+        return volume;
+    }
+
+    /**
+     * The volume of the smallest box that contains two boxes.
+     */
+    static double unionVolume(final double[] a, final int o, final double[] b, final int p, final int d) {
+        double volume = 1;
+        for (int k = 0; k < d; k++) {
+            volume *= Math.max(a[o + d + k], b[p + d + k]) - Math.min(a[o + k], b[p + k]);
+        }
+        return volume;
+    }
+
+    /**
+     * The margin of a box: the sum of its extents in all dimensions, which is half the perimeter in two
+     * dimensions. Unlike the volume it is not 0 for boxes that are flat in one dimension.
+     */
+    static double margin(final double[] a, final int o, final int d) {
+        double margin = 0;
+        for (int k = 0; k < d; k++) {
+            margin += a[o + d + k] - a[o + k];
+        }
+        return margin;
+    }
+
+    /**
+     * The margin of the smallest box that contains two boxes.
+     */
+    static double unionMargin(final double[] a, final int o, final double[] b, final int p, final int d) {
+        double margin = 0;
+        for (int k = 0; k < d; k++) {
+            margin += Math.max(a[o + d + k], b[p + d + k]) - Math.min(a[o + k], b[p + k]);
+        }
+        return margin;
+    }
+
+    /**
+     * Checks whether two boxes have at least one point in common.
+     */
+    static boolean intersects(final double[] a, final int o, final double[] b, final int p, final int d) {
+        boolean intersects = true;
+        for (int k = 0; k < d; k++) {
+            intersects &= a[o + k] <= b[p + d + k] & a[o + d + k] >= b[p + k];
+        }
+        return intersects;
+    }
+
+    /**
+     * Checks whether box a contains box b.
+     */
+    static boolean contains(final double[] a, final int o, final double[] b, final int p, final int d) {
+        boolean contains = true;
+        for (int k = 0; k < d; k++) {
+            contains &= a[o + k] <= b[p + k] & a[o + d + k] >= b[p + d + k];
+        }
+        return contains;
+    }
+
+    /**
+     * The square of the distance from a point to the closest point of a box. 0 if the point is inside.
+     *
+     * @param point     The d coordinates of the point
+     */
+    static double distanceSq(final double[] a, final int o, final double[] point, final int d) {
+        double distance = 0;
+        for (int k = 0; k < d; k++) {
+            final double below = a[o + k] - point[k];
+            final double above = point[k] - a[o + d + k];
+            final double delta = Math.max(0, Math.max(below, above));
+            distance += delta * delta;
+        }
+        return distance;
+    }
+
+    /**
+     * Grows box a so that it contains box b as well.
+     */
+    static void include(final double[] a, final int o, final double[] b, final int p, final int d) {
+        for (int k = 0; k < d; k++) {
+            a[o + k] = Math.min(a[o + k], b[p + k]);
+            a[o + d + k] = Math.max(a[o + d + k], b[p + d + k]);
+        }
+    }
+
+    // The same for the float slots of a node in the float mode. The other box is always a double box.
+
+    static double volume(final float[] a, final int o, final int d) {
+        double volume = 1;
+        for (int k = 0; k < d; k++) {
+            volume *= (double) a[o + d + k] - a[o + k];
+        }
+        return volume;
+    }
+
+    static double unionVolume(final float[] a, final int o, final double[] b, final int p, final int d) {
+        double volume = 1;
+        for (int k = 0; k < d; k++) {
+            volume *= Math.max(a[o + d + k], b[p + d + k]) - Math.min(a[o + k], b[p + k]);
+        }
+        return volume;
+    }
+
+    static double margin(final float[] a, final int o, final int d) {
+        double margin = 0;
+        for (int k = 0; k < d; k++) {
+            margin += (double) a[o + d + k] - a[o + k];
+        }
+        return margin;
+    }
+
+    static double unionMargin(final float[] a, final int o, final double[] b, final int p, final int d) {
+        double margin = 0;
+        for (int k = 0; k < d; k++) {
+            margin += Math.max(a[o + d + k], b[p + d + k]) - Math.min(a[o + k], b[p + k]);
+        }
+        return margin;
+    }
+
+    static boolean intersects(final float[] a, final int o, final double[] b, final int p, final int d) {
+        boolean intersects = true;
+        for (int k = 0; k < d; k++) {
+            intersects &= a[o + k] <= b[p + d + k] & a[o + d + k] >= b[p + k];
+        }
+        return intersects;
+    }
+
+    static boolean contains(final float[] a, final int o, final double[] b, final int p, final int d) {
+        boolean contains = true;
+        for (int k = 0; k < d; k++) {
+            contains &= a[o + k] <= b[p + k] & a[o + d + k] >= b[p + d + k];
+        }
+        return contains;
+    }
+
+    static double distanceSq(final float[] a, final int o, final double[] point, final int d) {
+        double distance = 0;
+        for (int k = 0; k < d; k++) {
+            final double below = a[o + k] - point[k];
+            final double above = point[k] - a[o + d + k];
+            final double delta = Math.max(0, Math.max(below, above));
+            distance += delta * delta;
+        }
+        return distance;
+    }
+
+    static String toString(final double[] a, final int o, final int d) {
+        final StringBuffer s = new StringBuffer();
+        for (int k = 0; k < 2 * d; k++) {
+            if (k > 0) {
+                s.append(", ");
+            }
+            s.append(a[o + k]);
+        }
+        return s.toString();
+    }
+}
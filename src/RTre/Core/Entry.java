@@ -0,0 +1,106 @@
+package RTre.Core;
+
+/**
+ * An entry of the headless R-tree: a bounding box in double coordinates and the payload it belongs
+ * to. The tree only looks at the box; what the payload is, is up to the user of the tree.
+ *
+ * The box can have any number of dimensions d. It is kept as one flat array of 2 * d doubles, the
+ * low coordinate of each dimension followed by the high coordinate of each dimension, which is the
+ * same layout the nodes use for their slots. In two dimensions that is minX, minY, maxX, maxY.
+ *
+ * Entries do not change, so the same entry can be searched for and deleted again later.
+ */
+public final class Entry<T> {
+
+    private final double[] box;
+    private final T payload;
+
+    /**
+     * Constructor
+     * Creates an entry with a two dimensional box.
+     *
+     * @param minX      The low x of the bounding box
+     * @param minY      The low y of the bounding box
+     * @param maxX      The high x of the bounding box
+     * @param maxY      The high y of the bounding box
+     * @param payload   What the box belongs to
+     */
+    public Entry(final double minX, final double minY, final double maxX, final double maxY, final T payload) {
+        this(new double[]{minX, minY, maxX, maxY}, payload);
+    }
+
+    /**
+     * Constructor
+     * Creates an entry with a box of any number of dimensions.
+     *
+     * @param box       The low coordinates of all dimensions, followed by the high coordinates. The array is copied.
+     * @param payload   What the box belongs to
+     */
+    public Entry(final double[] box, final T payload) {
+        if (box.length == 0 || box.length % 2 != 0) {
+            throw new IllegalArgumentException("A box needs a low and a high coordinate per dimension, got " + box.length + " values");
+        }
+        final int d = box.length / 2;
+        for (int k = 0; k < d; k++) {
+            if (!(box[k] <= box[d + k])) {
+                throw new IllegalArgumentException("Not a bounding box: " + Boxes.toString(box, 0, d));
+            }
+        }
+        this.box = box.clone();
+        this.payload = payload;
+    }
+
+    /**
+     * @return  The number of dimensions of the box
+     */
+    public int getDimensions() {
+        return box.length / 2;
+    }
+
+    /**
+     * @param dimension     0 for x, 1 for y and so on
+     * @return              The low coordinate of the box in that dimension
+     */
+    public double getMin(final int dimension) {
+        return box[dimension];
+    }
+
+    /**
+     * @param dimension     0 for x, 1 for y and so on
+     * @return              The high coordinate of the box in that dimension
+     */
+    public double getMax(final int dimension) {
+        return box[box.length / 2 + dimension];
+    }
+
+    public double getMinX() {
+        return getMin(0);
+    }
+
+    public double getMinY() {
+        return getMin(1);
+    }
+
+    public double getMaxX() {
+        return getMax(0);
+    }
+
+    public double getMaxY() {
+        return getMax(1);
+    }
+
+    public T getPayload() {
+        return payload;
+    }
+
+    /**
+     * The box itself, for the tree. It must not be changed.
+     */
+    double[] box() {
+        return box;
+    }
+
+    public String toString() {
+        return "Entry[" + Boxes.toString(box, 0, box.length / 2) + ": " + payload + "]";
+    }
+}
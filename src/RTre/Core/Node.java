@@ -0,0 +1,212 @@
+package RTre.Core;
+
+/**
+ * A node of the headless R-tree. The children are kept in an array, and their bounding boxes in one
+ * flat array next to it, 2 * d values per slot laid out as in Entry: the low coordinates, then the
+ * high coordinates. The arrays have room for M+1 children, so a node can take one child too many
+ * before it is split.
+ *
+ * In the double mode the boxes are kept in a double array. In the float mode they are packed in a
+ * float array of half the size, rounded outwards so that each float box contains the exact box.
+ * The float boxes can then only let a search look at too much, never at too little.
+ *
+ * The children of a leaf (level 1) are Entries, the children of other nodes are Nodes.
+ */
+final class Node {
+
+    Node parent;
+    final int level;
+    final int dimensions;
+    int size;
+    final Object[] children;
+    final double[] boxes;       // The boxes in the double mode, otherwise null
+    final float[] packed;       // The boxes in the float mode, otherwise null
+
+    /**
+     * Constructor
+     *
+     * @param level         1 for a leaf, one more for each level above
+     * @param max           M, the maximum number of children
+     * @param dimensions    d, the number of dimensions of the boxes
+     * @param floats        true for the float mode
+     */
+    Node(final int level, final int max, final int dimensions, final boolean floats) {
+        this.level = level;
+        this.dimensions = dimensions;
+        children = new Object[max + 1];
+        boxes = floats ? null : new double[2 * dimensions * (max + 1)];
+        packed = floats ? new float[2 * dimensions * (max + 1)] : null;
+    }
+
+    /**
+     * Reads one value of the boxes. The box of a slot starts at 2 * d * slot.
+     *
+     * @param index     The index in the flat array
+     * @return          The value
+     */
+    double box(final int index) {
+        return packed != null ? packed[index] : boxes[index];
+    }
+
+    /**
+     * Adds a child in the next free slot.
+     *
+     * @param child     An Entry or a Node
+     * @param box       The bounding box of the child
+     */
+    void add(final Object child, final double[] box) {
+        children[size] = child;
+        setBox(size, box);
+        if (child instanceof Node) {
+            ((Node) child).parent = this;
+        }
+        size++;
+    }
+
+    /**
+     * Removes the child in a slot. The last child is moved into the slot, so nothing is shifted.
+     *
+     * @param slot  The slot
+     */
+    void remove(final int slot) {
+        final int last = size - 1;
+        final int width = 2 * dimensions;
+        children[slot] = children[last];
+        if (packed != null) {
+            System.arraycopy(packed, width * last, packed, width * slot, width);
+        } else {
+            System.arraycopy(boxes, width * last, boxes, width * slot, width);
+        }
+        children[last] = null;
+        size = last;
+    }
+
+    /**
+     * Finds the slot of a child. Compares references.
+     *
+     * @param child     The child
+     * @return          The slot of the child
+     */
+    int indexOf(final Object child) {
+        for (int i = 0; i < size; i++) {
+            if (children[i] == child) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Not a child of this node");
+    }
+
+    void setBox(final int slot, final double[] box) {
+        final int d = dimensions;
+        final int o = 2 * d * slot;
+        if (packed != null) {
+            for (int k = 0; k < d; k++) {
+                packed[o + k] = down(box[k]);
+                packed[o + d + k] = up(box[d + k]);
+            }
+        } else {
+            System.arraycopy(box, 0, boxes, o, 2 * d);
+        }
+    }
+
+    /**
+     * Checks whether a slot already holds the given box, as it would be stored by setBox.
+     */
+    boolean hasBox(final int slot, final double[] box) {
+        final int d = dimensions;
+        final int o = 2 * d * slot;
+        for (int k = 0; k < d; k++) {
+            if (packed != null) {
+                if (packed[o + k] != down(box[k]) || packed[o + d + k] != up(box[d + k])) {
+                    return false;
+                }
+            } else if (boxes[o + k] != box[k] || boxes[o + d + k] != box[d + k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copies the boxes of all slots into a new double array.
+     */
+    double[] copyBoxes() {
+        final double[] copy = new double[2 * dimensions * children.length];
+        for (int i = 0; i < 2 * dimensions * size; i++) {
+            copy[i] = box(i);
+        }
+        return copy;
+    }
+
+    /**
+     * Calculates the bounding box of this node from the child slots.
+     *
+     * @param box   Gets the low coordinates, then the high coordinates
+     */
+    void union(final double[] box) {
+        final int d = dimensions;
+        for (int k = 0; k < d; k++) {
+            box[k] = Double.POSITIVE_INFINITY;
+            box[d + k] = Double.NEGATIVE_INFINITY;
+        }
+        for (int o = 0; o < 2 * d * size; o += 2 * d) {
+            for (int k = 0; k < d; k++) {
+                box[k] = Math.min(box[k], box(o + k));
+                box[d + k] = Math.max(box[d + k], box(o + d + k));
+            }
+        }
+    }
+
+    // The box math on a slot, see Boxes
+
+    double volume(final int slot) {
+        final int o = 2 * dimensions * slot;
+        return packed != null ? Boxes.volume(packed, o, dimensions) : Boxes.volume(boxes, o, dimensions);
+    }
+
+    double unionVolume(final int slot, final double[] box) {
+        final int o = 2 * dimensions * slot;
+        return packed != null ? Boxes.unionVolume(packed, o, box, 0, dimensions) : Boxes.unionVolume(boxes, o, box, 0, dimensions);
+    }
+
+    double margin(final int slot) {
+        final int o = 2 * dimensions * slot;
+        return packed != null ? Boxes.margin(packed, o, dimensions) : Boxes.margin(boxes, o, dimensions);
+    }
+
+    double unionMargin(final int slot, final double[] box) {
+        final int o = 2 * dimensions * slot;
+        return packed != null ? Boxes.unionMargin(packed, o, box, 0, dimensions) : Boxes.unionMargin(boxes, o, box, 0, dimensions);
+    }
+
+    boolean intersects(final int slot, final double[] box) {
+        final int o = 2 * dimensions * slot;
+        return packed != null ? Boxes.intersects(packed, o, box, 0, dimensions) : Boxes.intersects(boxes, o, box, 0, dimensions);
+    }
+
+    boolean contains(final int slot, final double[] box) {
+        final int o = 2 * dimensions * slot;
+        return packed != null ? Boxes.contains(packed, o, box, 0, dimensions) : Boxes.contains(boxes, o, box, 0, dimensions);
+    }
+
+    double distanceSq(final int slot, final double[] point) {
+        final int o = 2 * dimensions * slot;
+        return packed != null ? Boxes.distanceSq(packed, o, point, dimensions) : Boxes.distanceSq(boxes, o, point, dimensions);
+    }
+
+    /**
+     * Rounds a low coordinate down to the nearest float.
+     */
+    static float down(final double value) {
+        final float f = (float) value;
+        return f > value ? Math.nextDown(f) : f;
+    }
+
+    /**
+     * Rounds a high coordinate up to the nearest float.
+     */
+    static float up(final double value) {
+        final float f = (float) value;
+        return f < value ? Math.nextUp(f) : f;
+    }
+}
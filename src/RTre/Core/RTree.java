@@ -0,0 +1,723 @@
+package RTre.Core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * A standalone headless R-tree of Entries with double coordinates and a payload of any type. It is
+ * Guttman's R-tree with the quadratic split, like RTre.RTree with its default settings, but it does
+ * not know about polygons, colours or the GUI, and uses nothing from AWT or Swing, so records of
+ * any kind can be indexed with it in a server.
+ *
+ * It does not decouple the GUI tree. RTre.RTree is not built on it: it keeps its own nodes and slot
+ * arrays for the GUI and the features built on them, and the two trees share no code. Neither is
+ * DataObject an adapter on top of it; a DataObject still holds an AWT Polygon and Swing colours,
+ * and RTre.RTree and everything that uses it still load AWT.
+ *
+ * The boxes in the nodes can be kept as doubles, or packed as floats to halve the memory the nodes
+ * take for them (see Node). The entries always keep their exact double boxes, and in the float mode
+ * every leaf match is checked against the exact box, so searches give the same results in both modes.
+ *
+ * The boxes can have any number of dimensions d, fixed when the tree is created; two unless told
+ * otherwise. All entries of a tree must have d dimensions. The area of Guttman's algorithms is the
+ * d dimensional volume, see Boxes. Since a box that is flat in one dimension has no volume, ties in
+ * the volume are resolved by the margin.
+ *
+ * The tree is not thread safe.
+ */
+public final class RTree<T> {
+
+    // Coordinate modes
+    public static final int DOUBLE = 0;     // The nodes keep the boxes as doubles
+    public static final int FLOAT = 1;      // The nodes keep the boxes as floats rounded outwards
+
+    private final int maxChildrenPerNode;       // M
+    private final int minimumChildrenPerNode;   // m
+    private final boolean floats;
+    private final int dimensions;               // d
+    private Node rootNode;
+    private int size;
+
+    // Work array for the bounding box of a node or an entry
+    private final double[] box;
+
+    /**
+     * Constructor
+     * Creates an empty tree that keeps the boxes as doubles.
+     *
+     * @param max   M, the maximum number of children per node
+     * @param min   m, the minimum number of children per node
+     */
+    public RTree(final int max, final int min) {
+        this(max, min, DOUBLE);
+    }
+
+    /**
+     * Constructor
+     * Creates an empty tree of two dimensional boxes.
+     *
+     * @param max           M, the maximum number of children per node
+     * @param min           m, the minimum number of children per node
+     * @param coordinates   DOUBLE or FLOAT
+     */
+    public RTree(final int max, final int min, final int coordinates) {
+        this(max, min, coordinates, 2);
+    }
+
+    /**
+     * Constructor
+     * Creates an empty tree.
+     *
+     * @param max           M, the maximum number of children per node
+     * @param min           m, the minimum number of children per node
+     * @param coordinates   DOUBLE or FLOAT
+     * @param dimensions    d, the number of dimensions of the boxes
+     */
+    public RTree(final int max, final int min, final int coordinates, final int dimensions) {
+        if (min < 1 || min > max / 2) {
+            throw new IllegalArgumentException("m must be between 1 and M/2, was " + min + " with M " + max);
+        }
+        if (coordinates != DOUBLE && coordinates != FLOAT) {
+            throw new IllegalArgumentException("Unknown coordinate mode: " + coordinates);
+        }
+        if (dimensions < 1) {
+            throw new IllegalArgumentException("A tree needs at least one dimension, was " + dimensions);
+        }
+        maxChildrenPerNode = max;
+        minimumChildrenPerNode = min;
+        floats = coordinates == FLOAT;
+        this.dimensions = dimensions;
+        box = new double[2 * dimensions];
+        clear();
+    }
+
+    /**
+     * Removes all entries.
+     */
+    public void clear() {
+        rootNode = newNode(1);
+        size = 0;
+    }
+
+    /**
+     * @return  DOUBLE or FLOAT
+     */
+    public int getCoordinates() {
+        return floats ? FLOAT : DOUBLE;
+    }
+
+    /**
+     * @return  d, the number of dimensions of the boxes
+     */
+    public int getDimensions() {
+        return dimensions;
+    }
+
+    private Node newNode(final int level) {
+        return new Node(level, maxChildrenPerNode, dimensions, floats);
+    }
+
+    /**
+     * @return  The number of entries in the tree
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of levels in the tree, counting the entries as a level, like RTre.RTree does.
+     *
+     * @return  Number of levels in the tree
+     */
+    public int getNumberOfLevels() {
+        return rootNode.level + 1;
+    }
+
+    /**
+     * @return  The root node, for checks of the shape of the tree
+     */
+    Node getRootNode() {
+        return rootNode;
+    }
+
+    /**
+     * Inserts a payload with the given two dimensional bounding box.
+     *
+     * @return  The new entry, which can be given to delete later
+     */
+    public Entry<T> insert(final double minX, final double minY, final double maxX, final double maxY, final T payload) {
+        final Entry<T> entry = new Entry<T>(minX, minY, maxX, maxY, payload);
+        insert(entry);
+        return entry;
+    }
+
+    /**
+     * Inserts a payload with the given bounding box.
+     *
+     * @param box       The low coordinates of all d dimensions, followed by the high coordinates
+     * @param payload   What the box belongs to
+     * @return          The new entry, which can be given to delete later
+     */
+    public Entry<T> insert(final double[] box, final T payload) {
+        final Entry<T> entry = new Entry<T>(box, payload);
+        insert(entry);
+        return entry;
+    }
+
+    /**
+     * Inserts an entry.
+     *
+     * @param entry     The entry, with d dimensions
+     */
+    public void insert(final Entry<T> entry) {
+        checkDimensions(entry.getDimensions());
+        insert(entry, 0);
+        size++;
+    }
+
+    /**
+     * Inserts an entry or a subtree at its level, as described by Guttman.
+     *
+     * @param element   An Entry, or a Node
+     * @param level     0 for an entry, the level of the node otherwise
+     */
+    private void insert(final Object element, final int level) {
+        // I1 [Find position for new record]
+        boxOf(element, box);
+        final Node l = chooseNode(box, level + 1);
+
+        // I2 [Add record to leaf node] The node has room for one more, and is split if it gets too many
+        l.add(element, box);
+        Node ll = null;
+        if (l.size > maxChildrenPerNode) {
+            ll = splitNode(l);
+        }
+
+        // I3 [Propagate changes upward]
+        final Node splitRoot = adjustTree(l, ll);
+
+        // I4 [Grow tree taller]
+        if (splitRoot != null) {
+            final Node newRoot = newNode(rootNode.level + 1);
+            rootNode.union(box);
+            newRoot.add(rootNode, box);
+            splitRoot.union(box);
+            newRoot.add(splitRoot, box);
+            rootNode = newRoot;
+        }
+    }
+
+    /**
+     * Chooses the node on a level whose bounding box needs the least enlargement to include a box.
+     * Ties are resolved by the smallest volume, then by the least enlargement of the margin.
+     *
+     * @param b         The box
+     * @param level     The level of the node
+     * @return          The chosen node
+     */
+    private Node chooseNode(final double[] b, final int level) {
+        // CL1 [Initialize]
+        Node n = rootNode;
+        while (n.level > level) {
+            // CL3 [Choose subtree]
+            int best = 0;
+            double bestEnlargement = Double.POSITIVE_INFINITY;
+            double bestVolume = Double.POSITIVE_INFINITY;
+            double bestGrowth = Double.POSITIVE_INFINITY;
+            for (int i = 0; i < n.size; i++) {
+                final double volume = n.volume(i);
+                final double enlargement = n.unionVolume(i, b) - volume;
+                if (enlargement > bestEnlargement || (enlargement == bestEnlargement && volume > bestVolume)) {
+                    continue;
+                }
+                // Only computed for the candidates, mostly to tell flat boxes apart
+                final double growth = n.unionMargin(i, b) - n.margin(i);
+                if (enlargement < bestEnlargement || volume < bestVolume || growth < bestGrowth) {
+                    best = i;
+                    bestEnlargement = enlargement;
+                    bestVolume = volume;
+                    bestGrowth = growth;
+                }
+            }
+            // CL4 [Descend until a leaf is reached]
+            n = (Node) n.children[best];
+        }
+        return n;
+    }
+
+    /**
+     * Adjusts the boxes of the ancestors of a changed node, and adds the nodes from splits to their
+     * parents. Stops early when a box has not changed and nothing was split.
+     *
+     * @param l     The changed node
+     * @param ll    The node split off from it, or null
+     * @return      The node split off from the root, or null
+     */
+    private Node adjustTree(final Node l, final Node ll) {
+        // AT1 [Initialize]
+        Node n = l;
+        Node nn = ll;
+
+        // AT2 [Check if done]
+        while (n != rootNode) {
+            // AT3 [Adjust covering rectangle in parent entry]
+            final Node p = n.parent;
+            final int slot = p.indexOf(n);
+            n.union(box);
+            if (nn == null && p.hasBox(slot, box)) {
+                return null;
+            }
+            p.setBox(slot, box);
+
+            // AT4 [Propagate node split upward]
+            Node pp = null;
+            if (nn != null) {
+                nn.union(box);
+                p.add(nn, box);
+                if (p.size > maxChildrenPerNode) {
+                    pp = splitNode(p);
+                }
+            }
+
+            // AT5 [Move up to next level]
+            n = p;
+            nn = pp;
+        }
+        return nn;
+    }
+
+    /**
+     * Splits a node with M+1 children with Guttman's quadratic split. The node keeps the first group,
+     * and a new node gets the second.
+     *
+     * @param n     The overfull node
+     * @return      The new node
+     */
+    private Node splitNode(final Node n) {
+        final int count = n.size;
+        final Object[] children = n.children.clone();
+        final double[] boxes = n.copyBoxes();
+        final int d = dimensions;
+        final int w = 2 * d;
+        final boolean[] assigned = new boolean[count];
+        final boolean[] inFirst = new boolean[count];
+
+        // QS1 [Pick first entry for each group] The pair that would waste the most volume together,
+        // or the most margin among pairs that waste the same volume
+        int seed1 = 0;
+        int seed2 = 1;
+        double worst = Double.NEGATIVE_INFINITY;
+        double worstMargin = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < count; i++) {
+            for (int j = i + 1; j < count; j++) {
+                final double waste = Boxes.unionVolume(boxes, w * i, boxes, w * j, d)
+                        - Boxes.volume(boxes, w * i, d) - Boxes.volume(boxes, w * j, d);
+                if (waste < worst) {
+                    continue;
+                }
+                final double wasteMargin = Boxes.unionMargin(boxes, w * i, boxes, w * j, d)
+                        - Boxes.margin(boxes, w * i, d) - Boxes.margin(boxes, w * j, d);
+                if (waste > worst || wasteMargin > worstMargin) {
+                    worst = waste;
+                    worstMargin = wasteMargin;
+                    seed1 = i;
+                    seed2 = j;
+                }
+            }
+        }
+        final double[] first = new double[w];
+        final double[] second = new double[w];
+        System.arraycopy(boxes, w * seed1, first, 0, w);
+        System.arraycopy(boxes, w * seed2, second, 0, w);
+        assigned[seed1] = true;
+        assigned[seed2] = true;
+        inFirst[seed1] = true;
+        int firstCount = 1;
+        int secondCount = 1;
+
+        for (int left = count - 2; left > 0; left--) {
+            // QS2 [Check if done] A group that needs all the rest to reach m gets them
+            final boolean toFirst;
+            int next = -1;
+            if (firstCount + left == minimumChildrenPerNode) {
+                toFirst = true;
+            } else if (secondCount + left == minimumChildrenPerNode) {
+                toFirst = false;
+            } else {
+                // QS3 [Select entry to assign] The entry with the greatest preference for one group, by
+                // volume, and by margin among entries with the same preference by volume
+                final double volume1 = Boxes.volume(first, 0, d);
+                final double volume2 = Boxes.volume(second, 0, d);
+                final double margin1 = Boxes.margin(first, 0, d);
+                final double margin2 = Boxes.margin(second, 0, d);
+                double best = -1;
+                double bestMargin = -1;
+                double bestFirst = 0;
+                double bestSecond = 0;
+                double bestFirstMargin = 0;
+                double bestSecondMargin = 0;
+                for (int i = 0; i < count; i++) {
+                    if (!assigned[i]) {
+                        final double d1 = Boxes.unionVolume(first, 0, boxes, w * i, d) - volume1;
+                        final double d2 = Boxes.unionVolume(second, 0, boxes, w * i, d) - volume2;
+                        final double e1 = Boxes.unionMargin(first, 0, boxes, w * i, d) - margin1;
+                        final double e2 = Boxes.unionMargin(second, 0, boxes, w * i, d) - margin2;
+                        final double preference = Math.abs(d1 - d2);
+                        final double preferenceMargin = Math.abs(e1 - e2);
+                        if (preference > best || (preference == best && preferenceMargin > bestMargin)) {
+                            best = preference;
+                            bestMargin = preferenceMargin;
+                            bestFirst = d1;
+                            bestSecond = d2;
+                            bestFirstMargin = e1;
+                            bestSecondMargin = e2;
+                            next = i;
+                        }
+                    }
+                }
+                // Least enlargement, then smaller volume, then least margin enlargement, then fewer entries
+                if (bestFirst != bestSecond) {
+                    toFirst = bestFirst < bestSecond;
+                } else if (volume1 != volume2) {
+                    toFirst = volume1 < volume2;
+                } else if (bestFirstMargin != bestSecondMargin) {
+                    toFirst = bestFirstMargin < bestSecondMargin;
+                } else {
+                    toFirst = firstCount <= secondCount;
+                }
+            }
+            if (next < 0) {
+                for (int i = 0; i < count && next < 0; i++) {
+                    if (!assigned[i]) {
+                        next = i;
+                    }
+                }
+            }
+            assigned[next] = true;
+            if (toFirst) {
+                inFirst[next] = true;
+                Boxes.include(first, 0, boxes, w * next, d);
+                firstCount++;
+            } else {
+                Boxes.include(second, 0, boxes, w * next, d);
+                secondCount++;
+            }
+        }
+
+        final Node nn = newNode(n.level);
+        for (int i = 0; i < count; i++) {
+            n.children[i] = null;
+        }
+        n.size = 0;
+        final double[] b = new double[w];
+        for (int i = 0; i < count; i++) {
+            System.arraycopy(boxes, w * i, b, 0, w);
+            if (inFirst[i]) {
+                n.add(children[i], b);
+            } else {
+                nn.add(children[i], b);
+            }
+        }
+        return nn;
+    }
+
+    /**
+     * Deletes an entry. An entry matches when it is the same entry, or has the same box and an
+     * equal payload.
+     *
+     * @param entry     The entry
+     * @return          true if the entry was found and deleted
+     */
+    public boolean delete(final Entry<T> entry) {
+        checkDimensions(entry.getDimensions());
+
+        // D1 [Find node containing record]
+        final Node l = findLeaf(rootNode, entry);
+        if (l == null) {
+            return false;
+        }
+
+        // D2 [Delete record]
+        for (int i = 0; i < l.size; i++) {
+            if (matches((Entry<?>) l.children[i], entry)) {
+                l.remove(i);
+                break;
+            }
+        }
+        size--;
+
+        // D3 [Propagate changes]
+        condenseTree(l);
+
+        // D4 [Shorten tree]
+        while (rootNode.level > 1 && rootNode.size == 1) {
+            rootNode = (Node) rootNode.children[0];
+            rootNode.parent = null;
+        }
+        return true;
+    }
+
+    /**
+     * Deletes the entry with the given two dimensional box and an equal payload.
+     *
+     * @return  true if the entry was found and deleted
+     */
+    public boolean delete(final double minX, final double minY, final double maxX, final double maxY, final T payload) {
+        return delete(new Entry<T>(minX, minY, maxX, maxY, payload));
+    }
+
+    /**
+     * Deletes the entry with the given box and an equal payload.
+     *
+     * @param box       The low coordinates of all d dimensions, followed by the high coordinates
+     * @return          true if the entry was found and deleted
+     */
+    public boolean delete(final double[] box, final T payload) {
+        return delete(new Entry<T>(box, payload));
+    }
+
+    /**
+     * Finds the leaf that holds an entry, looking only in subtrees whose boxes contain the box of the entry.
+     */
+    private Node findLeaf(final Node n, final Entry<T> entry) {
+        for (int i = 0; i < n.size; i++) {
+            if (n.level == 1) {
+                if (matches((Entry<?>) n.children[i], entry)) {
+                    return n;
+                }
+            } else if (n.contains(i, entry.box())) {
+                final Node l = findLeaf((Node) n.children[i], entry);
+                if (l != null) {
+                    return l;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static boolean matches(final Entry<?> a, final Entry<?> b) {
+        if (a == b) {
+            return true;
+        }
+        return Arrays.equals(a.box(), b.box())
+                && (a.getPayload() == null ? b.getPayload() == null : a.getPayload().equals(b.getPayload()));
+    }
+
+    /**
+     * Eliminates the under-full nodes on the path from a leaf to the root, adjusts the boxes on the
+     * way, and inserts the orphaned entries and subtrees again.
+     *
+     * @param l     The leaf an entry was deleted from
+     */
+    private void condenseTree(final Node l) {
+        // CT1 [Initialize]
+        final ArrayList<Object> q = new ArrayList<Object>();
+        Node n = l;
+
+        while (n != rootNode) {
+            // CT2 [Find parent entry]
+            final Node p = n.parent;
+            final int slot = p.indexOf(n);
+
+            // CT3 [Eliminate under-full node]
+            if (n.size < minimumChildrenPerNode) {
+                p.remove(slot);
+                for (int i = 0; i < n.size; i++) {
+                    q.add(n.children[i]);
+                }
+            } else {
+                // CT4 [Adjust covering rectangle]
+                n.union(box);
+                p.setBox(slot, box);
+            }
+
+            // CT5 [Move up one level in tree]
+            n = p;
+        }
+
+        // CT6 [Re-insert orphaned entries] A subtree can only be inserted below the root. If the root
+        // has lost all its children, it becomes an empty leaf, and the entries of the subtrees are
+        // inserted one by one.
+        if (rootNode.size == 0) {
+            rootNode = newNode(1);
+        }
+        while (!q.isEmpty()) {
+            final Object e = q.remove(q.size() - 1);
+            if (e instanceof Entry) {
+                insert(e, 0);
+            } else if (((Node) e).level < rootNode.level) {
+                insert(e, ((Node) e).level);
+            } else {
+                final Node orphan = (Node) e;
+                for (int i = 0; i < orphan.size; i++) {
+                    q.add(orphan.children[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Searches for all entries whose boxes intersect a two dimensional box, and hands them to a visitor
+     * as they are found.
+     *
+     * @param visitor   Receives each match, and can stop the search by returning false
+     * @return          The number of matches handed to the visitor
+     */
+    public int search(final double minX, final double minY, final double maxX, final double maxY, final Visitor<T> visitor) {
+        return search(new double[]{minX, minY, maxX, maxY}, visitor);
+    }
+
+    /**
+     * Searches for all entries whose boxes intersect a two dimensional box.
+     *
+     * @return  The matching entries
+     */
+    public List<Entry<T>> search(final double minX, final double minY, final double maxX, final double maxY) {
+        return search(new double[]{minX, minY, maxX, maxY});
+    }
+
+    /**
+     * Searches for all entries whose boxes intersect a box, and hands them to a visitor as they are found.
+     *
+     * @param query     The low coordinates of all d dimensions, followed by the high coordinates
+     * @param visitor   Receives each match, and can stop the search by returning false
+     * @return          The number of matches handed to the visitor
+     */
+    public int search(final double[] query, final Visitor<T> visitor) {
+        checkDimensions(query.length / 2);
+        if (rootNode.size == 0) {
+            return 0;
+        }
+        final int[] found = new int[1];
+        search(rootNode, query, visitor, found);
+        return found[0];
+    }
+
+    /**
+     * Searches for all entries whose boxes intersect a box.
+     *
+     * @param query     The low coordinates of all d dimensions, followed by the high coordinates
+     * @return          The matching entries
+     */
+    public List<Entry<T>> search(final double[] query) {
+        final ArrayList<Entry<T>> result = new ArrayList<Entry<T>>();
+        search(query, new Visitor<T>() {
+            public boolean visit(final Entry<T> entry) {
+                result.add(entry);
+                return true;
+            }
+        });
+        return result;
+    }
+
+    /**
+     * @return  false when the visitor has stopped the search
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> boolean search(final Node n, final double[] query, final Visitor<T> visitor, final int[] found) {
+        for (int i = 0; i < n.size; i++) {
+            if (n.intersects(i, query)) {
+                if (n.level == 1) {
+                    final Entry<T> e = (Entry<T>) n.children[i];
+                    // A float box may be slightly larger than the entry, so the exact box decides
+                    if (n.packed != null && !Boxes.intersects(e.box(), 0, query, 0, n.dimensions)) {
+                        continue;
+                    }
+                    found[0]++;
+                    if (!visitor.visit(e)) {
+                        return false;
+                    }
+                } else if (!search((Node) n.children[i], query, visitor, found)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Finds the k entries whose boxes are closest to a point in two dimensions, closest first.
+     *
+     * @param x     The x coordinate of the point
+     * @param y     The y coordinate of the point
+     * @param k     The number of entries to find
+     * @return      At most k entries
+     */
+    public List<Entry<T>> nearest(final double x, final double y, final int k) {
+        return nearest(new double[]{x, y}, k);
+    }
+
+    /**
+     * Finds the k entries whose boxes are closest to a point, closest first. The nodes are visited
+     * best first, ordered by the distance from the point to their boxes.
+     *
+     * @param point     The d coordinates of the point
+     * @param k         The number of entries to find
+     * @return          At most k entries
+     */
+    @SuppressWarnings("unchecked")
+    public List<Entry<T>> nearest(final double[] point, final int k) {
+        checkDimensions(point.length);
+        final ArrayList<Entry<T>> result = new ArrayList<Entry<T>>();
+        if (k <= 0 || rootNode.size == 0) {
+            return result;
+        }
+        final PriorityQueue<Candidate> queue = new PriorityQueue<Candidate>();
+        queue.add(new Candidate(rootNode, 0));
+        while (!queue.isEmpty() && result.size() < k) {
+            final Candidate c = queue.poll();
+            if (c.element instanceof Entry) {
+                result.add((Entry<T>) c.element);
+                continue;
+            }
+            final Node n = (Node) c.element;
+            for (int i = 0; i < n.size; i++) {
+                if (n.level == 1) {
+                    // The exact box of the entry, since a float box is only a lower bound
+                    final Entry<?> e = (Entry<?>) n.children[i];
+                    queue.add(new Candidate(e, Boxes.distanceSq(e.box(), 0, point, dimensions)));
+                } else {
+                    queue.add(new Candidate(n.children[i], n.distanceSq(i, point)));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * A node or an entry waiting in the queue of a nearest neighbour search.
+     */
+    private static final class Candidate implements Comparable<Candidate> {
+        final Object element;
+        final double distanceSq;
+
+        Candidate(final Object element, final double distanceSq) {
+            this.element = element;
+            this.distanceSq = distanceSq;
+        }
+
+        public int compareTo(final Candidate other) {
+            return Double.compare(distanceSq, other.distanceSq);
+        }
+    }
+
+    private void checkDimensions(final int d) {
+        if (d != dimensions) {
+            throw new IllegalArgumentException("The tree has " + dimensions + " dimensions, got " + d);
+        }
+    }
+
+    /**
+     * Writes the bounding box of an entry or a node into box.
+     */
+    private static void boxOf(final Object element, final double[] box) {
+        if (element instanceof Entry) {
+            final double[] b = ((Entry<?>) element).box();
+            System.arraycopy(b, 0, box, 0, b.length);
+        } else {
+            ((Node) element).union(box);
+        }
+    }
+}
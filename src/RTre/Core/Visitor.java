@@ -0,0 +1,16 @@
+package RTre.Core;
+
+/**
+ * Receives the entries found by a search of the headless R-tree, one at a time.
+ */
+public interface Visitor<T> {
+
+    /**
+     * Called for each entry that matches.
+     *
+     * @param entry     The entry
+     * @return          true to go on searching, false to stop the search
+     */
+    public boolean visit(Entry<T> entry);
+
+}
@@ -1,9 +1,9 @@
 package RTre;
 
-import GUI.GUI_Controller;
-
 import java.awt.*;
+import java.awt.geom.Line2D;
 import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * DataObjects are represented as polygons with 3 to 9 points based on a random number.
@@ -17,8 +17,13 @@ import java.util.ArrayList;
  */
 public final class DataObject implements TreeElement{
 
+    private static final AtomicInteger NEXT_ID = new AtomicInteger();
+
+    private final int id;
     private final Polygon polygon;
+    private final Rectangle boundingBox;
     private Node parent;
+    private int slot;           // The slot of this DataObject in its parent
     private Color fillcolor;
     private Color strokecolor;
     public boolean isSelected;
@@ -35,9 +40,73 @@ public final class DataObject implements TreeElement{
      */
     public DataObject(final RTree rtree) {
         this.rtree = rtree;
+        id = NEXT_ID.getAndIncrement();
         level = 0;
         isSelected = false;
         polygon = createNewPolygon();
+        boundingBox = polygon.getBounds();
+    }
+
+     /**
+     * Constructor
+     * Wraps an existing polygon instead of creating a random one. This is used when the
+     * data set is generated elsewhere, for instance by the benchmarks.
+     *
+     * @param rtree     Reference to the RTree in which this node is placed
+     * @param polygon   The polygon this DataObject represents
+     */
+    public DataObject(final RTree rtree, final Polygon polygon) {
+        this.rtree = rtree;
+        id = NEXT_ID.getAndIncrement();
+        level = 0;
+        isSelected = false;
+        this.polygon = polygon;
+        boundingBox = polygon.getBounds();
+    }
+
+     /**
+     * Constructor
+     * Makes a DataObject again from a copy kept elsewhere, such as an OffHeapRTree or a file, with
+     * the id of the DataObject that was copied. New DataObjects get higher ids than this one, so
+     * the ids stay unique when DataObjects are read back from a file in a new run.
+     *
+     * @param id        The id of the DataObject that was copied
+     * @param polygon   Its polygon
+     */
+    DataObject(final int id, final Polygon polygon) {
+        this(id, polygon, true);
+    }
+
+     /**
+     * Constructor
+     * Makes a DataObject again from a copy kept elsewhere, with the id of the DataObject that was
+     * copied. A copy that is only handed out by a search, and never goes into a tree, does not
+     * need to keep new DataObjects from getting the same id.
+     *
+     * @param id        The id of the DataObject that was copied
+     * @param polygon   Its polygon
+     * @param reserve   Whether new DataObjects should get higher ids than this one
+     */
+    DataObject(final int id, final Polygon polygon, final boolean reserve) {
+        this.rtree = null;
+        this.id = id;
+        int next;
+        while (reserve && (next = NEXT_ID.get()) <= id && !NEXT_ID.compareAndSet(next, id + 1)) {
+            // Another DataObject got an id in between, try again
+        }
+        level = 0;
+        isSelected = false;
+        this.polygon = polygon;
+        boundingBox = polygon.getBounds();
+    }
+
+    /**
+     * Returns the id of this DataObject. Every DataObject gets its own id when it is created.
+     *
+     * @return  the id
+     */
+    public int getId() {
+        return id;
     }
 
     /**
@@ -58,15 +127,43 @@ public final class DataObject implements TreeElement{
         this.parent = parent;
     }
 
+    /**
+     * Returns the slot of this DataObject in its parent's children-list
+     *
+     * @return  the slot
+     */
+    public int getSlot() {
+        return slot;
+    }
+
+    /**
+     * Sets the slot of this DataObject in its parent's children-list. Only the parent should do this.
+     *
+     * @param slot  the new slot
+     */
+    public void setSlot(final int slot) {
+        this.slot = slot;
+    }
+
+
+    /**
+     * Returns the polygon of this DataObject. It must not be changed.
+     *
+     * @return  the polygon
+     */
+    Polygon getPolygon() {
+        return polygon;
+    }
+
 
      /**
      * Returns the bounding box of this dataObject.
-     * It is calculated through the polygon-variable.
+     * It is calculated once from the polygon-variable, since the polygon never changes.
      *
      * @return  the boundingbox of this dataObject
      */
     public Rectangle getBoundingBox(){
-        return polygon.getBounds();
+        return boundingBox;
     }
 
      /**
@@ -90,6 +187,56 @@ public final class DataObject implements TreeElement{
         return polygon.intersects(r);
     }
 
+    /**
+     * Returns true if this DataObjects polygon and the polygon of another DataObject have at least
+     * one point in common. That is the case when an edge of one crosses an edge of the other, or when
+     * one of them lies inside the other.
+     *
+     * @param other     The other DataObject
+     * @return          true if the polygons intersect
+     */
+    public boolean intersects(final DataObject other) {
+        final Rectangle b = other.boundingBox;
+        if (b.x > boundingBox.x + boundingBox.width || boundingBox.x > b.x + b.width
+                || b.y > boundingBox.y + boundingBox.height || boundingBox.y > b.y + b.height) {
+            return false;
+        }
+        final Polygon p = polygon;
+        final Polygon q = other.polygon;
+        for (int i = 0, j = p.npoints - 1; i < p.npoints; j = i++) {
+            for (int k = 0, l = q.npoints - 1; k < q.npoints; l = k++) {
+                if (Line2D.linesIntersect(p.xpoints[j], p.ypoints[j], p.xpoints[i], p.ypoints[i],
+                        q.xpoints[l], q.ypoints[l], q.xpoints[k], q.ypoints[k])) {
+                    return true;
+                }
+            }
+        }
+        // No edges cross, so either one polygon is inside the other, or they are apart
+        return p.contains(q.xpoints[0], q.ypoints[0]) || q.contains(p.xpoints[0], p.ypoints[0]);
+    }
+
+    /**
+     * Calculates the square of the distance from a point to this DataObjects polygon.
+     * The distance is 0 when the point is inside the polygon, otherwise it is the distance
+     * to the closest of the polygons edges.
+     *
+     * @param x     The x coordinate of the point
+     * @param y     The y coordinate of the point
+     * @return      The squared distance from the point to the polygon
+     */
+    public double distanceSq(final double x, final double y) {
+        if (polygon.contains(x, y)) {
+            return 0;
+        }
+        final int[] xpoints = polygon.xpoints;
+        final int[] ypoints = polygon.ypoints;
+        double distance = Double.MAX_VALUE;
+        for (int i = 0, j = polygon.npoints - 1; i < polygon.npoints; j = i++) {
+            distance = Math.min(distance, Line2D.ptSegDistSq(xpoints[j], ypoints[j], xpoints[i], ypoints[i], x, y));
+        }
+        return distance;
+    }
+
 
     /**
      * Gives this dataObject a color based on the fillcolor of its Parent.
@@ -132,8 +279,8 @@ public final class DataObject implements TreeElement{
 
         final int xOffset;
         final int yOffset;
-        xOffset = (int)(Math.random()* (GUI_Controller.TREE_PANEL_WIDTH - rtree.dataObjectWidth));
-        yOffset = (int)(Math.random()* (GUI_Controller.TREE_PANEL_HEIGHT - rtree.dataObjectHeight) );
+        xOffset = (int)(Math.random()* (rtree.worldWidth - rtree.dataObjectWidth));
+        yOffset = (int)(Math.random()* (rtree.worldHeight - rtree.dataObjectHeight) );
 
         for (int i=0; i<antallPunkt; i++){
             xList[i] = (int)(Math.random() * rtree.dataObjectWidth) + xOffset;
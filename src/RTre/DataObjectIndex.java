@@ -0,0 +1,134 @@
+package RTre;
+
+/**
+ * The data objects of a tree by id, in an open addressing hash table on a plain int array. Unlike
+ * a HashMap it neither boxes the id nor makes an entry object for each data object, so adding one
+ * allocates nothing until the table has to grow.
+ *
+ * A data object goes in the first free slot from the hash of its id on. Removing one moves the
+ * data objects after it back into the gap where their probe allows, so the table needs no
+ * markers for removed slots and lookups never get slower from deletes.
+ */
+final class DataObjectIndex {
+
+    private int[] ids;
+    private DataObject[] dataObjects;   // null in a free slot
+    private int size;
+
+    DataObjectIndex() {
+        ids = new int[16];
+        dataObjects = new DataObject[16];
+    }
+
+    /**
+     * @return  The data object with the id, or null if there is none
+     */
+    DataObject get(final int id) {
+        final int mask = ids.length - 1;
+        for (int i = slot(id, mask); dataObjects[i] != null; i = (i + 1) & mask) {
+            if (ids[i] == id) {
+                return dataObjects[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Adds a data object, replacing the one with the same id if there is one.
+     *
+     * @param d     The data object
+     */
+    void put(final DataObject d) {
+        // At most three quarters full
+        if (4 * (size + 1) > 3 * ids.length) {
+            grow();
+        }
+        final int id = d.getId();
+        final int mask = ids.length - 1;
+        int i = slot(id, mask);
+        while (dataObjects[i] != null) {
+            if (ids[i] == id) {
+                dataObjects[i] = d;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        ids[i] = id;
+        dataObjects[i] = d;
+        size++;
+    }
+
+    /**
+     * Removes the data object with an id.
+     *
+     * @param id    The id
+     * @return      The data object that was removed, or null if there was none
+     */
+    DataObject remove(final int id) {
+        final int mask = ids.length - 1;
+        int i = slot(id, mask);
+        while (dataObjects[i] != null && ids[i] != id) {
+            i = (i + 1) & mask;
+        }
+        final DataObject removed = dataObjects[i];
+        if (removed == null) {
+            return null;
+        }
+        // Close the gap: a data object after it may move into the gap if its own slot is not
+        // between the gap and where it is now
+        int gap = i;
+        for (int j = (gap + 1) & mask; dataObjects[j] != null; j = (j + 1) & mask) {
+            final int home = slot(ids[j], mask);
+            if (((j - home) & mask) >= ((j - gap) & mask)) {
+                ids[gap] = ids[j];
+                dataObjects[gap] = dataObjects[j];
+                gap = j;
+            }
+        }
+        dataObjects[gap] = null;
+        size--;
+        return removed;
+    }
+
+    /**
+     * @return  The number of data objects
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Removes all data objects, and gives the memory of a large table back.
+     */
+    void clear() {
+        ids = new int[16];
+        dataObjects = new DataObject[16];
+        size = 0;
+    }
+
+    private void grow() {
+        final int[] oldIds = ids;
+        final DataObject[] oldDataObjects = dataObjects;
+        ids = new int[2 * oldIds.length];
+        dataObjects = new DataObject[2 * oldIds.length];
+        final int mask = ids.length - 1;
+        for (int k = 0; k < oldIds.length; k++) {
+            if (oldDataObjects[k] != null) {
+                int i = slot(oldIds[k], mask);
+                while (dataObjects[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                ids[i] = oldIds[k];
+                dataObjects[i] = oldDataObjects[k];
+            }
+        }
+    }
+
+    /**
+     * Ids are mostly consecutive, so they are spread over the table by multiplying with the golden ratio.
+     */
+    private static int slot(final int id, final int mask) {
+        final int h = id * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+}
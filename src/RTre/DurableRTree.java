@@ -0,0 +1,659 @@
+package RTre;
+
+import java.awt.*;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A thread safe RTree whose changes survive a crash. It keeps two files in a directory:
+ *
+ *   tree.pages     A checkpoint: the whole tree as it was after some change, written by RTree.save
+ *   tree.log       The changes since then, appended as they are made (see MutationLog)
+ *
+ * A change is made to the tree in memory and appended to the log under the write lock, like
+ * ConcurrentRTree does, and then synced after the lock is let go. A method that changes the tree
+ * returns once its change is on disk, and threads that change the tree at the same time share the
+ * fsyncs: each change costs a few dozen bytes in the log instead of a new copy of the tree.
+ *
+ * When the tree is opened again the checkpoint is read back node by node, without inserting
+ * anything, and the changes in the log are made once more on top of it. Every change is logged as
+ * the call that made it, with the ids of the data objects, so replaying it gives the same nodes.
+ *
+ * A change is made in memory before it is on disk, so a search may see a change that a crash would
+ * lose. If writing the log fails, the method that made the change throws, and so does every change
+ * after it, since the log cannot be trusted any more. The tree in memory may then hold changes that
+ * are not on disk, and should be closed and opened again, which leaves the changes that are.
+ *
+ * A background thread writes a new checkpoint when the log has grown past checkpointThreshold.
+ * The nodes are copied under the read lock (see PagedRTree.Copy), which is quick, and written
+ * after it is let go, so neither searches nor changes wait for the disk. The copy goes to a new
+ * file that then replaces the old one. After that the log is compacted: the changes in the
+ * checkpoint are dropped from it. checkpoint() does the same right away. If the background thread
+ * fails to write a checkpoint, it tries again later, and the next change, checkpoint or close
+ * throws the failure, once.
+ *
+ * Only data objects can be inserted, not subtrees. The selection is not durable, and deleteLeaves
+ * logs the data objects it deletes. bulkLoad writes a checkpoint before it returns, since it
+ * replaces the whole tree anyway. If that checkpoint cannot be written, the log fails like after a
+ * failed write, and the tree has to be opened again, which gives it as it was before the bulk load.
+ *
+ * The wrapped tree must not be used directly once it is wrapped. A visitor is called while the read
+ * lock is held, so it may start other searches, but must not change the tree.
+ */
+public final class DurableRTree implements Closeable {
+
+    static final String CHECKPOINT = "tree.pages";
+    static final String LOG = "tree.log";
+
+    // The types of the changes in the log
+    static final int INSERT = 1;
+    static final int INSERT_ALL = 2;
+    static final int DELETE = 3;
+    static final int DELETE_ALL = 4;
+    static final int DELETE_WITHIN = 5;
+    static final int CLEAR = 6;
+
+    public volatile long checkpointThreshold;   // The size of the log in bytes that starts a checkpoint
+
+    private final RTree rtree;
+    private final Path directory;
+    private final ReentrantReadWriteLock lock;
+    private final MutationLog log;
+    private final Object checkpointing;         // Held while a checkpoint is written, one at a time
+    private final ScheduledExecutorService checkpointer;
+    private final AtomicReference checkpointFailure;    // The IOException of a background checkpoint, until it is thrown
+
+    /**
+     * Constructor
+     * Opens the tree kept in a directory, or makes a new empty one. The contents of the given tree
+     * are replaced by the checkpoint in the directory and the changes in its log. M, m and the
+     * insertion strategy should be set on the tree before it is wrapped; M and m are replaced by
+     * those of the checkpoint if there is one.
+     *
+     * @param rtree         The tree to keep the data objects in
+     * @param directory     The directory of the files, which is made if it does not exist
+     * @throws IOException  If the files cannot be read, or are not the files of a tree
+     */
+    public DurableRTree(final RTree rtree, final Path directory) throws IOException {
+        this.rtree = rtree;
+        this.directory = directory;
+        lock = new ReentrantReadWriteLock();
+        checkpointing = new Object();
+        checkpointFailure = new AtomicReference();
+        checkpointThreshold = 64 << 20;
+
+        Files.createDirectories(directory);
+        long sequence = 0;
+        final Path checkpoint = directory.resolve(CHECKPOINT);
+        if (Files.exists(checkpoint)) {
+            final PagedRTree paged = PagedRTree.open(checkpoint);
+            try {
+                rtree.load(paged);
+                sequence = paged.getSequence();
+            } finally {
+                paged.close();
+            }
+        } else {
+            rtree.clearTree();
+        }
+        log = new MutationLog(directory.resolve(LOG));
+        try {
+            log.replay(sequence, new MutationLog.Replayer() {
+                public void replay(final int type, final ByteBuffer change) throws IOException {
+                    apply(type, change);
+                }
+            });
+        } catch (IOException e) {
+            log.close();
+            throw e;
+        }
+
+        checkpointer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, "DurableRTree checkpointer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        checkpointer.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                if (log.size() > checkpointThreshold) {
+                    try {
+                        writeCheckpoint();
+                    } catch (IOException e) {
+                        // The log still holds every change, so the next round tries again. The
+                        // first failure is kept until it is thrown.
+                        checkpointFailure.compareAndSet(null, e);
+                    }
+                }
+            }
+        }, 1, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Inserts a data object in the tree.
+     *
+     * @param dataObject    The data object that should be inserted
+     * @throws IOException  If the change could not be logged
+     */
+    public void insertTreeElement(final DataObject dataObject) throws IOException {
+        final ByteBuffer change = ByteBuffer.allocate(size(dataObject));
+        put(change, dataObject);
+        change.flip();
+        final long sequence;
+        lockForWriting();
+        try {
+            check();
+            rtree.insertTreeElement(dataObject);
+            sequence = log.append(INSERT, change);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.sync(sequence);
+    }
+
+    /**
+     * Inserts many data objects at once, see RTree.insertAll.
+     *
+     * @param dataObjects   The data objects to insert
+     * @throws IOException  If the change could not be logged
+     */
+    public void insertAll(final Collection dataObjects) throws IOException {
+        final ArrayList list = new ArrayList(dataObjects);
+        int bytes = 4;
+        for (int i = 0; i < list.size(); i++) {
+            bytes += size((DataObject) list.get(i));
+        }
+        final ByteBuffer change = ByteBuffer.allocate(bytes);
+        change.putInt(list.size());
+        for (int i = 0; i < list.size(); i++) {
+            put(change, (DataObject) list.get(i));
+        }
+        change.flip();
+        final long sequence;
+        lockForWriting();
+        try {
+            check();
+            rtree.insertAll(list);
+            sequence = log.append(INSERT_ALL, change);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.sync(sequence);
+    }
+
+    /**
+     * Deletes a single data object from the tree.
+     *
+     * @param dataObject    The data object to delete
+     * @return              true if the data object was in the tree and has been deleted
+     * @throws IOException  If the change could not be logged
+     */
+    public boolean delete(final DataObject dataObject) throws IOException {
+        final long sequence;
+        lockForWriting();
+        try {
+            check();
+            if (!rtree.delete(dataObject)) {
+                return false;
+            }
+            sequence = log.append(DELETE, id(dataObject.getId()));
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.sync(sequence);
+        return true;
+    }
+
+    /**
+     * Deletes the data object with the given id.
+     *
+     * @param id    The id of the data object
+     * @return      true if a data object with that id was in the tree and has been deleted
+     * @throws IOException  If the change could not be logged
+     */
+    public boolean delete(final int id) throws IOException {
+        final long sequence;
+        lockForWriting();
+        try {
+            check();
+            if (!rtree.delete(id)) {
+                return false;
+            }
+            sequence = log.append(DELETE, id(id));
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.sync(sequence);
+        return true;
+    }
+
+    /**
+     * Deletes many data objects at once, see RTree.deleteAll.
+     *
+     * @param dataObjects   The data objects to delete
+     * @return              The number of data objects that were deleted
+     * @throws IOException  If the change could not be logged
+     */
+    public int deleteAll(final Collection dataObjects) throws IOException {
+        final long sequence;
+        final int deleted;
+        lockForWriting();
+        try {
+            check();
+            deleted = deleteAndLog(dataObjects);
+            if (deleted == 0) {
+                return 0;
+            }
+            sequence = log.lastSequence();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.sync(sequence);
+        return deleted;
+    }
+
+    /**
+     * Deletes all data objects that intersect a rectangle, or lie inside it.
+     *
+     * @param r     The rectangle
+     * @return      The number of data objects that were deleted
+     * @throws IOException  If the change could not be logged
+     */
+    public int deleteWithin(final Rectangle r) throws IOException {
+        final ByteBuffer change = ByteBuffer.allocate(16);
+        change.putInt(r.x).putInt(r.y).putInt(r.width).putInt(r.height).flip();
+        final long sequence;
+        final int deleted;
+        lockForWriting();
+        try {
+            check();
+            deleted = rtree.deleteWithin(r);
+            if (deleted == 0) {
+                return 0;
+            }
+            sequence = log.append(DELETE_WITHIN, change);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.sync(sequence);
+        return deleted;
+    }
+
+    /**
+     * Adds the data objects that intersect a rectangle to the selection of the tree.
+     *
+     * @param r     The rectangle
+     */
+    public void findLeaves(final Rectangle r) {
+        lockForWriting();
+        try {
+            rtree.findLeaves(r);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Empties the selection of the tree.
+     */
+    public void deselect() {
+        lockForWriting();
+        try {
+            rtree.deselect();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Deletes all selected data objects in the tree, as one batch.
+     *
+     * @throws IOException  If the change could not be logged
+     */
+    public void deleteLeaves() throws IOException {
+        final long sequence;
+        lockForWriting();
+        try {
+            check();
+            if (deleteAndLog(rtree.getSelected()) == 0) {
+                return;
+            }
+            sequence = log.lastSequence();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.sync(sequence);
+    }
+
+    /**
+     * Deletes the data objects that are in the tree with deleteAll, and logs their ids. Must be
+     * called with the write lock held.
+     *
+     * @return  The number of data objects that were deleted
+     */
+    private int deleteAndLog(final Collection dataObjects) throws IOException {
+        final ArrayList found = new ArrayList(dataObjects.size());
+        for (final Object o : dataObjects) {
+            final DataObject d = (DataObject) o;
+            if (rtree.getDataObject(d.getId()) == d) {
+                found.add(d);
+            }
+        }
+        if (found.isEmpty()) {
+            return 0;
+        }
+        final ByteBuffer change = ByteBuffer.allocate(4 + 4 * found.size());
+        change.putInt(found.size());
+        for (int i = 0; i < found.size(); i++) {
+            change.putInt(((DataObject) found.get(i)).getId());
+        }
+        change.flip();
+        final int deleted = rtree.deleteAll(found);
+        log.append(DELETE_ALL, change);
+        return deleted;
+    }
+
+    /**
+     * Deletes all data objects in the tree.
+     *
+     * @throws IOException  If the change could not be logged
+     */
+    public void clearTree() throws IOException {
+        final long sequence;
+        lockForWriting();
+        try {
+            check();
+            rtree.clearTree();
+            sequence = log.append(CLEAR, ByteBuffer.allocate(0));
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.sync(sequence);
+    }
+
+    /**
+     * Replaces the contents of the tree with the given data objects, and writes a checkpoint
+     * before it returns.
+     *
+     * @param dataObjects   The data objects the tree should contain
+     * @param method        RTree.SORT_TILE_RECURSIVE or RTree.HILBERT
+     * @throws IOException  If the checkpoint could not be written. The log has then failed, since
+     *                      the tree holds a bulk load that is not on disk
+     */
+    public void bulkLoad(final ArrayList dataObjects, final int method) throws IOException {
+        synchronized (checkpointing) {
+            final long sequence;
+            lockForWriting();
+            try {
+                check();
+                rtree.bulkLoad(dataObjects, method);
+                // Written under the write lock, since the bulk load is not in the log: a change
+                // logged after it must not reach the disk before the checkpoint does
+                sequence = log.lastSequence();
+                try {
+                    PagedRTree.write(copy(), directory.resolve(CHECKPOINT), sequence);
+                } catch (IOException e) {
+                    // The tree has been replaced, so no change may be logged on top of what is on disk
+                    log.fail(e);
+                    throw e;
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+            log.sync(sequence);
+            log.compact(sequence);
+        }
+    }
+
+    /**
+     * Searches the tree for all data objects that intersect a rectangle, or lie inside it, and hands them
+     * to a visitor as they are found.
+     *
+     * @param r         The rectangle
+     * @param visitor   Receives each match, and can stop the search by returning false
+     * @return          The number of matches handed to the visitor
+     */
+    public int search(final Rectangle r, final SearchVisitor visitor) {
+        lock.readLock().lock();
+        try {
+            return rtree.search(r, visitor);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Searches the tree for all data objects that intersect a rectangle, or lie inside it.
+     *
+     * @param r     The rectangle
+     * @return      The matching data objects
+     */
+    public ArrayList search(final Rectangle r) {
+        lock.readLock().lock();
+        try {
+            return rtree.search(r);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Finds the k data objects whose polygons are closest to a point.
+     *
+     * @param x     The x coordinate of the point
+     * @param y     The y coordinate of the point
+     * @param k     The largest number of neighbours to find
+     * @return      At most k data objects, closest first
+     */
+    public ArrayList nearest(final int x, final int y, final int k) {
+        lock.readLock().lock();
+        try {
+            return rtree.nearest(x, y, k);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the number of levels in the tree
+     *
+     * @return  Number of levels in the tree
+     */
+    public int getNumberOfLevels() {
+        lock.readLock().lock();
+        try {
+            return rtree.getNumberOfLevels();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return  The number of bytes in the log, which a checkpoint brings back to almost nothing
+     */
+    public long getLogSize() {
+        return log.size();
+    }
+
+    /**
+     * Writes a checkpoint of the tree and drops the changes in it from the log. The tree is only
+     * locked while its nodes are copied, so searches and changes go on while the copy is written.
+     *
+     * @throws IOException  If the checkpoint could not be written, or a background checkpoint had failed
+     */
+    public void checkpoint() throws IOException {
+        check();
+        writeCheckpoint();
+    }
+
+    /**
+     * Copies the tree under the read lock, and writes the copy to the checkpoint file after the
+     * lock is let go. Changes made meanwhile have higher sequence numbers, so they stay in the log.
+     */
+    private void writeCheckpoint() throws IOException {
+        synchronized (checkpointing) {
+            final long sequence;
+            final PagedRTree.Copy copy;
+            lock.readLock().lock();
+            try {
+                log.check();
+                sequence = log.lastSequence();
+                copy = copy();
+            } finally {
+                lock.readLock().unlock();
+            }
+            PagedRTree.write(copy, directory.resolve(CHECKPOINT), sequence);
+            log.sync(sequence);
+            log.compact(sequence);
+        }
+    }
+
+    /**
+     * Copies the tree for a checkpoint. Must be called with the read or the write lock held.
+     */
+    private PagedRTree.Copy copy() {
+        return PagedRTree.copy(rtree.getRootNode(), rtree.maxChildrenPerNode, rtree.minimumChildrenPerNode);
+    }
+
+    /**
+     * Fails if the log has failed, so that a change is not made to the tree when it cannot be
+     * logged, and throws the failure of a background checkpoint if there has been one since the last
+     * time.
+     */
+    private void check() throws IOException {
+        log.check();
+        final IOException failed = (IOException) checkpointFailure.getAndSet(null);
+        if (failed != null) {
+            throw new IOException("A background checkpoint failed", failed);
+        }
+    }
+
+    /**
+     * Stops the checkpointer, and closes the log once all changes are on disk. The tree should not
+     * be used any more.
+     *
+     * @throws IOException  If the log could not be closed, or a background checkpoint had failed
+     */
+    public void close() throws IOException {
+        checkpointer.shutdown();
+        try {
+            checkpointer.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the checkpointer");
+        }
+        log.close();
+        final IOException failed = (IOException) checkpointFailure.getAndSet(null);
+        if (failed != null) {
+            throw new IOException("A background checkpoint failed", failed);
+        }
+    }
+
+    /**
+     * Makes a change from the log again.
+     *
+     * @param type      The type of the change
+     * @param change    The change
+     */
+    private void apply(final int type, final ByteBuffer change) throws IOException {
+        switch (type) {
+            case INSERT:
+                rtree.insertTreeElement(get(change));
+                break;
+            case INSERT_ALL: {
+                final int n = change.getInt();
+                final ArrayList dataObjects = new ArrayList(n);
+                for (int i = 0; i < n; i++) {
+                    dataObjects.add(get(change));
+                }
+                rtree.insertAll(dataObjects);
+                break;
+            }
+            case DELETE:
+                rtree.delete(change.getInt());
+                break;
+            case DELETE_ALL: {
+                final int n = change.getInt();
+                final ArrayList dataObjects = new ArrayList(n);
+                for (int i = 0; i < n; i++) {
+                    final DataObject d = rtree.getDataObject(change.getInt());
+                    if (d != null) {
+                        dataObjects.add(d);
+                    }
+                }
+                rtree.deleteAll(dataObjects);
+                break;
+            }
+            case DELETE_WITHIN:
+                rtree.deleteWithin(new Rectangle(change.getInt(), change.getInt(), change.getInt(), change.getInt()));
+                break;
+            case CLEAR:
+                rtree.clearTree();
+                break;
+            default:
+                throw new IOException("Unknown change in the mutation log: " + type);
+        }
+    }
+
+    private static ByteBuffer id(final int id) {
+        final ByteBuffer change = ByteBuffer.allocate(4);
+        change.putInt(id).flip();
+        return change;
+    }
+
+    private static int size(final DataObject d) {
+        return 8 + 8 * d.getPolygon().npoints;
+    }
+
+    /**
+     * Writes a data object as its id, the number of points, and the x and the y coordinates.
+     */
+    private static void put(final ByteBuffer change, final DataObject d) {
+        final Polygon p = d.getPolygon();
+        change.putInt(d.getId()).putInt(p.npoints);
+        for (int i = 0; i < p.npoints; i++) {
+            change.putInt(p.xpoints[i]);
+        }
+        for (int i = 0; i < p.npoints; i++) {
+            change.putInt(p.ypoints[i]);
+        }
+    }
+
+    private static DataObject get(final ByteBuffer change) {
+        final int id = change.getInt();
+        final int n = change.getInt();
+        final int[] x = new int[n];
+        final int[] y = new int[n];
+        for (int i = 0; i < n; i++) {
+            x[i] = change.getInt();
+        }
+        for (int i = 0; i < n; i++) {
+            y[i] = change.getInt();
+        }
+        return new DataObject(id, new Polygon(x, y, n));
+    }
+
+    /**
+     * Takes the write lock. A thread that holds the read lock, a visitor for instance, would wait
+     * for itself forever, so that is refused.
+     */
+    private void lockForWriting() {
+        if (lock.getReadHoldCount() > 0) {
+            throw new IllegalStateException("The tree cannot be changed while it is being searched");
+        }
+        lock.writeLock().lock();
+    }
+}
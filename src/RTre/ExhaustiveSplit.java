@@ -0,0 +1,115 @@
+package RTre;
+
+import java.awt.*;
+import java.util.ArrayList;
+
+/**
+ * Tries every way of dividing the entries in two groups with at least m entries each, and picks
+ * the one with the least total area, resolving ties by least overlap between the groups.
+ * This gives the best nodes a split can give, but takes O(2^M) time, so it is only used for
+ * splits of up to maxEntries entries. Larger splits are handed to a fallback policy.
+ */
+public final class ExhaustiveSplit implements SplitPolicy {
+
+    private final int maxEntries;
+    private final SplitPolicy fallback;
+
+    /**
+     * Constructor
+     * Tries every distribution for M up to 12, and uses the quadratic split above that.
+     */
+    public ExhaustiveSplit() {
+        this(13, new QuadraticSplit());
+    }
+
+    /**
+     * Constructor
+     *
+     * @param maxEntries    The largest number of entries (M+1) that is split exhaustively
+     * @param fallback      The policy used for larger splits
+     */
+    public ExhaustiveSplit(final int maxEntries, final SplitPolicy fallback) {
+        if (maxEntries > 30) {
+            throw new IllegalArgumentException("An exhaustive split of " + maxEntries + " entries would never finish");
+        }
+        this.maxEntries = maxEntries;
+        this.fallback = fallback;
+    }
+
+    public int split(final ArrayList entries, final int min) {
+        final int n = entries.size();
+        if (n > maxEntries) {
+            return fallback.split(entries, min);
+        }
+
+        final int[] minX = new int[n];
+        final int[] minY = new int[n];
+        final int[] maxX = new int[n];
+        final int[] maxY = new int[n];
+        for (int i = 0; i < n; i++) {
+            final Rectangle r = ((Bounded) entries.get(i)).getBoundingBox();
+            minX[i] = r.x;
+            minY[i] = r.y;
+            maxX[i] = r.x + r.width;
+            maxY[i] = r.y + r.height;
+        }
+
+        // Entry 0 is always in the first group, so each distribution is only tried once
+        int bestMask = 0;
+        long bestArea = Long.MAX_VALUE;
+        long bestOverlap = Long.MAX_VALUE;
+        final int[] l = new int[4];
+        final int[] ll = new int[4];
+
+        for (int mask = 1; mask < (1 << n); mask += 2) {
+            final int sizeL = Integer.bitCount(mask);
+            if (sizeL == n || sizeL < min || n - sizeL < min) {
+                continue;
+            }
+            boolean firstL = true;
+            boolean firstLL = true;
+            for (int i = 0; i < n; i++) {
+                if ((mask & (1 << i)) != 0) {
+                    if (firstL) {
+                        QuadraticSplit.setBox(l, minX, minY, maxX, maxY, i);
+                        firstL = false;
+                    } else {
+                        QuadraticSplit.includeBox(l, minX, minY, maxX, maxY, i);
+                    }
+                } else {
+                    if (firstLL) {
+                        QuadraticSplit.setBox(ll, minX, minY, maxX, maxY, i);
+                        firstLL = false;
+                    } else {
+                        QuadraticSplit.includeBox(ll, minX, minY, maxX, maxY, i);
+                    }
+                }
+            }
+            final long area = BoundingBoxes.area(l[0], l[1], l[2], l[3]) + BoundingBoxes.area(ll[0], ll[1], ll[2], ll[3]);
+            if (area > bestArea) {
+                continue;
+            }
+            final long overlap = BoundingBoxes.overlap(l[0], l[1], l[2], l[3], ll[0], ll[1], ll[2], ll[3]);
+            if (area < bestArea || overlap < bestOverlap) {
+                bestMask = mask;
+                bestArea = area;
+                bestOverlap = overlap;
+            }
+        }
+
+        final Object[] original = entries.toArray();
+        entries.clear();
+        for (int i = 0; i < n; i++) {
+            if ((bestMask & (1 << i)) != 0) {
+                entries.add(original[i]);
+            }
+        }
+        final int firstGroup = entries.size();
+        for (int i = 0; i < n; i++) {
+            if ((bestMask & (1 << i)) == 0) {
+                entries.add(original[i]);
+            }
+        }
+        return firstGroup;
+    }
+}
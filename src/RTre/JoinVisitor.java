@@ -0,0 +1,19 @@
+package RTre;
+
+/**
+ * Receives the results of RTree.join one pair at a time, as they are found.
+ *
+ * @see RTree#join(RTree, JoinVisitor)
+ */
+public interface JoinVisitor {
+
+    /**
+     * Called for each pair of intersecting DataObjects, one from each tree.
+     *
+     * @param a     The DataObject from the tree join was called on
+     * @param b     The DataObject from the other tree
+     * @return      true to continue the join, false to stop it
+     */
+    public boolean visit(DataObject a, DataObject b);
+
+}
@@ -0,0 +1,137 @@
+package RTre;
+
+import java.awt.*;
+import java.util.ArrayList;
+
+/**
+ * Guttman's linear split. The seeds are the two entries that are furthest apart along either axis,
+ * relative to the extent of all entries along that axis. The remaining entries are assigned in any
+ * order to the group that needs the least enlargement. Takes O(M) time, at the cost of nodes that
+ * overlap more than with the quadratic split.
+ */
+public final class LinearSplit implements SplitPolicy {
+
+    public int split(final ArrayList entries, final int min) {
+        final int n = entries.size();
+        final int[] minX = new int[n];
+        final int[] minY = new int[n];
+        final int[] maxX = new int[n];
+        final int[] maxY = new int[n];
+        for (int i = 0; i < n; i++) {
+            final Rectangle r = ((Bounded) entries.get(i)).getBoundingBox();
+            minX[i] = r.x;
+            minY[i] = r.y;
+            maxX[i] = r.x + r.width;
+            maxY[i] = r.y + r.height;
+        }
+
+        final int[] group = new int[n];
+        final int[] l = new int[4];
+        final int[] ll = new int[4];
+
+        // LS1 [Pick first entry for each group]
+        final int[] seeds = pickSeeds(minX, minY, maxX, maxY);
+        group[seeds[0]] = 1;
+        group[seeds[1]] = 2;
+        QuadraticSplit.setBox(l, minX, minY, maxX, maxY, seeds[0]);
+        QuadraticSplit.setBox(ll, minX, minY, maxX, maxY, seeds[1]);
+        int sizeL = 1;
+        int sizeLL = 1;
+        int remaining = n - 2;
+
+        for (int i = 0; i < n && remaining > 0; i++) {
+            if (group[i] != 0) {
+                continue;
+            }
+            // LS2 [Check if done] A group that needs all the remaining entries to reach m gets them.
+            if (min - sizeL == remaining) {
+                group[i] = 1;
+            } else if (min - sizeLL == remaining) {
+                group[i] = 2;
+            } else {
+                // LS3 [Select entry to assign] Any entry will do. It goes to the group that needs the
+                // least enlargement, then the one with smaller area, then the one with fewer entries.
+                final long enlargement_l = BoundingBoxes.enlargement(l[0], l[1], l[2], l[3], minX[i], minY[i], maxX[i], maxY[i]);
+                final long enlargement_ll = BoundingBoxes.enlargement(ll[0], ll[1], ll[2], ll[3], minX[i], minY[i], maxX[i], maxY[i]);
+                if (enlargement_l != enlargement_ll) {
+                    group[i] = enlargement_l < enlargement_ll ? 1 : 2;
+                } else {
+                    final long area_l = BoundingBoxes.area(l[0], l[1], l[2], l[3]);
+                    final long area_ll = BoundingBoxes.area(ll[0], ll[1], ll[2], ll[3]);
+                    if (area_l != area_ll) {
+                        group[i] = area_l < area_ll ? 1 : 2;
+                    } else {
+                        group[i] = sizeL < sizeLL ? 1 : 2;
+                    }
+                }
+            }
+
+            if (group[i] == 1) {
+                QuadraticSplit.includeBox(l, minX, minY, maxX, maxY, i);
+                sizeL++;
+            } else {
+                QuadraticSplit.includeBox(ll, minX, minY, maxX, maxY, i);
+                sizeLL++;
+            }
+            remaining--;
+        }
+
+        return QuadraticSplit.reorder(entries, group, seeds);
+    }
+
+    /**
+     * LinearPickSeeds: along each axis, finds the entry with the highest low side and the entry with the
+     * lowest high side, and normalizes the separation between them by the extent of all entries along
+     * that axis. The pair with the greatest normalized separation becomes the seeds.
+     *
+     * @return  The two seeds
+     */
+    private static int[] pickSeeds(final int[] minX, final int[] minY, final int[] maxX, final int[] maxY) {
+        final int[] seedsX = new int[2];
+        final int[] seedsY = new int[2];
+        final double separationX = separation(minX, maxX, seedsX);
+        final double separationY = separation(minY, maxY, seedsY);
+        return separationX >= separationY ? seedsX : seedsY;
+    }
+
+    /**
+     * LPS1 and LPS2 along one axis.
+     *
+     * @param low       The low sides of the entries along the axis
+     * @param high      The high sides of the entries along the axis
+     * @param seeds     Gets {entry with highest low side, entry with lowest high side}
+     * @return          The normalized separation
+     */
+    private static double separation(final int[] low, final int[] high, final int[] seeds) {
+        int highestLow = 0;
+        int lowestHigh = 0;
+        int lowestLow = low[0];
+        int highestHigh = high[0];
+        for (int i = 1; i < low.length; i++) {
+            if (low[i] > low[highestLow]) {
+                highestLow = i;
+            }
+            if (high[i] < high[lowestHigh]) {
+                lowestHigh = i;
+            }
+            lowestLow = Math.min(lowestLow, low[i]);
+            highestHigh = Math.max(highestHigh, high[i]);
+        }
+
+        // The same entry cannot be both seeds, so the other one is taken from the runners up
+        if (highestLow == lowestHigh) {
+            lowestHigh = -1;
+            for (int i = 0; i < high.length; i++) {
+                if (i != highestLow && (lowestHigh < 0 || high[i] < high[lowestHigh])) {
+                    lowestHigh = i;
+                }
+            }
+        }
+
+        seeds[0] = highestLow;
+        seeds[1] = lowestHigh;
+        final long width = (long) highestHigh - lowestLow;
+        final long separation = (long) low[highestLow] - high[lowestHigh];
+        return width > 0 ? (double) separation / width : 0;
+    }
+}
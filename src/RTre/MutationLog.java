@@ -0,0 +1,392 @@
+package RTre;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * The file that a DurableRTree appends its changes to, so that they survive a crash without the
+ * whole tree being written again for each of them.
+ *
+ * The file starts with a magic number and a version, followed by one record per change:
+ *
+ *   int     The length of the record after this int, without the checksum
+ *   long    The sequence number of the change, one higher than that of the change before it
+ *   byte    The type of the change
+ *   ...     The change itself, as DurableRTree writes it
+ *   int     CRC-32 of the sequence number, the type and the change
+ *
+ * Appending a change only copies it into a buffer in memory. A thread that needs its change on
+ * disk calls sync. The first thread to do so writes the buffer and forces it to disk, while the
+ * other threads wait and go on appending into a second buffer. When the write is done the next
+ * thread writes all that was appended meanwhile, with one more force. Under load one fsync thus
+ * makes the changes of many threads durable, and a change is never written alone just because it
+ * was appended while a force was going on.
+ *
+ * A crash in the middle of a write leaves a record at the end of the file that is cut short or
+ * has a wrong checksum. Replay stops at the first such record and cuts the file there: sync had
+ * not returned for any change from that record on.
+ */
+final class MutationLog implements Closeable {
+
+    static final int MAGIC = 0x52546c67;    // "RTlg"
+    static final int VERSION = 1;
+    static final int FILE_HEADER_SIZE = 8;
+
+    /**
+     * Receives the changes in the log when it is replayed.
+     */
+    interface Replayer {
+        void replay(int type, ByteBuffer change) throws IOException;
+    }
+
+    private final Path file;
+    private FileChannel channel;
+    private ByteBuffer pending;         // Appended, not yet written
+    private ByteBuffer spare;           // Swapped with pending when a sync starts, null while it lasts
+    private final CRC32 crc;
+    private long appended;              // The sequence number of the last change appended
+    private long durable;               // The sequence number of the last change forced to disk
+    private long length;                // The number of bytes in the file
+    private boolean syncing;            // A thread is writing to the file
+    private IOException failure;        // The log cannot be trusted after a failed write
+
+    /**
+     * Constructor
+     * Opens the log in a file, or makes a new empty log if the file does not exist. The log must be
+     * replayed before changes are appended.
+     *
+     * @param file  The file
+     */
+    MutationLog(final Path file) throws IOException {
+        this.file = file;
+        channel = open(file);
+        pending = ByteBuffer.allocate(1 << 16);
+        spare = ByteBuffer.allocate(1 << 16);
+        crc = new CRC32();
+    }
+
+    private static FileChannel open(final Path file) throws IOException {
+        final FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            final ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+            if (channel.size() < FILE_HEADER_SIZE) {
+                // New, or a crash before the header was on disk, which leaves nothing to lose
+                header.putInt(MAGIC).putInt(VERSION).flip();
+                channel.truncate(0);
+                channel.write(header, 0);
+                channel.force(true);
+                return channel;
+            }
+            channel.read(header, 0);
+            if (header.getInt(0) != MAGIC) {
+                throw new IOException("Not a mutation log: " + file);
+            }
+            if (header.getInt(4) != VERSION) {
+                throw new IOException("Unknown version of the mutation log: " + header.getInt(4));
+            }
+            return channel;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Hands the changes in the log to a replayer, in order, and makes the log ready for appending.
+     * The file is cut after the last whole record.
+     *
+     * @param after     Changes with this sequence number or lower are skipped, they are in the tree already
+     * @param replayer  Receives the changes
+     * @return          The sequence number of the last change in the log, or after if it is higher
+     */
+    long replay(final long after, final Replayer replayer) throws IOException {
+        final long size = channel.size();
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(
+                channel.position(FILE_HEADER_SIZE)), 1 << 16));
+        final CRC32 check = new CRC32();
+        long end = FILE_HEADER_SIZE;
+        long last = after;
+        while (true) {
+            final byte[] record;
+            try {
+                final int n = in.readInt();
+                if (n < 9 || n > size - end - 8) {
+                    break;
+                }
+                record = new byte[n];
+                in.readFully(record);
+                check.reset();
+                check.update(record, 0, n);
+                if (in.readInt() != (int) check.getValue()) {
+                    break;
+                }
+            } catch (EOFException e) {
+                break;
+            }
+            final ByteBuffer b = ByteBuffer.wrap(record);
+            final long sequence = b.getLong();
+            final int type = b.get();
+            if (sequence > last) {
+                replayer.replay(type, b.slice());
+                last = sequence;
+            }
+            end += record.length + 8;
+        }
+        if (end < size) {
+            channel.truncate(end);
+            channel.force(true);
+        }
+        channel.position(end);
+        synchronized (this) {
+            length = end;
+            appended = last;
+            durable = last;
+        }
+        return last;
+    }
+
+    /**
+     * Fails if the log has failed, so that a change is not made to the tree when it cannot be logged.
+     */
+    synchronized void check() throws IOException {
+        if (failure != null) {
+            throw new IOException("The mutation log has failed", failure);
+        }
+    }
+
+    /**
+     * Fails the log, for a change that was made to the tree but could not be made durable some other
+     * way. No change may be appended on top of it, since the log would replay them without it.
+     *
+     * @param e     Why the change could not be made durable
+     */
+    synchronized void fail(final IOException e) {
+        if (failure == null) {
+            failure = e;
+        }
+    }
+
+    /**
+     * Appends a change to the log. It is only in memory until sync is called.
+     *
+     * @param type      The type of the change
+     * @param change    The change, from its position to its limit
+     * @return          The sequence number of the change
+     */
+    synchronized long append(final int type, final ByteBuffer change) throws IOException {
+        check();
+        final int n = 9 + change.remaining();
+        if (pending.remaining() < n + 8) {
+            final ByteBuffer grown = ByteBuffer.allocate(Math.max(2 * pending.capacity(), pending.position() + n + 8));
+            pending.flip();
+            grown.put(pending);
+            pending = grown;
+        }
+        final long sequence = ++appended;
+        pending.putInt(n);
+        final int start = pending.position();
+        pending.putLong(sequence).put((byte) type).put(change);
+        crc.reset();
+        crc.update(pending.array(), start, n);
+        pending.putInt((int) crc.getValue());
+        return sequence;
+    }
+
+    /**
+     * Waits until a change, and all changes before it, are forced to disk. If no other thread is
+     * writing to the file, this thread writes everything that has been appended.
+     *
+     * @param sequence  The sequence number of the change
+     */
+    void sync(final long sequence) throws IOException {
+        final ByteBuffer batch;
+        final long last;
+        synchronized (this) {
+            while (true) {
+                check();
+                if (durable >= sequence) {
+                    return;
+                }
+                if (!syncing) {
+                    break;
+                }
+                await();
+            }
+            syncing = true;
+            batch = pending;
+            pending = spare;
+            spare = null;
+            last = appended;
+        }
+        IOException failed = null;
+        final int written = batch.position();
+        try {
+            batch.flip();
+            while (batch.hasRemaining()) {
+                channel.write(batch);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            failed = e;
+        }
+        synchronized (this) {
+            batch.clear();
+            spare = batch;
+            if (failed == null) {
+                durable = last;
+                length += written;
+            } else {
+                failure = failed;
+            }
+            syncing = false;
+            notifyAll();
+        }
+        if (failed != null) {
+            throw failed;
+        }
+    }
+
+    /**
+     * @return  The sequence number of the last change appended
+     */
+    synchronized long lastSequence() {
+        return appended;
+    }
+
+    /**
+     * @return  The number of bytes in the log, including the ones not yet written
+     */
+    synchronized long size() {
+        return length + pending.position();
+    }
+
+    /**
+     * Drops the changes up to a sequence number from the file, once a checkpoint holds them. The
+     * rest of the file is copied to a new file that then replaces the log, so a crash leaves either
+     * the old log or the new one. The changes must have been synced first. Changes can be appended
+     * meanwhile, but they are written after the log is replaced.
+     *
+     * @param upTo  The sequence number of the last change in the checkpoint
+     */
+    void compact(final long upTo) throws IOException {
+        synchronized (this) {
+            while (syncing) {
+                await();
+            }
+            check();
+            syncing = true;
+        }
+        try {
+            final long cut = find(upTo + 1);
+            final Path compacted = file.resolveSibling(file.getFileName() + ".tmp");
+            final FileChannel target = FileChannel.open(compacted, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            final long end = channel.size();
+            try {
+                final ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+                header.putInt(MAGIC).putInt(VERSION).flip();
+                target.write(header);
+                for (long p = cut; p < end; ) {
+                    p += channel.transferTo(p, end - p, target);
+                }
+                target.force(true);
+                Files.move(compacted, file, StandardCopyOption.ATOMIC_MOVE);
+                syncDirectory(file.getParent());
+                target.position(FILE_HEADER_SIZE + end - cut);
+            } catch (IOException e) {
+                target.close();
+                throw e;
+            }
+            channel.close();
+            channel = target;
+            synchronized (this) {
+                length = FILE_HEADER_SIZE + end - cut;
+            }
+        } finally {
+            synchronized (this) {
+                syncing = false;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Finds the first record in the file with a given sequence number or higher, reading only the
+     * length and the sequence number of the records before it.
+     *
+     * @return  The offset of the record, or the end of the file if there is none
+     */
+    private long find(final long sequence) throws IOException {
+        final long end = channel.size();
+        final ByteBuffer head = ByteBuffer.allocate(12);
+        long p = FILE_HEADER_SIZE;
+        while (p < end) {
+            head.clear();
+            while (head.hasRemaining() && channel.read(head, p + head.position()) > 0) {
+                // Read the rest of the head
+            }
+            if (head.getLong(4) >= sequence) {
+                return p;
+            }
+            p += 4 + head.getInt(0) + 4;
+        }
+        return end;
+    }
+
+    /**
+     * Forces the changes to the log to disk and closes it. Changes that are appended later are lost.
+     */
+    public void close() throws IOException {
+        try {
+            sync(lastSequence());
+        } finally {
+            synchronized (this) {
+                while (syncing) {
+                    await();
+                }
+                channel.close();
+            }
+        }
+    }
+
+    private void await() throws InterruptedIOException {
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the mutation log");
+        }
+    }
+
+    /**
+     * Forces a renaming in a directory to disk. Not every platform can open a directory, and those
+     * that cannot make renamings durable without it.
+     *
+     * @param directory     The directory
+     */
+    static void syncDirectory(final Path directory) {
+        try {
+            final FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ);
+            try {
+                channel.force(true);
+            } finally {
+                channel.close();
+            }
+        } catch (IOException e) {
+            // The platform does not sync directories
+        }
+    }
+}
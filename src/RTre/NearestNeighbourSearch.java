@@ -0,0 +1,198 @@
+package RTre;
+
+import java.awt.*;
+
+/**
+ * Best-first k-nearest neighbour search, as described by Hjaltason and Samet. Nodes and data objects
+ * wait in one priority queue ordered by their distance to the query point. A node is queued with
+ * MINDIST to its bounding box, which no object below it can beat. A data object is first queued
+ * with the distance to its bounding box, and queued again with the exact distance to its polygon
+ * when it reaches the front. When a data object with its exact distance reaches the front, nothing
+ * left in the queue can be closer, so it is the next nearest neighbour.
+ *
+ * The queue is a binary heap kept in three parallel arrays, and the searches used by RTree.nearest
+ * are kept per thread and reused, so a search allocates nothing once the arrays are large enough.
+ */
+final class NearestNeighbourSearch {
+
+    private static final ThreadLocal CACHE = new ThreadLocal();
+
+    // The heap: the squared distance, the entry, and whether the distance is the exact one
+    private double[] keys;
+    private Object[] entries;
+    private boolean[] exact;
+    private int size;
+
+    private int x, y;
+    private double lastDistance;
+    private boolean inUse;
+
+    NearestNeighbourSearch() {
+        keys = new double[64];
+        entries = new Object[64];
+        exact = new boolean[64];
+    }
+
+    /**
+     * Returns the search of this thread, or a new one if it is already in use.
+     *
+     * @return  A search that must be given back with release()
+     */
+    static NearestNeighbourSearch acquire() {
+        NearestNeighbourSearch search = (NearestNeighbourSearch) CACHE.get();
+        if (search == null) {
+            search = new NearestNeighbourSearch();
+            CACHE.set(search);
+        }
+        if (search.inUse) {
+            return new NearestNeighbourSearch();
+        }
+        search.inUse = true;
+        return search;
+    }
+
+    /**
+     * Gives the search back so the next search on this thread can use it.
+     */
+    void release() {
+        for (int i = 0; i < size; i++) {
+            entries[i] = null;
+        }
+        size = 0;
+        inUse = false;
+    }
+
+    /**
+     * Starts a new search from the root.
+     *
+     * @param root  The root node of the tree
+     * @param x     The x coordinate of the query point
+     * @param y     The y coordinate of the query point
+     */
+    void reset(final Node root, final int x, final int y) {
+        release();
+        inUse = true;
+        this.x = x;
+        this.y = y;
+        final Rectangle box = root.getBoundingBox();
+        if (root.getSize() > 0 && box != null) {
+            push(BoundingBoxes.minDistSq(box.x, box.y, box.x + box.width, box.y + box.height, x, y), root, false);
+        }
+    }
+
+    /**
+     * Finds the next nearest data object.
+     *
+     * @return  The next data object in order of distance, or null when all have been returned
+     */
+    DataObject advance() {
+        return advance(Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Finds the next nearest data object, if it is no further away than a given distance. Nothing is
+     * taken from the queue once it only holds entries that are further away.
+     *
+     * @param maxDistanceSq     The largest squared distance of interest
+     * @return                  The next data object in order of distance, or null when there are no more
+     *                          within the distance
+     */
+    DataObject advance(final double maxDistanceSq) {
+        while (size > 0 && keys[0] <= maxDistanceSq) {
+            final double key = keys[0];
+            final Object e = entries[0];
+            final boolean isExact = exact[0];
+            pop();
+
+            if (e instanceof Node) {
+                final Node n = (Node) e;
+                for (int i = 0; i < n.getSize(); i++) {
+                    push(BoundingBoxes.minDistSq(n.minX[i], n.minY[i], n.maxX[i], n.maxY[i], x, y),
+                            n.children.get(i), false);
+                }
+                continue;
+            }
+
+            final DataObject d = (DataObject) e;
+            if (isExact) {
+                lastDistance = key;
+                return d;
+            }
+            // Refine: the polygon is at least as far away as its bounding box. If it is still no further
+            // away than everything else in the queue, it is next, otherwise it waits for its turn.
+            final double distance = d.distanceSq(x, y);
+            if (distance > maxDistanceSq) {
+                continue;
+            }
+            if (size == 0 || distance <= keys[0]) {
+                lastDistance = distance;
+                return d;
+            }
+            push(distance, d, true);
+        }
+        return null;
+    }
+
+    /**
+     * @return  The squared distance from the query point to the data object returned by the last advance()
+     */
+    double distanceSq() {
+        return lastDistance;
+    }
+
+    private void push(final double key, final Object entry, final boolean isExact) {
+        if (size == keys.length) {
+            final double[] newKeys = new double[size * 2];
+            final Object[] newEntries = new Object[size * 2];
+            final boolean[] newExact = new boolean[size * 2];
+            System.arraycopy(keys, 0, newKeys, 0, size);
+            System.arraycopy(entries, 0, newEntries, 0, size);
+            System.arraycopy(exact, 0, newExact, 0, size);
+            keys = newKeys;
+            entries = newEntries;
+            exact = newExact;
+        }
+        // Sift up
+        int i = size++;
+        while (i > 0) {
+            final int parent = (i - 1) >>> 1;
+            if (keys[parent] <= key) {
+                break;
+            }
+            set(i, keys[parent], entries[parent], exact[parent]);
+            i = parent;
+        }
+        set(i, key, entry, isExact);
+    }
+
+    private void pop() {
+        size--;
+        final double key = keys[size];
+        final Object entry = entries[size];
+        final boolean isExact = exact[size];
+        entries[size] = null;
+        if (size == 0) {
+            return;
+        }
+        // Sift down
+        int i = 0;
+        int child;
+        while ((child = 2 * i + 1) < size) {
+            if (child + 1 < size && keys[child + 1] < keys[child]) {
+                child++;
+            }
+            if (key <= keys[child]) {
+                break;
+            }
+            set(i, keys[child], entries[child], exact[child]);
+            i = child;
+        }
+        set(i, key, entry, isExact);
+    }
+
+    private void set(final int i, final double key, final Object entry, final boolean isExact) {
+        keys[i] = key;
+        entries[i] = entry;
+        exact[i] = isExact;
+    }
+}
@@ -16,8 +16,19 @@ public final class Node implements TreeElement{
     private final int maxChildrenPerNode;
 
     private Node parent;
+    private int slot;       // The slot of this node in its parent
     public ArrayList children;
-    private Rectangle boundingBox;
+
+    // The bounding boxes of the children, stored in parallel with the children-list.
+    // Slot i holds the box of children.get(i). Read directly by the RTree when it scans a node.
+    int[] minX;
+    int[] minY;
+    int[] maxX;
+    int[] maxY;
+
+    // The bounding box of this node. It is updated in place and is only valid when hasBoundingBox is true.
+    private final Rectangle boundingBox;
+    private boolean hasBoundingBox;
     public Color fillcolor;
     private Color strokecolor;
     private int level;
@@ -32,7 +43,12 @@ public final class Node implements TreeElement{
     public Node(final int max,final int min){
         maxChildrenPerNode = max;
         // Initialiseres the children-array
-        children = new ArrayList();
+        children = new ArrayList(max);
+        minX = new int[max];
+        minY = new int[max];
+        maxX = new int[max];
+        maxY = new int[max];
+        boundingBox = new Rectangle();
     }
 
     /**
@@ -56,12 +72,33 @@ public final class Node implements TreeElement{
 
 
      /**
-     * Returns the boundingbox associated with this Node
+     * Returns the slot of this node in its parent's children-list
+     *
+     * @return  the slot
+     */
+    public int getSlot(){
+        return slot;
+    }
+
+
+    /**
+     * Sets the slot of this node in its parent's children-list. Only the parent should do this.
      *
-     * @return  the boundingbox of this Node
+     * @param slot  the new slot
+     */
+    public void setSlot(final int slot){
+        this.slot = slot;
+    }
+
+
+     /**
+     * Returns the boundingbox associated with this Node.
+     * The rectangle is updated in place when the children change, so it should not be kept by the caller.
+     *
+     * @return  the boundingbox of this Node, or null if the node has no children
      */
     public Rectangle getBoundingBox(){
-        return boundingBox;
+        return hasBoundingBox ? boundingBox : null;
     }
 
 
@@ -71,12 +108,16 @@ public final class Node implements TreeElement{
      * @param element   the TreeElemtn to be added to this Nodes children
      */
     public void add(final TreeElement element) {
+        final int slot = children.size();
+        ensureCapacity(slot + 1);
         children.add(element);
         if (!(element instanceof DataObject)){
            ((Node)element).setLevel(level-1);
         }
         element.setParent(this);
-        updateBoundingBox(element.getBoundingBox());
+        element.setSlot(slot);
+        setBox(slot, element.getBoundingBox());
+        updateBoundingBox(slot);
     }
 
     /**
@@ -91,85 +132,192 @@ public final class Node implements TreeElement{
     }
 
     /**
-     * Removes the specified TreeElemtent from the children list
+     * Removes the specified TreeElemtent from the children list. The child knows its slot, and the last
+     * child is moved into that slot, so nothing has to be searched or shifted. The bounding box of this
+     * Node is only recalculated if the removed child touched its edge.
      *
      * @param e     The child to be removed
+     * @return      true if the bounding box of this Node has changed
      */
-    public void removeChild(final TreeElement e) {
-        children.remove(e);
+    public boolean removeChild(final TreeElement e) {
+        final int slot = indexOf(e);
+        final boolean onEdge = minX[slot] == boundingBox.x || minY[slot] == boundingBox.y
+                || maxX[slot] == boundingBox.x + boundingBox.width || maxY[slot] == boundingBox.y + boundingBox.height;
+        final int last = children.size() - 1;
+        if (slot != last){
+            final TreeElement moved = (TreeElement) children.get(last);
+            children.set(slot, moved);
+            moved.setSlot(slot);
+            minX[slot] = minX[last];
+            minY[slot] = minY[last];
+            maxX[slot] = maxX[last];
+            maxY[slot] = maxY[last];
+        }
+        children.remove(last);
         e.setParent(null);
-        refreshBoundingBox();
+        if (onEdge){
+            recalculateBoundingBox();
+        }
+        return onEdge;
     }
 
 
     /**
      * Refreshes the boundingBox of this Node based on the children in the children-array.
-     * This is done each time it is necessary (when a child is added or removed)
+     * All the child slots are read again from the children, so this also picks up children whose
+     * bounding boxes have changed.
      */
     public void refreshBoundingBox() {
+        for (int i = 0; i < children.size(); i++){
+            setBox(i, ((TreeElement)children.get(i)).getBoundingBox());
+        }
+        recalculateBoundingBox();
+    }
+
 
-        if (children.size() == 0){
-            boundingBox = null;
+    /**
+     * Refreshes the slot of a single child whose bounding box has changed, and then the bounding box
+     * of this Node. This is cheaper than refreshBoundingBox when only one child has changed.
+     *
+     * @param child     The child whose bounding box has changed
+     * @return          true if the bounding box of this Node has changed
+     */
+    public boolean refreshChild(final TreeElement child) {
+        final int slot = indexOf(child);
+        final Rectangle r = child.getBoundingBox();
+        final int x = boundingBox.x;
+        final int y = boundingBox.y;
+        final int width = boundingBox.width;
+        final int height = boundingBox.height;
+        // A box that only grows can be merged in; a box that shrinks needs a full recalculation
+        final boolean grown = r.x <= minX[slot] && r.y <= minY[slot]
+                && r.x + r.width >= maxX[slot] && r.y + r.height >= maxY[slot];
+        setBox(slot, r);
+        if (grown){
+            updateBoundingBox(slot);
+        } else {
+            recalculateBoundingBox();
         }
-        else {
-            boundingBox = ((TreeElement)children.get(0)).getBoundingBox();
+        return boundingBox.x != x || boundingBox.y != y || boundingBox.width != width || boundingBox.height != height;
+    }
 
-            int minimum_x = boundingBox.x;
-            int maximum_x = boundingBox.x+boundingBox.width;
-            int minimum_y = boundingBox.y;
-            int maximum_y = boundingBox.y+boundingBox.height;
 
-            Rectangle current;
-            for (int i=0; i<children.size(); i++){
-                current = ((TreeElement)children.get(i)).getBoundingBox();
-                if(current.x < minimum_x){
-                    minimum_x = current.x;
-                }
-                if( (current.x + current.width) > maximum_x){
-                    maximum_x = current.x + current.width;
-                }
-                if(current.y < minimum_y){
-                    minimum_y = current.y;
-                }
-                if( (current.y + current.height) > maximum_y){
-                    maximum_y = current.y + current.height;
-                }
-            }
-            // Updates the boundingbox
-            boundingBox = new Rectangle(minimum_x,minimum_y,maximum_x-minimum_x,maximum_y-minimum_y);
+    /**
+     * Calculates the bounding box of this Node from the child slots.
+     */
+    private void recalculateBoundingBox() {
+        final int size = children.size();
+        if (size == 0){
+            hasBoundingBox = false;
+            return;
         }
 
+        int minimum_x = minX[0];
+        int maximum_x = maxX[0];
+        int minimum_y = minY[0];
+        int maximum_y = maxY[0];
+
+        for (int i=1; i<size; i++){
+            if(minX[i] < minimum_x){
+                minimum_x = minX[i];
+            }
+            if(maxX[i] > maximum_x){
+                maximum_x = maxX[i];
+            }
+            if(minY[i] < minimum_y){
+                minimum_y = minY[i];
+            }
+            if(maxY[i] > maximum_y){
+                maximum_y = maxY[i];
+            }
+        }
+        // Updates the boundingbox
+        boundingBox.setBounds(minimum_x,minimum_y,maximum_x-minimum_x,maximum_y-minimum_y);
+        hasBoundingBox = true;
     }
 
 
      /**
-     * Updates the boundingbox of this Node after the insertion of a new element.
+     * Updates the boundingbox of this Node so that it also covers the given child slot.
      *
-     * @param newBB     The rectangel which the boundingbox should now incorporate
+     * @param slot     The slot which the boundingbox should now incorporate
      */
-    private void updateBoundingBox(final Rectangle newBB){
-        if (boundingBox == null){
-            boundingBox = newBB;
+    private void updateBoundingBox(final int slot){
+        if (!hasBoundingBox){
+            boundingBox.setBounds(minX[slot], minY[slot], maxX[slot]-minX[slot], maxY[slot]-minY[slot]);
+            hasBoundingBox = true;
         } else {
             int minimum_x = boundingBox.x;
             int maximum_x = boundingBox.x+boundingBox.width;
             int minimum_y = boundingBox.y;
             int maximum_y = boundingBox.y+boundingBox.height;
 
-            if(newBB.x < minimum_x){
-                minimum_x = newBB.x;
+            if(minX[slot] < minimum_x){
+                minimum_x = minX[slot];
             }
-            if( (newBB.x + newBB.width) > maximum_x){
-                maximum_x = newBB.x + newBB.width;
+            if(maxX[slot] > maximum_x){
+                maximum_x = maxX[slot];
             }
-            if(newBB.y < minimum_y){
-                minimum_y = newBB.y;
+            if(minY[slot] < minimum_y){
+                minimum_y = minY[slot];
             }
-            if( (newBB.y + newBB.height) > maximum_y){
-                maximum_y = newBB.y + newBB.height;
+            if(maxY[slot] > maximum_y){
+                maximum_y = maxY[slot];
             }
-            boundingBox = new Rectangle(minimum_x,minimum_y, maximum_x-minimum_x,maximum_y-minimum_y);
+            boundingBox.setBounds(minimum_x,minimum_y, maximum_x-minimum_x,maximum_y-minimum_y);
+        }
+    }
+
+
+    /**
+     * Copies a bounding box into a child slot.
+     *
+     * @param slot  The slot
+     * @param r     The bounding box of the child in that slot
+     */
+    private void setBox(final int slot, final Rectangle r){
+        minX[slot] = r.x;
+        minY[slot] = r.y;
+        maxX[slot] = r.x + r.width;
+        maxY[slot] = r.y + r.height;
+    }
+
+
+    /**
+     * Makes sure the slot arrays can hold the given number of children. The arrays are sized
+     * for M children up front, so this only grows them when a node is filled beyond that.
+     *
+     * @param capacity  The number of children the arrays must be able to hold
+     */
+    private void ensureCapacity(final int capacity){
+        if (capacity > minX.length){
+            final int newLength = Math.max(capacity, minX.length * 2);
+            minX = copyOf(minX, newLength);
+            minY = copyOf(minY, newLength);
+            maxX = copyOf(maxX, newLength);
+            maxY = copyOf(maxY, newLength);
+        }
+    }
+
+    private static int[] copyOf(final int[] array, final int length){
+        final int[] copy = new int[length];
+        System.arraycopy(array, 0, copy, 0, array.length);
+        return copy;
+    }
+
+
+    /**
+     * Finds the slot of a child. The child knows its own slot, this only checks that it is right.
+     *
+     * @param e     The child
+     * @return      The slot of the child
+     */
+    private int indexOf(final TreeElement e){
+        final int slot = e.getSlot();
+        if (e.getParent() != this || slot >= children.size() || children.get(slot) != e){
+            throw new IllegalArgumentException("Not a child of this node");
         }
+        return slot;
     }
 
      /**
@@ -180,7 +328,7 @@ public final class Node implements TreeElement{
      */
     public void drawMe(final Graphics2D g2d){
 
-        if (boundingBox !=null){
+        if (hasBoundingBox){
             g2d.setColor(strokecolor);
             g2d.draw(boundingBox);
             g2d.setColor(fillcolor);
@@ -236,13 +384,18 @@ public final class Node implements TreeElement{
      */
     public void morph(final Node l) {
         children = l.children;
+        // l is thrown away after this, so its slot arrays can be taken over as well
+        minX = l.minX;
+        minY = l.minY;
+        maxX = l.maxX;
+        maxY = l.maxY;
 
         for(int i = 0; i < getSize(); i++){
             ((TreeElement) children.get(i)).setParent(this);
+            ((TreeElement) children.get(i)).setSlot(i);
         }
 
-        boundingBox = null;
-        refreshBoundingBox();
+        recalculateBoundingBox();
     }
 
 
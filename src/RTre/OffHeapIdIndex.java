@@ -0,0 +1,148 @@
+package RTre;
+
+/**
+ * The polygon records of an OffHeapRTree by the id of their data object, so that a data object
+ * can be deleted by id. It is an open addressing hash table like DataObjectIndex, but kept in slabs
+ * as well, so that it adds nothing to the heap however many data objects the tree holds.
+ *
+ * An entry is 16 bytes: the address of the record plus one, so that the zeroes of a new slab mean
+ * a free entry, and the id. The table starts small in a single slab of its own size, and doubles
+ * when it is three quarters full.
+ */
+final class OffHeapIdIndex {
+
+    private static final int ENTRY_SIZE = 16;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private Slabs table;
+    private int capacity;       // The number of entries, a power of two
+    private int size;
+
+    OffHeapIdIndex() {
+        clear();
+    }
+
+    /**
+     * @return  The address of the polygon record of the data object with the id, or -1 if there is none
+     */
+    long get(final int id) {
+        final int mask = capacity - 1;
+        for (int i = slot(id, mask); ; i = (i + 1) & mask) {
+            final long e = (long) i * ENTRY_SIZE;
+            final long address = table.getLong(e) - 1;
+            if (address < 0 || table.getInt(e + 8) == id) {
+                return address;
+            }
+        }
+    }
+
+    /**
+     * Adds the record of a data object, replacing the record with the same id if there is one.
+     *
+     * @param id        The id of the data object
+     * @param address   The address of its polygon record
+     */
+    void put(final int id, final long address) {
+        if (4L * (size + 1) > 3L * capacity) {
+            resize(2 * capacity);
+        }
+        if (insert(id, address)) {
+            size++;
+        }
+    }
+
+    /**
+     * @return  true if the id was not in the table before
+     */
+    private boolean insert(final int id, final long address) {
+        final int mask = capacity - 1;
+        for (int i = slot(id, mask); ; i = (i + 1) & mask) {
+            final long e = (long) i * ENTRY_SIZE;
+            final boolean free = table.getLong(e) == 0;
+            if (free || table.getInt(e + 8) == id) {
+                table.putLong(e, address + 1);
+                table.putInt(e + 8, id);
+                return free;
+            }
+        }
+    }
+
+    /**
+     * Removes the record of the data object with an id.
+     *
+     * @param id    The id
+     */
+    void remove(final int id) {
+        final int mask = capacity - 1;
+        int i = slot(id, mask);
+        while (true) {
+            final long e = (long) i * ENTRY_SIZE;
+            if (table.getLong(e) == 0) {
+                return;
+            }
+            if (table.getInt(e + 8) == id) {
+                break;
+            }
+            i = (i + 1) & mask;
+        }
+        // Close the gap as DataObjectIndex.remove does
+        int gap = i;
+        for (int j = (gap + 1) & mask; table.getLong((long) j * ENTRY_SIZE) != 0; j = (j + 1) & mask) {
+            final long e = (long) j * ENTRY_SIZE;
+            final int home = slot(table.getInt(e + 8), mask);
+            if (((j - home) & mask) >= ((j - gap) & mask)) {
+                final long g = (long) gap * ENTRY_SIZE;
+                table.putLong(g, table.getLong(e));
+                table.putInt(g + 8, table.getInt(e + 8));
+                gap = j;
+            }
+        }
+        table.putLong((long) gap * ENTRY_SIZE, 0);
+        size--;
+    }
+
+    /**
+     * Removes all records, and gives the slabs of a large table back.
+     */
+    void clear() {
+        table = null;
+        capacity = 0;
+        size = 0;
+        resize(INITIAL_CAPACITY);
+    }
+
+    /**
+     * @return  The bytes of memory outside the heap that the table has taken
+     */
+    long capacityInBytes() {
+        return table.capacity();
+    }
+
+    private void resize(final int newCapacity) {
+        final Slabs old = table;
+        final int oldCapacity = capacity;
+        final long bytes = (long) newCapacity * ENTRY_SIZE;
+        // A small table has a single slab of its own size. Entries never cross a slab, since the
+        // size of a slab is a multiple of the size of an entry.
+        table = new Slabs(Math.min(OffHeapRTree.SLAB_SHIFT, 63 - Long.numberOfLeadingZeros(bytes)));
+        while (table.capacity() < bytes) {
+            table.grow();
+        }
+        capacity = newCapacity;
+        for (int i = 0; i < oldCapacity; i++) {
+            final long e = (long) i * ENTRY_SIZE;
+            final long address = old.getLong(e);
+            if (address != 0) {
+                insert(old.getInt(e + 8), address - 1);
+            }
+        }
+    }
+
+    /**
+     * Ids are mostly consecutive, so they are spread over the table by multiplying with the golden ratio.
+     */
+    private static int slot(final int id, final int mask) {
+        final int h = id * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+}
@@ -0,0 +1,942 @@
+package RTre;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+
+/**
+ * An R-tree of DataObjects whose nodes and polygons are kept outside the Java heap, for indexes of
+ * tens of millions of data objects. An RTree pays for a Node with an ArrayList, a Rectangle and
+ * colours per node, and for a DataObject with its polygon, box and colours, several hundred bytes
+ * of heap per data object that the garbage collector has to trace. Here the nodes are records in
+ * direct ByteBuffer slabs (see Slabs), and point to each other by number instead of by reference,
+ * so the heap holds little more than the slab buffers themselves.
+ *
+ * A node is a record of a fixed size: the level, the number of children and the number of the parent
+ * node, followed by room for M+1 slots of 24 bytes, the same slots as in the pages of PagedRTree:
+ * minX, minY, maxX, maxY as ints, and a long that is the number of the child node, or in a leaf the
+ * address of the polygon. A polygon is a record with the id of the data object, the number of points,
+ * and the x and the y coordinates. Freed nodes and polygons are kept in free lists and used again.
+ *
+ * The tree is Guttman's R-tree like RTree with the GUTTMAN strategy, with any SplitPolicy. The data
+ * objects are copied into the tree, and the ones handed to a visitor are made from the slabs for each
+ * search. They have the ids of the data objects that were inserted, so delete works with either.
+ * An OffHeapIdIndex, in slabs too, finds the polygon record of an id for delete by id.
+ *
+ * It has these operations of RTree: insert (insertTreeElement there) and insertAll, delete by data
+ * object and by id, deleteWithin, bulkLoad, search with a visitor and to a list, nearest with a
+ * visitor and to a list, clearTree and getNumberOfLevels. The others are missing:
+ * - findLeaves and deleteLeaves, since the selection is a list of the DataObjects in the tree, which
+ *   this tree does not keep. deleteWithin deletes what findLeaves would select.
+ * - getRootNode, deselect, mostRecent, releaseMostRecent and setColor, which are for the GUI.
+ * - searchBatch, searchParallel, nearestParallel, join and joinParallel, which all walk Nodes.
+ * - save, load, export and restore, whose file formats are made from Nodes.
+ * - deleteAll, search with a limit, iterator, stream, getDataObject, getMetrics, getSplitPolicy and
+ *   rebuildTree, which could be written for this tree but have not been.
+ * Neither is there the R*-tree insertion strategy.
+ *
+ * The tree is not thread safe.
+ */
+public final class OffHeapRTree {
+
+    static final int SLAB_SHIFT = 24;           // 16 MB slabs
+    static final int NODE_HEADER_SIZE = 16;
+    static final int SLOT_SIZE = 24;
+    private static final int NONE = -1;
+
+    private final int maxChildrenPerNode;       // M
+    private final int minimumChildrenPerNode;   // m
+    private final SplitPolicy splitPolicy;
+    private final int nodeSize;                 // The bytes of one node record
+    private final int nodesPerSlab;
+
+    private final Slabs nodes;
+    private final Slabs polygons;
+    private final OffHeapIdIndex byId;
+    private int nodeCount;                      // Node numbers in use or on the free list
+    private int freeNode;                       // The first free node, NONE if there is none
+    private long polygonEnd;                    // The end of the last polygon record
+    private long[] freePolygons;                // The first free polygon record for each number of points
+    private int root;
+    private int size;
+
+    // Work array for the bounding box of a node
+    private final int[] box = new int[4];
+
+    /**
+     * Constructor
+     * Creates an empty tree that splits nodes with Guttman's quadratic split.
+     *
+     * @param max   M, the maximum number of children per node
+     * @param min   m, the minimum number of children per node
+     */
+    public OffHeapRTree(final int max, final int min) {
+        this(max, min, new QuadraticSplit());
+    }
+
+    /**
+     * Constructor
+     * Creates an empty tree.
+     *
+     * @param max           M, the maximum number of children per node
+     * @param min           m, the minimum number of children per node
+     * @param splitPolicy   How overfull nodes are split
+     */
+    public OffHeapRTree(final int max, final int min, final SplitPolicy splitPolicy) {
+        if (min < 1 || min > max / 2) {
+            throw new IllegalArgumentException("m must be between 1 and M/2, was " + min + " with M " + max);
+        }
+        maxChildrenPerNode = max;
+        minimumChildrenPerNode = min;
+        this.splitPolicy = splitPolicy;
+        nodeSize = (NODE_HEADER_SIZE + SLOT_SIZE * (max + 1) + 7) & ~7;
+        if (nodeSize > 1 << SLAB_SHIFT) {
+            throw new IllegalArgumentException("M is too large for a slab: " + max);
+        }
+        nodesPerSlab = (1 << SLAB_SHIFT) / nodeSize;
+        nodes = new Slabs(SLAB_SHIFT);
+        polygons = new Slabs(SLAB_SHIFT);
+        byId = new OffHeapIdIndex();
+        clearTree();
+    }
+
+    /**
+     * Removes all data objects and gives the slabs back.
+     */
+    public void clearTree() {
+        nodes.clear();
+        polygons.clear();
+        byId.clear();
+        nodeCount = 0;
+        freeNode = NONE;
+        polygonEnd = 0;
+        freePolygons = new long[16];
+        Arrays.fill(freePolygons, NONE);
+        root = newNode(1);
+        nodes.putInt(node(root) + 8, NONE);
+        size = 0;
+    }
+
+    /**
+     * @return  The number of data objects in the tree
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of levels in the tree, counting the data objects as a level, like RTree does.
+     *
+     * @return  Number of levels in the tree
+     */
+    public int getNumberOfLevels() {
+        return level(root) + 1;
+    }
+
+    /**
+     * @return  The bytes of memory outside the heap that the tree has taken
+     */
+    public long getOffHeapBytes() {
+        return nodes.capacity() + polygons.capacity() + byId.capacityInBytes();
+    }
+
+    /**
+     * Inserts a data object. Its polygon is copied into the tree.
+     *
+     * @param dataObject    The data object to insert
+     */
+    public void insert(final DataObject dataObject) {
+        final Rectangle b = dataObject.getBoundingBox();
+        final long a = storePolygon(dataObject);
+        insert(b.x, b.y, b.x + b.width, b.y + b.height, a, 1);
+        byId.put(dataObject.getId(), a);
+        size++;
+    }
+
+    /**
+     * Inserts many data objects, one at a time.
+     *
+     * @param dataObjects   The data objects to insert
+     */
+    public void insertAll(final Collection dataObjects) {
+        for (final Iterator it = dataObjects.iterator(); it.hasNext(); ) {
+            insert((DataObject) it.next());
+        }
+    }
+
+    /**
+     * Replaces the contents of the tree with the given data objects, built bottom-up in the order of
+     * a bulk load method like RTree.bulkLoad. The nodes are made in the slabs level by level, and
+     * are filled to M as there, but for the last two of a level, which may share their children so
+     * that neither has fewer than m.
+     *
+     * @param dataObjects   The data objects the tree should contain
+     * @param method        RTree.SORT_TILE_RECURSIVE or RTree.HILBERT
+     */
+    public void bulkLoad(final ArrayList dataObjects, final int method) {
+        clearTree();
+        if (dataObjects.isEmpty()) {
+            return;
+        }
+        freeNode(root);
+        Bounded[] entries = (Bounded[]) dataObjects.toArray(new Bounded[dataObjects.size()]);
+        int level = 1;
+        do {
+            BulkLoader.order(entries, method, maxChildrenPerNode);
+            final int[] sizes = BulkLoader.groupSizes(entries.length, maxChildrenPerNode, minimumChildrenPerNode);
+            final Bounded[] packed = new Bounded[sizes.length];
+            int start = 0;
+            for (int g = 0; g < sizes.length; g++) {
+                final int n = newNode(level);
+                for (int i = start; i < start + sizes[g]; i++) {
+                    if (level == 1) {
+                        final DataObject d = (DataObject) entries[i];
+                        final Rectangle b = d.getBoundingBox();
+                        final long a = storePolygon(d);
+                        add(n, b.x, b.y, b.x + b.width, b.y + b.height, a);
+                        byId.put(d.getId(), a);
+                    } else {
+                        final Orphan o = (Orphan) entries[i];
+                        add(n, o.minX, o.minY, o.maxX, o.maxY, o.ref);
+                    }
+                }
+                union(n, box);
+                packed[g] = new Orphan(box[0], box[1], box[2], box[3], n, level);
+                start += sizes[g];
+            }
+            entries = packed;
+            level++;
+        } while (entries.length > 1);
+        root = (int) ((Orphan) entries[0]).ref;
+        nodes.putInt(node(root) + 8, NONE);
+        size = dataObjects.size();
+    }
+
+    /**
+     * Inserts a slot into a node on a level, as described by Guttman.
+     *
+     * @param ref       The number of a node, or the address of a polygon
+     * @param level     The level of the node the slot goes into, 1 for a polygon
+     */
+    private void insert(final int minX, final int minY, final int maxX, final int maxY, final long ref, final int level) {
+        // I1 [Find position for new record]
+        final int l = chooseNode(minX, minY, maxX, maxY, level);
+
+        // I2 [Add record to leaf node] The node has room for one more, and is split if it gets too many
+        add(l, minX, minY, maxX, maxY, ref);
+        int ll = NONE;
+        if (count(l) > maxChildrenPerNode) {
+            ll = splitNode(l);
+        }
+
+        // I3 [Propagate changes upward]
+        final int splitRoot = adjustTree(l, ll);
+
+        // I4 [Grow tree taller]
+        if (splitRoot != NONE) {
+            final int newRoot = newNode(level(root) + 1);
+            nodes.putInt(node(newRoot) + 8, NONE);
+            union(root, box);
+            add(newRoot, box[0], box[1], box[2], box[3], root);
+            union(splitRoot, box);
+            add(newRoot, box[0], box[1], box[2], box[3], splitRoot);
+            root = newRoot;
+        }
+    }
+
+    /**
+     * Chooses the node on a level whose bounding box needs the least enlargement to include a box.
+     * Ties are resolved by the smallest area.
+     */
+    private int chooseNode(final int minX, final int minY, final int maxX, final int maxY, final int level) {
+        // CL1 [Initialize]
+        int n = root;
+        while (level(n) > level) {
+            // CL3 [Choose subtree]
+            final long a = node(n);
+            long best = 0;
+            long bestEnlargement = Long.MAX_VALUE;
+            long bestArea = Long.MAX_VALUE;
+            for (int i = 0; i < count(n); i++) {
+                final long s = a + NODE_HEADER_SIZE + (long) SLOT_SIZE * i;
+                final int sMinX = nodes.getInt(s);
+                final int sMinY = nodes.getInt(s + 4);
+                final int sMaxX = nodes.getInt(s + 8);
+                final int sMaxY = nodes.getInt(s + 12);
+                final long enlargement = BoundingBoxes.enlargement(sMinX, sMinY, sMaxX, sMaxY, minX, minY, maxX, maxY);
+                final long area = BoundingBoxes.area(sMinX, sMinY, sMaxX, sMaxY);
+                if (enlargement < bestEnlargement || (enlargement == bestEnlargement && area < bestArea)) {
+                    best = s;
+                    bestEnlargement = enlargement;
+                    bestArea = area;
+                }
+            }
+            // CL4 [Descend until a leaf is reached]
+            n = (int) nodes.getLong(best + 16);
+        }
+        return n;
+    }
+
+    /**
+     * Adjusts the boxes of the ancestors of a changed node, and adds the nodes from splits to their
+     * parents. Stops early when a box has not changed and nothing was split.
+     *
+     * @return  The node split off from the root, or NONE
+     */
+    private int adjustTree(final int l, final int ll) {
+        // AT1 [Initialize]
+        int n = l;
+        int nn = ll;
+
+        // AT2 [Check if done]
+        while (n != root) {
+            // AT3 [Adjust covering rectangle in parent entry]
+            final int p = parent(n);
+            final long s = slotOf(p, n);
+            union(n, box);
+            if (nn == NONE && hasBox(s, box)) {
+                return NONE;
+            }
+            setBox(s, box);
+
+            // AT4 [Propagate node split upward]
+            int pp = NONE;
+            if (nn != NONE) {
+                union(nn, box);
+                add(p, box[0], box[1], box[2], box[3], nn);
+                if (count(p) > maxChildrenPerNode) {
+                    pp = splitNode(p);
+                }
+            }
+
+            // AT5 [Move up to next level]
+            n = p;
+            nn = pp;
+        }
+        return nn;
+    }
+
+    /**
+     * Splits a node with M+1 children with the split policy. The node keeps the first group, and
+     * a new node gets the second.
+     *
+     * @return  The new node
+     */
+    private int splitNode(final int n) {
+        final ArrayList entries = new ArrayList(count(n));
+        final long a = node(n);
+        for (int i = 0; i < count(n); i++) {
+            entries.add(new Orphan(nodes, a + NODE_HEADER_SIZE + (long) SLOT_SIZE * i, level(n) - 1));
+        }
+        final int first = splitPolicy.split(entries, minimumChildrenPerNode);
+
+        final int nn = newNode(level(n));
+        nodes.putInt(a + 4, 0);
+        for (int i = 0; i < entries.size(); i++) {
+            final Orphan o = (Orphan) entries.get(i);
+            add(i < first ? n : nn, o.minX, o.minY, o.maxX, o.maxY, o.ref);
+        }
+        return nn;
+    }
+
+    /**
+     * Deletes a data object. It is found by its bounding box and its id.
+     *
+     * @param dataObject    The data object to delete
+     * @return              true if the data object was in the tree and has been deleted
+     */
+    public boolean delete(final DataObject dataObject) {
+        final Rectangle b = dataObject.getBoundingBox();
+        return delete(b.x, b.y, b.x + b.width, b.y + b.height, dataObject.getId());
+    }
+
+    /**
+     * Deletes the data object with the given id. Its box is taken from its polygon record, and its
+     * leaf is then found as in delete.
+     *
+     * @param id    The id of the data object
+     * @return      true if a data object with that id was in the tree and has been deleted
+     */
+    public boolean delete(final int id) {
+        final long a = byId.get(id);
+        if (a < 0) {
+            return false;
+        }
+        final int n = polygons.getInt(a + 4);
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+        for (int i = 0; i < n; i++) {
+            final int x = polygons.getInt(a + 8 + 4 * i);
+            final int y = polygons.getInt(a + 8 + 4 * (n + i));
+            minX = Math.min(minX, x);
+            minY = Math.min(minY, y);
+            maxX = Math.max(maxX, x);
+            maxY = Math.max(maxY, y);
+        }
+        return delete(minX, minY, maxX, maxY, id);
+    }
+
+    /**
+     * Deletes all data objects that intersect a rectangle, or lie inside it, which are the ones
+     * search would find. They are found with one search, and then deleted one by one.
+     *
+     * @param r     The rectangle
+     * @return      The number of data objects that were deleted
+     */
+    public int deleteWithin(final Rectangle r) {
+        final ArrayList found = search(r);
+        for (int i = 0; i < found.size(); i++) {
+            delete((DataObject) found.get(i));
+        }
+        return found.size();
+    }
+
+    private boolean delete(final int minX, final int minY, final int maxX, final int maxY, final int id) {
+        // D1 [Find node containing record]
+        final long s = findLeaf(root, minX, minY, maxX, maxY, id);
+        if (s == NONE) {
+            return false;
+        }
+
+        // D2 [Delete record]
+        final int l = (int) (s >>> 32);
+        freePolygon(nodes.getLong(node(l) + NODE_HEADER_SIZE + (long) SLOT_SIZE * (int) s + 16));
+        remove(l, (int) s);
+        byId.remove(id);
+        size--;
+
+        // D3 [Propagate changes]
+        condenseTree(l);
+
+        // D4 [Shorten tree]
+        while (level(root) > 1 && count(root) == 1) {
+            final int child = (int) nodes.getLong(node(root) + NODE_HEADER_SIZE + 16);
+            freeNode(root);
+            root = child;
+            nodes.putInt(node(root) + 8, NONE);
+        }
+        return true;
+    }
+
+    /**
+     * Finds the slot of a data object, looking only in subtrees whose boxes contain its box.
+     *
+     * @return  The leaf in the high 32 bits and the slot in the low 32 bits, or NONE
+     */
+    private long findLeaf(final int n, final int minX, final int minY, final int maxX, final int maxY, final int id) {
+        final long a = node(n);
+        final boolean leaf = level(n) == 1;
+        for (int i = 0; i < count(n); i++) {
+            final long s = a + NODE_HEADER_SIZE + (long) SLOT_SIZE * i;
+            if (leaf) {
+                if (nodes.getInt(s) == minX && nodes.getInt(s + 4) == minY && nodes.getInt(s + 8) == maxX
+                        && nodes.getInt(s + 12) == maxY && polygons.getInt(nodes.getLong(s + 16)) == id) {
+                    return ((long) n << 32) | i;
+                }
+            } else if (nodes.getInt(s) <= minX && nodes.getInt(s + 4) <= minY && nodes.getInt(s + 8) >= maxX
+                    && nodes.getInt(s + 12) >= maxY) {
+                final long found = findLeaf((int) nodes.getLong(s + 16), minX, minY, maxX, maxY, id);
+                if (found != NONE) {
+                    return found;
+                }
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Eliminates the under-full nodes on the path from a leaf to the root, adjusts the boxes on the
+     * way, and inserts the orphaned slots again. Stops early at a node that is not under-full and
+     * whose box has not changed, since nothing above it changes then.
+     *
+     * @param l     The leaf a data object was deleted from
+     */
+    private void condenseTree(final int l) {
+        // CT1 [Initialize]
+        final ArrayList q = new ArrayList();
+        int n = l;
+
+        while (n != root) {
+            // CT2 [Find parent entry]
+            final int p = parent(n);
+            final long s = slotOf(p, n);
+
+            // CT3 [Eliminate under-full node]
+            if (count(n) < minimumChildrenPerNode) {
+                final long a = node(n);
+                for (int i = 0; i < count(n); i++) {
+                    q.add(new Orphan(nodes, a + NODE_HEADER_SIZE + (long) SLOT_SIZE * i, level(n) - 1));
+                }
+                remove(p, (int) ((s - node(p) - NODE_HEADER_SIZE) / SLOT_SIZE));
+                freeNode(n);
+            } else {
+                // CT4 [Adjust covering rectangle]
+                union(n, box);
+                if (hasBox(s, box)) {
+                    break;
+                }
+                setBox(s, box);
+            }
+
+            // CT5 [Move up one level in tree]
+            n = p;
+        }
+
+        // CT6 [Re-insert orphaned entries] A subtree can only be inserted below the root. If the root
+        // has lost all its children, it becomes an empty leaf, and the entries of the subtrees are
+        // inserted one by one.
+        if (count(root) == 0 && level(root) > 1) {
+            freeNode(root);
+            root = newNode(1);
+            nodes.putInt(node(root) + 8, NONE);
+        }
+        while (!q.isEmpty()) {
+            final Orphan o = (Orphan) q.remove(q.size() - 1);
+            if (o.level < level(root)) {
+                insert(o.minX, o.minY, o.maxX, o.maxY, o.ref, o.level + 1);
+            } else {
+                final int orphan = (int) o.ref;
+                final long a = node(orphan);
+                for (int i = 0; i < count(orphan); i++) {
+                    q.add(new Orphan(nodes, a + NODE_HEADER_SIZE + (long) SLOT_SIZE * i, o.level - 1));
+                }
+                freeNode(orphan);
+            }
+        }
+    }
+
+    /**
+     * Searches the tree for all data objects that intersect a rectangle, or lie inside it, and hands
+     * them to a visitor as they are found. Gives the same matches as RTree.search would.
+     *
+     * @param r         The rectangle
+     * @param visitor   Receives each match, and can stop the search by returning false
+     * @return          The number of matches handed to the visitor
+     */
+    public int search(final Rectangle r, final SearchVisitor visitor) {
+        final int[] found = new int[1];
+        final Rectangle query = new Rectangle(r);
+        if (count(root) > 0) {
+            union(root, box);
+            if (new Rectangle(box[0], box[1], box[2] - box[0], box[3] - box[1]).intersects(query)) {
+                search(root, query, query.x, query.y, query.x + query.width, query.y + query.height, visitor, found);
+            }
+        }
+        return found[0];
+    }
+
+    /**
+     * Searches the tree for all data objects that intersect a rectangle, or lie inside it.
+     *
+     * @param r     The rectangle
+     * @return      The matching data objects
+     */
+    public ArrayList search(final Rectangle r) {
+        final ArrayList result = new ArrayList();
+        search(r, new SearchVisitor() {
+            public boolean visit(final DataObject dataObject) {
+                result.add(dataObject);
+                return true;
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Finds the k data objects whose polygons are closest to a point, and hands them to a visitor
+     * closest first, like RTree.nearest. The tree is searched best-first as in NearestNeighbourSearch:
+     * nodes and polygons wait in one queue ordered by their distance to the point, a polygon first
+     * with the distance to its box and then with its exact distance.
+     *
+     * @param x         The x coordinate of the point
+     * @param y         The y coordinate of the point
+     * @param k         The largest number of neighbours to find
+     * @param visitor   Receives each neighbour, and can stop the search by returning false
+     * @return          The number of neighbours handed to the visitor
+     */
+    public int nearest(final int x, final int y, final int k, final SearchVisitor visitor) {
+        int found = 0;
+        if (k <= 0 || count(root) == 0) {
+            return 0;
+        }
+        final DistanceQueue queue = new DistanceQueue();
+        union(root, box);
+        queue.push(BoundingBoxes.minDistSq(box[0], box[1], box[2], box[3], x, y), root, true, null);
+        while (found < k && queue.size > 0) {
+            final long ref = queue.refs[0];
+            final boolean isNode = queue.isNode[0];
+            DataObject d = queue.exact[0];
+            queue.pop();
+
+            if (isNode) {
+                final long a = node((int) ref);
+                final boolean leaf = nodes.getInt(a) == 1;
+                for (long s = a + NODE_HEADER_SIZE, end = s + (long) SLOT_SIZE * nodes.getInt(a + 4); s < end; s += SLOT_SIZE) {
+                    queue.push(BoundingBoxes.minDistSq(nodes.getInt(s), nodes.getInt(s + 4), nodes.getInt(s + 8),
+                            nodes.getInt(s + 12), x, y), nodes.getLong(s + 16), !leaf, null);
+                }
+                continue;
+            }
+            if (d == null) {
+                // Refine: the polygon is next only if nothing else in the queue is closer
+                d = dataObject(ref);
+                final double distance = d.distanceSq(x, y);
+                if (queue.size > 0 && distance > queue.keys[0]) {
+                    queue.push(distance, ref, false, d);
+                    continue;
+                }
+            }
+            found++;
+            if (!visitor.visit(d)) {
+                break;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Finds the k data objects whose polygons are closest to a point.
+     *
+     * @param x     The x coordinate of the point
+     * @param y     The y coordinate of the point
+     * @param k     The largest number of neighbours to find
+     * @return      At most k data objects, closest first
+     */
+    public ArrayList nearest(final int x, final int y, final int k) {
+        final ArrayList result = new ArrayList(Math.max(0, Math.min(k, 1024)));
+        nearest(x, y, k, new SearchVisitor() {
+            public boolean visit(final DataObject dataObject) {
+                result.add(dataObject);
+                return true;
+            }
+        });
+        return result;
+    }
+
+    /**
+     * The same walk as SearchCursor, on the slabs.
+     *
+     * @return  false when the visitor has stopped the search
+     */
+    private boolean search(final int n, final Rectangle query,
+                           final int qMinX, final int qMinY, final int qMaxX, final int qMaxY,
+                           final SearchVisitor visitor, final int[] found) {
+        final long a = node(n);
+        final int level = nodes.getInt(a);
+        final int count = nodes.getInt(a + 4);
+        for (long s = a + NODE_HEADER_SIZE, end = s + (long) SLOT_SIZE * count; s < end; s += SLOT_SIZE) {
+            final int minX = nodes.getInt(s);
+            final int minY = nodes.getInt(s + 4);
+            final int maxX = nodes.getInt(s + 8);
+            final int maxY = nodes.getInt(s + 12);
+            if (level == 1) {
+                // The slot box is a cheap filter before the polygon is read and tested
+                if (minX <= qMaxX && maxX >= qMinX && minY <= qMaxY && maxY >= qMinY) {
+                    final DataObject d = dataObject(nodes.getLong(s + 16));
+                    if (query.contains(d.getBoundingBox()) || d.intersects(query)) {
+                        found[0]++;
+                        if (!visitor.visit(d)) {
+                            return false;
+                        }
+                    }
+                }
+            } else if (maxX > minX && maxY > minY && minX < qMaxX && maxX > qMinX && minY < qMaxY && maxY > qMinY) {
+                if (!search((int) nodes.getLong(s + 16), query, qMinX, qMinY, qMaxX, qMaxY, visitor, found)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    // The node records
+
+    private long node(final int n) {
+        return ((long) (n / nodesPerSlab) << SLAB_SHIFT) + (long) (n % nodesPerSlab) * nodeSize;
+    }
+
+    private int level(final int n) {
+        return nodes.getInt(node(n));
+    }
+
+    private int count(final int n) {
+        return nodes.getInt(node(n) + 4);
+    }
+
+    private int parent(final int n) {
+        return nodes.getInt(node(n) + 8);
+    }
+
+    /**
+     * Takes a node from the free list, or a new one.
+     */
+    private int newNode(final int level) {
+        final int n;
+        if (freeNode != NONE) {
+            n = freeNode;
+            freeNode = nodes.getInt(node(n) + 8);
+        } else {
+            if (node(nodeCount) + nodeSize > nodes.capacity()) {
+                nodes.grow();
+            }
+            n = nodeCount++;
+        }
+        final long a = node(n);
+        nodes.putInt(a, level);
+        nodes.putInt(a + 4, 0);
+        return n;
+    }
+
+    private void freeNode(final int n) {
+        nodes.putInt(node(n) + 8, freeNode);
+        freeNode = n;
+    }
+
+    /**
+     * Adds a slot at the end of a node. A child node gets the node as its parent.
+     */
+    private void add(final int n, final int minX, final int minY, final int maxX, final int maxY, final long ref) {
+        final long a = node(n);
+        final int count = nodes.getInt(a + 4);
+        final long s = a + NODE_HEADER_SIZE + (long) SLOT_SIZE * count;
+        nodes.putInt(s, minX);
+        nodes.putInt(s + 4, minY);
+        nodes.putInt(s + 8, maxX);
+        nodes.putInt(s + 12, maxY);
+        nodes.putLong(s + 16, ref);
+        nodes.putInt(a + 4, count + 1);
+        if (nodes.getInt(a) > 1) {
+            nodes.putInt(node((int) ref) + 8, n);
+        }
+    }
+
+    /**
+     * Removes a slot from a node. The last slot is moved into it, so nothing is shifted.
+     */
+    private void remove(final int n, final int slot) {
+        final long a = node(n);
+        final int last = nodes.getInt(a + 4) - 1;
+        final long s = a + NODE_HEADER_SIZE + (long) SLOT_SIZE * slot;
+        final long t = a + NODE_HEADER_SIZE + (long) SLOT_SIZE * last;
+        for (int i = 0; i < SLOT_SIZE; i += 8) {
+            nodes.putLong(s + i, nodes.getLong(t + i));
+        }
+        nodes.putInt(a + 4, last);
+    }
+
+    /**
+     * @return  The address of the slot of a child node in its parent
+     */
+    private long slotOf(final int p, final int child) {
+        final long a = node(p);
+        for (long s = a + NODE_HEADER_SIZE, end = s + (long) SLOT_SIZE * count(p); s < end; s += SLOT_SIZE) {
+            if (nodes.getLong(s + 16) == child) {
+                return s;
+            }
+        }
+        throw new IllegalStateException("Node " + child + " is not a child of its parent " + p);
+    }
+
+    /**
+     * Calculates the bounding box of a node from its slots.
+     */
+    private void union(final int n, final int[] b) {
+        final long a = node(n);
+        b[0] = Integer.MAX_VALUE;
+        b[1] = Integer.MAX_VALUE;
+        b[2] = Integer.MIN_VALUE;
+        b[3] = Integer.MIN_VALUE;
+        for (long s = a + NODE_HEADER_SIZE, end = s + (long) SLOT_SIZE * count(n); s < end; s += SLOT_SIZE) {
+            b[0] = Math.min(b[0], nodes.getInt(s));
+            b[1] = Math.min(b[1], nodes.getInt(s + 4));
+            b[2] = Math.max(b[2], nodes.getInt(s + 8));
+            b[3] = Math.max(b[3], nodes.getInt(s + 12));
+        }
+    }
+
+    private boolean hasBox(final long s, final int[] b) {
+        return nodes.getInt(s) == b[0] && nodes.getInt(s + 4) == b[1] && nodes.getInt(s + 8) == b[2]
+                && nodes.getInt(s + 12) == b[3];
+    }
+
+    private void setBox(final long s, final int[] b) {
+        nodes.putInt(s, b[0]);
+        nodes.putInt(s + 4, b[1]);
+        nodes.putInt(s + 8, b[2]);
+        nodes.putInt(s + 12, b[3]);
+    }
+
+    // The polygon records
+
+    /**
+     * Copies the id and the polygon of a data object into a polygon record.
+     *
+     * @return  The address of the record
+     */
+    private long storePolygon(final DataObject dataObject) {
+        final Polygon p = dataObject.getPolygon();
+        final int length = 8 + 8 * p.npoints;
+        long a;
+        if (p.npoints < freePolygons.length && freePolygons[p.npoints] != NONE) {
+            a = freePolygons[p.npoints];
+            freePolygons[p.npoints] = polygons.getLong(a + 8);
+        } else {
+            if (length > polygons.slabSize()) {
+                throw new IllegalArgumentException("A polygon with " + p.npoints + " points is too large for a slab");
+            }
+            // A record that would cross into the next slab starts at the next slab instead
+            a = polygonEnd;
+            final long next = (a | (polygons.slabSize() - 1)) + 1;
+            if (a + length > next) {
+                a = next;
+            }
+            while (a + length > polygons.capacity()) {
+                polygons.grow();
+            }
+            polygonEnd = a + length;
+        }
+        polygons.putInt(a, dataObject.getId());
+        polygons.putInt(a + 4, p.npoints);
+        for (int i = 0; i < p.npoints; i++) {
+            polygons.putInt(a + 8 + 4 * i, p.xpoints[i]);
+            polygons.putInt(a + 8 + 4 * (p.npoints + i), p.ypoints[i]);
+        }
+        return a;
+    }
+
+    /**
+     * Puts a polygon record on the free list for its number of points. The record keeps its number
+     * of points, and the address of the next free record is written after it.
+     */
+    private void freePolygon(final long a) {
+        final int n = polygons.getInt(a + 4);
+        if (n >= freePolygons.length) {
+            final long[] grown = new long[Math.max(n + 1, freePolygons.length * 2)];
+            Arrays.fill(grown, freePolygons.length, grown.length, NONE);
+            System.arraycopy(freePolygons, 0, grown, 0, freePolygons.length);
+            freePolygons = grown;
+        }
+        polygons.putLong(a + 8, freePolygons[n]);
+        freePolygons[n] = a;
+    }
+
+    /**
+     * Makes a data object from a polygon record, with the id of the one that was inserted.
+     */
+    private DataObject dataObject(final long a) {
+        final int n = polygons.getInt(a + 4);
+        final int[] x = new int[n];
+        final int[] y = new int[n];
+        for (int i = 0; i < n; i++) {
+            x[i] = polygons.getInt(a + 8 + 4 * i);
+            y[i] = polygons.getInt(a + 8 + 4 * (n + i));
+        }
+        // The id was taken when the data object was inserted
+        return new DataObject(polygons.getInt(a), new Polygon(x, y, n), false);
+    }
+
+    /**
+     * A slot taken out of a node, during a split, a bulk load or while it waits to be inserted
+     * again. It is Bounded so that the split policies and the bulk load orders can sort the slots.
+     */
+    private static final class Orphan implements Bounded {
+
+        final int minX, minY, maxX, maxY;
+        final long ref;
+        final int level;            // The level of what the slot points to, 0 for a polygon
+        private final Rectangle boundingBox;
+
+        Orphan(final Slabs nodes, final long s, final int level) {
+            minX = nodes.getInt(s);
+            minY = nodes.getInt(s + 4);
+            maxX = nodes.getInt(s + 8);
+            maxY = nodes.getInt(s + 12);
+            ref = nodes.getLong(s + 16);
+            this.level = level;
+            boundingBox = new Rectangle(minX, minY, maxX - minX, maxY - minY);
+        }
+
+        Orphan(final int minX, final int minY, final int maxX, final int maxY, final long ref, final int level) {
+            this.minX = minX;
+            this.minY = minY;
+            this.maxX = maxX;
+            this.maxY = maxY;
+            this.ref = ref;
+            this.level = level;
+            boundingBox = new Rectangle(minX, minY, maxX - minX, maxY - minY);
+        }
+
+        public Rectangle getBoundingBox() {
+            return boundingBox;
+        }
+    }
+
+    /**
+     * The queue of nearest: a binary heap of nodes and polygon records by their squared distance to
+     * the point, in parallel arrays as in NearestNeighbourSearch. A polygon that has been refined
+     * waits with the data object made for it, so it is not made twice.
+     */
+    private static final class DistanceQueue {
+
+        double[] keys = new double[64];
+        long[] refs = new long[64];         // The number of a node, or the address of a polygon record
+        boolean[] isNode = new boolean[64];
+        DataObject[] exact = new DataObject[64];    // Set when the key is the exact distance to the polygon
+        int size;
+
+        void push(final double key, final long ref, final boolean node, final DataObject d) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                refs = Arrays.copyOf(refs, size * 2);
+                isNode = Arrays.copyOf(isNode, size * 2);
+                exact = Arrays.copyOf(exact, size * 2);
+            }
+            // Sift up
+            int i = size++;
+            while (i > 0) {
+                final int parent = (i - 1) >>> 1;
+                if (keys[parent] <= key) {
+                    break;
+                }
+                set(i, keys[parent], refs[parent], isNode[parent], exact[parent]);
+                i = parent;
+            }
+            set(i, key, ref, node, d);
+        }
+
+        void pop() {
+            size--;
+            final double key = keys[size];
+            final long ref = refs[size];
+            final boolean node = isNode[size];
+            final DataObject d = exact[size];
+            exact[size] = null;
+            if (size == 0) {
+                return;
+            }
+            // Sift down
+            int i = 0;
+            int child;
+            while ((child = 2 * i + 1) < size) {
+                if (child + 1 < size && keys[child + 1] < keys[child]) {
+                    child++;
+                }
+                if (key <= keys[child]) {
+                    break;
+                }
+                set(i, keys[child], refs[child], isNode[child], exact[child]);
+                i = child;
+            }
+            set(i, key, ref, node, d);
+        }
+
+        private void set(final int i, final double key, final long ref, final boolean node, final DataObject d) {
+            keys[i] = key;
+            refs[i] = ref;
+            isNode[i] = node;
+            exact[i] = d;
+        }
+    }
+}
@@ -0,0 +1,736 @@
+package RTre;
+
+import java.awt.*;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.concurrent.Semaphore;
+
+/**
+ * A read-only R-tree stored in a file, searched straight from the file mapped into memory. An RTree
+ * is written with RTree.save, and opening the file again only maps it: nothing is read or decoded
+ * until a search needs it, and the operating system pages the file in and out as it likes. Opening
+ * a tree of millions of data objects is therefore about as fast as opening a small one, and takes
+ * almost no heap.
+ *
+ * The file is made of pages of the same size, one node per page, followed by the polygons of the
+ * data objects:
+ *
+ *   Page 0             The header: magic, version, page size, M, m, level of the root, number of data
+ *                      objects, number of nodes, offset of the polygons, length of the file and the
+ *                      sequence number of the last change in the tree (see DurableRTree)
+ *   Page 1 ..          The nodes, level by level from the root (page 1) down to the leaves. A page holds
+ *                      the level and the number of children, followed by one 24 byte slot per child:
+ *                      minX, minY, maxX, maxY as ints, and a long that is the page of the child node,
+ *                      or the file offset of the polygon for a data object in a leaf.
+ *   Polygons           The id of the data object and the number of points, then the x and the y
+ *                      coordinates, all ints.
+ *
+ * The page size is the smallest power of two that holds a node with M children. All numbers are
+ * little endian. The file is mapped in segments of 1 GB, since a MappedByteBuffer cannot be larger
+ * than 2 GB; a polygon that would cross into the next segment starts at the next segment instead.
+ *
+ * A search reads the slot boxes with absolute gets from the mapped buffers, so it copies nothing
+ * until a polygon must be tested, and any number of threads can search the same PagedRTree. The data
+ * objects handed to a visitor are made from the file for each search, so they are not the ones that
+ * were saved, but have their ids, and no parent, slot or colour.
+ *
+ * A tree that is larger than the memory that should go to it can be opened with a BufferPool
+ * instead: the pages are then read into a fixed number of frames as the searches need them, the
+ * upper levels of the tree are read once when the file is opened and stay, and the counters of the
+ * pool tell how many pages the searches found there. Every search pins the page of each node on
+ * its path until it is done with it, so only as many searches run at the same time as the pool has
+ * room for paths besides the pages that are pinned for good; the others wait for them. For the same
+ * reason a visitor must not search the same tree again when it is read through a pool.
+ *
+ * Files of version 1 have no sequence number and no ids. Their data objects get the offset of their
+ * polygon record in the file divided by four as id, which is the same every time the file is read.
+ */
+public final class PagedRTree implements Closeable {
+
+    static final int MAGIC = 0x52547265;    // "RTre"
+    static final int VERSION = 2;
+    static final int HEADER_SIZE = 56;
+    static final int NODE_HEADER_SIZE = 8;
+    static final int SLOT_SIZE = 24;
+    static final int SEGMENT_SHIFT = 30;
+    static final long SEGMENT_SIZE = 1L << SEGMENT_SHIFT;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer[] segments;    // null when the file is read through the pool
+    private final BufferPool pool;                  // null when the file is mapped
+    private final Semaphore searches;               // A permit for each path the pool has room for, null when mapped
+    private final int pageSize;
+    private final int maxChildrenPerNode;
+    private final int minimumChildrenPerNode;
+    private final int rootLevel;
+    private final int size;
+    private final int nodes;
+    private final int idSize;           // The bytes before the number of points in a polygon record
+    private final long sequence;
+
+    /**
+     * Constructor
+     *
+     * @param channel       The file
+     * @param poolPages     The number of pages in the buffer pool, or 0 to map the file
+     * @param pinnedLevels  The number of levels from the root down to keep in the pool
+     */
+    private PagedRTree(final FileChannel channel, final int poolPages, final int pinnedLevels) throws IOException {
+        this.channel = channel;
+        final long length = channel.size();
+        if (length < HEADER_SIZE) {
+            throw new IOException("Not an R-tree file, it is only " + length + " bytes long");
+        }
+        final ByteBuffer header;
+        if (poolPages == 0) {
+            segments = new MappedByteBuffer[(int) ((length + SEGMENT_SIZE - 1) >>> SEGMENT_SHIFT)];
+            for (int i = 0; i < segments.length; i++) {
+                final long start = (long) i << SEGMENT_SHIFT;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, length - start));
+                segments[i].order(ByteOrder.LITTLE_ENDIAN);
+            }
+            header = segments[0];
+        } else {
+            segments = null;
+            header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+                // Read the rest of the header
+            }
+        }
+        if (header.getInt(0) != MAGIC) {
+            throw new IOException("Not an R-tree file");
+        }
+        final int version = header.getInt(4);
+        if (version != 1 && version != VERSION) {
+            throw new IOException("Unknown version of the R-tree file: " + version);
+        }
+        pageSize = header.getInt(8);
+        maxChildrenPerNode = header.getInt(12);
+        minimumChildrenPerNode = header.getInt(16);
+        rootLevel = header.getInt(20);
+        size = header.getInt(24);
+        nodes = header.getInt(28);
+        if (header.getLong(40) != length) {
+            throw new IOException("The R-tree file should be " + header.getLong(40) + " bytes long, but is " + length);
+        }
+        idSize = version == 1 ? 0 : 4;
+        sequence = version == 1 ? 0 : header.getLong(48);
+        if (poolPages == 0) {
+            pool = null;
+            searches = null;
+        } else {
+            pool = new BufferPool(channel, pageSize, poolPages);
+            final int pinned = pinUpperLevels(pinnedLevels);
+            // A search pins a page for each level below the pinned ones, and one for a polygon
+            searches = new Semaphore((pool.getCapacity() - pool.getPinnedPages()) / (rootLevel - pinned + 1), true);
+        }
+    }
+
+    /**
+     * Pins the pages of the upper levels of the tree in the pool for good. The pages of a level
+     * follow each other in the file, from the root down, so each level starts where the one above
+     * it ended, and has as many pages as the level above has children.
+     *
+     * @param levels    The number of levels, counted from the root
+     * @return          The number of levels that were pinned, at most the levels of nodes in the tree
+     */
+    private int pinUpperLevels(final int levels) throws IOException {
+        // Besides the pinned pages, a search needs a page for each level below them and one for a polygon
+        if (rootLevel + 1 > pool.getCapacity()) {
+            throw new IllegalArgumentException("A buffer pool of " + pool.getCapacity()
+                    + " pages is too small for a tree with " + rootLevel + " levels of nodes");
+        }
+        long first = 1;
+        long count = 1;
+        long pinned = 0;
+        for (int l = 0; l < Math.min(levels, rootLevel); l++) {
+            if (pinned + count + rootLevel - l > pool.getCapacity()) {
+                throw new IllegalArgumentException("A buffer pool of " + pool.getCapacity() + " pages is too small to pin "
+                        + levels + " levels of a tree with " + rootLevel + " levels of nodes");
+            }
+            long children = 0;
+            for (long page = first; page < first + count; page++) {
+                children += pool.buffer(pool.pinForGood(page)).getInt(4);
+            }
+            pinned += count;
+            first += count;
+            count = children;
+        }
+        pool.resetCounters();
+        return Math.min(levels, rootLevel);
+    }
+
+    /**
+     * Opens a file written by RTree.save. The file is mapped, not read.
+     *
+     * @param file  The file
+     * @return      The tree in the file
+     * @throws IOException  If the file cannot be mapped, or is not an R-tree file
+     */
+    public static PagedRTree open(final Path file) throws IOException {
+        return open(file, 0, 0);
+    }
+
+    /**
+     * Opens a file written by RTree.save to be read through a buffer pool instead of mapping it.
+     * The pages of the upper levels are read now and stay in the pool; the other pages are read
+     * when a search needs them, and evicted when the pool needs room.
+     *
+     * @param file          The file
+     * @param poolPages     The number of pages the pool can hold, see getBufferPool
+     * @param pinnedLevels  The number of levels of nodes from the root down that stay in the pool
+     * @return              The tree in the file
+     * @throws IOException  If the file cannot be read, or is not an R-tree file
+     * @throws IllegalArgumentException If the pool cannot hold the pinned levels and a path below them
+     */
+    public static PagedRTree open(final Path file, final int poolPages, final int pinnedLevels) throws IOException {
+        if (poolPages < 0 || pinnedLevels < 0) {
+            throw new IllegalArgumentException("The buffer pool cannot have " + poolPages + " pages and "
+                    + pinnedLevels + " pinned levels");
+        }
+        final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            return new PagedRTree(channel, poolPages, pinnedLevels);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        } catch (RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Closes the file. The mapped buffers stay valid until they are garbage collected, since Java
+     * has no way to unmap them, but the tree should not be searched any more.
+     */
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * @return  The buffer pool the file is read through, or null if the file is mapped
+     */
+    public BufferPool getBufferPool() {
+        return pool;
+    }
+
+    /**
+     * @return  The number of data objects in the tree
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return  The number of nodes in the tree, which is the number of node pages in the file
+     */
+    public int getNumberOfNodes() {
+        return nodes;
+    }
+
+    /**
+     * Returns the number of levels in the tree, counting the data objects as a level, like RTree does.
+     *
+     * @return  Number of levels in the tree
+     */
+    public int getNumberOfLevels() {
+        return rootLevel + 1;
+    }
+
+    /**
+     * @return  M of the tree that was saved
+     */
+    public int getMaxChildrenPerNode() {
+        return maxChildrenPerNode;
+    }
+
+    /**
+     * @return  m of the tree that was saved
+     */
+    public int getMinimumChildrenPerNode() {
+        return minimumChildrenPerNode;
+    }
+
+    /**
+     * @return  The sequence number the tree was saved with, 0 unless it was saved by DurableRTree
+     */
+    long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Searches the tree for all data objects that intersect a rectangle, or lie inside it, and hands
+     * them to a visitor as they are found. Gives the same matches as RTree.search on the tree that
+     * was saved.
+     *
+     * @param r         The rectangle
+     * @param visitor   Receives each match, and can stop the search by returning false
+     * @return          The number of matches handed to the visitor
+     */
+    public int search(final Rectangle r, final SearchVisitor visitor) {
+        final int[] found = new int[1];
+        final Rectangle query = new Rectangle(r);
+        enter();
+        try {
+            if (intersects(1, query)) {
+                search(1, query, query.x, query.y, query.x + query.width, query.y + query.height, visitor, found);
+            }
+        } finally {
+            leave();
+        }
+        return found[0];
+    }
+
+    /**
+     * Waits until the pool has room for the path of one more search.
+     */
+    private void enter() {
+        if (searches != null) {
+            searches.acquireUninterruptibly();
+        }
+    }
+
+    private void leave() {
+        if (searches != null) {
+            searches.release();
+        }
+    }
+
+    /**
+     * Searches the tree for all data objects that intersect a rectangle, or lie inside it.
+     *
+     * @param r     The rectangle
+     * @return      The matching data objects
+     */
+    public ArrayList search(final Rectangle r) {
+        final ArrayList result = new ArrayList();
+        search(r, new SearchVisitor() {
+            public boolean visit(final DataObject dataObject) {
+                result.add(dataObject);
+                return true;
+            }
+        });
+        return result;
+    }
+
+    /**
+     * The same walk as SearchCursor, on the pages: the slot boxes are tested on the way down, and
+     * the polygons of the data objects in the leaves whose boxes touch the query.
+     *
+     * @return  false when the visitor has stopped the search
+     */
+    private boolean search(final long page, final Rectangle query,
+                           final int qMinX, final int qMinY, final int qMaxX, final int qMaxY,
+                           final SearchVisitor visitor, final int[] found) {
+        if (pool == null) {
+            final long start = page * pageSize;
+            return search(segments[(int) (start >>> SEGMENT_SHIFT)], (int) (start & (SEGMENT_SIZE - 1)),
+                    query, qMinX, qMinY, qMaxX, qMaxY, visitor, found);
+        }
+        final int frame = pin(page);
+        try {
+            return search(pool.buffer(frame), 0, query, qMinX, qMinY, qMaxX, qMaxY, visitor, found);
+        } finally {
+            pool.unpin(frame);
+        }
+    }
+
+    /**
+     * Searches the node on a page that starts at base in a buffer.
+     */
+    private boolean search(final ByteBuffer b, final int base, final Rectangle query,
+                           final int qMinX, final int qMinY, final int qMaxX, final int qMaxY,
+                           final SearchVisitor visitor, final int[] found) {
+        final int level = b.getInt(base);
+        final int count = b.getInt(base + 4);
+        for (int i = 0, s = base + NODE_HEADER_SIZE; i < count; i++, s += SLOT_SIZE) {
+            final int minX = b.getInt(s);
+            final int minY = b.getInt(s + 4);
+            final int maxX = b.getInt(s + 8);
+            final int maxY = b.getInt(s + 12);
+            if (level == 1) {
+                // The slot box is a cheap filter before the polygon is read and tested
+                if (minX <= qMaxX && maxX >= qMinX && minY <= qMaxY && maxY >= qMinY) {
+                    final DataObject d = dataObject(b.getLong(s + 16), false);
+                    if (query.contains(d.getBoundingBox()) || d.intersects(query)) {
+                        found[0]++;
+                        if (!visitor.visit(d)) {
+                            return false;
+                        }
+                    }
+                }
+            } else if (maxX > minX && maxY > minY && minX < qMaxX && maxX > qMinX && minY < qMaxY && maxY > qMinY) {
+                if (!search(b.getLong(s + 16), query, qMinX, qMinY, qMaxX, qMaxY, visitor, found)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether the bounding box of the node on a page intersects a rectangle, as Rectangle.intersects
+     * does. A node without children has no bounding box, and intersects nothing.
+     */
+    private boolean intersects(final long page, final Rectangle r) {
+        if (pool == null) {
+            final long start = page * pageSize;
+            return intersects(segments[(int) (start >>> SEGMENT_SHIFT)], (int) (start & (SEGMENT_SIZE - 1)), r);
+        }
+        final int frame = pin(page);
+        try {
+            return intersects(pool.buffer(frame), 0, r);
+        } finally {
+            pool.unpin(frame);
+        }
+    }
+
+    private static boolean intersects(final ByteBuffer b, final int base, final Rectangle r) {
+        if (b.getInt(base + 4) == 0) {
+            return false;
+        }
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+        for (int i = 0, s = base + NODE_HEADER_SIZE; i < b.getInt(base + 4); i++, s += SLOT_SIZE) {
+            minX = Math.min(minX, b.getInt(s));
+            minY = Math.min(minY, b.getInt(s + 4));
+            maxX = Math.max(maxX, b.getInt(s + 8));
+            maxY = Math.max(maxY, b.getInt(s + 12));
+        }
+        return new Rectangle(minX, minY, maxX - minX, maxY - minY).intersects(r);
+    }
+
+    /**
+     * Reads the whole tree back into nodes, with the same nodes, the same children in the same slots
+     * and data objects with the same ids as the tree that was saved. Nothing is inserted or split.
+     *
+     * @return  The root node
+     */
+    Node readNodes() {
+        enter();
+        try {
+            return readNode(1);
+        } finally {
+            leave();
+        }
+    }
+
+    private Node readNode(final long page) {
+        if (pool == null) {
+            final long start = page * pageSize;
+            return readNode(segments[(int) (start >>> SEGMENT_SHIFT)], (int) (start & (SEGMENT_SIZE - 1)));
+        }
+        final int frame = pin(page);
+        try {
+            return readNode(pool.buffer(frame), 0);
+        } finally {
+            pool.unpin(frame);
+        }
+    }
+
+    private Node readNode(final ByteBuffer b, final int base) {
+        final int level = b.getInt(base);
+        final int count = b.getInt(base + 4);
+        final Node node = new Node(maxChildrenPerNode, minimumChildrenPerNode);
+        node.setLevel(level);
+        for (int i = 0, s = base + NODE_HEADER_SIZE; i < count; i++, s += SLOT_SIZE) {
+            node.add(level == 1 ? (TreeElement) dataObject(b.getLong(s + 16), true) : readNode(b.getLong(s + 16)));
+        }
+        return node;
+    }
+
+    /**
+     * Reads a data object.
+     *
+     * @param offset    The offset of its polygon record in the file
+     * @param reserve   Whether new data objects must get higher ids, as when the tree is loaded
+     */
+    private DataObject dataObject(final long offset, final boolean reserve) {
+        if (pool == null) {
+            return dataObject(segments[(int) (offset >>> SEGMENT_SHIFT)], (int) (offset & (SEGMENT_SIZE - 1)),
+                    offset, reserve);
+        }
+        final int n = read(offset + idSize, 4).getInt(0);
+        return dataObject(read(offset, idSize + 4 + 8 * n), 0, offset, reserve);
+    }
+
+    /**
+     * Reads a data object whose polygon record starts at start in a buffer, and at offset in the file.
+     */
+    private DataObject dataObject(final ByteBuffer b, final int start, final long offset, final boolean reserve) {
+        final int p = start + idSize;
+        final int n = b.getInt(p);
+        final int[] x = new int[n];
+        final int[] y = new int[n];
+        for (int i = 0; i < n; i++) {
+            x[i] = b.getInt(p + 4 + 4 * i);
+            y[i] = b.getInt(p + 4 + 4 * (n + i));
+        }
+        final Polygon polygon = new Polygon(x, y, n);
+        // The records are at least 4 bytes long, so a quarter of the offset is unique in the file
+        return new DataObject(idSize == 0 ? (int) (offset >>> 2) : b.getInt(p - 4), polygon, reserve);
+    }
+
+    /**
+     * Copies bytes of the file out of the pages in the pool, which they may span.
+     *
+     * @param offset    The offset of the first byte in the file
+     * @param length    The number of bytes
+     * @return          A little endian buffer with the bytes from position 0
+     */
+    private ByteBuffer read(final long offset, final int length) {
+        final ByteBuffer bytes = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        long p = offset;
+        while (bytes.hasRemaining()) {
+            final int within = (int) (p % pageSize);
+            final int n = Math.min(bytes.remaining(), pageSize - within);
+            final int frame = pin(p / pageSize);
+            try {
+                final ByteBuffer page = pool.buffer(frame).duplicate();
+                page.limit(within + n).position(within);
+                bytes.put(page);
+            } finally {
+                pool.unpin(frame);
+            }
+            p += n;
+        }
+        bytes.flip();
+        return bytes;
+    }
+
+    /**
+     * Pins a page in the pool. A page that cannot be read fails the search.
+     */
+    private int pin(final long page) {
+        try {
+            return pool.pin(page);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * What write needs of a tree, copied from its nodes: the level, the number of slots and the
+     * boxes of each node in the order of their pages, and the data objects in the order of the
+     * leaves. The data objects are shared with the tree, which never changes one, so a copy is
+     * quick to take while the tree is locked, and can be written after the lock is let go.
+     */
+    static final class Copy {
+
+        final int max;                  // M
+        final int min;                  // m
+        final int largest;              // The most slots in a node, M may have been changed since the nodes were made
+        final int[] levels;
+        final int[] sizes;
+        final int[] boxes;              // minX, minY, maxX, maxY of every slot, node after node
+        final DataObject[] dataObjects;
+
+        Copy(final int max, final int min, final int largest, final int nodes, final int slots, final int size) {
+            this.max = max;
+            this.min = min;
+            this.largest = largest;
+            levels = new int[nodes];
+            sizes = new int[nodes];
+            boxes = new int[4 * slots];
+            dataObjects = new DataObject[size];
+        }
+    }
+
+    /**
+     * Copies a tree for write.
+     *
+     * @param root      The root node of the tree
+     * @param max       M of the tree
+     * @param min       m of the tree
+     * @return          The copy
+     */
+    static Copy copy(final Node root, final int max, final int min) {
+        // The nodes in the order of their pages: level by level, from the root down
+        final ArrayList nodes = new ArrayList();
+        nodes.add(root);
+        int slots = 0;
+        int size = 0;
+        int largest = max;
+        for (int i = 0; i < nodes.size(); i++) {
+            final Node n = (Node) nodes.get(i);
+            largest = Math.max(largest, n.getSize());
+            slots += n.getSize();
+            if (n.getLevel() > 1) {
+                nodes.addAll(n.children);
+            } else {
+                size += n.getSize();
+            }
+        }
+        final Copy copy = new Copy(max, min, largest, nodes.size(), slots, size);
+        int s = 0;
+        int d = 0;
+        for (int i = 0; i < nodes.size(); i++) {
+            final Node n = (Node) nodes.get(i);
+            copy.levels[i] = n.getLevel();
+            copy.sizes[i] = n.getSize();
+            for (int j = 0; j < n.getSize(); j++) {
+                copy.boxes[s++] = n.minX[j];
+                copy.boxes[s++] = n.minY[j];
+                copy.boxes[s++] = n.maxX[j];
+                copy.boxes[s++] = n.maxY[j];
+                if (n.getLevel() == 1) {
+                    copy.dataObjects[d++] = (DataObject) n.children.get(j);
+                }
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Writes a tree to a file in the paged format, see write(Copy, Path, long).
+     *
+     * @param root      The root node of the tree
+     * @param max       M of the tree
+     * @param min       m of the tree
+     * @param file      The file
+     * @param sequence  The sequence number of the last change in the tree
+     */
+    static void write(final Node root, final int max, final int min, final Path file, final long sequence) throws IOException {
+        write(copy(root, max, min), file, sequence);
+    }
+
+    /**
+     * Writes a copy of a tree to a file in the paged format. The tree is written to a new file next
+     * to it, which then replaces the file, so that a write that fails halfway leaves the old file as
+     * it was.
+     *
+     * @param copy      The copy of the tree
+     * @param file      The file
+     * @param sequence  The sequence number of the last change in the tree
+     */
+    static void write(final Copy copy, final Path file, final long sequence) throws IOException {
+        final int nodes = copy.levels.length;
+        int pageSize = 64;
+        while (pageSize < NODE_HEADER_SIZE + SLOT_SIZE * copy.largest) {
+            pageSize *= 2;
+        }
+        final long dataOffset = (long) pageSize * (nodes + 1);
+
+        final Path written = file.resolveSibling(file.getFileName() + ".tmp");
+        final FileChannel channel = FileChannel.open(written, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        boolean replaced = false;
+        try {
+            final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+            channel.position(pageSize);
+
+            // The node pages. The children of the nodes get their pages in the same order as they
+            // were added to the list, and the polygons their offsets in the order they are written below.
+            long nextPage = 2;
+            long offset = dataOffset;
+            for (int i = 0, s = 0, d = 0; i < nodes; i++) {
+                ensure(channel, buffer, pageSize);
+                final int end = buffer.position() + pageSize;
+                buffer.putInt(copy.levels[i]);
+                buffer.putInt(copy.sizes[i]);
+                for (int j = 0; j < copy.sizes[i]; j++, s += 4) {
+                    buffer.putInt(copy.boxes[s]).putInt(copy.boxes[s + 1]).putInt(copy.boxes[s + 2]).putInt(copy.boxes[s + 3]);
+                    if (copy.levels[i] > 1) {
+                        buffer.putLong(nextPage++);
+                    } else {
+                        final int length = polygonSize(copy.dataObjects[d++]);
+                        offset = place(offset, length);
+                        buffer.putLong(offset);
+                        offset += length;
+                    }
+                }
+                while (buffer.position() < end) {
+                    buffer.put((byte) 0);
+                }
+            }
+
+            // The polygons, in the order of the leaves
+            offset = dataOffset;
+            for (int i = 0; i < copy.dataObjects.length; i++) {
+                final DataObject d = copy.dataObjects[i];
+                final Polygon p = d.getPolygon();
+                final int length = polygonSize(d);
+                for (final long start = place(offset, length); offset < start; offset++) {
+                    ensure(channel, buffer, 1);
+                    buffer.put((byte) 0);
+                }
+                ensure(channel, buffer, 8);
+                buffer.putInt(d.getId()).putInt(p.npoints);
+                for (int k = 0; k < p.npoints; k++) {
+                    ensure(channel, buffer, 4);
+                    buffer.putInt(p.xpoints[k]);
+                }
+                for (int k = 0; k < p.npoints; k++) {
+                    ensure(channel, buffer, 4);
+                    buffer.putInt(p.ypoints[k]);
+                }
+                offset += length;
+            }
+            flush(channel, buffer);
+
+            // The header last, so that a file that was not written to the end is never taken for a tree
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(pageSize).putInt(copy.max).putInt(copy.min)
+                    .putInt(copy.levels[0]).putInt(copy.dataObjects.length).putInt(nodes).putLong(dataOffset).putLong(offset)
+                    .putLong(sequence);
+            buffer.flip();
+            for (long p = 0; buffer.hasRemaining(); ) {
+                p += channel.write(buffer, p);
+            }
+            channel.force(true);
+            channel.close();
+            Files.move(written, file, StandardCopyOption.ATOMIC_MOVE);
+            replaced = true;
+            MutationLog.syncDirectory(file.toAbsolutePath().getParent());
+        } finally {
+            if (!replaced) {
+                channel.close();
+                Files.deleteIfExists(written);
+            }
+        }
+    }
+
+    private static int polygonSize(final DataObject d) {
+        return 8 + 8 * d.getPolygon().npoints;
+    }
+
+    /**
+     * Moves a polygon of the given length to the start of the next segment if it would cross into it.
+     *
+     * @return  The offset of the polygon
+     */
+    private static long place(final long offset, final int length) {
+        if (length > SEGMENT_SIZE) {
+            throw new IllegalArgumentException("A polygon with " + (length - 8) / 8 + " points is too large for the file");
+        }
+        final long next = (offset | (SEGMENT_SIZE - 1)) + 1;
+        return offset + length > next ? next : offset;
+    }
+
+    /**
+     * Makes room in the buffer for the given number of bytes, writing it to the channel first if need be.
+     */
+    private static void ensure(final FileChannel channel, final ByteBuffer buffer, final int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush(channel, buffer);
+        }
+    }
+
+    private static void flush(final FileChannel channel, final ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,240 @@
+package RTre;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The fork/join tasks behind RTree.searchParallel and RTree.nearestParallel. The upper levels of
+ * the tree are split into one task per child that can hold results, and a subtree that is estimated
+ * to hold fewer than the threshold number of data objects is searched sequentially by one task,
+ * with the same cursors as the sequential searches.
+ */
+final class ParallelSearch {
+
+    private ParallelSearch() {
+    }
+
+    /**
+     * Estimates the number of data objects below a node, assuming its descendants are half way
+     * between m and M full.
+     */
+    static long estimatedSize(final Node n, final int max, final int min) {
+        long size = n.getSize();
+        final int fill = Math.max(2, (max + min) / 2);
+        for (int level = n.getLevel(); level > 1 && size < Long.MAX_VALUE / fill; level--) {
+            size *= fill;
+        }
+        return size;
+    }
+
+    /**
+     * A range search of one subtree.
+     */
+    static final class Range extends RecursiveTask {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Node n;
+        private final Rectangle r;
+        private final RTree rtree;
+
+        Range(final Node n, final Rectangle r, final RTree rtree) {
+            this.n = n;
+            this.r = r;
+            this.rtree = rtree;
+        }
+
+        protected Object compute() {
+            final ArrayList result = new ArrayList();
+            if (n.getLevel() == 1 || estimatedSize(n, rtree.maxChildrenPerNode, rtree.minimumChildrenPerNode) < rtree.parallelThreshold) {
+                final SearchCursor cursor = SearchCursor.acquire();
+                try {
+                    cursor.reset(n, r);
+                    DataObject d;
+                    while ((d = cursor.advance()) != null) {
+                        result.add(d);
+                    }
+                } finally {
+                    cursor.release();
+                }
+                return result;
+            }
+
+            // Fork a task for every child that intersects the rectangle, and search the last one here
+            final int qMinX = r.x, qMinY = r.y, qMaxX = r.x + r.width, qMaxY = r.y + r.height;
+            final ArrayList forked = new ArrayList();
+            Range last = null;
+            for (int i = 0; i < n.getSize(); i++) {
+                if (n.maxX[i] > n.minX[i] && n.maxY[i] > n.minY[i]
+                        && n.minX[i] < qMaxX && n.maxX[i] > qMinX && n.minY[i] < qMaxY && n.maxY[i] > qMinY) {
+                    if (last != null) {
+                        last.fork();
+                        forked.add(last);
+                    }
+                    last = new Range((Node) n.children.get(i), r, rtree);
+                }
+            }
+            if (last != null) {
+                result.addAll((ArrayList) last.compute());
+            }
+            for (int i = forked.size() - 1; i >= 0; i--) {
+                result.addAll((ArrayList) ((Range) forked.get(i)).join());
+            }
+            return result;
+        }
+    }
+
+    /**
+     * A k nearest neighbour search of one subtree. All the tasks of one search share the squared
+     * distance of the k-th nearest neighbour found so far by any of them, and skip the subtrees
+     * that are further away than that.
+     */
+    static final class Nearest extends RecursiveTask {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Node n;
+        private final int x, y, k;
+        private final AtomicLong bound;     // The bits of the shared bound, a double
+        private final RTree rtree;
+
+        Nearest(final Node n, final int x, final int y, final int k, final AtomicLong bound, final RTree rtree) {
+            this.n = n;
+            this.x = x;
+            this.y = y;
+            this.k = k;
+            this.bound = bound;
+            this.rtree = rtree;
+        }
+
+        /**
+         * @return  The neighbours found below the node, closest first
+         */
+        protected Object compute() {
+            if (n.getLevel() == 1 || estimatedSize(n, rtree.maxChildrenPerNode, rtree.minimumChildrenPerNode) < rtree.parallelThreshold) {
+                final Neighbours result = new Neighbours(k);
+                final NearestNeighbourSearch search = NearestNeighbourSearch.acquire();
+                try {
+                    search.reset(n, x, y);
+                    DataObject d;
+                    while (result.size < k && (d = search.advance(bound())) != null) {
+                        result.add(search.distanceSq(), d);
+                    }
+                } finally {
+                    search.release();
+                }
+                if (result.size == k) {
+                    lowerBound(result.distances[k - 1]);
+                }
+                return result;
+            }
+
+            // Fork the children closest first, so that the bound is tightened early
+            final int size = n.getSize();
+            final long[] distances = new long[size];
+            final int[] order = new int[size];
+            for (int i = 0; i < size; i++) {
+                distances[i] = BoundingBoxes.minDistSq(n.minX[i], n.minY[i], n.maxX[i], n.maxY[i], x, y);
+                int j = i;
+                while (j > 0 && distances[order[j - 1]] > distances[i]) {
+                    order[j] = order[j - 1];
+                    j--;
+                }
+                order[j] = i;
+            }
+
+            final ArrayList forked = new ArrayList();
+            Neighbours result = new Neighbours(k);
+            for (int o = 0; o < size; o++) {
+                final int i = order[o];
+                if (distances[i] > bound()) {
+                    break;
+                }
+                final Nearest task = new Nearest((Node) n.children.get(i), x, y, k, bound, rtree);
+                if (o == 0) {
+                    // The closest child is searched here, which usually gives a good bound for the rest
+                    result = result.merge((Neighbours) task.compute());
+                } else {
+                    task.fork();
+                    forked.add(task);
+                }
+            }
+            for (int i = 0; i < forked.size(); i++) {
+                result = result.merge((Neighbours) ((Nearest) forked.get(i)).join());
+            }
+            if (result.size == k) {
+                lowerBound(result.distances[k - 1]);
+            }
+            return result;
+        }
+
+        private double bound() {
+            return Double.longBitsToDouble(bound.get());
+        }
+
+        private void lowerBound(final double distance) {
+            long current;
+            while (distance < Double.longBitsToDouble(current = bound.get())) {
+                if (bound.compareAndSet(current, Double.doubleToLongBits(distance))) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Up to k data objects with their squared distances, closest first. The arrays grow as the
+     * neighbours are added, since most tasks find far fewer than k.
+     */
+    static final class Neighbours {
+
+        private final int k;
+        double[] distances;
+        DataObject[] dataObjects;
+        int size;
+
+        Neighbours(final int k) {
+            this.k = k;
+            distances = new double[Math.min(k, 16)];
+            dataObjects = new DataObject[distances.length];
+        }
+
+        void add(final double distance, final DataObject d) {
+            if (size == distances.length) {
+                final int length = (int) Math.min(k, 2L * size);
+                distances = Arrays.copyOf(distances, length);
+                dataObjects = Arrays.copyOf(dataObjects, length);
+            }
+            distances[size] = distance;
+            dataObjects[size] = d;
+            size++;
+        }
+
+        /**
+         * @return  The k closest of this and the other neighbours
+         */
+        Neighbours merge(final Neighbours other) {
+            if (other.size == 0) {
+                return this;
+            }
+            if (size == 0) {
+                return other;
+            }
+            final Neighbours merged = new Neighbours(k);
+            int a = 0, b = 0;
+            while (merged.size < k && (a < size || b < other.size)) {
+                if (b == other.size || (a < size && distances[a] <= other.distances[b])) {
+                    merged.add(distances[a], dataObjects[a]);
+                    a++;
+                } else {
+                    merged.add(other.distances[b], other.dataObjects[b]);
+                    b++;
+                }
+            }
+            return merged;
+        }
+    }
+}
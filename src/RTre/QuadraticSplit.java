@@ -0,0 +1,208 @@
+package RTre;
+
+import java.awt.*;
+import java.util.ArrayList;
+
+/**
+ * Guttman's quadratic split. The two entries that would waste the most area together are picked
+ * as seeds, and the remaining entries are assigned one at a time, always taking the entry with
+ * the greatest preference for one of the groups. Takes O(M^2) time.
+ */
+public final class QuadraticSplit implements SplitPolicy {
+
+    public int split(final ArrayList entries, final int min) {
+        final int n = entries.size();
+        final int[] minX = new int[n];
+        final int[] minY = new int[n];
+        final int[] maxX = new int[n];
+        final int[] maxY = new int[n];
+        for (int i = 0; i < n; i++) {
+            final Rectangle r = ((Bounded) entries.get(i)).getBoundingBox();
+            minX[i] = r.x;
+            minY[i] = r.y;
+            maxX[i] = r.x + r.width;
+            maxY[i] = r.y + r.height;
+        }
+
+        // Group membership: 1 for the first group, 2 for the second, 0 while unassigned
+        final int[] group = new int[n];
+        final int[] l = new int[4];
+        final int[] ll = new int[4];
+
+        // QS1 [Pick first entry for each group]
+        final int[] seeds = pickSeeds(minX, minY, maxX, maxY);
+        group[seeds[0]] = 1;
+        group[seeds[1]] = 2;
+        setBox(l, minX, minY, maxX, maxY, seeds[0]);
+        setBox(ll, minX, minY, maxX, maxY, seeds[1]);
+        int sizeL = 1;
+        int sizeLL = 1;
+        int remaining = n - 2;
+
+        // QS2 [Check if done] If all entries have been assigned, stop.
+        while (remaining > 0) {
+
+            // QS2 [Check if done] If one group has so few entries that all the rest must be assigned
+            // to it in order for it to have the minimum number m, assign them and stop.
+            if (min - sizeL == remaining) {
+                sizeL += assignRest(group, 1);
+                break;
+            }
+            if (min - sizeLL == remaining) {
+                sizeLL += assignRest(group, 2);
+                break;
+            }
+
+            // QS3 [Select entry to assign] Invoke the algorithm pickNext to choose the next entry to assign.
+            // Add it to the group whose covering rectangle will have to be enlarged least to accomodate it.
+            // Resolve ties by adding the entry to the group with the smaller area, then to the one with fewer entries,
+            // then to either. Repeat from QS2.
+            final int next = pickNext(group, l, ll, minX, minY, maxX, maxY);
+
+            final long enlargement_l = BoundingBoxes.enlargement(l[0], l[1], l[2], l[3], minX[next], minY[next], maxX[next], maxY[next]);
+            final long enlargement_ll = BoundingBoxes.enlargement(ll[0], ll[1], ll[2], ll[3], minX[next], minY[next], maxX[next], maxY[next]);
+
+            final boolean toL;
+            if (enlargement_l < enlargement_ll) {
+                toL = true;
+            } else if (enlargement_l == enlargement_ll) {
+                final long area_l = BoundingBoxes.area(l[0], l[1], l[2], l[3]);
+                final long area_ll = BoundingBoxes.area(ll[0], ll[1], ll[2], ll[3]);
+
+                if (area_l < area_ll) {
+                    toL = true;
+                } else if (area_l == area_ll) {
+                    toL = sizeL < sizeLL;
+                } else {
+                    toL = false;
+                }
+            } else {
+                toL = false;
+            }
+
+            if (toL) {
+                group[next] = 1;
+                includeBox(l, minX, minY, maxX, maxY, next);
+                sizeL++;
+            } else {
+                group[next] = 2;
+                includeBox(ll, minX, minY, maxX, maxY, next);
+                sizeLL++;
+            }
+            remaining--;
+        }
+
+        return reorder(entries, group, seeds);
+    }
+
+    /**
+     * Finds two seeds that will be in a group each after the split.
+     *
+     * @return      The two seeds
+     */
+    private static int[] pickSeeds(final int[] minX, final int[] minY, final int[] maxX, final int[] maxY) {
+        // PS1 [Calculate inefficiency of grouping entries together]
+        // For each pair of entries, compose a rectangle J including both of them. Calculate
+        // d = area(J) - area(E1) - area(E2), the dead space J would have.
+        // PS2 [Choose the most wasteful pair] Choose the pair with the largest d.
+        // d can be negative when the entries overlap, so the first pair always counts.
+
+        int mostWasteI = 0;
+        int mostWasteU = 1;
+        long mostWasteArea = Long.MIN_VALUE;
+        long currentWasteArea;
+
+        for (int i = 0; i < minX.length; i++) {
+            for (int u = i + 1; u < minX.length; u++) {
+                currentWasteArea = BoundingBoxes.unionArea(minX[i], minY[i], maxX[i], maxY[i],
+                        minX[u], minY[u], maxX[u], maxY[u])
+                        - BoundingBoxes.area(minX[i], minY[i], maxX[i], maxY[i])
+                        - BoundingBoxes.area(minX[u], minY[u], maxX[u], maxY[u]);
+                if (mostWasteArea < currentWasteArea) {
+                    mostWasteI = i;
+                    mostWasteU = u;
+                    mostWasteArea = currentWasteArea;
+                }
+            }
+        }
+
+        return new int[]{mostWasteI, mostWasteU};
+    }
+
+    /**
+     * Finds the unassigned entry with the greatest difference between the enlargement of the two groups.
+     *
+     * @return  The entry to assign next
+     */
+    private static int pickNext(final int[] group, final int[] l, final int[] ll,
+                                final int[] minX, final int[] minY, final int[] maxX, final int[] maxY) {
+        int maxBB = -1;
+        long currentdifference;
+        long maxdifference = -1;
+
+        // PN1 [Determine cost of putting each entry in each group]
+        // PN2 [Find entry with greatest preference for one group]
+
+        for (int i = 0; i < group.length; i++) {
+            if (group[i] == 0) {
+                final long enlargement_l = BoundingBoxes.enlargement(l[0], l[1], l[2], l[3], minX[i], minY[i], maxX[i], maxY[i]);
+                final long enlargement_ll = BoundingBoxes.enlargement(ll[0], ll[1], ll[2], ll[3], minX[i], minY[i], maxX[i], maxY[i]);
+                currentdifference = Math.abs(enlargement_l - enlargement_ll);
+                if (currentdifference > maxdifference) {
+                    maxdifference = currentdifference;
+                    maxBB = i;
+                }
+            }
+        }
+        return maxBB;
+    }
+
+    private static int assignRest(final int[] group, final int to) {
+        int assigned = 0;
+        for (int i = 0; i < group.length; i++) {
+            if (group[i] == 0) {
+                group[i] = to;
+                assigned++;
+            }
+        }
+        return assigned;
+    }
+
+    static void setBox(final int[] box, final int[] minX, final int[] minY, final int[] maxX, final int[] maxY, final int i) {
+        box[0] = minX[i];
+        box[1] = minY[i];
+        box[2] = maxX[i];
+        box[3] = maxY[i];
+    }
+
+    static void includeBox(final int[] box, final int[] minX, final int[] minY, final int[] maxX, final int[] maxY, final int i) {
+        box[0] = Math.min(box[0], minX[i]);
+        box[1] = Math.min(box[1], minY[i]);
+        box[2] = Math.max(box[2], maxX[i]);
+        box[3] = Math.max(box[3], maxY[i]);
+    }
+
+    /**
+     * Reorders the entries so that the first group comes first, each group starting with its seed.
+     *
+     * @return  The number of entries in the first group
+     */
+    static int reorder(final ArrayList entries, final int[] group, final int[] seeds) {
+        final Object[] original = entries.toArray();
+        entries.clear();
+        entries.add(original[seeds[0]]);
+        for (int i = 0; i < original.length; i++) {
+            if (group[i] == 1 && i != seeds[0]) {
+                entries.add(original[i]);
+            }
+        }
+        final int firstGroup = entries.size();
+        entries.add(original[seeds[1]]);
+        for (int i = 0; i < original.length; i++) {
+            if (group[i] == 2 && i != seeds[1]) {
+                entries.add(original[i]);
+            }
+        }
+        return firstGroup;
+    }
+}
@@ -0,0 +1,100 @@
+package RTre;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * The insertion parts of the R*-tree (Beckmann, Kriegel, Schneider and Seeger, 1990) that differ from
+ * Guttman's R-tree: choosing the subtree by least overlap enlargement just above the insertion level,
+ * and picking the entries to remove for forced reinsertion. The RTree uses these when its
+ * insertionStrategy is RTree.RSTAR. The R* split itself is in RStarSplit.
+ */
+final class RStar {
+
+    // Share of M that is removed from an overflowing node and reinserted (p in the article)
+    private static final double REINSERT_SHARE = 0.3;
+
+    private RStar() {
+    }
+
+    /**
+     * Chooses the child of n whose box needs the least overlap enlargement to include the box e.
+     * Ties are resolved by least area enlargement, then by smallest area.
+     * This is used when the children of n are on the level where e is going to be inserted.
+     *
+     * @param n     The node to choose a child from
+     * @return      The slot of the chosen child
+     */
+    static int chooseLeastOverlap(final Node n, final int eMinX, final int eMinY, final int eMaxX, final int eMaxY) {
+        int best = 0;
+        long bestOverlap = Long.MAX_VALUE;
+        long bestEnlargement = Long.MAX_VALUE;
+        long bestArea = Long.MAX_VALUE;
+
+        final int size = n.getSize();
+        for (int i = 0; i < size; i++) {
+            final int uMinX = Math.min(n.minX[i], eMinX);
+            final int uMinY = Math.min(n.minY[i], eMinY);
+            final int uMaxX = Math.max(n.maxX[i], eMaxX);
+            final int uMaxY = Math.max(n.maxY[i], eMaxY);
+
+            long overlap = 0;
+            for (int j = 0; j < size; j++) {
+                if (j != i) {
+                    overlap += BoundingBoxes.overlap(uMinX, uMinY, uMaxX, uMaxY, n.minX[j], n.minY[j], n.maxX[j], n.maxY[j])
+                            - BoundingBoxes.overlap(n.minX[i], n.minY[i], n.maxX[i], n.maxY[i], n.minX[j], n.minY[j], n.maxX[j], n.maxY[j]);
+                }
+            }
+            final long area = BoundingBoxes.area(n.minX[i], n.minY[i], n.maxX[i], n.maxY[i]);
+            final long enlargement = BoundingBoxes.area(uMinX, uMinY, uMaxX, uMaxY) - area;
+
+            if (overlap < bestOverlap
+                    || (overlap == bestOverlap && (enlargement < bestEnlargement
+                    || (enlargement == bestEnlargement && area < bestArea)))) {
+                best = i;
+                bestOverlap = overlap;
+                bestEnlargement = enlargement;
+                bestArea = area;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Removes the entries of an overflowing node whose centres are furthest from the centre of the
+     * node, as the first step of forced reinsertion.
+     *
+     * @param n         The node that has M+1 entries
+     * @param max       M
+     * @param min       m
+     * @return          The removed entries, nearest first, which is the order they should be reinserted in
+     */
+    static ArrayList removeForReinsert(final Node n, final int max, final int min) {
+        final int size = n.getSize();
+        final int p = Math.min(Math.max(1, (int) Math.round(max * REINSERT_SHARE)), size - min);
+
+        final Rectangle box = n.getBoundingBox();
+        final long centreX = 2L * box.x + box.width;
+        final long centreY = 2L * box.y + box.height;
+
+        // Packs the distance and the slot into one long, so the slots can be sorted on distance as primitives.
+        // Distances are between doubled coordinates and are scaled down to leave room for the slot.
+        final long[] keys = new long[size];
+        for (int i = 0; i < size; i++) {
+            final double dx = (long) n.minX[i] + n.maxX[i] - centreX;
+            final double dy = (long) n.minY[i] + n.maxY[i] - centreY;
+            keys[i] = ((long) Math.min(Math.sqrt(dx * dx + dy * dy), Integer.MAX_VALUE) << 32) | i;
+        }
+        Arrays.sort(keys);
+
+        final ArrayList removed = new ArrayList(p);
+        for (int k = size - p; k < size; k++) {
+            removed.add(n.children.get((int) (keys[k] & 0xFFFFFFFFL)));
+        }
+        for (int k = 0; k < removed.size(); k++) {
+            n.removeChild((TreeElement) removed.get(k));
+        }
+        return removed;
+    }
+}
@@ -0,0 +1,165 @@
+package RTre;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * The split of the R*-tree (Beckmann, Kriegel, Schneider and Seeger, 1990). It looks for a split
+ * with small margins along one axis, which gives squarer nodes than Guttman's splits.
+ * This is the default split policy when the RTree's insertionStrategy is RTree.RSTAR.
+ */
+public final class RStarSplit implements SplitPolicy {
+
+    private static final Comparator BY_MIN_X = new Comparator() {
+        public int compare(final Object o1, final Object o2) {
+            final Rectangle a = ((Bounded) o1).getBoundingBox();
+            final Rectangle b = ((Bounded) o2).getBoundingBox();
+            return a.x != b.x ? compareInts(a.x, b.x) : compareInts(a.x + a.width, b.x + b.width);
+        }
+    };
+    private static final Comparator BY_MAX_X = new Comparator() {
+        public int compare(final Object o1, final Object o2) {
+            final Rectangle a = ((Bounded) o1).getBoundingBox();
+            final Rectangle b = ((Bounded) o2).getBoundingBox();
+            return a.x + a.width != b.x + b.width ? compareInts(a.x + a.width, b.x + b.width) : compareInts(a.x, b.x);
+        }
+    };
+    private static final Comparator BY_MIN_Y = new Comparator() {
+        public int compare(final Object o1, final Object o2) {
+            final Rectangle a = ((Bounded) o1).getBoundingBox();
+            final Rectangle b = ((Bounded) o2).getBoundingBox();
+            return a.y != b.y ? compareInts(a.y, b.y) : compareInts(a.y + a.height, b.y + b.height);
+        }
+    };
+    private static final Comparator BY_MAX_Y = new Comparator() {
+        public int compare(final Object o1, final Object o2) {
+            final Rectangle a = ((Bounded) o1).getBoundingBox();
+            final Rectangle b = ((Bounded) o2).getBoundingBox();
+            return a.y + a.height != b.y + b.height ? compareInts(a.y + a.height, b.y + b.height) : compareInts(a.y, b.y);
+        }
+    };
+
+    private static int compareInts(final int a, final int b) {
+        return a < b ? -1 : (a == b ? 0 : 1);
+    }
+
+    /**
+     * ChooseSplitAxis: for each axis the entries are sorted by their lower and by their upper value,
+     * and the margins of all distributions with at least m entries in each group are summed.
+     * The axis with the smallest sum is chosen.
+     * ChooseSplitIndex: along that axis, the distribution with the least overlap between the two
+     * groups is chosen, resolving ties by least total area.
+     *
+     */
+    public int split(final ArrayList entries, final int min) {
+        final Bounded[] byX = sorted(entries, BY_MIN_X);
+        final Bounded[] byMaxX = sorted(entries, BY_MAX_X);
+        final Bounded[] byY = sorted(entries, BY_MIN_Y);
+        final Bounded[] byMaxY = sorted(entries, BY_MAX_Y);
+
+        final long marginX = marginSum(byX, min) + marginSum(byMaxX, min);
+        final long marginY = marginSum(byY, min) + marginSum(byMaxY, min);
+
+        final Bounded[] first = marginX <= marginY ? byX : byY;
+        final Bounded[] second = marginX <= marginY ? byMaxX : byMaxY;
+
+        final long[] result = new long[3];  // {overlap, area, split index}
+        result[0] = Long.MAX_VALUE;
+        bestDistribution(first, min, result);
+        final long firstOverlap = result[0], firstArea = result[1];
+        final int firstIndex = (int) result[2];
+        result[0] = Long.MAX_VALUE;
+        bestDistribution(second, min, result);
+
+        final Bounded[] chosen;
+        final int splitIndex;
+        if (firstOverlap < result[0] || (firstOverlap == result[0] && firstArea <= result[1])) {
+            chosen = first;
+            splitIndex = firstIndex;
+        } else {
+            chosen = second;
+            splitIndex = (int) result[2];
+        }
+
+        entries.clear();
+        entries.addAll(Arrays.asList(chosen));
+        return splitIndex;
+    }
+
+    private static Bounded[] sorted(final ArrayList entries, final Comparator order) {
+        final Bounded[] array = (Bounded[]) entries.toArray(new Bounded[entries.size()]);
+        Arrays.sort(array, order);
+        return array;
+    }
+
+    /**
+     * Sums the margins of the two groups over all the legal distributions of the sorted entries.
+     */
+    private static long marginSum(final Bounded[] sorted, final int min) {
+        final int[][] prefix = prefixBoxes(sorted);
+        final int[][] suffix = suffixBoxes(sorted);
+        long sum = 0;
+        for (int k = min; k <= sorted.length - min; k++) {
+            sum += margin(prefix, k - 1) + margin(suffix, k);
+        }
+        return sum;
+    }
+
+    /**
+     * Finds the legal distribution of the sorted entries with the least overlap, resolving ties by
+     * least total area. result holds {overlap, area, split index} of the best one seen so far.
+     */
+    private static void bestDistribution(final Bounded[] sorted, final int min, final long[] result) {
+        final int[][] prefix = prefixBoxes(sorted);
+        final int[][] suffix = suffixBoxes(sorted);
+        for (int k = min; k <= sorted.length - min; k++) {
+            final int a = k - 1;
+            final long overlap = BoundingBoxes.overlap(prefix[0][a], prefix[1][a], prefix[2][a], prefix[3][a],
+                    suffix[0][k], suffix[1][k], suffix[2][k], suffix[3][k]);
+            final long area = BoundingBoxes.area(prefix[0][a], prefix[1][a], prefix[2][a], prefix[3][a])
+                    + BoundingBoxes.area(suffix[0][k], suffix[1][k], suffix[2][k], suffix[3][k]);
+            if (overlap < result[0] || (overlap == result[0] && area < result[1])) {
+                result[0] = overlap;
+                result[1] = area;
+                result[2] = k;
+            }
+        }
+    }
+
+    private static long margin(final int[][] boxes, final int i) {
+        return (long) (boxes[2][i] - boxes[0][i]) + (boxes[3][i] - boxes[1][i]);
+    }
+
+    /**
+     * boxes[..][i] is the box enclosing sorted[0..i]
+     */
+    private static int[][] prefixBoxes(final Bounded[] sorted) {
+        final int[][] boxes = new int[4][sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            final Rectangle r = sorted[i].getBoundingBox();
+            boxes[0][i] = i == 0 ? r.x : Math.min(boxes[0][i - 1], r.x);
+            boxes[1][i] = i == 0 ? r.y : Math.min(boxes[1][i - 1], r.y);
+            boxes[2][i] = i == 0 ? r.x + r.width : Math.max(boxes[2][i - 1], r.x + r.width);
+            boxes[3][i] = i == 0 ? r.y + r.height : Math.max(boxes[3][i - 1], r.y + r.height);
+        }
+        return boxes;
+    }
+
+    /**
+     * boxes[..][i] is the box enclosing sorted[i..]
+     */
+    private static int[][] suffixBoxes(final Bounded[] sorted) {
+        final int n = sorted.length;
+        final int[][] boxes = new int[4][n];
+        for (int i = n - 1; i >= 0; i--) {
+            final Rectangle r = sorted[i].getBoundingBox();
+            boxes[0][i] = i == n - 1 ? r.x : Math.min(boxes[0][i + 1], r.x);
+            boxes[1][i] = i == n - 1 ? r.y : Math.min(boxes[1][i + 1], r.y);
+            boxes[2][i] = i == n - 1 ? r.x + r.width : Math.max(boxes[2][i + 1], r.x + r.width);
+            boxes[3][i] = i == n - 1 ? r.y + r.height : Math.max(boxes[3][i + 1], r.y + r.height);
+        }
+        return boxes;
+    }
+}
@@ -1,8 +1,22 @@
 package RTre;
 
 import java.awt.*;
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Author: Eirik Eide, Odin Hole Standal
@@ -10,13 +24,32 @@ import java.util.LinkedList;
  * Time: 13:27:50
  */
 public final class RTree {
+    // Orderings that can be used by bulkLoad
+    public static final int SORT_TILE_RECURSIVE = 0;
+    public static final int HILBERT = 1;
+
+    // Insertion strategies
+    public static final int GUTTMAN = 0;    // Guttman's R-tree with quadratic split
+    public static final int RSTAR = 1;      // R*-tree with forced reinsert and margin based split
+
+    private static final SplitPolicy QUADRATIC_SPLIT = new QuadraticSplit();
+    private static final SplitPolicy RSTAR_SPLIT = new RStarSplit();
+
     // Parameters
     public int dataObjectWidth;         // Decides the maximum width of the boundingboxes
     public int dataObjectHeight;        // Decides the maximum height of the boundingboxes
+    public int worldWidth;              // Random data objects are placed inside worldWidth x worldHeight
+    public int worldHeight;
     public int maxChildrenPerNode;      // M from the article on R-trees by Antonin Guttman
     public int minimumChildrenPerNode;  // m from the article on R-trees by Antonin Guttman
+    public int insertionStrategy;       // GUTTMAN or RSTAR
+    public SplitPolicy splitPolicy;     // How nodes are split. When null, the default of the insertion strategy
+    public int parallelThreshold;       // Parallel searches search subtrees with fewer data objects than this in one task
 
     private final ArrayList selected;
+    private final DataObjectIndex byId;         // The data objects in the tree by id. The parent of each is its leaf.
+    private final LinkedList pendingReinserts;  // Entries removed by forced reinsert, waiting to be inserted again
+    private long reinsertedLevels;              // Bit i is set when level i has done a forced reinsert
     private Node rootNode;
     private DataObject mostRecentDataObject;
 
@@ -26,9 +59,15 @@ public final class RTree {
     public RTree() {
         dataObjectHeight = 40;
         dataObjectWidth = 40;
+        worldWidth = 865;
+        worldHeight = 340;
         maxChildrenPerNode = 2;
         minimumChildrenPerNode = 1;
+        insertionStrategy = GUTTMAN;
+        parallelThreshold = 4096;
         selected = new ArrayList();
+        byId = new DataObjectIndex();
+        pendingReinserts = new LinkedList();
         rootNode = new Node(maxChildrenPerNode, minimumChildrenPerNode);
         rootNode.setLevel(1);
     }
@@ -39,6 +78,94 @@ public final class RTree {
      * @param element   The element that should be inserted.
      */
     public void insertTreeElement(final TreeElement element) {
+        if (element instanceof DataObject) {
+            index((DataObject) element);
+        }
+        if (insertionStrategy == RSTAR) {
+            // In the R*-tree every level may do one forced reinsert per insertion. The entries it removes
+            // are inserted again after the element itself, and may cause reinserts on other levels.
+            reinsertedLevels = 0;
+            insert(element);
+            while (!pendingReinserts.isEmpty()) {
+                insert((TreeElement) pendingReinserts.removeFirst());
+            }
+        } else {
+            insert(element);
+        }
+    }
+
+    /**
+     * Inserts many data objects at once. This gives the same kind of tree as inserting them one by one
+     * with insertTreeElement, but does much less work: the objects are grouped by the leaf they go to,
+     * each leaf that gets too many entries is split once into as many nodes as it needs, and every
+     * changed node further up is refreshed and split once per batch instead of once per object.
+     *
+     * The leaves are chosen from the tree as it is before the batch, so a large batch is added in
+     * rounds that are no larger than what the leaves of the tree can take. The R*-tree does no forced
+     * reinserts during a batch, its overfull nodes are split with the R* split.
+     *
+     * @param dataObjects   The data objects to insert
+     */
+    public void insertAll(final Collection dataObjects) {
+        final ArrayList elements = new ArrayList(dataObjects);
+        for (int i = 0; i < elements.size(); i++) {
+            index((DataObject) elements.get(i));
+        }
+        int next = 0;
+        while (next < elements.size()) {
+            final int round = Math.max(maxChildrenPerNode, countLeaves() * minimumChildrenPerNode);
+            final int end = Math.min(elements.size(), next + round);
+            insertRound(elements, next, end);
+            next = end;
+        }
+    }
+
+    /**
+     * Inserts one round of a batch.
+     *
+     * @param elements  The data objects of the batch
+     * @param from      The first one in this round
+     * @param to        The one after the last one in this round
+     */
+    private void insertRound(final ArrayList elements, final int from, final int to) {
+        // BI1 [Find position for new records] Invoke chooseNode for every record, and group the records
+        // by the leaf that was chosen.
+        final IdentityHashMap groups = new IdentityHashMap();
+        final ArrayList leaves = new ArrayList();
+        for (int i = from; i < to; i++) {
+            final TreeElement e = (TreeElement) elements.get(i);
+            final Node l = chooseNode(e);
+            ArrayList group = (ArrayList) groups.get(l);
+            if (group == null) {
+                group = new ArrayList();
+                groups.put(l, group);
+                leaves.add(l);
+            }
+            group.add(e);
+        }
+
+        // BI2 [Add records to leaf nodes] Install all the records of each leaf, and split the leaves
+        // that now have more than M entries.
+        final ArrayList splits = new ArrayList();
+        for (int i = 0; i < leaves.size(); i++) {
+            final Node l = (Node) leaves.get(i);
+            final ArrayList group = (ArrayList) groups.get(l);
+            for (int j = 0; j < group.size(); j++) {
+                l.add((TreeElement) group.get(j));
+            }
+            splitOverfull(l, splits);
+        }
+
+        // BI3 [Propagate changes upward] Adjust the tree one level at a time.
+        adjustLevels(leaves, splits);
+    }
+
+    /**
+     * Inserts an element at its level, as described by Guttman.
+     *
+     * @param element   The element that should be inserted.
+     */
+    private void insert(final TreeElement element) {
         // I1 [Find position for new record] Invoke chooseNode to select a leaf node L
         // to place E (element).
         final Node l = chooseNode(element);
@@ -50,7 +177,7 @@ public final class RTree {
         if (!l.isFull()) {
             l.add(element);
         } else {
-            ll = splitNode(l, element);
+            ll = overflow(l, element);
         }
 
         // I3 [Propagate changes upward] Invoke adjstTree on L, also passing LL if a split was
@@ -70,13 +197,195 @@ public final class RTree {
     }
 
     /**
-     * Deletes all leaves in the tree.
+     * Deletes all selected leaves in the tree. They are deleted as one batch with deleteAll.
      */
 
     public void deleteLeaves() {
-        while (!selected.isEmpty()) {
-            deleteLeaf((DataObject) selected.remove(0));
+        deleteAll(new ArrayList(selected));
+    }
+
+    /**
+     * Deletes a single data object from the tree. The object does not have to be selected.
+     *
+     * @param dataObject    The data object to delete
+     * @return              true if the data object was in this tree and has been deleted
+     */
+
+    public boolean delete(final DataObject dataObject) {
+        // D1 [Find node containing record] The data object knows its leaf, but it has to be in this tree
+        if (byId.get(dataObject.getId()) != dataObject) {
+            return false;
+        }
+        byId.remove(dataObject.getId());
+        if (dataObject.isSelected) {
+            selected.remove(dataObject);
+            dataObject.isSelected = false;
+        }
+        deleteLeaf(dataObject);
+        return true;
+    }
+
+    /**
+     * Deletes the data object with the given id. Its leaf is found through the index of the tree,
+     * without a search.
+     *
+     * @param id    The id of the data object, see DataObject.getId()
+     * @return      true if a data object with that id was in this tree and has been deleted
+     */
+
+    public boolean delete(final int id) {
+        final DataObject dataObject = byId.get(id);
+        return dataObject != null && delete(dataObject);
+    }
+
+    /**
+     * Deletes all data objects that intersect a rectangle, or lie inside it, which are the ones
+     * search would find. They are removed from their leaves during a single walk of the tree, and the
+     * tree is condensed once afterwards, as in deleteAll. No selection is needed.
+     *
+     * @param r     The rectangle
+     * @return      The number of data objects that were deleted
+     */
+
+    public int deleteWithin(final Rectangle r) {
+        final Rectangle box = rootNode.getBoundingBox();
+        if (box == null || !box.intersects(r)) {
+            return 0;
+        }
+        final ArrayList leaves = new ArrayList();
+        final int deleted = removeWithin(rootNode, r, r.x + r.width, r.y + r.height, leaves);
+        if (!selected.isEmpty()) {
+            dropDeselected();
         }
+        condenseLevels(leaves);
+        shortenTree();
+        return deleted;
+    }
+
+    /**
+     * Walks the subtree below a node like SearchCursor does, and removes the matching data objects
+     * from their leaves as they are found. The tree is not condensed.
+     *
+     * @param n         The node
+     * @param r         The rectangle
+     * @param rMaxX     The high x of the rectangle
+     * @param rMaxY     The high y of the rectangle
+     * @param leaves    Gets the leaves that data objects were removed from
+     * @return          The number of data objects removed
+     */
+
+    private int removeWithin(final Node n, final Rectangle r, final int rMaxX, final int rMaxY, final ArrayList leaves) {
+        int removed = 0;
+        if (n.getLevel() == 1) {
+            // Backwards, since removeChild moves the last child into the slot it frees
+            for (int i = n.getSize() - 1; i >= 0; i--) {
+                if (n.minX[i] <= rMaxX && n.maxX[i] >= r.x && n.minY[i] <= rMaxY && n.maxY[i] >= r.y) {
+                    final DataObject d = (DataObject) n.children.get(i);
+                    if (r.contains(d.getBoundingBox()) || d.intersects(r)) {
+                        byId.remove(d.getId());
+                        d.isSelected = false;
+                        n.removeChild(d);
+                        removed++;
+                    }
+                }
+            }
+            if (removed > 0) {
+                leaves.add(n);
+            }
+            return removed;
+        }
+        for (int i = 0; i < n.getSize(); i++) {
+            if (n.maxX[i] > n.minX[i] && n.maxY[i] > n.minY[i]
+                    && n.minX[i] < rMaxX && n.maxX[i] > r.x && n.minY[i] < rMaxY && n.maxY[i] > r.y) {
+                removed += removeWithin((Node) n.children.get(i), r, rMaxX, rMaxY, leaves);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Deletes many data objects at once. The objects are removed from their leaves first, and the tree
+     * is then condensed one level at a time, so every changed node is refreshed once, and all the
+     * orphaned entries are inserted again together at the end. Objects that are not in this tree
+     * are ignored.
+     *
+     * @param dataObjects   The data objects to delete
+     * @return              The number of data objects that were deleted
+     */
+
+    public int deleteAll(final Collection dataObjects) {
+        // BD1 [Delete records] Remove every record that is in this tree from its leaf, and remember
+        // each leaf once.
+        final IdentityHashMap changed = new IdentityHashMap();
+        final ArrayList leaves = new ArrayList();
+        boolean wasSelected = false;
+        int deleted = 0;
+        for (Iterator it = dataObjects.iterator(); it.hasNext();) {
+            final DataObject d = (DataObject) it.next();
+            if (byId.get(d.getId()) != d) {
+                continue;
+            }
+            byId.remove(d.getId());
+            final Node l = d.getParent();
+            if (d.isSelected) {
+                d.isSelected = false;
+                wasSelected = true;
+            }
+            l.removeChild(d);
+            if (!changed.containsKey(l)) {
+                changed.put(l, l);
+                leaves.add(l);
+            }
+            deleted++;
+        }
+        if (wasSelected) {
+            dropDeselected();
+        }
+
+        // BD2 [Propagate changes]
+        condenseLevels(leaves);
+
+        // BD3 [Shorten tree]
+        shortenTree();
+        return deleted;
+    }
+
+    /**
+     * Removes the data objects that are no longer flagged as selected from the selection list, and
+     * keeps the rest.
+     */
+
+    private void dropDeselected() {
+        final ArrayList kept = new ArrayList();
+        for (int i = 0; i < selected.size(); i++) {
+            if (((DataObject) selected.get(i)).isSelected) {
+                kept.add(selected.get(i));
+            }
+        }
+        selected.clear();
+        selected.addAll(kept);
+    }
+
+    /**
+     * Makes the only child of the root the new root, for as long as the root has one child and is
+     * not a leaf.
+     */
+
+    private void shortenTree() {
+        while (rootNode.getSize() == 1 && rootNode.getLevel() > 1) {
+            rootNode = (Node) rootNode.getChildren().get(0);
+            rootNode.setParent(null);
+        }
+    }
+
+    /**
+     * Adds a data object to the index of the tree.
+     *
+     * @param d     The data object
+     */
+
+    private void index(final DataObject d) {
+        byId.put(d);
     }
 
     /**
@@ -97,9 +406,7 @@ public final class RTree {
 
         // D4 [Shorten tree]
         // If the root node has only one child after the tree has been adjusted, make the child the new root
-        if (rootNode.getSize() == 1 && rootNode.getLevel() > 1) {
-            rootNode = (Node) rootNode.getChildren().get(0);
-        }
+        shortenTree();
 
     }
 
@@ -120,25 +427,321 @@ public final class RTree {
         // FL2 [Search leaf node for record]
         // If T is a leaf, check each entry to see if it matches E. If E is found return T.
 
-        final LinkedList nodeQueue = new LinkedList();
-        TreeElement currentNode;
-        if (rootNode != null) {
-            nodeQueue.add(rootNode);
+        final SearchCursor cursor = SearchCursor.acquire();
+        try {
+            cursor.reset(rootNode, r);
+            DataObject d;
+            while ((d = cursor.advance()) != null) {
+                selected.add(d);
+                d.isSelected = true;
+            }
+        } finally {
+            cursor.release();
         }
+    }
 
-        while (!nodeQueue.isEmpty()) {
-            currentNode = (TreeElement) nodeQueue.removeFirst();
-            if (currentNode instanceof DataObject) {
-                if (((DataObject) currentNode).intersects(r) || r.contains(currentNode.getBoundingBox())) {
-                    selected.add(currentNode);
-                    ((DataObject) currentNode).isSelected = true;
+    /**
+     * Searches the tree for all data objects that intersect a rectangle, or lie inside it, and hands them
+     * to a visitor as they are found. Unlike findLeaves, this does not change the tree or the selection.
+     *
+     * @param r         The rectangle
+     * @param visitor   Receives each match, and can stop the search by returning false
+     * @return          The number of matches handed to the visitor
+     */
+
+    public int search(final Rectangle r, final SearchVisitor visitor) {
+        int found = 0;
+        final SearchCursor cursor = SearchCursor.acquire();
+        try {
+            cursor.reset(rootNode, r);
+            DataObject d;
+            while ((d = cursor.advance()) != null) {
+                found++;
+                if (!visitor.visit(d)) {
+                    break;
                 }
-            } else {
-                if (currentNode.getBoundingBox().intersects(r)) {
-                    nodeQueue.addAll(((Node) currentNode).getChildren());
+            }
+        } finally {
+            cursor.release();
+        }
+        return found;
+    }
+
+    /**
+     * Searches the tree for all data objects that intersect a rectangle, or lie inside it, without
+     * changing the tree or the selection.
+     *
+     * @param r     The rectangle
+     * @return      The matching data objects
+     */
+
+    public ArrayList search(final Rectangle r) {
+        return search(r, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Searches the tree like search(Rectangle), but stops after a given number of matches.
+     *
+     * @param r         The rectangle
+     * @param limit     The largest number of matches to return
+     * @return          At most limit matching data objects
+     */
+
+    public ArrayList search(final Rectangle r, final int limit) {
+        final ArrayList result = new ArrayList();
+        if (limit <= 0) {
+            return result;
+        }
+        search(r, new SearchVisitor() {
+            public boolean visit(final DataObject dataObject) {
+                result.add(dataObject);
+                return result.size() < limit;
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Returns an iterator over the data objects that intersect a rectangle, or lie inside it.
+     * The tree is walked lazily as the iterator is used, so stopping early saves the rest of the walk.
+     * The tree must not be changed while the iterator is in use.
+     *
+     * @param r     The rectangle
+     * @return      An iterator over the matches
+     */
+
+    public Iterator<DataObject> iterator(final Rectangle r) {
+        final SearchCursor cursor = new SearchCursor();
+        cursor.reset(rootNode, r);
+        return cursor;
+    }
+
+    /**
+     * Returns a sequential stream of the data objects that intersect a rectangle, or lie inside it.
+     * Like the iterator, the stream walks the tree lazily, so limit() and findFirst() end the walk early.
+     *
+     * @param r     The rectangle
+     * @return      A stream of the matches
+     */
+
+    public Stream<DataObject> stream(final Rectangle r) {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator(r),
+                Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    /**
+     * Finds the k data objects whose polygons are closest to a point, and hands them to a visitor
+     * closest first. The distance to a polygon is 0 when the point is inside it. The tree is searched
+     * best-first, so only the nodes that are closer to the point than the k-th neighbour are opened.
+     * Like search, this does not change the tree or the selection.
+     *
+     * @param x         The x coordinate of the point
+     * @param y         The y coordinate of the point
+     * @param k         The largest number of neighbours to find
+     * @param visitor   Receives each neighbour, and can stop the search by returning false
+     * @return          The number of neighbours handed to the visitor
+     */
+
+    public int nearest(final int x, final int y, final int k, final SearchVisitor visitor) {
+        int found = 0;
+        final NearestNeighbourSearch search = NearestNeighbourSearch.acquire();
+        try {
+            search.reset(rootNode, x, y);
+            DataObject d;
+            while (found < k && (d = search.advance()) != null) {
+                found++;
+                if (!visitor.visit(d)) {
+                    break;
                 }
             }
+        } finally {
+            search.release();
+        }
+        return found;
+    }
+
+    /**
+     * Finds the k data objects whose polygons are closest to a point.
+     *
+     * @param x     The x coordinate of the point
+     * @param y     The y coordinate of the point
+     * @param k     The largest number of neighbours to find
+     * @return      At most k data objects, closest first
+     */
+
+    public ArrayList nearest(final int x, final int y, final int k) {
+        final ArrayList result = new ArrayList(Math.max(0, Math.min(k, 1024)));
+        nearest(x, y, k, new SearchVisitor() {
+            public boolean visit(final DataObject dataObject) {
+                result.add(dataObject);
+                return true;
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Answers many range queries with one walk over the tree, instead of one walk per query. On the way
+     * down, each node only passes on the queries whose rectangles intersect it, so the upper levels of
+     * the tree are read once for the whole batch. The matches of all queries are handed to one visitor,
+     * together with the index of the query they match. Like search, this does not change the tree or
+     * the selection.
+     *
+     * @param rectangles    The query rectangles
+     * @param visitor       Receives each match, and can stop the whole batch by returning false
+     * @return              The number of matches handed to the visitor
+     */
+
+    public int searchBatch(final Rectangle[] rectangles, final BatchSearchVisitor visitor) {
+        return new BatchSearch(rectangles, rootNode.getLevel(), visitor).run(rootNode);
+    }
+
+    /**
+     * Answers many range queries with one walk over the tree, like searchBatch(Rectangle[], BatchSearchVisitor).
+     *
+     * @param rectangles    The query rectangles
+     * @return              For each query rectangle, the data objects that match it
+     */
+
+    public ArrayList[] searchBatch(final Rectangle[] rectangles) {
+        final ArrayList[] results = new ArrayList[rectangles.length];
+        for (int i = 0; i < results.length; i++) {
+            results[i] = new ArrayList();
+        }
+        searchBatch(rectangles, new BatchSearchVisitor() {
+            public boolean visit(final int query, final DataObject dataObject) {
+                results[query].add(dataObject);
+                return true;
+            }
+        });
+        return results;
+    }
+
+    /**
+     * Searches the tree like search(Rectangle), but on all the threads of the common fork/join pool.
+     *
+     * @param r     The rectangle
+     * @return      The matching data objects, in no particular order
+     */
+
+    public ArrayList searchParallel(final Rectangle r) {
+        return searchParallel(r, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Searches the tree like search(Rectangle), but splits the search into a task for each subtree
+     * below the upper levels of the tree and runs them in a fork/join pool. Subtrees that are estimated
+     * to hold fewer than parallelThreshold data objects are searched sequentially, since a task costs
+     * more than it saves on them, and a pool with a single thread gets the sequential search.
+     * The tree must not be changed while the search is running.
+     *
+     * @param r     The rectangle
+     * @param pool  The pool that runs the tasks
+     * @return      The matching data objects, in no particular order
+     */
+
+    public ArrayList searchParallel(final Rectangle r, final ForkJoinPool pool) {
+        if (pool.getParallelism() == 1) {
+            return search(r);
+        }
+        return (ArrayList) pool.invoke(new ParallelSearch.Range(rootNode, r, this));
+    }
+
+    /**
+     * Finds the k nearest data objects like nearest(int, int, int), but on all the threads of the
+     * common fork/join pool.
+     *
+     * @param x     The x coordinate of the point
+     * @param y     The y coordinate of the point
+     * @param k     The largest number of neighbours to find
+     * @return      At most k data objects, closest first
+     */
+
+    public ArrayList nearestParallel(final int x, final int y, final int k) {
+        return nearestParallel(x, y, k, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Finds the k nearest data objects like nearest(int, int, int), with the subtrees below the upper
+     * levels searched by separate tasks in a fork/join pool. The tasks share the distance of the k-th
+     * nearest neighbour found so far, and skip subtrees that are further away. Still, each task looks
+     * for k neighbours of its own before the bound is known, so the tasks do several times the work of
+     * the sequential search together, and this only pays off with several threads and large k.
+     * A pool with a single thread gets the sequential search.
+     * The tree must not be changed while the search is running.
+     *
+     * @param x     The x coordinate of the point
+     * @param y     The y coordinate of the point
+     * @param k     The largest number of neighbours to find
+     * @param pool  The pool that runs the tasks
+     * @return      At most k data objects, closest first
+     */
+
+    public ArrayList nearestParallel(final int x, final int y, final int k, final ForkJoinPool pool) {
+        if (pool.getParallelism() == 1) {
+            return nearest(x, y, k);
         }
+        final ArrayList result = new ArrayList();
+        if (k <= 0 || rootNode.getSize() == 0) {
+            return result;
+        }
+        final AtomicLong bound = new AtomicLong(Double.doubleToLongBits(Double.POSITIVE_INFINITY));
+        // There are never more neighbours than data objects
+        final ParallelSearch.Neighbours neighbours = (ParallelSearch.Neighbours) pool.invoke(
+                new ParallelSearch.Nearest(rootNode, x, y, Math.min(k, byId.size()), bound, this));
+        for (int i = 0; i < neighbours.size; i++) {
+            result.add(neighbours.dataObjects[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Finds every pair of data objects, one from this tree and one from the other, whose polygons
+     * intersect, and hands the pairs to a visitor as they are found. Both trees are walked at once, so
+     * only pairs of nodes whose boxes intersect are ever looked at (see SpatialJoin). Joining a tree
+     * with itself gives every pair twice, once in each order, and every data object paired with itself.
+     * Neither tree is changed.
+     *
+     * @param other     The other tree
+     * @param visitor   Receives each pair, and can stop the join by returning false
+     * @return          The number of pairs handed to the visitor
+     */
+
+    public long join(final RTree other, final JoinVisitor visitor) {
+        return new SpatialJoin(visitor, null).run(rootNode, other.rootNode);
+    }
+
+    /**
+     * Joins this tree with another like join(RTree, JoinVisitor), on all the threads of the common
+     * fork/join pool.
+     *
+     * @param other     The other tree
+     * @param visitor   Receives each pair, from several threads at once
+     * @return          The number of pairs handed to the visitor
+     */
+
+    public long joinParallel(final RTree other, final JoinVisitor visitor) {
+        return joinParallel(other, visitor, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Joins this tree with another like join(RTree, JoinVisitor), but splits the work into a task for
+     * each pair of intersecting subtrees below the upper levels, and runs the tasks in a fork/join pool.
+     * Pairs of subtrees estimated to hold fewer than parallelThreshold data objects are joined by one
+     * task. The visitor is called from several threads at once, so it must be thread safe. When it
+     * returns false, the tasks that are running stop as soon as they notice. Neither tree may be
+     * changed while the join is running.
+     *
+     * @param other     The other tree
+     * @param visitor   Receives each pair, from several threads at once
+     * @param pool      The pool that runs the tasks
+     * @return          The number of pairs handed to the visitor
+     */
+
+    public long joinParallel(final RTree other, final JoinVisitor visitor, final ForkJoinPool pool) {
+        final Long found = (Long) pool.invoke(new SpatialJoin.Task(rootNode, other.rootNode, this, other,
+                visitor, new AtomicBoolean()));
+        return found.longValue();
     }
 
     /**
@@ -160,18 +763,23 @@ public final class RTree {
 
         while (!n.equals(rootNode)) {
             p = n.getParent();
+            final boolean changed;
 
             // CT3 [Eliminate under-full node]
             if (n.getSize() < minimumChildrenPerNode) {
-                final Node parent = n.getParent();
-                parent.removeChild(n);      // Delete the reference in the parent
+                changed = p.removeChild(n);      // Delete the reference in the parent
                 q.addAll(n.getChildren());
+            } else {
+                // CT4 [Adjust covering rectangle]
+                // If N was eliminated this is done in the removeChild method, otherwise N's entry in P is refreshed.
+                // The box of N itself is kept up to date by removeChild and refreshChild.
+                changed = p.refreshChild(n);
             }
 
-            // CT4 [Adjust covering rectangle]
-            // THIS IS DONE IN THE REMOVECHILD METHOD
-            p.refreshBoundingBox();
-            n.refreshBoundingBox();
+            // When P has kept its box and has not lost a child, nothing above it changes
+            if (!changed && p.getSize() >= minimumChildrenPerNode) {
+                break;
+            }
 
             // CT5 [Move up one level in tree]
             n = p;
@@ -184,6 +792,212 @@ public final class RTree {
 
     }
 
+    /**
+     * Condenses the tree after a batch delete, like condenseTree, but for all the changed nodes on a
+     * level at once. The parents of the changed nodes are refreshed once each and become the changed
+     * nodes of the next level. The entries of eliminated nodes are inserted again when the root has
+     * been reached.
+     *
+     * @param changed   The leaves that records were deleted from
+     */
+
+    private void condenseLevels(ArrayList changed) {
+        // CT1 [Initialize]
+        final LinkedList q = new LinkedList();
+
+        while (!changed.isEmpty()) {
+            final IdentityHashMap seen = new IdentityHashMap();
+            final ArrayList parents = new ArrayList();
+            for (int i = 0; i < changed.size(); i++) {
+                final Node n = (Node) changed.get(i);
+                if (n == rootNode) {
+                    continue;
+                }
+                // CT2 [Find parent entry]
+                final Node p = n.getParent();
+                if (!seen.containsKey(p)) {
+                    seen.put(p, p);
+                    parents.add(p);
+                }
+
+                // CT3 [Eliminate under-full node]
+                if (n.getSize() < minimumChildrenPerNode) {
+                    p.removeChild(n);
+                    q.addAll(n.getChildren());
+                }
+            }
+
+            // CT4 [Adjust covering rectangle] Once for each parent, for all its changed children
+            for (int i = 0; i < parents.size(); i++) {
+                ((Node) parents.get(i)).refreshBoundingBox();
+            }
+
+            // CT5 [Move up one level in tree]
+            changed = parents;
+        }
+
+        // CT6 [Re-insert orphaned entries] If every child of the root was eliminated there is no path
+        // down to the levels of the orphaned nodes, so their data objects are inserted instead
+        if (rootNode.getSize() == 0 && rootNode.getLevel() > 1) {
+            final ArrayList dataObjects = new ArrayList();
+            while (!q.isEmpty()) {
+                final TreeElement e = (TreeElement) q.removeFirst();
+                if (e instanceof DataObject) {
+                    dataObjects.add(e);
+                } else {
+                    q.addAll(((Node) e).getChildren());
+                }
+            }
+            rootNode = new Node(maxChildrenPerNode, minimumChildrenPerNode);
+            rootNode.setLevel(1);
+            q.addAll(dataObjects);
+        }
+        final ArrayList dataObjects = new ArrayList();
+        while (!q.isEmpty()) {
+            final TreeElement e = (TreeElement) q.removeLast();
+            if (e instanceof DataObject) {
+                dataObjects.add(e);
+            } else {
+                insertTreeElement(e);
+            }
+        }
+        insertAll(dataObjects);
+    }
+
+    /**
+     * Adjusts the tree after a batch insert, like adjustTree, but for all the changed nodes on a level
+     * at once. Each parent of a changed node gets the nodes split off from its children, is refreshed
+     * once and is split if it has become overfull. Then the same is done on the next level.
+     *
+     * @param changed   The nodes on the lowest level that have changed
+     * @param splits    Pairs of a changed node and a new node split off from it
+     */
+
+    private void adjustLevels(ArrayList changed, ArrayList splits) {
+        while (true) {
+            // AT2 [Check if done] The root has no parent to adjust, but it may have split
+            final ArrayList rootSplits = new ArrayList();
+            final IdentityHashMap added = new IdentityHashMap();
+            final ArrayList parents = new ArrayList();
+            for (int i = 0; i < changed.size(); i++) {
+                final Node n = (Node) changed.get(i);
+                if (n != rootNode && !added.containsKey(n.getParent())) {
+                    added.put(n.getParent(), new ArrayList());
+                    parents.add(n.getParent());
+                }
+            }
+            for (int i = 0; i < splits.size(); i += 2) {
+                final Node n = (Node) splits.get(i);
+                if (n == rootNode) {
+                    rootSplits.add(splits.get(i + 1));
+                } else {
+                    ((ArrayList) added.get(n.getParent())).add(splits.get(i + 1));
+                }
+            }
+
+            // I4 [Grow tree taller] If the root was split, create a new root whose children are the
+            // resulting nodes. The new root may itself have too many children.
+            if (!rootSplits.isEmpty()) {
+                final Node newRoot = new Node(maxChildrenPerNode, minimumChildrenPerNode);
+                newRoot.setLevel(rootNode.getLevel() + 1);
+                newRoot.add(rootNode);
+                for (int i = 0; i < rootSplits.size(); i++) {
+                    newRoot.add((TreeElement) rootSplits.get(i));
+                }
+                rootNode = newRoot;
+                parents.add(newRoot);
+                splits = new ArrayList();
+                splitOverfull(newRoot, splits);
+                changed = parents;
+                continue;
+            }
+            if (parents.isEmpty()) {
+                return;
+            }
+
+            // AT3 [Adjust covering rectangle in parent entry] and AT4 [Propagate node split upward],
+            // once for each parent
+            splits = new ArrayList();
+            for (int i = 0; i < parents.size(); i++) {
+                final Node p = (Node) parents.get(i);
+                final ArrayList newChildren = (ArrayList) added.get(p);
+                for (int j = 0; j < newChildren.size(); j++) {
+                    p.add((TreeElement) newChildren.get(j));
+                }
+                p.refreshBoundingBox();
+                splitOverfull(p, splits);
+            }
+
+            // AT5 [Move up to next level]
+            changed = parents;
+        }
+    }
+
+    /**
+     * Splits a node with more than M children into as many nodes as it takes to have at most M in
+     * each. The split policy divides the children in two, and each half that is still too large is
+     * divided again. The node keeps the first group, and every other group becomes a new node.
+     *
+     * @param n         The node
+     * @param splits    Gets the node and one new node added for each new node
+     */
+
+    private void splitOverfull(final Node n, final ArrayList splits) {
+        if (n.getSize() <= maxChildrenPerNode) {
+            return;
+        }
+        final ArrayList groups = new ArrayList();
+        divide(new ArrayList(n.children), groups);
+        for (int i = 0; i < groups.size(); i++) {
+            final ArrayList group = (ArrayList) groups.get(i);
+            final Node l = new Node(maxChildrenPerNode, minimumChildrenPerNode);
+            l.setLevel(n.getLevel());
+            for (int j = 0; j < group.size(); j++) {
+                l.add((TreeElement) group.get(j));
+            }
+            if (i == 0) {
+                n.morph(l);
+            } else {
+                splits.add(n);
+                splits.add(l);
+            }
+        }
+    }
+
+    private void divide(final ArrayList entries, final ArrayList groups) {
+        if (entries.size() <= maxChildrenPerNode) {
+            groups.add(entries);
+            return;
+        }
+        final int firstGroup = getSplitPolicy().split(entries, minimumChildrenPerNode);
+        divide(new ArrayList(entries.subList(0, firstGroup)), groups);
+        divide(new ArrayList(entries.subList(firstGroup, entries.size())), groups);
+    }
+
+    /**
+     * Counts the leaves of the tree. Only the nodes above the leaves are visited.
+     *
+     * @return  The number of leaves
+     */
+
+    private int countLeaves() {
+        if (rootNode.getLevel() == 1) {
+            return 1;
+        }
+        int leaves = 0;
+        final LinkedList nodeQueue = new LinkedList();
+        nodeQueue.add(rootNode);
+        while (!nodeQueue.isEmpty()) {
+            final Node n = (Node) nodeQueue.removeFirst();
+            if (n.getLevel() == 2) {
+                leaves += n.getSize();
+            } else {
+                nodeQueue.addAll(n.children);
+            }
+        }
+        return leaves;
+    }
+
     /**
      * Adjusts the nodes after insertion. Adjusts the bounding boxes of all ancestors of the inserted node.
      * If the node has split, the split-node will be inserted as well. If this results in two nodes at the root level,
@@ -208,7 +1022,7 @@ public final class RTree {
             // all entry rectangles in N.
             final Node p = n.getParent();
 
-            p.refreshBoundingBox();
+            p.refreshChild(n);
 
             // AT4 [Propagate node split upward]
             // If N has a partner NN resulting from an earlier split, create a new entry Enn with Enn P pointing to NN
@@ -220,7 +1034,7 @@ public final class RTree {
                 if (!p.isFull()) {
                     p.add(nn);
                 } else {
-                    pp = splitNode(p, nn);
+                    pp = overflow(p, nn);
                 }
             }
 
@@ -232,6 +1046,28 @@ public final class RTree {
         return nn;
     }
 
+    /**
+     * Handles a full node that another element has to be added to.
+     * The R*-tree first tries a forced reinsert: the first time a level other than the root overflows
+     * during an insertion, the entries furthest from the centre of the node are removed and queued for
+     * insertion again. Otherwise, and always for Guttman's R-tree, the node is split.
+     *
+     * @param n     The full node
+     * @param e     The element that there is no room for
+     * @return      The new node if n was split, otherwise null
+     */
+
+    private Node overflow(final Node n, final TreeElement e) {
+        final long levelBit = 1L << Math.min(n.getLevel(), 63);
+        if (insertionStrategy == RSTAR && n != rootNode && (reinsertedLevels & levelBit) == 0) {
+            reinsertedLevels |= levelBit;
+            n.add(e);
+            pendingReinserts.addAll(RStar.removeForReinsert(n, maxChildrenPerNode, minimumChildrenPerNode));
+            return null;
+        }
+        return splitNode(n, e);
+    }
+
     /**
      * Chooses the node where a dataobject or subtree should be inserted.
      *
@@ -241,9 +1077,15 @@ public final class RTree {
 
     private Node chooseNode(final TreeElement e) {
         // Variables needed for this method
-        Node bestNode, currentChildNode;
-        int bestArea, currentArea;
-        int bestEnlargement, currentEnlargement;
+        int best;
+        long bestArea, currentArea;
+        long bestEnlargement, currentEnlargement;
+
+        final Rectangle r = e.getBoundingBox();
+        final int eMinX = r.x;
+        final int eMinY = r.y;
+        final int eMaxX = r.x + r.width;
+        final int eMaxY = r.y + r.height;
 
         // CL1 [Initialize] Set N to be the root node.
         Node n = rootNode;
@@ -252,24 +1094,29 @@ public final class RTree {
             //CL2 [Leaf check] If N is a Leaf, return N.
             //CL3 [Choose subtree] If N is not a leaf, let F be the entry in N whose rectangle F I needs least enlargement
             //include E I. Resolve ties by choosing the entry with the rectangle of smallest area.
-            // TODO: her kom det en feil!!! index out of bounds exception....
-            bestNode = (Node) n.children.get(0);
-            bestArea = calculateArea(bestNode.getBoundingBox());
-            bestEnlargement = calculateEnlargement(bestNode, e);
+            // The child boxes are read from the node's slot arrays.
+            // The R*-tree chooses by least overlap enlargement when the children are on the insertion level.
+            if (insertionStrategy == RSTAR && n.getLevel() - 1 == e.getLevel() + 1) {
+                n = (Node) n.children.get(RStar.chooseLeastOverlap(n, eMinX, eMinY, eMaxX, eMaxY));
+                continue;
+            }
+            best = 0;
+            bestArea = BoundingBoxes.area(n.minX[0], n.minY[0], n.maxX[0], n.maxY[0]);
+            bestEnlargement = BoundingBoxes.enlargement(n.minX[0], n.minY[0], n.maxX[0], n.maxY[0],
+                    eMinX, eMinY, eMaxX, eMaxY);
 
             for (int i = 1; i < n.getSize(); i++) {
-                currentChildNode = (Node) n.children.get(i);
-                if (currentChildNode == null) break;
-                currentEnlargement = (calculateEnlargement(currentChildNode, e));
-                currentArea = calculateArea(currentChildNode.getBoundingBox());
+                currentEnlargement = BoundingBoxes.enlargement(n.minX[i], n.minY[i], n.maxX[i], n.maxY[i],
+                        eMinX, eMinY, eMaxX, eMaxY);
+                currentArea = BoundingBoxes.area(n.minX[i], n.minY[i], n.maxX[i], n.maxY[i]);
 
                 if (currentEnlargement < bestEnlargement) {
-                    bestNode = currentChildNode;
+                    best = i;
                     bestArea = currentArea;
                     bestEnlargement = currentEnlargement;
                 } else if (currentEnlargement == bestEnlargement) {
                     if (currentArea < bestArea) {
-                        bestNode = currentChildNode;
+                        best = i;
                         bestArea = currentArea;
                         bestEnlargement = currentEnlargement;
                     }
@@ -277,77 +1124,15 @@ public final class RTree {
             }
 
             //CL4 [Descend until a leaf is reached.] Set N to be the child node pointed to by F p and repeat from CL2.
-            n = bestNode;
+            n = (Node) n.children.get(best);
         }
         return n;
 
     }
 
     /**
-     * Calculates the area of a rectangle
-     *
-     * @param r The rectangle
-     * @return  The rectangle's area
-     */
-
-    private int calculateArea(final Rectangle r) {
-        return (r.width * r.height);
-
-    }
-
-    /**
-     * Calculates the area of the boundingbox around two objects.
-     *
-     * @param p1    The first object
-     * @param p2    The second object
-     * @return      The resulting area
-     */
-
-    private int calculateArea(final TreeElement p1, final TreeElement p2) {
-        final Rectangle p1Bounds = p1.getBoundingBox();
-        final Rectangle p2Bounds = p2.getBoundingBox();
-
-        final int[] xList = {p1Bounds.x,
-                       p1Bounds.x + p1Bounds.width,
-                       p1Bounds.x + p1Bounds.width,
-                       p1Bounds.x,
-                       p2Bounds.x,
-                       p2Bounds.x + p2Bounds.width,
-                       p2Bounds.x + p2Bounds.width,
-                       p2Bounds.x
-        };
-        final int[] yList = {p1Bounds.y,
-                       p1Bounds.y,
-                       p1Bounds.y + p1Bounds.height,
-                       p1Bounds.y + p1Bounds.height,
-                       p2Bounds.y,
-                       p2Bounds.y,
-                       p2Bounds.y + p2Bounds.height,
-                       p2Bounds.y + p2Bounds.height
-        };
-
-        final Polygon newBoundingBox = new Polygon(xList, yList, 8);
-
-        return calculateArea(newBoundingBox.getBounds());
-
-    }
-
-    /**
-     * Calculates the enlargement of inserting a node/data object into another node
-     *
-     * @param node      The node where the object is added
-     * @param element   The object that is added
-     * @return          The resulting enlargement of the object's bounding box
-     */
-
-    private int calculateEnlargement(final TreeElement node, final TreeElement element) {
-        final int nodeArea = calculateArea(node.getBoundingBox());
-        return calculateArea(node, element) - nodeArea;
-    }
-
-    /**
-     * Implements quadratic split to split full nodes. That is a node that has more than M elements. The full node will
-     * give some of it's children to a new node.
+     * Splits a full node. That is a node that has more than M elements. The full node will
+     * give some of it's children to a new node. How the children are divided is decided by the split policy.
      *
      * @param fullNode      The node that is full.
      * @param addedNode     The node that there is not room for
@@ -360,8 +1145,7 @@ public final class RTree {
         final ArrayList nodes = new ArrayList(fullNode.children);
         nodes.add(addedNode);
 
-        // QS1 [Pick first entry for each group]
-        final ArrayList firstEntriesFirst = pickSeed(nodes);
+        final int firstGroup = getSplitPolicy().split(nodes, minimumChildrenPerNode);
 
         final Node l = new Node(maxChildrenPerNode, minimumChildrenPerNode);
         final Node ll = new Node(maxChildrenPerNode, minimumChildrenPerNode);
@@ -369,56 +1153,11 @@ public final class RTree {
         l.setLevel(fullNode.getLevel());
         ll.setLevel(fullNode.getLevel());
 
-        l.add((TreeElement) firstEntriesFirst.remove(0));
-        ll.add((TreeElement) firstEntriesFirst.remove(0));
-
-        // QS2 [Check if done] If all entries have been assigned, stop.
-        while (!firstEntriesFirst.isEmpty()) {
-
-            // QS2 [Check if done] If one group has so few entries that all the rest must be assigned
-            // to it in order for it to have the minimum number m, assign them and stop.
-            if ((minimumChildrenPerNode - l.children.size()) == firstEntriesFirst.size()) {
-                while (!firstEntriesFirst.isEmpty()) {
-                    l.add((TreeElement) firstEntriesFirst.remove(0));
-                }
-                break;
-            }
-            if ((minimumChildrenPerNode - ll.children.size()) == firstEntriesFirst.size()) {
-                while (!firstEntriesFirst.isEmpty()) {
-                    ll.add((TreeElement) firstEntriesFirst.remove(0));
-                }
-                break;
-            }
-
-            // QS3 [Select entry to assign] Invoke the algorithm pickNext to choose the next entry to assign.
-            // Add it to the group whose covering rectangle will have to be enlarged least to accomodate it.
-            // Resolve ties by adding the entry to the group with the smaller area, then to the one with fewer entries,
-            // then to either. Repeat from QS2.
-            final TreeElement bestPick = pickNext(l, ll, firstEntriesFirst);
-
-
-            final int enlargement_l = calculateEnlargement(l, bestPick);
-            final int enlargement_ll = calculateEnlargement(ll, bestPick);
-
-            if (enlargement_l < enlargement_ll) {
-                l.add(bestPick);
-            } else if (enlargement_l == enlargement_ll) {
-                final int area_l = calculateArea(l.getBoundingBox());
-                final int area_ll = calculateArea(ll.getBoundingBox());
-
-                if (area_l < area_ll) {
-                    l.add(bestPick);
-                } else if (area_l == area_ll) {
-                    if (l.getSize() < ll.getSize()) {
-                        l.add(bestPick);
-                    } else {
-                        ll.add(bestPick);
-                    }
-                } else {
-                    ll.add(bestPick);
-                }
+        for (int i = 0; i < nodes.size(); i++) {
+            if (i < firstGroup) {
+                l.add((TreeElement) nodes.get(i));
             } else {
-                ll.add(bestPick);
+                ll.add((TreeElement) nodes.get(i));
             }
         }
         // Updates the pointer to the now adjusted node.
@@ -428,79 +1167,17 @@ public final class RTree {
     }
 
     /**
-     * Method used in the split method to find a good split.
-     *
-     * @param l             The first node containing at least one child.
-     * @param ll            The first node's splitnode containing at least one child.
-     * @param remainingBB   The list of node that will be divided among the two nodes.
-     * @return              The list of nodes that didn't get a parent
-     */
-
-    private TreeElement pickNext(final Node l, final Node ll, final ArrayList remainingBB) {
-
-        TreeElement currentBB;
-        int maxBB = 0;
-        int currentdifference;
-        int maxdifference = -1;
-
-        int enlargement_l;
-        int enlargement_ll;
-
-        // PN1 [Determine cost of putting each entry in each group]
-        // PN2 [Find entry with greatest preference for one group]
-
-        for (int i = 0; i < remainingBB.size(); i++) {
-            currentBB = (TreeElement) remainingBB.get(i);
-            enlargement_l = calculateEnlargement(l, currentBB);
-            enlargement_ll = calculateEnlargement(ll, currentBB);
-            currentdifference = Math.abs(enlargement_l - enlargement_ll);
-            if (currentdifference > maxdifference) {
-                maxdifference = currentdifference;
-                maxBB = i;
-            }
-        }
-
-        return (TreeElement) remainingBB.remove(maxBB);
-    }
-
-    /**
-     * Finds two seeds that will be in a node each after a split.
+     * Returns the split policy used by this tree. If none has been set, Guttman's R-tree uses the
+     * quadratic split and the R*-tree uses the R* split.
      *
-     * @param nodes The list of available nodes.
-     * @return      The two seeds
+     * @return  The split policy
      */
 
-    private ArrayList pickSeed(final ArrayList nodes) {
-        // PS1 [Calculate inefficiency of grouping entries together]
-
-        int mostWasteI = 0;
-        int mostWasteU = 1;
-        int mostWasteArea = 0;
-        int currentWasteArea;
-
-        for (int i = 0; i < nodes.size(); i++) {
-            for (int u = i + 1; u < nodes.size(); u++) {
-                currentWasteArea = calculateArea((TreeElement) nodes.get(i), (TreeElement) nodes.get(i));
-                if (mostWasteArea < currentWasteArea) {
-                    mostWasteI = i;
-                    mostWasteU = u;
-                    mostWasteArea = currentWasteArea;
-                }
-            }
-        }
-
-        final ArrayList mostWastePairFirst = new ArrayList();
-        mostWastePairFirst.add(nodes.get(mostWasteI));
-        mostWastePairFirst.add(nodes.get(mostWasteU));
-
-        for (int i = 0; i < nodes.size(); i++) {
-            if (!(i == mostWasteI || i == mostWasteU)) {
-                mostWastePairFirst.add(nodes.get(i));
-            }
+    public SplitPolicy getSplitPolicy() {
+        if (splitPolicy != null) {
+            return splitPolicy;
         }
-
-        return mostWastePairFirst;
-
+        return insertionStrategy == RSTAR ? RSTAR_SPLIT : QUADRATIC_SPLIT;
     }
 
     /**
@@ -512,6 +1189,8 @@ public final class RTree {
     public void clearTree() {
         releaseMostRecent();
         deselect();
+        pendingReinserts.clear();
+        byId.clear();
         rootNode = new Node(maxChildrenPerNode, minimumChildrenPerNode);
         rootNode.setLevel(1);
     }
@@ -532,9 +1211,10 @@ public final class RTree {
      */
 
     public void deselect() {
-        while (!selected.isEmpty()) {
-            ((DataObject) selected.remove(0)).isSelected = false;
+        for (int i = 0; i < selected.size(); i++) {
+            ((DataObject) selected.get(i)).isSelected = false;
         }
+        selected.clear();
     }
 
     /**
@@ -581,6 +1261,16 @@ public final class RTree {
         }
     }
 
+    /**
+     * Measures the overlap, coverage and dead space of the nodes on each level of the tree.
+     *
+     * @return  The metrics of the tree as it is now
+     */
+
+    public TreeMetrics getMetrics() {
+        return new TreeMetrics(rootNode);
+    }
+
     /**
      * Returns the number of levels in the tree
      *
@@ -593,12 +1283,158 @@ public final class RTree {
     }
 
     /**
-     * Rebuilds the tree from scratch by collecting all data objects and then adding them one by one.
+     * Replaces the contents of the tree with the given data objects. The tree is built bottom-up,
+     * with every node filled to M (see BulkLoader), which is much faster than inserting the objects
+     * one by one and gives better packed nodes.
+     *
+     * @param dataObjects   The data objects the tree should contain
+     * @param method        SORT_TILE_RECURSIVE or HILBERT
+     */
+
+    public void bulkLoad(final ArrayList dataObjects, final int method) {
+        clearTree();
+        for (int i = 0; i < dataObjects.size(); i++) {
+            index((DataObject) dataObjects.get(i));
+        }
+        rootNode = BulkLoader.build(dataObjects, method, maxChildrenPerNode, minimumChildrenPerNode);
+    }
+
+    /**
+     * Writes the tree to a file in the paged format of PagedRTree, one node per page. The file can be
+     * opened again with PagedRTree.open and searched without loading it into memory. Only the shape
+     * of the tree and the polygons are saved; the selection and the colours are not.
+     *
+     * @param file  The file, which is replaced if it exists
+     */
+
+    public void save(final Path file) throws IOException {
+        save(file, 0);
+    }
+
+    /**
+     * Writes the tree like save(Path), with the sequence number of the last change in it.
+     *
+     * @param file      The file, which is replaced if it exists
+     * @param sequence  The sequence number, see DurableRTree
+     */
+
+    void save(final Path file, final long sequence) throws IOException {
+        PagedRTree.write(rootNode, maxChildrenPerNode, minimumChildrenPerNode, file, sequence);
+    }
+
+    /**
+     * Replaces the contents of the tree with a tree saved by save. The nodes are made again as
+     * they were saved, and the data objects with the ids they had, so nothing is inserted or split.
+     * M and m become the ones of the saved tree.
+     *
+     * @param file  The file
+     * @throws IOException  If the file cannot be read, or is not an R-tree file
+     */
+
+    public void load(final Path file) throws IOException {
+        final PagedRTree paged = PagedRTree.open(file);
+        try {
+            load(paged);
+        } finally {
+            paged.close();
+        }
+    }
+
+    /**
+     * Replaces the contents of the tree with the tree in an opened file.
+     *
+     * @param paged     The opened file
+     */
+
+    void load(final PagedRTree paged) {
+        install(paged.readNodes(), paged.getMaxChildrenPerNode(), paged.getMinimumChildrenPerNode());
+    }
+
+    /**
+     * Writes the tree to a channel in a compact snapshot format (see TreeCodec), which restore reads
+     * back into the same nodes. The snapshot is streamed in one pass, so it can go to a file, a
+     * socket or memory, and is a fraction of the size of the paged file of save. The selection and
+     * the colours are not written.
+     *
+     * @param channel   The channel, which is not closed
+     */
+
+    public void export(final WritableByteChannel channel) throws IOException {
+        TreeCodec.write(rootNode, maxChildrenPerNode, minimumChildrenPerNode, byId.size(), channel);
+    }
+
+    /**
+     * Replaces the contents of the tree with a snapshot written by export. The nodes are made again
+     * as they were written, and the data objects with the ids they had, so nothing is inserted or
+     * split. M and m become the ones of the snapshot. The tree is left as it was if the snapshot
+     * cannot be read.
+     *
+     * Only the bytes of the snapshot are read from the channel, so a snapshot can be embedded in a
+     * larger stream: whatever was written after it is still in the channel when restore returns.
+     *
+     * @param channel   The channel, which is not closed
+     * @throws IOException  If the channel cannot be read, or does not hold a whole snapshot
+     */
+
+    public void restore(final ReadableByteChannel channel) throws IOException {
+        final TreeCodec.Tree tree = TreeCodec.read(channel);
+        install(tree.root, tree.max, tree.min);
+    }
+
+    /**
+     * Replaces the contents of the tree with nodes that were read back, and indexes their data objects.
+     *
+     * @param root  The root node
+     * @param max   M of the nodes
+     * @param min   m of the nodes
+     */
+
+    private void install(final Node root, final int max, final int min) {
+        clearTree();
+        maxChildrenPerNode = max;
+        minimumChildrenPerNode = min;
+        rootNode = root;
+        final LinkedList nodeQueue = new LinkedList();
+        nodeQueue.add(rootNode);
+        while (!nodeQueue.isEmpty()) {
+            final Node n = (Node) nodeQueue.removeFirst();
+            for (int i = 0; i < n.getSize(); i++) {
+                if (n.getLevel() > 1) {
+                    nodeQueue.add(n.getChildren().get(i));
+                } else {
+                    index((DataObject) n.getChildren().get(i));
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the data object with the given id, found through the index of the tree.
+     *
+     * @param id    The id of the data object, see DataObject.getId()
+     * @return      The data object, or null if no data object with that id is in this tree
+     */
+
+    public DataObject getDataObject(final int id) {
+        return byId.get(id);
+    }
+
+    /**
+     * @return  The data objects in the selection list, in a new list
+     */
+
+    ArrayList getSelected() {
+        return new ArrayList(selected);
+    }
+
+    /**
+     * Rebuilds the tree from scratch by collecting all data objects and then bulk loading them with
+     * the current M and m.
      *
      */
 
     public void rebuildTree() {
-        final LinkedList dataObjects = new LinkedList();
+        final ArrayList dataObjects = new ArrayList();
         final LinkedList nodeQueue = new LinkedList();
         TreeElement currentElement;
         nodeQueue.add(rootNode);
@@ -613,11 +1449,7 @@ public final class RTree {
             }
         }
 
-        clearTree();
-
-        while (!dataObjects.isEmpty()) {
-            insertTreeElement((TreeElement) dataObjects.removeFirst());
-        }
+        bulkLoad(dataObjects, SORT_TILE_RECURSIVE);
     }
 
 }
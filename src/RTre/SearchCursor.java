@@ -0,0 +1,148 @@
+package RTre;
+
+import java.awt.*;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A depth-first walk over the tree that finds the DataObjects matching a query rectangle, one at a
+ * time. The path from the root is kept in two arrays, the nodes and the next child slot to look at in
+ * each of them, so the walk allocates nothing once the arrays are as deep as the tree.
+ *
+ * The walk only reads the tree. The cursors used by RTree.search are kept per thread and reused;
+ * the ones returned by RTree.iterator are new for every call.
+ */
+final class SearchCursor implements Iterator<DataObject> {
+
+    private static final ThreadLocal CACHE = new ThreadLocal();
+
+    private Node[] nodes;
+    private int[] slots;
+    private int depth;
+
+    // The query rectangle, copied so that the caller may change it while the walk is running
+    private final Rectangle query;
+    private int qMinX, qMinY, qMaxX, qMaxY;
+
+    private DataObject next;
+    private boolean inUse;
+
+    SearchCursor() {
+        nodes = new Node[8];
+        slots = new int[8];
+        query = new Rectangle();
+    }
+
+    /**
+     * Returns the cursor of this thread, or a new one if it is already in use, for instance when
+     * a visitor starts another search.
+     *
+     * @return  A cursor that must be given back with release()
+     */
+    static SearchCursor acquire() {
+        SearchCursor cursor = (SearchCursor) CACHE.get();
+        if (cursor == null) {
+            cursor = new SearchCursor();
+            CACHE.set(cursor);
+        }
+        if (cursor.inUse) {
+            return new SearchCursor();
+        }
+        cursor.inUse = true;
+        return cursor;
+    }
+
+    /**
+     * Gives the cursor back so the next search on this thread can use it.
+     */
+    void release() {
+        for (int i = 0; i < depth; i++) {
+            nodes[i] = null;
+        }
+        depth = 0;
+        next = null;
+        inUse = false;
+    }
+
+    /**
+     * Starts a new walk from the root.
+     *
+     * @param root  The root node of the tree
+     * @param r     The query rectangle
+     */
+    void reset(final Node root, final Rectangle r) {
+        query.setBounds(r);
+        qMinX = r.x;
+        qMinY = r.y;
+        qMaxX = r.x + r.width;
+        qMaxY = r.y + r.height;
+        depth = 0;
+        next = null;
+        final Rectangle box = root.getBoundingBox();
+        if (box != null && box.intersects(r)) {
+            push(root);
+        }
+    }
+
+    /**
+     * Walks on to the next matching DataObject.
+     *
+     * @return  The next match, or null when the walk is done
+     */
+    DataObject advance() {
+        while (depth > 0) {
+            final int top = depth - 1;
+            final Node n = nodes[top];
+            final int i = slots[top]++;
+            if (i >= n.getSize()) {
+                nodes[top] = null;
+                depth--;
+                continue;
+            }
+
+            if (n.getLevel() == 1) {
+                // The slot box is a cheap filter before the polygon itself is tested
+                if (n.minX[i] <= qMaxX && n.maxX[i] >= qMinX && n.minY[i] <= qMaxY && n.maxY[i] >= qMinY) {
+                    final DataObject d = (DataObject) n.children.get(i);
+                    if (query.contains(d.getBoundingBox()) || d.intersects(query)) {
+                        return d;
+                    }
+                }
+            } else if (n.maxX[i] > n.minX[i] && n.maxY[i] > n.minY[i]
+                    && n.minX[i] < qMaxX && n.maxX[i] > qMinX && n.minY[i] < qMaxY && n.maxY[i] > qMinY) {
+                push((Node) n.children.get(i));
+            }
+        }
+        return null;
+    }
+
+    private void push(final Node n) {
+        if (depth == nodes.length) {
+            final Node[] newNodes = new Node[depth * 2];
+            final int[] newSlots = new int[depth * 2];
+            System.arraycopy(nodes, 0, newNodes, 0, depth);
+            System.arraycopy(slots, 0, newSlots, 0, depth);
+            nodes = newNodes;
+            slots = newSlots;
+        }
+        nodes[depth] = n;
+        slots[depth] = 0;
+        depth++;
+    }
+
+    public boolean hasNext() {
+        if (next == null) {
+            next = advance();
+        }
+        return next != null;
+    }
+
+    public DataObject next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        final DataObject d = next;
+        next = null;
+        return d;
+    }
+}
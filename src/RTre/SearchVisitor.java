@@ -0,0 +1,18 @@
+package RTre;
+
+/**
+ * Receives the results of RTree.search one at a time, as they are found.
+ *
+ * @see RTree#search(java.awt.Rectangle, SearchVisitor)
+ */
+public interface SearchVisitor {
+
+    /**
+     * Called for each DataObject that matches the query.
+     *
+     * @param dataObject    The matching DataObject
+     * @return              true to continue the search, false to stop it
+     */
+    public boolean visit(DataObject dataObject);
+
+}
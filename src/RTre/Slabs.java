@@ -0,0 +1,81 @@
+package RTre;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Memory outside the Java heap, in direct ByteBuffers of the same size, the slabs. The memory is
+ * addressed with a long: the high bits pick the slab, the low bits the byte in it. A record must not
+ * cross from one slab into the next, so the users of the slabs place their records accordingly.
+ *
+ * The memory only grows. Direct buffers are freed when they are garbage collected, and count
+ * against -XX:MaxDirectMemorySize, which is the size of the heap unless it is set.
+ */
+final class Slabs {
+
+    private final int shift;
+    private final long mask;
+    private ByteBuffer[] slabs;
+    private int count;
+
+    /**
+     * Constructor
+     *
+     * @param shift     The size of a slab is 2^shift bytes
+     */
+    Slabs(final int shift) {
+        this.shift = shift;
+        mask = (1L << shift) - 1;
+        slabs = new ByteBuffer[8];
+    }
+
+    /**
+     * @return  The size of one slab in bytes
+     */
+    long slabSize() {
+        return 1L << shift;
+    }
+
+    /**
+     * @return  The number of bytes in all slabs
+     */
+    long capacity() {
+        return (long) count << shift;
+    }
+
+    /**
+     * Adds one more slab at the end.
+     */
+    void grow() {
+        if (count == slabs.length) {
+            final ByteBuffer[] grown = new ByteBuffer[count * 2];
+            System.arraycopy(slabs, 0, grown, 0, count);
+            slabs = grown;
+        }
+        slabs[count++] = ByteBuffer.allocateDirect(1 << shift).order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Lets go of all slabs.
+     */
+    void clear() {
+        slabs = new ByteBuffer[8];
+        count = 0;
+    }
+
+    int getInt(final long address) {
+        return slabs[(int) (address >>> shift)].getInt((int) (address & mask));
+    }
+
+    void putInt(final long address, final int value) {
+        slabs[(int) (address >>> shift)].putInt((int) (address & mask), value);
+    }
+
+    long getLong(final long address) {
+        return slabs[(int) (address >>> shift)].getLong((int) (address & mask));
+    }
+
+    void putLong(final long address, final long value) {
+        slabs[(int) (address >>> shift)].putLong((int) (address & mask), value);
+    }
+}
@@ -0,0 +1,106 @@
+package RTre;
+
+import java.awt.*;
+import java.util.ArrayList;
+
+/**
+ * One version of a SnapshotRTree. A snapshot never changes, so any number of threads can search
+ * it without locks while the tree goes on to newer versions. It stays in memory as long as someone
+ * holds it, and is left to the garbage collector after that, apart from the nodes that later
+ * versions still share.
+ */
+public final class Snapshot {
+
+    private final SnapshotNode root;
+    private final int size;
+
+    Snapshot(final SnapshotNode root, final int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    SnapshotNode getRoot() {
+        return root;
+    }
+
+    /**
+     * @return  The number of data objects in this version of the tree
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of levels in this version of the tree
+     *
+     * @return  Number of levels in the tree
+     */
+    public int getNumberOfLevels() {
+        return root.level + 1;
+    }
+
+    /**
+     * Searches this version for all data objects that intersect a rectangle, or lie inside it, and
+     * hands them to a visitor as they are found.
+     *
+     * @param r         The rectangle
+     * @param visitor   Receives each match, and can stop the search by returning false
+     * @return          The number of matches handed to the visitor
+     */
+    public int search(final Rectangle r, final SearchVisitor visitor) {
+        final Rectangle box = root.getBoundingBox();
+        if (box == null || !box.intersects(r)) {
+            return 0;
+        }
+        final int[] found = new int[1];
+        search(root, r, r.x, r.y, r.x + r.width, r.y + r.height, visitor, found);
+        return found[0];
+    }
+
+    /**
+     * Searches this version for all data objects that intersect a rectangle, or lie inside it.
+     *
+     * @param r     The rectangle
+     * @return      The matching data objects
+     */
+    public ArrayList search(final Rectangle r) {
+        final ArrayList result = new ArrayList();
+        search(r, new SearchVisitor() {
+            public boolean visit(final DataObject dataObject) {
+                result.add(dataObject);
+                return true;
+            }
+        });
+        return result;
+    }
+
+    /**
+     * The same walk as RTree.search: the slot boxes are tested on the way down, and the polygons
+     * of the data objects in the leaves whose boxes touch the query.
+     *
+     * @return  false when the visitor has stopped the search
+     */
+    private static boolean search(final SnapshotNode n, final Rectangle query,
+                                  final int qMinX, final int qMinY, final int qMaxX, final int qMaxY,
+                                  final SearchVisitor visitor, final int[] found) {
+        for (int i = 0; i < n.children.length; i++) {
+            if (n.level == 1) {
+                if (n.minX[i] <= qMaxX && n.maxX[i] >= qMinX && n.minY[i] <= qMaxY && n.maxY[i] >= qMinY) {
+                    final DataObject d = (DataObject) n.children[i];
+                    if (query.contains(d.getBoundingBox()) || d.intersects(query)) {
+                        found[0]++;
+                        if (!visitor.visit(d)) {
+                            return false;
+                        }
+                    }
+                }
+            } else if (n.maxX[i] > n.minX[i] && n.maxY[i] > n.minY[i]
+                    && n.minX[i] < qMaxX && n.maxX[i] > qMinX && n.minY[i] < qMaxY && n.maxY[i] > qMinY) {
+                if (!search((SnapshotNode) n.children[i], query, qMinX, qMinY, qMaxX, qMaxY, visitor, found)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+}
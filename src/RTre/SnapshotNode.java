@@ -0,0 +1,120 @@
+package RTre;
+
+import java.awt.*;
+
+/**
+ * A node of a SnapshotRTree. It never changes once it is made: an update makes new copies of the
+ * nodes on the path from the root to the changed leaf, and shares all other nodes with the old
+ * version of the tree. For the same reason a node does not know its parent, since it may have
+ * a different parent in every version it is part of.
+ *
+ * It is Bounded so that the split policies can split it like any other node.
+ */
+final class SnapshotNode implements Bounded {
+
+    final int level;
+    final Bounded[] children;       // The nodes below, or the DataObjects if this is a leaf
+
+    // The bounding boxes of the children, slot i holds the box of children[i]
+    final int[] minX;
+    final int[] minY;
+    final int[] maxX;
+    final int[] maxY;
+
+    private final Rectangle boundingBox;
+
+    /**
+     * Constructor
+     *
+     * @param level     The level of the node, 1 for a leaf
+     * @param children  The children, which the node takes over and nobody may change afterwards
+     */
+    SnapshotNode(final int level, final Bounded[] children) {
+        this.level = level;
+        this.children = children;
+        final int size = children.length;
+        minX = new int[size];
+        minY = new int[size];
+        maxX = new int[size];
+        maxY = new int[size];
+        int bMinX = Integer.MAX_VALUE, bMinY = Integer.MAX_VALUE;
+        int bMaxX = Integer.MIN_VALUE, bMaxY = Integer.MIN_VALUE;
+        for (int i = 0; i < size; i++) {
+            final Rectangle r = children[i].getBoundingBox();
+            minX[i] = r.x;
+            minY[i] = r.y;
+            maxX[i] = r.x + r.width;
+            maxY[i] = r.y + r.height;
+            bMinX = Math.min(bMinX, minX[i]);
+            bMinY = Math.min(bMinY, minY[i]);
+            bMaxX = Math.max(bMaxX, maxX[i]);
+            bMaxY = Math.max(bMaxY, maxY[i]);
+        }
+        boundingBox = size == 0 ? null : new Rectangle(bMinX, bMinY, bMaxX - bMinX, bMaxY - bMinY);
+    }
+
+    /**
+     * @return  The number of children
+     */
+    int size() {
+        return children.length;
+    }
+
+    /**
+     * Finds a child by identity.
+     *
+     * @param e     The child
+     * @return      Its slot, or -1 if it is not a child of this node
+     */
+    int indexOf(final Bounded e) {
+        for (int i = 0; i < children.length; i++) {
+            if (children[i] == e) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return  A copy of the children with e added at the end
+     */
+    Bounded[] plus(final Bounded e) {
+        final Bounded[] copy = new Bounded[children.length + 1];
+        System.arraycopy(children, 0, copy, 0, children.length);
+        copy[children.length] = e;
+        return copy;
+    }
+
+    /**
+     * @return  A copy of the children with the child in slot i replaced by e, and sibling added at
+     *          the end unless it is null
+     */
+    Bounded[] with(final int i, final Bounded e, final Bounded sibling) {
+        final Bounded[] copy = new Bounded[sibling == null ? children.length : children.length + 1];
+        System.arraycopy(children, 0, copy, 0, children.length);
+        copy[i] = e;
+        if (sibling != null) {
+            copy[children.length] = sibling;
+        }
+        return copy;
+    }
+
+    /**
+     * @return  A copy of the children without the child in slot i
+     */
+    Bounded[] without(final int i) {
+        final Bounded[] copy = new Bounded[children.length - 1];
+        System.arraycopy(children, 0, copy, 0, i);
+        System.arraycopy(children, i + 1, copy, i, children.length - i - 1);
+        return copy;
+    }
+
+    /**
+     * The rectangle is shared by every version of the tree that holds this node, so it must not be changed.
+     *
+     * @return  the boundingbox of this node, or null if the node has no children
+     */
+    public Rectangle getBoundingBox() {
+        return boundingBox;
+    }
+}
@@ -0,0 +1,226 @@
+package RTre;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A persistent R-tree, for readers that must never wait for a writer. Every insert and delete makes
+ * a new version of the tree by path copying: the nodes from the root down to the changed leaf are
+ * copied with the change, and all other nodes are shared with the previous version. The new version
+ * is then published by swapping one atomic reference.
+ *
+ * A reader takes the current version with snapshot() and can search it, without any locks, for as
+ * long as it likes; it will not see the writes that come after. Writers are serialized, so one
+ * write is in progress at a time. An insert or delete copies one node per level, O(M log n) work.
+ *
+ * The tree holds DataObjects, but does not set their parents, so they can be in an RTree as well.
+ */
+public final class SnapshotRTree {
+
+    private final int maxChildrenPerNode;       // M
+    private final int minimumChildrenPerNode;   // m
+    private final SplitPolicy splitPolicy;
+    private final AtomicReference current;      // The latest Snapshot
+
+    /**
+     * Constructor
+     * Creates an empty tree that splits nodes with Guttman's quadratic split.
+     *
+     * @param max   M, the maximum number of children per node
+     * @param min   m, the minimum number of children per node
+     */
+    public SnapshotRTree(final int max, final int min) {
+        this(max, min, new QuadraticSplit());
+    }
+
+    /**
+     * Constructor
+     * Creates an empty tree.
+     *
+     * @param max           M, the maximum number of children per node
+     * @param min           m, the minimum number of children per node
+     * @param splitPolicy   How overfull nodes are split
+     */
+    public SnapshotRTree(final int max, final int min, final SplitPolicy splitPolicy) {
+        if (min < 1 || min > max / 2) {
+            throw new IllegalArgumentException("m must be between 1 and M/2, was " + min + " with M " + max);
+        }
+        maxChildrenPerNode = max;
+        minimumChildrenPerNode = min;
+        this.splitPolicy = splitPolicy;
+        current = new AtomicReference(new Snapshot(new SnapshotNode(1, new Bounded[0]), 0));
+    }
+
+    /**
+     * Returns the current version of the tree. It will not change, whatever is written to the tree later.
+     *
+     * @return  The latest snapshot
+     */
+    public Snapshot snapshot() {
+        return (Snapshot) current.get();
+    }
+
+    /**
+     * Searches the current version of the tree for all data objects that intersect a rectangle,
+     * or lie inside it.
+     *
+     * @param r         The rectangle
+     * @param visitor   Receives each match, and can stop the search by returning false
+     * @return          The number of matches handed to the visitor
+     */
+    public int search(final Rectangle r, final SearchVisitor visitor) {
+        return snapshot().search(r, visitor);
+    }
+
+    /**
+     * Searches the current version of the tree for all data objects that intersect a rectangle,
+     * or lie inside it.
+     *
+     * @param r     The rectangle
+     * @return      The matching data objects
+     */
+    public ArrayList search(final Rectangle r) {
+        return snapshot().search(r);
+    }
+
+    /**
+     * Inserts a data object and publishes the new version of the tree.
+     *
+     * @param dataObject    The data object to insert
+     */
+    public synchronized void insert(final DataObject dataObject) {
+        final Snapshot s = snapshot();
+        current.set(new Snapshot(insert(s.getRoot(), dataObject), s.size() + 1));
+    }
+
+    /**
+     * Deletes a data object and publishes the new version of the tree. As in RTree, the nodes that
+     * become under-full are removed, and their entries inserted again at their own level.
+     *
+     * @param dataObject    The data object to delete
+     * @return              true if the data object was in the tree and has been deleted
+     */
+    public synchronized boolean delete(final DataObject dataObject) {
+        final Snapshot s = snapshot();
+        final LinkedList orphans = new LinkedList();
+        final Rectangle box = dataObject.getBoundingBox();
+
+        // D1 [Find node containing record] and D2 [Delete record], copying the path on the way back up
+        SnapshotNode root = delete(s.getRoot(), dataObject, box.x, box.y, box.x + box.width, box.y + box.height, orphans);
+        if (root == null) {
+            return false;
+        }
+
+        // CT6 [Re-insert orphaned entries]
+        while (!orphans.isEmpty()) {
+            root = insert(root, (Bounded) orphans.removeLast());
+        }
+
+        // D4 [Shorten tree]
+        while (root.level > 1 && root.size() == 1) {
+            root = (SnapshotNode) root.children[0];
+        }
+        current.set(new Snapshot(root, s.size() - 1));
+        return true;
+    }
+
+    /**
+     * Inserts an element at its level below the given root, growing the tree if the root splits.
+     *
+     * @return  The root of the new version
+     */
+    private SnapshotNode insert(final SnapshotNode root, final Bounded element) {
+        final SnapshotNode[] split = new SnapshotNode[1];
+        final int level = element instanceof SnapshotNode ? ((SnapshotNode) element).level : 0;
+        final SnapshotNode newRoot = insert(root, element, level, split);
+        if (split[0] == null) {
+            return newRoot;
+        }
+        // I4 [Grow tree taller]
+        return new SnapshotNode(root.level + 1, new Bounded[]{newRoot, split[0]});
+    }
+
+    /**
+     * Makes a copy of n with the element inserted somewhere below it.
+     *
+     * @param n         The node to insert below
+     * @param element   The element to insert
+     * @param level     The level of the element
+     * @param split     Gets the second half if the copy of n had to be split
+     * @return          The copy of n
+     */
+    private SnapshotNode insert(final SnapshotNode n, final Bounded element, final int level, final SnapshotNode[] split) {
+        final Bounded[] children;
+        if (n.level == level + 1) {
+            // I2 [Add record to leaf node]
+            children = n.plus(element);
+        } else {
+            // CL3 [Choose subtree] The child that needs least enlargement, ties resolved by smallest area
+            final int i = chooseChild(n, element.getBoundingBox());
+            final SnapshotNode child = insert((SnapshotNode) n.children[i], element, level, split);
+            final SnapshotNode sibling = split[0];
+            split[0] = null;
+            children = n.with(i, child, sibling);
+        }
+
+        if (children.length <= maxChildrenPerNode) {
+            return new SnapshotNode(n.level, children);
+        }
+        final ArrayList entries = new ArrayList(Arrays.asList(children));
+        final int first = splitPolicy.split(entries, minimumChildrenPerNode);
+        split[0] = new SnapshotNode(n.level, (Bounded[]) entries.subList(first, entries.size()).toArray(new Bounded[0]));
+        return new SnapshotNode(n.level, (Bounded[]) entries.subList(0, first).toArray(new Bounded[0]));
+    }
+
+    private static int chooseChild(final SnapshotNode n, final Rectangle r) {
+        final int rMinX = r.x;
+        final int rMinY = r.y;
+        final int rMaxX = r.x + r.width;
+        final int rMaxY = r.y + r.height;
+        int best = 0;
+        long bestEnlargement = Long.MAX_VALUE;
+        long bestArea = Long.MAX_VALUE;
+        for (int i = 0; i < n.size(); i++) {
+            final long enlargement = BoundingBoxes.enlargement(n.minX[i], n.minY[i], n.maxX[i], n.maxY[i], rMinX, rMinY, rMaxX, rMaxY);
+            final long area = BoundingBoxes.area(n.minX[i], n.minY[i], n.maxX[i], n.maxY[i]);
+            if (enlargement < bestEnlargement || (enlargement == bestEnlargement && area < bestArea)) {
+                best = i;
+                bestEnlargement = enlargement;
+                bestArea = area;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Makes a copy of n without the data object. Children of n that become under-full are left out
+     * of the copy, and their entries are added to the orphans.
+     *
+     * @return  The copy of n, or null if the data object is not below n
+     */
+    private SnapshotNode delete(final SnapshotNode n, final DataObject dataObject,
+                                final int minX, final int minY, final int maxX, final int maxY, final LinkedList orphans) {
+        if (n.level == 1) {
+            final int i = n.indexOf(dataObject);
+            return i < 0 ? null : new SnapshotNode(1, n.without(i));
+        }
+        for (int i = 0; i < n.size(); i++) {
+            if (n.minX[i] <= minX && n.minY[i] <= minY && n.maxX[i] >= maxX && n.maxY[i] >= maxY) {
+                final SnapshotNode child = delete((SnapshotNode) n.children[i], dataObject, minX, minY, maxX, maxY, orphans);
+                if (child != null) {
+                    // CT3 [Eliminate under-full node]
+                    if (child.size() < minimumChildrenPerNode) {
+                        orphans.addAll(Arrays.asList(child.children));
+                        return new SnapshotNode(n.level, n.without(i));
+                    }
+                    // CT4 [Adjust covering rectangle]
+                    return new SnapshotNode(n.level, n.with(i, child, null));
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,277 @@
+package RTre;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Finds all pairs of intersecting DataObjects in two trees by walking both trees at once, as
+ * described by Brinkhoff, Kriegel and Seeger. Only pairs of nodes whose boxes intersect are visited.
+ * Inside such a pair, the children of both nodes that lie outside the intersection of the two node
+ * boxes are dropped, the rest are sorted by their low x, and a plane sweep along x finds the child
+ * pairs whose boxes intersect. Pairs of DataObjects are then tested polygon against polygon.
+ *
+ * When the trees have different heights, the node on the higher level is opened alone until both
+ * nodes of a pair are on the same level.
+ */
+final class SpatialJoin {
+
+    private final JoinVisitor visitor;
+    private final AtomicBoolean stopped;    // Shared by the tasks of a parallel join, null otherwise
+    private long found;
+
+    // Work arrays for each depth of the walk: the children of each node that are left after
+    // the intersection test, sorted by low x, and the child pairs found by the sweep
+    private int[][] slotsA;
+    private int[][] slotsB;
+    private int[][] pairs;
+
+    SpatialJoin(final JoinVisitor visitor, final AtomicBoolean stopped) {
+        this.visitor = visitor;
+        this.stopped = stopped;
+        slotsA = new int[8][];
+        slotsB = new int[8][];
+        pairs = new int[8][];
+    }
+
+    /**
+     * Joins the subtrees below two nodes.
+     *
+     * @return  The number of pairs handed to the visitor
+     */
+    long run(final Node a, final Node b) {
+        if (a.getSize() > 0 && b.getSize() > 0 && intersects(a.getBoundingBox(), b.getBoundingBox())) {
+            join(a, b, 0);
+        }
+        return found;
+    }
+
+    /**
+     * @return  false when the visitor has stopped the join
+     */
+    private boolean join(final Node a, final Node b, final int depth) {
+        if (stopped != null && stopped.get()) {
+            return false;
+        }
+        if (a.getLevel() > b.getLevel()) {
+            final Rectangle box = b.getBoundingBox();
+            for (int i = 0; i < a.getSize(); i++) {
+                if (intersects(a, i, box) && !join((Node) a.children.get(i), b, depth + 1)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (b.getLevel() > a.getLevel()) {
+            final Rectangle box = a.getBoundingBox();
+            for (int i = 0; i < b.getSize(); i++) {
+                if (intersects(b, i, box) && !join(a, (Node) b.children.get(i), depth + 1)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        final int count = sweep(a, b, depth);
+        final int[] p = pairs[depth];
+        for (int k = 0; k < count; k++) {
+            final Object childA = a.children.get(p[2 * k]);
+            final Object childB = b.children.get(p[2 * k + 1]);
+            if (a.getLevel() == 1) {
+                final DataObject d = (DataObject) childA;
+                final DataObject e = (DataObject) childB;
+                if (d.intersects(e)) {
+                    found++;
+                    if (!visitor.visit(d, e)) {
+                        if (stopped != null) {
+                            stopped.set(true);
+                        }
+                        return false;
+                    }
+                }
+            } else if (!join((Node) childA, (Node) childB, depth + 1)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Finds the pairs of children of two nodes on the same level whose boxes intersect, and stores
+     * them in pairs[depth] as slot of a followed by slot of b.
+     *
+     * @return  The number of pairs
+     */
+    int sweep(final Node a, final Node b, final int depth) {
+        ensureDepth(depth, a.getSize(), b.getSize());
+        final Rectangle boxA = a.getBoundingBox();
+        final Rectangle boxB = b.getBoundingBox();
+
+        // Search space restriction: children outside the intersection of the two nodes cannot intersect
+        // anything in the other node
+        final int minX = Math.max(boxA.x, boxB.x);
+        final int minY = Math.max(boxA.y, boxB.y);
+        final int maxX = Math.min(boxA.x + boxA.width, boxB.x + boxB.width);
+        final int maxY = Math.min(boxA.y + boxA.height, boxB.y + boxB.height);
+        final int[] sa = slotsA[depth];
+        final int[] sb = slotsB[depth];
+        final int countA = restrict(a, minX, minY, maxX, maxY, sa);
+        final int countB = restrict(b, minX, minY, maxX, maxY, sb);
+
+        // The sweep: the child with the lowest x that has not been handled yet is paired with every
+        // child of the other node that starts before it ends, and whose y range overlaps its own
+        final int[] p = pairs[depth];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < countA && j < countB) {
+            if (a.minX[sa[i]] <= b.minX[sb[j]]) {
+                final int s = sa[i++];
+                for (int k = j; k < countB && b.minX[sb[k]] <= a.maxX[s]; k++) {
+                    final int t = sb[k];
+                    if (a.minY[s] <= b.maxY[t] && b.minY[t] <= a.maxY[s]) {
+                        p[count++] = s;
+                        p[count++] = t;
+                    }
+                }
+            } else {
+                final int t = sb[j++];
+                for (int k = i; k < countA && a.minX[sa[k]] <= b.maxX[t]; k++) {
+                    final int s = sa[k];
+                    if (a.minY[s] <= b.maxY[t] && b.minY[t] <= a.maxY[s]) {
+                        p[count++] = s;
+                        p[count++] = t;
+                    }
+                }
+            }
+        }
+        return count / 2;
+    }
+
+    /**
+     * Collects the slots of the children of n that intersect the given box, sorted by low x.
+     *
+     * @return  The number of slots
+     */
+    private static int restrict(final Node n, final int minX, final int minY, final int maxX, final int maxY, final int[] slots) {
+        int count = 0;
+        for (int i = 0; i < n.getSize(); i++) {
+            if (n.minX[i] <= maxX && n.maxX[i] >= minX && n.minY[i] <= maxY && n.maxY[i] >= minY) {
+                // Insertion sort, the nodes are small
+                int k = count++;
+                while (k > 0 && n.minX[slots[k - 1]] > n.minX[i]) {
+                    slots[k] = slots[k - 1];
+                    k--;
+                }
+                slots[k] = i;
+            }
+        }
+        return count;
+    }
+
+    private void ensureDepth(final int depth, final int sizeA, final int sizeB) {
+        if (depth >= pairs.length) {
+            slotsA = grow(slotsA, depth);
+            slotsB = grow(slotsB, depth);
+            pairs = grow(pairs, depth);
+        }
+        if (slotsA[depth] == null || slotsA[depth].length < sizeA) {
+            slotsA[depth] = new int[sizeA];
+        }
+        if (slotsB[depth] == null || slotsB[depth].length < sizeB) {
+            slotsB[depth] = new int[sizeB];
+        }
+        if (pairs[depth] == null || pairs[depth].length < 2 * sizeA * sizeB) {
+            pairs[depth] = new int[2 * sizeA * sizeB];
+        }
+    }
+
+    private static int[][] grow(final int[][] arrays, final int depth) {
+        final int[][] grown = new int[Math.max(arrays.length * 2, depth + 1)][];
+        System.arraycopy(arrays, 0, grown, 0, arrays.length);
+        return grown;
+    }
+
+    private static boolean intersects(final Node n, final int i, final Rectangle r) {
+        return n.minX[i] <= r.x + r.width && n.maxX[i] >= r.x && n.minY[i] <= r.y + r.height && n.maxY[i] >= r.y;
+    }
+
+    private static boolean intersects(final Rectangle a, final Rectangle b) {
+        return a.x <= b.x + b.width && b.x <= a.x + a.width && a.y <= b.y + b.height && b.y <= a.y + a.height;
+    }
+
+    /**
+     * A join of two subtrees, run in a fork/join pool. Pairs of subtrees that are estimated to hold
+     * fewer than the threshold number of data objects are joined sequentially by one task, larger ones
+     * are split into one task for each pair of intersecting children.
+     */
+    static final class Task extends RecursiveTask {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Node a, b;
+        private final RTree treeA, treeB;
+        private final JoinVisitor visitor;
+        private final AtomicBoolean stopped;
+
+        Task(final Node a, final Node b, final RTree treeA, final RTree treeB,
+             final JoinVisitor visitor, final AtomicBoolean stopped) {
+            this.a = a;
+            this.b = b;
+            this.treeA = treeA;
+            this.treeB = treeB;
+            this.visitor = visitor;
+            this.stopped = stopped;
+        }
+
+        /**
+         * @return  The number of pairs handed to the visitor, as a Long
+         */
+        protected Object compute() {
+            final SpatialJoin join = new SpatialJoin(visitor, stopped);
+            if (a.getSize() == 0 || b.getSize() == 0) {
+                return Long.valueOf(0);
+            }
+            final long sizeA = ParallelSearch.estimatedSize(a, treeA.maxChildrenPerNode, treeA.minimumChildrenPerNode);
+            final long sizeB = ParallelSearch.estimatedSize(b, treeB.maxChildrenPerNode, treeB.minimumChildrenPerNode);
+            if (stopped.get() || Math.max(sizeA, sizeB) < treeA.parallelThreshold || (a.getLevel() == 1 && b.getLevel() == 1)) {
+                return Long.valueOf(join.run(a, b));
+            }
+
+            final ArrayList tasks = new ArrayList();
+            if (a.getLevel() > b.getLevel()) {
+                for (int i = 0; i < a.getSize(); i++) {
+                    if (intersects(a, i, b.getBoundingBox())) {
+                        tasks.add(new Task((Node) a.children.get(i), b, treeA, treeB, visitor, stopped));
+                    }
+                }
+            } else if (b.getLevel() > a.getLevel()) {
+                for (int i = 0; i < b.getSize(); i++) {
+                    if (intersects(b, i, a.getBoundingBox())) {
+                        tasks.add(new Task(a, (Node) b.children.get(i), treeA, treeB, visitor, stopped));
+                    }
+                }
+            } else if (intersects(a.getBoundingBox(), b.getBoundingBox())) {
+                final int count = join.sweep(a, b, 0);
+                final int[] p = join.pairs[0];
+                for (int k = 0; k < count; k++) {
+                    tasks.add(new Task((Node) a.children.get(p[2 * k]), (Node) b.children.get(p[2 * k + 1]),
+                            treeA, treeB, visitor, stopped));
+                }
+            }
+
+            long found = 0;
+            for (int i = tasks.size() - 1; i > 0; i--) {
+                ((Task) tasks.get(i)).fork();
+            }
+            if (!tasks.isEmpty()) {
+                found += ((Long) ((Task) tasks.get(0)).compute()).longValue();
+            }
+            for (int i = 1; i < tasks.size(); i++) {
+                found += ((Long) ((Task) tasks.get(i)).join()).longValue();
+            }
+            return Long.valueOf(found);
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package RTre;
+
+import java.util.ArrayList;
+
+/**
+ * Decides how the entries of an overflowing node are divided between the two nodes of a split.
+ * An RTree can be given any policy through its splitPolicy field. The policies trade the time a
+ * split takes against how well the resulting nodes are shaped for queries:
+ * LinearSplit is fastest, QuadraticSplit is Guttman's default, ExhaustiveSplit tries every
+ * distribution for small M, and RStarSplit is the split of the R*-tree.
+ */
+public interface SplitPolicy {
+
+    /**
+     * Divides the entries of a split into two groups. Both groups must get at least min entries.
+     *
+     * @param entries   The M+1 entries to divide, all Bounded. They are reordered so that the first group comes first.
+     * @param min       m, the minimum number of entries in a group
+     * @return          The number of entries in the first group
+     */
+    public int split(ArrayList entries, int min);
+
+}
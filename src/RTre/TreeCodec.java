@@ -0,0 +1,400 @@
+package RTre;
+
+import java.awt.*;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * The compact snapshot format of RTree.export and RTree.restore. The tree is written depth first,
+ * each node followed by its children, so it can be streamed through a channel in one pass each way
+ * and read back into the same nodes without inserting anything.
+ *
+ *   Header     Magic and version (ints)
+ *   Chunks     The length of the chunk (int), then that many bytes of the tree, until a length of 0
+ *   Trailer    CRC-32 of the bytes in the chunks (int)
+ *
+ * The bytes in the chunks are:
+ *
+ *   Tree       M, m, the level of the root and the number of data objects, then the root node
+ *   Node       The number of children, then the bounding box of the node, then the children: the
+ *              nodes below it, or the data objects if it is a leaf
+ *   Data       The id of the data object, the number of points, the minimum corner of its bounding
+ *              box, then the x and the y coordinates of the points
+ *
+ * The chunks let restore read exactly the bytes of the snapshot, however far ahead it buffers, so
+ * a snapshot can be followed by other data in the same channel.
+ *
+ * In the chunks all numbers are varints: 7 bits per byte, low bits first. Every number is made
+ * small before it is written. The bounding box of a node is written as its distances inside the
+ * box of its parent (minX - parent minX, minY - parent minY, parent maxX - maxX, parent maxY -
+ * maxY), which are never negative and mostly short. The corner of a data object is written
+ * relative to the minimum corner of its leaf, the points of its polygon relative to the corner, so
+ * that most of them fit in a byte, and the id as the difference to the id before it. The box of
+ * the root, and the id differences, can be negative, so they are zigzag coded. A node without
+ * children, which only an empty root can be, has no box.
+ *
+ * The boxes are not needed to rebuild the tree, since a node gets its box from its children, but
+ * they let restore check each node it has rebuilt against the tree that was written.
+ */
+final class TreeCodec {
+
+    static final int MAGIC = 0x52547273;    // "RTrs"
+    static final int VERSION = 2;
+
+    private TreeCodec() {
+    }
+
+    /**
+     * Writes a tree to a channel.
+     *
+     * @param root      The root node
+     * @param max       M of the tree
+     * @param min       m of the tree
+     * @param size      The number of data objects in the tree
+     * @param channel   The channel, which is not closed
+     */
+    static void write(final Node root, final int max, final int min, final int size,
+                      final WritableByteChannel channel) throws IOException {
+        final Encoder out = new Encoder(channel);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.putVarint(max);
+        out.putVarint(min);
+        out.putVarint(root.getLevel());
+        out.putVarint(size);
+        final int[] lastId = new int[1];
+        writeNode(out, root, 0, 0, 0, 0, true, lastId);
+        out.finish();
+    }
+
+    private static void writeNode(final Encoder out, final Node node, final int pMinX, final int pMinY,
+                                  final int pMaxX, final int pMaxY, final boolean root, final int[] lastId) throws IOException {
+        out.putVarint(node.getSize());
+        if (node.getSize() == 0) {
+            return;
+        }
+        final Rectangle box = node.getBoundingBox();
+        final int minX = box.x;
+        final int minY = box.y;
+        final int maxX = box.x + box.width;
+        final int maxY = box.y + box.height;
+        if (root) {
+            out.putVarint(zigzag(minX));
+            out.putVarint(zigzag(minY));
+            out.putVarint(zigzag(maxX));
+            out.putVarint(zigzag(maxY));
+        } else {
+            out.putVarint(minX - pMinX);
+            out.putVarint(minY - pMinY);
+            out.putVarint(pMaxX - maxX);
+            out.putVarint(pMaxY - maxY);
+        }
+        for (int i = 0; i < node.getSize(); i++) {
+            final Object child = node.children.get(i);
+            if (node.getLevel() > 1) {
+                writeNode(out, (Node) child, minX, minY, maxX, maxY, false, lastId);
+            } else {
+                final DataObject d = (DataObject) child;
+                final Polygon p = d.getPolygon();
+                out.putVarint(zigzag(d.getId() - lastId[0]));
+                lastId[0] = d.getId();
+                out.putVarint(p.npoints);
+                final Rectangle b = d.getBoundingBox();
+                out.putVarint(b.x - minX);
+                out.putVarint(b.y - minY);
+                for (int k = 0; k < p.npoints; k++) {
+                    out.putVarint(p.xpoints[k] - b.x);
+                }
+                for (int k = 0; k < p.npoints; k++) {
+                    out.putVarint(p.ypoints[k] - b.y);
+                }
+            }
+        }
+    }
+
+    /**
+     * The tree read by read.
+     */
+    static final class Tree {
+        Node root;
+        int max;
+        int min;
+        int size;
+    }
+
+    /**
+     * Reads a tree written by write from a channel. Only the bytes of the snapshot are read, so
+     * whatever follows it is left in the channel.
+     *
+     * @param channel   The channel, which is not closed
+     * @return          The tree
+     * @throws IOException  If the channel cannot be read, or does not hold a whole tree in this format
+     */
+    static Tree read(final ReadableByteChannel channel) throws IOException {
+        final Decoder in = new Decoder(channel);
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not an R-tree snapshot");
+        }
+        final int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unknown version of the R-tree snapshot: " + version);
+        }
+        final Tree tree = new Tree();
+        tree.max = in.getVarint();
+        tree.min = in.getVarint();
+        final int rootLevel = in.getVarint();
+        tree.size = in.getVarint();
+        if (tree.max < 2 || rootLevel < 1) {
+            throw new IOException("Damaged R-tree snapshot");
+        }
+        tree.root = readNode(in, tree, rootLevel, 0, 0, 0, 0, true, new int[1]);
+        in.finish();
+        return tree;
+    }
+
+    private static Node readNode(final Decoder in, final Tree tree, final int level, final int pMinX, final int pMinY,
+                                 final int pMaxX, final int pMaxY, final boolean root, final int[] lastId) throws IOException {
+        final Node node = new Node(tree.max, tree.min);
+        node.setLevel(level);
+        final int count = in.getVarint();
+        if (count < 0) {
+            throw new IOException("Damaged R-tree snapshot: a node with " + count + " children");
+        }
+        if (count == 0) {
+            if (!root) {
+                throw new IOException("Damaged R-tree snapshot: a node without children");
+            }
+            return node;
+        }
+        final int minX, minY, maxX, maxY;
+        if (root) {
+            minX = unzigzag(in.getVarint());
+            minY = unzigzag(in.getVarint());
+            maxX = unzigzag(in.getVarint());
+            maxY = unzigzag(in.getVarint());
+        } else {
+            minX = pMinX + in.getVarint();
+            minY = pMinY + in.getVarint();
+            maxX = pMaxX - in.getVarint();
+            maxY = pMaxY - in.getVarint();
+        }
+        for (int i = 0; i < count; i++) {
+            if (level > 1) {
+                node.add(readNode(in, tree, level - 1, minX, minY, maxX, maxY, false, lastId));
+            } else {
+                final int id = lastId[0] + unzigzag(in.getVarint());
+                lastId[0] = id;
+                final int n = in.getVarint();
+                if (n < 0) {
+                    throw new IOException("Damaged R-tree snapshot: a polygon with " + n + " points");
+                }
+                final int cornerX = minX + in.getVarint();
+                final int cornerY = minY + in.getVarint();
+                // A damaged count must not allocate more than the snapshot holds, so x grows as
+                // the points arrive. Once they have, y is no larger than the bytes that were read.
+                int[] x = new int[Math.min(n, 4096)];
+                for (int k = 0; k < n; k++) {
+                    if (k == x.length) {
+                        x = Arrays.copyOf(x, (int) Math.min(n, 2L * k));
+                    }
+                    x[k] = cornerX + in.getVarint();
+                }
+                final int[] y = new int[n];
+                for (int k = 0; k < n; k++) {
+                    y[k] = cornerY + in.getVarint();
+                }
+                node.add(new DataObject(id, new Polygon(x, y, n)));
+            }
+        }
+        final Rectangle box = node.getBoundingBox();
+        if (box.x != minX || box.y != minY || box.x + box.width != maxX || box.y + box.height != maxY) {
+            throw new IOException("Damaged R-tree snapshot: a node does not have the box it was written with");
+        }
+        return node;
+    }
+
+    private static int zigzag(final int v) {
+        return (v << 1) ^ (v >> 31);
+    }
+
+    private static int unzigzag(final int v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    /**
+     * Writes varints to a channel in chunks, and the checksum of all their bytes at the end. The
+     * bytes are put in an array, which is much faster than putting them in a ByteBuffer one by one,
+     * after room for the length of the chunk, so that a chunk is written with its length at once.
+     */
+    private static final class Encoder {
+
+        private final WritableByteChannel channel;
+        private final byte[] bytes;
+        private int length;
+        private final CRC32 crc;
+
+        Encoder(final WritableByteChannel channel) {
+            this.channel = channel;
+            bytes = new byte[1 << 16];
+            length = 4;
+            crc = new CRC32();
+        }
+
+        /**
+         * Writes an int outside the chunks.
+         */
+        void writeInt(final int v) throws IOException {
+            final ByteBuffer buffer = ByteBuffer.allocate(4);
+            buffer.putInt(v).flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+
+        void putVarint(int v) throws IOException {
+            if (length > bytes.length - 5) {
+                flush();
+            }
+            while ((v & ~0x7f) != 0) {
+                bytes[length++] = (byte) ((v & 0x7f) | 0x80);
+                v >>>= 7;
+            }
+            bytes[length++] = (byte) v;
+        }
+
+        /**
+         * Writes the bytes that have been put as a chunk.
+         */
+        private void flush() throws IOException {
+            final int n = length - 4;
+            if (n == 0) {
+                return;
+            }
+            crc.update(bytes, 4, n);
+            bytes[0] = (byte) (n >>> 24);
+            bytes[1] = (byte) (n >>> 16);
+            bytes[2] = (byte) (n >>> 8);
+            bytes[3] = (byte) n;
+            final ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, length);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            length = 4;
+        }
+
+        void finish() throws IOException {
+            flush();
+            writeInt(0);
+            writeInt((int) crc.getValue());
+        }
+    }
+
+    /**
+     * Reads varints from the chunks in a channel through a buffer, and checks the checksum at the
+     * end. It never reads further than the chunk it is in, so the bytes after the snapshot stay in
+     * the channel.
+     */
+    private static final class Decoder {
+
+        private final ReadableByteChannel channel;
+        private final byte[] bytes;
+        private int position;
+        private int limit;
+        private int chunk;          // The bytes of the current chunk that have not been read from the channel
+        private boolean ended;      // The chunk of length 0 has been read
+        private final ByteBuffer number;
+        private final CRC32 crc;
+
+        Decoder(final ReadableByteChannel channel) {
+            this.channel = channel;
+            bytes = new byte[1 << 16];
+            number = ByteBuffer.allocate(4);
+            crc = new CRC32();
+        }
+
+        /**
+         * Reads an int outside the chunks.
+         */
+        int readInt() throws IOException {
+            number.clear();
+            while (number.hasRemaining()) {
+                if (channel.read(number) < 0) {
+                    throw new EOFException("The R-tree snapshot ends too early");
+                }
+            }
+            return number.getInt(0);
+        }
+
+        /**
+         * Makes sure that the buffer has at least the given number of bytes, unless the chunks end first.
+         *
+         * @return  false if the chunks ended first
+         */
+        private boolean fill(final int n) throws IOException {
+            if (limit - position >= n) {
+                return true;
+            }
+            System.arraycopy(bytes, position, bytes, 0, limit - position);
+            limit -= position;
+            position = 0;
+            while (limit < n) {
+                if (chunk == 0) {
+                    if (ended) {
+                        return false;
+                    }
+                    chunk = readInt();
+                    if (chunk < 0) {
+                        throw new IOException("Damaged R-tree snapshot: a chunk of " + chunk + " bytes");
+                    }
+                    ended = chunk == 0;
+                    continue;
+                }
+                final ByteBuffer buffer = ByteBuffer.wrap(bytes, limit, Math.min(chunk, bytes.length - limit));
+                final int read = channel.read(buffer);
+                if (read < 0) {
+                    throw new EOFException("The R-tree snapshot ends too early");
+                }
+                crc.update(bytes, limit, read);
+                limit += read;
+                chunk -= read;
+            }
+            return true;
+        }
+
+        int getVarint() throws IOException {
+            // A varint has at most 5 bytes, but the last one of the snapshot may be closer to its end
+            if (limit - position < 5) {
+                fill(5);
+            }
+            int v = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                if (position == limit) {
+                    throw new EOFException("The R-tree snapshot ends too early");
+                }
+                final byte b = bytes[position++];
+                v |= (b & 0x7f) << shift;
+                if (b >= 0) {
+                    return v;
+                }
+            }
+            throw new IOException("Damaged R-tree snapshot: a number is too long");
+        }
+
+        /**
+         * Checks that the chunks end with the tree, and that the checksum after them matches.
+         */
+        void finish() throws IOException {
+            if (position < limit || chunk > 0 || !ended && readInt() != 0) {
+                throw new IOException("Damaged R-tree snapshot: there is more after the tree");
+            }
+            if (readInt() != (int) crc.getValue()) {
+                throw new IOException("Damaged R-tree snapshot: the checksum does not match");
+            }
+        }
+    }
+}
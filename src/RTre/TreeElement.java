@@ -12,11 +12,12 @@ import java.util.ArrayList;
  * Date: 05.okt.2004
  * Time: 11:35:23
  */
-public interface TreeElement {
+public interface TreeElement extends Bounded {
 
     public Node getParent();
     public void setParent(Node parent);
-    public Rectangle getBoundingBox();
+    public int getSlot();
+    public void setSlot(int slot);
     public void drawMe(Graphics2D g2d);
     public int getLevel();
     public void setColor();
@@ -0,0 +1,194 @@
+package RTre;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+
+/**
+ * Measures how well the nodes of a tree are shaped, level by level. Queries visit fewer nodes when
+ * nodes overlap less and cover less empty space, so these numbers show the quality of a split policy
+ * or insertion strategy independently of the speed of the machine.
+ *
+ * For every level the following sums are collected over all nodes on that level:
+ * coverage, the area of the nodes; overlap, the area shared by nodes with the same parent; and dead
+ * space, the area of a node that is not covered by any of its children.
+ */
+public final class TreeMetrics {
+
+    private final int[] nodes;
+    private final long[] coverage;
+    private final long[] overlap;
+    private final long[] deadSpace;
+
+    /**
+     * Measures the tree below the given root node.
+     *
+     * @param root  The root node
+     */
+    public TreeMetrics(final Node root) {
+        final int levels = root.getLevel() + 1;
+        nodes = new int[levels];
+        coverage = new long[levels];
+        overlap = new long[levels];
+        deadSpace = new long[levels];
+
+        final LinkedList queue = new LinkedList();
+        if (root.getSize() > 0) {
+            queue.add(root);
+        }
+        while (!queue.isEmpty()) {
+            final Node n = (Node) queue.removeFirst();
+            final int level = n.getLevel();
+            final long area = BoundingBoxes.area(n.getBoundingBox());
+            nodes[level]++;
+            coverage[level] += area;
+            deadSpace[level] += area - childUnionArea(n);
+
+            final int size = n.getSize();
+            if (level > 1) {
+                for (int i = 0; i < size; i++) {
+                    for (int j = i + 1; j < size; j++) {
+                        overlap[level - 1] += BoundingBoxes.overlap(n.minX[i], n.minY[i], n.maxX[i], n.maxY[i],
+                                n.minX[j], n.minY[j], n.maxX[j], n.maxY[j]);
+                    }
+                }
+                queue.addAll(n.getChildren());
+            }
+        }
+    }
+
+    /**
+     * Returns the number of levels of nodes. Level 1 is the leaf level.
+     *
+     * @return  The level of the root node
+     */
+    public int getLevels() {
+        return nodes.length - 1;
+    }
+
+    /**
+     * @param level     The level, 1 is the leaf level
+     * @return          The number of nodes on the level
+     */
+    public int getNodeCount(final int level) {
+        return nodes[level];
+    }
+
+    /**
+     * @param level     The level, 1 is the leaf level
+     * @return          The sum of the areas of the nodes on the level
+     */
+    public long getCoverage(final int level) {
+        return coverage[level];
+    }
+
+    /**
+     * @param level     The level, 1 is the leaf level
+     * @return          The sum of the areas shared by each pair of nodes on the level with the same parent
+     */
+    public long getOverlap(final int level) {
+        return overlap[level];
+    }
+
+    /**
+     * @param level     The level, 1 is the leaf level
+     * @return          The sum of the areas of the nodes on the level that none of their children cover
+     */
+    public long getDeadSpace(final int level) {
+        return deadSpace[level];
+    }
+
+    /**
+     * @return  The coverage summed over all levels
+     */
+    public long getTotalCoverage() {
+        return sum(coverage);
+    }
+
+    /**
+     * @return  The overlap summed over all levels
+     */
+    public long getTotalOverlap() {
+        return sum(overlap);
+    }
+
+    /**
+     * @return  The dead space summed over all levels
+     */
+    public long getTotalDeadSpace() {
+        return sum(deadSpace);
+    }
+
+    /**
+     * Returns one line per level, the root first.
+     *
+     * @return  The metrics as a table
+     */
+    public String toString() {
+        final StringBuffer sb = new StringBuffer("level      nodes         coverage          overlap       dead space\n");
+        for (int level = getLevels(); level >= 1; level--) {
+            sb.append(pad(String.valueOf(level), 5))
+                    .append(pad(String.valueOf(nodes[level]), 11))
+                    .append(pad(String.valueOf(coverage[level]), 17))
+                    .append(pad(String.valueOf(overlap[level]), 17))
+                    .append(pad(String.valueOf(deadSpace[level]), 17))
+                    .append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static String pad(final String s, final int width) {
+        final StringBuffer sb = new StringBuffer();
+        for (int i = s.length(); i < width; i++) {
+            sb.append(' ');
+        }
+        return sb.append(s).toString();
+    }
+
+    private static long sum(final long[] values) {
+        long sum = 0;
+        for (int i = 0; i < values.length; i++) {
+            sum += values[i];
+        }
+        return sum;
+    }
+
+    /**
+     * Calculates the area covered by the union of the children of a node. The child boxes are cut
+     * along all their edges into a grid, and the cells that are inside any child are added up.
+     *
+     * @param n     The node
+     * @return      The area covered by at least one child
+     */
+    static long childUnionArea(final Node n) {
+        final int size = n.getSize();
+        final int[] xs = new int[2 * size];
+        final int[] ys = new int[2 * size];
+        for (int i = 0; i < size; i++) {
+            xs[2 * i] = n.minX[i];
+            xs[2 * i + 1] = n.maxX[i];
+            ys[2 * i] = n.minY[i];
+            ys[2 * i + 1] = n.maxY[i];
+        }
+        Arrays.sort(xs);
+        Arrays.sort(ys);
+
+        long area = 0;
+        for (int a = 0; a + 1 < xs.length; a++) {
+            if (xs[a] == xs[a + 1]) {
+                continue;
+            }
+            for (int b = 0; b + 1 < ys.length; b++) {
+                if (ys[b] == ys[b + 1]) {
+                    continue;
+                }
+                for (int i = 0; i < size; i++) {
+                    if (n.minX[i] <= xs[a] && n.maxX[i] >= xs[a + 1] && n.minY[i] <= ys[b] && n.maxY[i] >= ys[b + 1]) {
+                        area += (long) (xs[a + 1] - xs[a]) * (ys[b + 1] - ys[b]);
+                        break;
+                    }
+                }
+            }
+        }
+        return area;
+    }
+}
@@ -0,0 +1,149 @@
+package RTre;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Pins the pages of a file in which every int is the number of its page, through pools much
+ * smaller than the file: the frames must hold the pages that were pinned, a thread that finds every
+ * frame pinned must wait for one instead of failing, and the table of the frames of the pages must
+ * behave like a map.
+ */
+public class BufferPoolTest {
+
+    private static final int PAGE_SIZE = 256;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FileChannel file(final int pages) throws IOException {
+        final Path path = folder.newFile().toPath();
+        final ByteBuffer b = ByteBuffer.allocate(pages * PAGE_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        for (int page = 0; page < pages; page++) {
+            for (int i = 0; i < PAGE_SIZE / 4; i++) {
+                b.putInt(page);
+            }
+        }
+        Files.write(path, b.array());
+        return FileChannel.open(path, StandardOpenOption.READ);
+    }
+
+    private static void assertHolds(final BufferPool pool, final int frame, final long page) {
+        final ByteBuffer b = pool.buffer(frame);
+        assertEquals(page, b.getInt(0));
+        assertEquals(page, b.getInt(PAGE_SIZE - 4));
+    }
+
+    @Test
+    public void framesHoldThePinnedPages() throws IOException {
+        final Random random = new Random(1);
+        final FileChannel channel = file(200);
+        try {
+            final BufferPool pool = new BufferPool(channel, PAGE_SIZE, 8);
+            pool.pinForGood(0);
+            final ArrayList pinned = new ArrayList();    // Pairs of page and frame
+            for (int i = 0; i < 20000; i++) {
+                if (pinned.size() < 2 * 6 && random.nextBoolean()) {
+                    // Mostly a few pages that stay in the pool, sometimes one of all the others
+                    final long page = random.nextInt(4) == 0 ? random.nextInt(200) : 1 + random.nextInt(5);
+                    final int frame = pool.pin(page);
+                    assertHolds(pool, frame, page);
+                    pinned.add(Long.valueOf(page));
+                    pinned.add(Integer.valueOf(frame));
+                } else if (!pinned.isEmpty()) {
+                    final int k = 2 * random.nextInt(pinned.size() / 2);
+                    final long page = ((Long) pinned.get(k)).longValue();
+                    final int frame = ((Integer) pinned.get(k + 1)).intValue();
+                    // Still there while it is pinned
+                    assertHolds(pool, frame, page);
+                    pool.unpin(frame);
+                    pinned.remove(k + 1);
+                    pinned.remove(k);
+                }
+            }
+            assertTrue(pool.getHits() > pool.getMisses());
+            assertTrue(pool.getEvictions() > 0);
+            assertEquals(1, pool.getPinnedPages());
+        } finally {
+            channel.close();
+        }
+    }
+
+    @Test
+    public void waitsForAFrame() throws Exception {
+        final FileChannel channel = file(10);
+        try {
+            final BufferPool pool = new BufferPool(channel, PAGE_SIZE, 2);
+            final int first = pool.pin(1);
+            final int second = pool.pin(2);
+            final int[] frame = {-1};
+            final Exception[] failure = new Exception[1];
+            final Thread thread = new Thread() {
+                public void run() {
+                    try {
+                        frame[0] = pool.pin(3);
+                    } catch (Exception e) {
+                        failure[0] = e;
+                    }
+                }
+            };
+            thread.start();
+            thread.join(300);
+            assertTrue(thread.isAlive());
+
+            pool.unpin(second);
+            thread.join(10000);
+            assertFalse(thread.isAlive());
+            assertEquals(null, failure[0]);
+            assertEquals(second, frame[0]);
+            assertHolds(pool, frame[0], 3);
+            assertHolds(pool, first, 1);
+        } finally {
+            channel.close();
+        }
+    }
+
+    @Test
+    public void pageTableBehavesLikeAMap() {
+        final Random random = new Random(2);
+        final BufferPool.PageTable table = new BufferPool.PageTable(500);
+        final HashMap model = new HashMap();
+        for (int i = 0; i < 200000; i++) {
+            final long page = random.nextInt(3000) * 7L;
+            final Integer frame = (Integer) model.get(Long.valueOf(page));
+            if (frame != null) {
+                assertEquals(frame.intValue(), table.get(page));
+                if (random.nextBoolean()) {
+                    model.remove(Long.valueOf(page));
+                    table.remove(page);
+                }
+            } else {
+                assertEquals(-1, table.get(page));
+                if (model.size() < 500) {
+                    model.put(Long.valueOf(page), Integer.valueOf(i));
+                    table.put(page, i);
+                }
+            }
+        }
+        for (long page = 0; page < 3000 * 7L; page++) {
+            final Integer frame = (Integer) model.get(Long.valueOf(page));
+            assertEquals(frame == null ? -1 : frame.intValue(), table.get(page));
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package RTre;
+
+import org.junit.Test;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Lets several threads insert, delete and search in one ConcurrentRTree at the same time, and
+ * checks every answer against a list of the data objects that should be in the tree.
+ *
+ * Each thread works in its own strip of the plane, so the data objects of the other threads never
+ * match its searches, and its own list is the exact answer even while the others change the tree.
+ * After all threads are done, the tree must still be a valid R-tree, and searches anywhere must
+ * find what the lists of all threads hold together.
+ */
+public class ConcurrentRTreeTest {
+
+    static final int THREADS = 8;
+    static final int OPERATIONS = 4000;
+    static final int STRIP = 1000;
+
+    @Test
+    public void mixedUpdatesAndSearches() throws InterruptedException {
+        final RTree rtree = TestTrees.emptyTree(8, 3);
+        final ConcurrentRTree tree = new ConcurrentRTree(rtree);
+        final ArrayList[] models = new ArrayList[THREADS];
+        final AtomicReference failure = new AtomicReference();
+        final CountDownLatch start = new CountDownLatch(1);
+        final Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            final int strip = t;
+            models[t] = new ArrayList();
+            threads[t] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                        work(tree, strip, models[strip], new Random(strip));
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        start.countDown();
+        for (int t = 0; t < THREADS; t++) {
+            threads[t].join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError("A thread failed", (Throwable) failure.get());
+        }
+
+        final ArrayList all = new ArrayList();
+        for (int t = 0; t < THREADS; t++) {
+            all.addAll(models[t]);
+        }
+        assertEquals(all.size(), TreeInvariants.check(rtree));
+        final Random random = new Random(THREADS);
+        for (int i = 0; i < 200; i++) {
+            final Rectangle r = new Rectangle(random.nextInt(THREADS * STRIP), random.nextInt(STRIP),
+                    random.nextInt(3 * STRIP), random.nextInt(STRIP));
+            assertArrayEquals(TestTrees.matchingIds(all, r), TestTrees.ids(tree.search(r)));
+        }
+        assertArrayEquals(TestTrees.ids(all), TestTrees.ids(tree.search(new Rectangle(0, 0, THREADS * STRIP, STRIP))));
+    }
+
+    /**
+     * The operations of one thread, all inside its strip.
+     */
+    private static void work(final ConcurrentRTree tree, final int strip, final ArrayList model, final Random random) {
+        final int x = strip * STRIP;
+        for (int i = 0; i < OPERATIONS; i++) {
+            final int op = random.nextInt(100);
+            if (op < 35) {
+                final DataObject d = TestTrees.dataObject(random, x, 0, STRIP, STRIP);
+                tree.insertTreeElement(d);
+                model.add(d);
+            } else if (op < 40) {
+                final ArrayList batch = new ArrayList();
+                for (int k = random.nextInt(20); k > 0; k--) {
+                    batch.add(TestTrees.dataObject(random, x, 0, STRIP, STRIP));
+                }
+                tree.insertAll(batch);
+                model.addAll(batch);
+            } else if (op < 50 && !model.isEmpty()) {
+                final DataObject d = (DataObject) model.remove(random.nextInt(model.size()));
+                assertTrue(tree.delete(d));
+            } else if (op < 60 && !model.isEmpty()) {
+                final DataObject d = (DataObject) model.remove(random.nextInt(model.size()));
+                assertTrue(tree.delete(d.getId()));
+            } else if (op < 63) {
+                final Rectangle r = TestTrees.window(random, x, 0, STRIP, STRIP);
+                int expected = 0;
+                for (int k = model.size() - 1; k >= 0; k--) {
+                    if (TestTrees.matches((DataObject) model.get(k), r)) {
+                        model.remove(k);
+                        expected++;
+                    }
+                }
+                assertEquals(expected, tree.deleteWithin(r));
+            } else {
+                final Rectangle r = TestTrees.window(random, x, 0, STRIP, STRIP);
+                assertArrayEquals(TestTrees.matchingIds(model, r), TestTrees.ids(tree.search(r)));
+            }
+        }
+    }
+}
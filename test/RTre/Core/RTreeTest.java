@@ -0,0 +1,261 @@
+package RTre.Core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the headless tree against brute force over a list of the entries it should hold, in both
+ * coordinate modes and in two to four dimensions: searches after inserts and deletes, and nearest
+ * neighbours against the entries sorted by distance. After the deletes, the box of every slot must
+ * still be the box of its child, rounded outwards in the float mode. Boxes narrower than a float,
+ * many of which round to the same float box, must be told apart by their exact boxes.
+ */
+public class RTreeTest {
+
+    private static final int[] MODES = {RTree.DOUBLE, RTree.FLOAT};
+
+    /**
+     * Creates a random box. Its low corner lies in the cube from origin to origin + extent, and it is
+     * at most size wide in each dimension. One box in eight is flat in its first dimension.
+     */
+    private static double[] box(final Random random, final int d, final double origin, final double extent, final double size) {
+        final double[] box = new double[2 * d];
+        for (int k = 0; k < d; k++) {
+            box[k] = origin + random.nextDouble() * extent;
+            box[d + k] = box[k] + random.nextDouble() * size;
+        }
+        if (random.nextInt(8) == 0) {
+            box[d] = box[0];
+        }
+        return box;
+    }
+
+    private static double[] boxOf(final Entry<?> entry) {
+        final int d = entry.getDimensions();
+        final double[] box = new double[2 * d];
+        for (int k = 0; k < d; k++) {
+            box[k] = entry.getMin(k);
+            box[d + k] = entry.getMax(k);
+        }
+        return box;
+    }
+
+    private static boolean intersects(final Entry<?> entry, final double[] query) {
+        final int d = entry.getDimensions();
+        for (int k = 0; k < d; k++) {
+            if (entry.getMin(k) > query[d + k] || entry.getMax(k) < query[k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static double distanceSq(final Entry<?> entry, final double[] point) {
+        double distance = 0;
+        for (int k = 0; k < point.length; k++) {
+            final double delta = Math.max(0, Math.max(entry.getMin(k) - point[k], point[k] - entry.getMax(k)));
+            distance += delta * delta;
+        }
+        return distance;
+    }
+
+    /**
+     * @return  The payloads of the entries, sorted
+     */
+    private static int[] payloads(final Collection entries) {
+        final int[] payloads = new int[entries.size()];
+        int i = 0;
+        for (final Iterator it = entries.iterator(); it.hasNext(); ) {
+            payloads[i++] = ((Integer) ((Entry) it.next()).getPayload()).intValue();
+        }
+        Arrays.sort(payloads);
+        return payloads;
+    }
+
+    /**
+     * @return  The payloads of the entries in a collection that a search for the box should find, sorted
+     */
+    private static int[] matching(final Collection entries, final double[] query) {
+        final ArrayList matches = new ArrayList();
+        for (final Iterator it = entries.iterator(); it.hasNext(); ) {
+            final Entry entry = (Entry) it.next();
+            if (intersects(entry, query)) {
+                matches.add(entry);
+            }
+        }
+        return payloads(matches);
+    }
+
+    /**
+     * Walks the whole tree, and fails at the first node with the wrong parent, level, number of
+     * children, or a slot whose box is not the box of its child as setBox would store it.
+     *
+     * @return  The number of entries in the tree
+     */
+    private static int check(final RTree<Integer> tree, final int max, final int min) {
+        final Node root = tree.getRootNode();
+        assertNull(root.parent);
+        if (root.level > 1) {
+            assertTrue(root.size >= 2);
+        }
+        final int entries = check(root, root, max, min);
+        assertEquals(tree.size(), entries);
+        return entries;
+    }
+
+    private static int check(final Node n, final Node root, final int max, final int min) {
+        if (n != root) {
+            assertTrue(n.size >= min && n.size <= max);
+        }
+        int entries = 0;
+        for (int i = 0; i < n.size; i++) {
+            if (n.level == 1) {
+                assertTrue(n.hasBox(i, ((Entry<?>) n.children[i]).box()));
+                entries++;
+            } else {
+                final Node child = (Node) n.children[i];
+                assertSame(n, child.parent);
+                assertEquals(n.level - 1, child.level);
+                final double[] union = new double[2 * n.dimensions];
+                child.union(union);
+                assertTrue(n.hasBox(i, union));
+                entries += check(child, root, max, min);
+            }
+        }
+        return entries;
+    }
+
+    private static void assertSearches(final RTree<Integer> tree, final ArrayList model, final Random random,
+                                       final double origin, final double extent, final double size) {
+        assertEquals(model.size(), tree.size());
+        for (int i = 0; i < 100; i++) {
+            final double[] query = box(random, tree.getDimensions(), origin, extent, size);
+            assertArrayEquals(matching(model, query), payloads(tree.search(query)));
+        }
+    }
+
+    /**
+     * Inserts, searches and deletes entries of the given size in a cube, checking the tree against the
+     * model after each step, and deletes the rest at the end.
+     */
+    private static void insertSearchAndDelete(final int mode, final int d, final long seed,
+                                              final double origin, final double extent, final double size) {
+        final Random random = new Random(seed);
+        final RTree<Integer> tree = new RTree<Integer>(8, 3, mode, d);
+        final ArrayList model = new ArrayList();
+        for (int i = 0; i < 3000; i++) {
+            model.add(tree.insert(box(random, d, origin, extent, size), Integer.valueOf(i)));
+        }
+        check(tree, 8, 3);
+        assertSearches(tree, model, random, origin, extent, 4 * size);
+
+        // Delete by entry and by a copy of the box with an equal payload
+        for (int i = 0; i < 1500; i++) {
+            final Entry entry = (Entry) model.remove(random.nextInt(model.size()));
+            final Integer payload = (Integer) entry.getPayload();
+            assertTrue(i % 2 == 0 ? tree.delete(entry) : tree.delete(boxOf(entry), payload));
+            assertFalse(tree.delete(boxOf(entry), payload));
+            if (i % 100 == 0) {
+                check(tree, 8, 3);
+            }
+        }
+        check(tree, 8, 3);
+        assertSearches(tree, model, random, origin, extent, 4 * size);
+
+        // The deletes leave room that new entries take again
+        for (int i = 0; i < 500; i++) {
+            model.add(tree.insert(box(random, d, origin, extent, size), Integer.valueOf(3000 + i)));
+        }
+        check(tree, 8, 3);
+        assertSearches(tree, model, random, origin, extent, 4 * size);
+
+        while (!model.isEmpty()) {
+            assertTrue(tree.delete((Entry) model.remove(model.size() - 1)));
+        }
+        check(tree, 8, 3);
+        assertEquals(0, tree.size());
+        assertEquals(2, tree.getNumberOfLevels());
+        assertEquals(0, tree.search(box(random, d, origin, extent, extent)).size());
+    }
+
+    @Test
+    public void searchesAndDeletesLikeBruteForce() {
+        for (int m = 0; m < MODES.length; m++) {
+            for (int d = 2; d <= 4; d++) {
+                insertSearchAndDelete(MODES[m], d, 10 * m + d, -500, 1000, 40);
+            }
+        }
+    }
+
+    @Test
+    public void findsNearestNeighbours() {
+        for (int m = 0; m < MODES.length; m++) {
+            for (int d = 2; d <= 4; d++) {
+                final Random random = new Random(100 + 10 * m + d);
+                final RTree<Integer> tree = new RTree<Integer>(8, 3, MODES[m], d);
+                final ArrayList model = new ArrayList();
+                for (int i = 0; i < 2000; i++) {
+                    model.add(tree.insert(box(random, d, 0, 1000, 30), Integer.valueOf(i)));
+                }
+                for (int i = 0; i < 50; i++) {
+                    final double[] point = new double[d];
+                    for (int k = 0; k < d; k++) {
+                        point[k] = -100 + random.nextDouble() * 1200;
+                    }
+                    final int k = 1 + random.nextInt(20);
+                    final double[] expected = new double[model.size()];
+                    for (int j = 0; j < expected.length; j++) {
+                        expected[j] = distanceSq((Entry) model.get(j), point);
+                    }
+                    Arrays.sort(expected);
+
+                    // Ties may come in any order, so the distances are compared
+                    final List<Entry<Integer>> nearest = tree.nearest(point, k);
+                    assertEquals(k, nearest.size());
+                    for (int j = 0; j < k; j++) {
+                        assertEquals(expected[j], distanceSq(nearest.get(j), point), 0);
+                    }
+                }
+                assertEquals(model.size(), tree.nearest(new double[d], model.size() + 10).size());
+                assertEquals(0, tree.nearest(new double[d], 0).size());
+            }
+        }
+        assertEquals(0, new RTree<Integer>(8, 3).nearest(0, 0, 5).size());
+    }
+
+    @Test
+    public void tellsApartBoxesNarrowerThanAFloat() {
+        // Around 2^20 the floats are 0.125 apart, so these boxes of at most 0.01 round to a few
+        // float boxes that many of them share, and only their exact boxes tell them apart
+        final double origin = 1 << 20;
+        for (int d = 2; d <= 4; d++) {
+            insertSearchAndDelete(RTree.FLOAT, d, 200 + d, origin, 1, 0.01);
+            insertSearchAndDelete(RTree.DOUBLE, d, 300 + d, origin, 1, 0.01);
+        }
+
+        // A box that lies between two floats is stored as the float box around it
+        final Random random = new Random(400);
+        for (int i = 0; i < 10000; i++) {
+            final double value = (random.nextDouble() - 0.5) * Math.pow(2, random.nextInt(60) - 30);
+            final float down = Node.down(value);
+            final float up = Node.up(value);
+            assertTrue(down <= value && Math.nextUp(down) > value);
+            assertTrue(up >= value && Math.nextDown(up) < value);
+        }
+        assertEquals(3f, Node.down(3), 0);
+        assertEquals(3f, Node.up(3), 0);
+    }
+}
@@ -0,0 +1,46 @@
+package RTre;
+
+import org.junit.Test;
+
+import java.awt.*;
+import java.util.HashMap;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks the index of data objects by id against a HashMap, through enough puts and removes to
+ * grow the table several times and to close many gaps left by removals.
+ */
+public class DataObjectIndexTest {
+
+    @Test
+    public void behavesLikeAMap() {
+        final Random random = new Random(1);
+        final Polygon polygon = new Polygon(new int[]{0, 1, 1}, new int[]{0, 0, 1}, 3);
+        final DataObjectIndex index = new DataObjectIndex();
+        final HashMap model = new HashMap();
+        for (int i = 0; i < 200000; i++) {
+            // Ids from a small range, some of them negative, so they collide and get replaced
+            final int id = random.nextInt(5000) - 1000;
+            if (random.nextInt(3) == 0) {
+                assertSame(model.remove(Integer.valueOf(id)), index.remove(id));
+            } else {
+                final DataObject d = new DataObject(id, polygon);
+                model.put(Integer.valueOf(id), d);
+                index.put(d);
+            }
+            assertEquals(model.size(), index.size());
+            final int probe = random.nextInt(5000) - 1000;
+            assertSame(model.get(Integer.valueOf(probe)), index.get(probe));
+        }
+        for (int id = -1000; id < 4000; id++) {
+            assertSame(model.get(Integer.valueOf(id)), index.get(id));
+        }
+        index.clear();
+        assertEquals(0, index.size());
+        assertNull(index.get(0));
+    }
+}
@@ -0,0 +1,286 @@
+package RTre;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.awt.*;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Opens durable trees again after changes of every kind, and checks that they come back with the
+ * same nodes: from the log alone, from a checkpoint and the log after it, and from a log whose end
+ * was cut off or damaged by a crash. A background checkpoint that fails must be reported, and a
+ * bulk load whose checkpoint fails must stop the changes after it.
+ */
+public class DurableRTreeTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Makes one random change, mostly inserts and deletes of every kind.
+     */
+    private static void change(final DurableRTree durable, final RTree rtree, final Random random) throws IOException {
+        final ArrayList all = rtree.search(new Rectangle(0, 0, 2000, 2000));
+        final int op = random.nextInt(100);
+        if (op < 45 || all.isEmpty()) {
+            durable.insertTreeElement(TestTrees.dataObject(random, 0, 0, 2000, 2000));
+        } else if (op < 55) {
+            final ArrayList dataObjects = new ArrayList();
+            for (int i = random.nextInt(20); i >= 0; i--) {
+                dataObjects.add(TestTrees.dataObject(random, 0, 0, 2000, 2000));
+            }
+            durable.insertAll(dataObjects);
+        } else if (op < 65) {
+            assertTrue(durable.delete((DataObject) all.get(random.nextInt(all.size()))));
+        } else if (op < 75) {
+            assertTrue(durable.delete(((DataObject) all.get(random.nextInt(all.size()))).getId()));
+        } else if (op < 82) {
+            final ArrayList dataObjects = new ArrayList();
+            for (int i = random.nextInt(8); i >= 0; i--) {
+                dataObjects.add(all.get(random.nextInt(all.size())));
+            }
+            durable.deleteAll(dataObjects);
+        } else if (op < 88) {
+            durable.deleteWithin(new Rectangle(random.nextInt(2000), random.nextInt(2000), random.nextInt(200), random.nextInt(200)));
+        } else if (op < 95) {
+            durable.findLeaves(new Rectangle(random.nextInt(2000), random.nextInt(2000), random.nextInt(200), random.nextInt(200)));
+            durable.deleteLeaves();
+        } else if (op < 96) {
+            durable.clearTree();
+        } else {
+            final ArrayList dataObjects = new ArrayList();
+            for (int i = random.nextInt(100); i >= 0; i--) {
+                dataObjects.add(TestTrees.dataObject(random, 0, 0, 2000, 2000));
+            }
+            durable.bulkLoad(dataObjects, random.nextInt(2));
+        }
+    }
+
+    private static DurableRTree open(final RTree rtree, final Path directory) throws IOException {
+        final DurableRTree durable = new DurableRTree(rtree, directory);
+        durable.checkpointThreshold = Long.MAX_VALUE;
+        return durable;
+    }
+
+    /**
+     * @return  The nodes of the tree kept in a directory, as TestTrees.dump writes them
+     */
+    private static String reopen(final Path directory) throws IOException {
+        final RTree rtree = TestTrees.emptyTree(8, 3);
+        final DurableRTree durable = open(rtree, directory);
+        try {
+            return TestTrees.dump(rtree);
+        } finally {
+            durable.close();
+        }
+    }
+
+    private Path copy(final Path directory) throws IOException {
+        final Path copy = folder.newFolder().toPath();
+        for (final String name : new String[]{DurableRTree.CHECKPOINT, DurableRTree.LOG}) {
+            if (Files.exists(directory.resolve(name))) {
+                Files.copy(directory.resolve(name), copy.resolve(name));
+            }
+        }
+        return copy;
+    }
+
+    @Test
+    public void replaysTheLog() throws IOException {
+        final Random random = new Random(1);
+        final Path directory = folder.newFolder().toPath();
+        final RTree rtree = TestTrees.emptyTree(8, 3);
+        final DurableRTree durable = open(rtree, directory);
+        for (int i = 0; i < 1500; i++) {
+            change(durable, rtree, random);
+            if (i % 100 == 0) {
+                // The files as a crash would leave them: everything that was synced
+                assertEquals(TestTrees.dump(rtree), reopen(copy(directory)));
+            }
+        }
+        final String nodes = TestTrees.dump(rtree);
+        durable.close();
+        assertEquals(nodes, reopen(directory));
+    }
+
+    @Test
+    public void reopensFromACheckpoint() throws IOException {
+        final Random random = new Random(2);
+        final Path directory = folder.newFolder().toPath();
+        final RTree rtree = TestTrees.emptyTree(8, 3);
+        final DurableRTree durable = open(rtree, directory);
+        for (int i = 0; i < 500; i++) {
+            durable.insertTreeElement(TestTrees.dataObject(random, 0, 0, 2000, 2000));
+        }
+        final long before = durable.getLogSize();
+        durable.checkpoint();
+        assertTrue(durable.getLogSize() < before);
+        assertEquals(TestTrees.dump(rtree), reopen(copy(directory)));
+
+        // The changes after the checkpoint are replayed on top of it
+        for (int i = 0; i < 500; i++) {
+            change(durable, rtree, random);
+        }
+        final String nodes = TestTrees.dump(rtree);
+        durable.close();
+        assertEquals(nodes, reopen(directory));
+
+        // New data objects must not take the ids of the ones read back
+        final RTree reopened = TestTrees.emptyTree(8, 3);
+        final DurableRTree again = open(reopened, directory);
+        final DataObject added = TestTrees.dataObject(random, 0, 0, 2000, 2000);
+        assertEquals(null, reopened.getDataObject(added.getId()));
+        again.insertTreeElement(added);
+        again.close();
+    }
+
+    @Test
+    public void replaysUpToADamagedRecord() throws IOException {
+        final Random random = new Random(3);
+        final Path directory = folder.newFolder().toPath();
+        final RTree rtree = TestTrees.emptyTree(8, 3);
+        final DurableRTree durable = open(rtree, directory);
+        final HashSet states = new HashSet();
+        states.add(TestTrees.dump(rtree));
+        for (int i = 0; i < 300; i++) {
+            change(durable, rtree, random);
+            states.add(TestTrees.dump(rtree));
+        }
+        // A bulk load empties the log, so it ends with inserts
+        for (int i = 0; i < 50; i++) {
+            durable.insertTreeElement(TestTrees.dataObject(random, 0, 0, 2000, 2000));
+            states.add(TestTrees.dump(rtree));
+        }
+        final byte[] log = Files.readAllBytes(directory.resolve(DurableRTree.LOG));
+        for (int i = 0; i < 40; i++) {
+            // A record cut short, or with a wrong checksum, ends the log: the tree must be as it
+            // was after some change, and take new changes after it
+            final Path damaged = copy(directory);
+            final int cut = MutationLog.FILE_HEADER_SIZE + random.nextInt(log.length - MutationLog.FILE_HEADER_SIZE);
+            final byte[] bytes = Arrays.copyOf(log, cut);
+            if (i % 2 == 1 && cut > MutationLog.FILE_HEADER_SIZE) {
+                bytes[MutationLog.FILE_HEADER_SIZE + random.nextInt(cut - MutationLog.FILE_HEADER_SIZE)] ^= 0x55;
+            }
+            Files.write(damaged.resolve(DurableRTree.LOG), bytes);
+
+            final RTree reopened = TestTrees.emptyTree(8, 3);
+            final DurableRTree replayed = open(reopened, damaged);
+            final String nodes = TestTrees.dump(reopened);
+            assertTrue(states.contains(nodes));
+            replayed.insertTreeElement(TestTrees.dataObject(random, 0, 0, 2000, 2000));
+            final String changed = TestTrees.dump(reopened);
+            replayed.close();
+            assertFalse(nodes.equals(changed));
+            assertEquals(changed, reopen(damaged));
+        }
+        durable.close();
+    }
+
+    @Test
+    public void reportsAFailedBackgroundCheckpoint() throws Exception {
+        final Random random = new Random(4);
+        final Path directory = folder.newFolder().toPath();
+        final RTree rtree = TestTrees.emptyTree(8, 3);
+        final DurableRTree durable = open(rtree, directory);
+        // A directory where the checkpoint would be written makes it fail
+        final Path blocker = Files.createDirectory(directory.resolve(DurableRTree.CHECKPOINT + ".tmp"));
+        durable.insertTreeElement(TestTrees.dataObject(random, 0, 0, 2000, 2000));
+        durable.checkpointThreshold = 0;
+
+        // The checkpointer looks at the log once a second
+        final Rectangle all = new Rectangle(0, 0, 2000, 2000);
+        boolean reported = false;
+        for (int i = 0; i < 100 && !reported; i++) {
+            Thread.sleep(100);
+            final int size = rtree.search(all).size();
+            try {
+                durable.insertTreeElement(TestTrees.dataObject(random, 0, 0, 2000, 2000));
+                assertEquals(size + 1, rtree.search(all).size());
+            } catch (IOException e) {
+                // The change that reported it was not made
+                assertEquals(size, rtree.search(all).size());
+                reported = true;
+            }
+        }
+        if (!reported) {
+            fail("The failed checkpoint was not reported");
+        }
+
+        // A round that started before the threshold was raised is over after a second, and may
+        // have failed once more
+        durable.checkpointThreshold = Long.MAX_VALUE;
+        Thread.sleep(1500);
+        Files.delete(blocker);
+        try {
+            durable.checkpoint();
+        } catch (IOException e) {
+            durable.checkpoint();
+        }
+        final int size = rtree.search(all).size();
+        durable.insertTreeElement(TestTrees.dataObject(random, 0, 0, 2000, 2000));
+        assertEquals(size + 1, rtree.search(all).size());
+        final String nodes = TestTrees.dump(rtree);
+        durable.close();
+        assertEquals(nodes, reopen(directory));
+    }
+
+    @Test
+    public void refusesChangesAfterAFailedBulkLoad() throws IOException {
+        final Random random = new Random(5);
+        final Path directory = folder.newFolder().toPath();
+        final RTree rtree = TestTrees.emptyTree(8, 3);
+        final DurableRTree durable = open(rtree, directory);
+        for (int i = 0; i < 200; i++) {
+            durable.insertTreeElement(TestTrees.dataObject(random, 0, 0, 2000, 2000));
+        }
+        final String before = TestTrees.dump(rtree);
+        final Path blocker = Files.createDirectory(directory.resolve(DurableRTree.CHECKPOINT + ".tmp"));
+        final ArrayList dataObjects = new ArrayList();
+        for (int i = 0; i < 300; i++) {
+            dataObjects.add(TestTrees.dataObject(random, 0, 0, 2000, 2000));
+        }
+        try {
+            durable.bulkLoad(dataObjects, RTree.HILBERT);
+            fail("The bulk load did not report the failed checkpoint");
+        } catch (IOException e) {
+            // Expected
+        }
+
+        // A change on top of the bulk load would be replayed on top of the tree before it
+        final String loaded = TestTrees.dump(rtree);
+        try {
+            durable.insertTreeElement(TestTrees.dataObject(random, 0, 0, 2000, 2000));
+            fail("A change was made after the failed bulk load");
+        } catch (IOException e) {
+            assertEquals(loaded, TestTrees.dump(rtree));
+        }
+        try {
+            durable.checkpoint();
+            fail("A checkpoint was written after the failed bulk load");
+        } catch (IOException e) {
+            // Expected
+        }
+        try {
+            durable.close();
+        } catch (IOException e) {
+            // The log has failed
+        }
+
+        // Opened again, the tree is as it was before the bulk load
+        Files.delete(blocker);
+        assertEquals(before, reopen(directory));
+    }
+}
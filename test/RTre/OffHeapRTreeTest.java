@@ -0,0 +1,135 @@
+package RTre;
+
+import org.junit.Test;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the off-heap tree against brute force over a list of the data objects it should hold:
+ * searches after inserts and deletes of all kinds, bulk loads with both methods, and nearest
+ * neighbours against the data objects sorted by distance.
+ */
+public class OffHeapRTreeTest {
+
+    private static ArrayList dataObjects(final Random random, final int size) {
+        final ArrayList dataObjects = new ArrayList(size);
+        for (int i = 0; i < size; i++) {
+            dataObjects.add(TestTrees.dataObject(random, 0, 0, 5000, 5000));
+        }
+        return dataObjects;
+    }
+
+    private static void assertSearches(final OffHeapRTree tree, final ArrayList model, final Random random) {
+        assertEquals(model.size(), tree.size());
+        for (int i = 0; i < 100; i++) {
+            final Rectangle r = TestTrees.window(random);
+            assertArrayEquals(TestTrees.matchingIds(model, r), TestTrees.ids(tree.search(r)));
+        }
+    }
+
+    @Test
+    public void insertsAndDeletes() {
+        final Random random = new Random(1);
+        final OffHeapRTree tree = new OffHeapRTree(8, 3);
+        final ArrayList model = dataObjects(random, 5000);
+        tree.insertAll(model);
+        assertSearches(tree, model, random);
+
+        // Delete by data object, by id, and everything in some windows
+        for (int i = 0; i < 1000; i++) {
+            final DataObject d = (DataObject) model.remove(random.nextInt(model.size()));
+            assertTrue(i % 2 == 0 ? tree.delete(d) : tree.delete(d.getId()));
+            assertFalse(tree.delete(d.getId()));
+        }
+        assertSearches(tree, model, random);
+        for (int i = 0; i < 20; i++) {
+            final Rectangle r = TestTrees.window(random);
+            final int expected = TestTrees.matchingIds(model, r).length;
+            for (int k = model.size() - 1; k >= 0; k--) {
+                if (TestTrees.matches((DataObject) model.get(k), r)) {
+                    model.remove(k);
+                }
+            }
+            assertEquals(expected, tree.deleteWithin(r));
+        }
+        assertSearches(tree, model, random);
+
+        // Inserts after deletes take the freed nodes and polygons again
+        final ArrayList more = dataObjects(random, 2000);
+        tree.insertAll(more);
+        model.addAll(more);
+        assertSearches(tree, model, random);
+        for (int i = 0; i < model.size(); i++) {
+            assertTrue(tree.delete(((DataObject) model.get(i)).getId()));
+        }
+        assertEquals(0, tree.size());
+        assertEquals(0, tree.search(new Rectangle(0, 0, 5000, 5000)).size());
+    }
+
+    @Test
+    public void bulkLoads() {
+        final int[] methods = {RTree.SORT_TILE_RECURSIVE, RTree.HILBERT};
+        for (int m = 0; m < methods.length; m++) {
+            final Random random = new Random(2 + m);
+            final OffHeapRTree tree = new OffHeapRTree(8, 3);
+            // Some leftovers in the tree, which the bulk load replaces
+            tree.insertAll(dataObjects(random, 100));
+            final ArrayList model = dataObjects(random, 5003);
+            tree.bulkLoad(model, methods[m]);
+            assertSearches(tree, model, random);
+
+            // The bulk loaded tree takes inserts and deletes like any other
+            for (int i = 0; i < 500; i++) {
+                final DataObject d = (DataObject) model.remove(random.nextInt(model.size()));
+                assertTrue(tree.delete(d.getId()));
+            }
+            final ArrayList more = dataObjects(random, 500);
+            tree.insertAll(more);
+            model.addAll(more);
+            assertSearches(tree, model, random);
+        }
+
+        final OffHeapRTree tree = new OffHeapRTree(8, 3);
+        final ArrayList one = dataObjects(new Random(4), 1);
+        tree.bulkLoad(one, RTree.HILBERT);
+        assertEquals(2, tree.getNumberOfLevels());
+        assertSearches(tree, one, new Random(5));
+        tree.bulkLoad(new ArrayList(), RTree.HILBERT);
+        assertEquals(0, tree.size());
+    }
+
+    @Test
+    public void findsNearestNeighbours() {
+        final Random random = new Random(6);
+        final OffHeapRTree tree = new OffHeapRTree(8, 3);
+        final ArrayList model = dataObjects(random, 3000);
+        tree.insertAll(model);
+        for (int i = 0; i < 100; i++) {
+            final int x = random.nextInt(5000);
+            final int y = random.nextInt(5000);
+            final int k = 1 + random.nextInt(20);
+            final double[] expected = new double[model.size()];
+            for (int j = 0; j < expected.length; j++) {
+                expected[j] = ((DataObject) model.get(j)).distanceSq(x, y);
+            }
+            Arrays.sort(expected);
+
+            // Ties may come in any order, so the distances are compared
+            final ArrayList nearest = tree.nearest(x, y, k);
+            assertEquals(k, nearest.size());
+            for (int j = 0; j < k; j++) {
+                assertEquals(expected[j], ((DataObject) nearest.get(j)).distanceSq(x, y), 0);
+            }
+        }
+        assertEquals(model.size(), tree.nearest(0, 0, model.size() + 10).size());
+        assertEquals(0, new OffHeapRTree(8, 3).nearest(0, 0, 5).size());
+    }
+}
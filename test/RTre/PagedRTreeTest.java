@@ -0,0 +1,246 @@
+package RTre;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.awt.*;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Saves trees in the paged format and reads them back: searched through the mapped file and
+ * through a buffer pool, loaded into an RTree again, and in the first version of the format,
+ * which had no ids. Damaged files must be refused, and a save that fails must leave the old file.
+ */
+public class PagedRTreeTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void searchesFindWhatWasSaved() throws IOException {
+        final RTree rtree = TestTrees.tree(5000, 1, 0, 0, 5000, 5000);
+        final Path file = folder.getRoot().toPath().resolve("tree.pages");
+        rtree.save(file);
+        final ArrayList all = rtree.search(new Rectangle(0, 0, 5000, 5000));
+
+        final PagedRTree mapped = PagedRTree.open(file);
+        final PagedRTree pooled = PagedRTree.open(file, 16, 1);
+        try {
+            assertEquals(all.size(), mapped.size());
+            assertEquals(rtree.getNumberOfLevels(), mapped.getNumberOfLevels());
+            final Random random = new Random(2);
+            for (int i = 0; i < 300; i++) {
+                final Rectangle r = TestTrees.window(random);
+                final int[] expected = TestTrees.matchingIds(all, r);
+                assertArrayEquals(expected, TestTrees.ids(mapped.search(r)));
+                assertArrayEquals(expected, TestTrees.ids(pooled.search(r)));
+            }
+        } finally {
+            mapped.close();
+            pooled.close();
+        }
+    }
+
+    @Test
+    public void threadsShareASmallPool() throws Exception {
+        final RTree rtree = TestTrees.tree(5000, 10, 0, 0, 5000, 5000);
+        final Path file = folder.getRoot().toPath().resolve("tree.pages");
+        rtree.save(file);
+        final ArrayList all = rtree.search(new Rectangle(0, 0, 5000, 5000));
+
+        // Room for two paths besides the root, so most threads wait for a turn
+        final PagedRTree pooled = PagedRTree.open(file, 1 + 2 * rtree.getNumberOfLevels(), 1);
+        try {
+            final Thread[] threads = new Thread[8];
+            final Throwable[] failures = new Throwable[threads.length];
+            for (int t = 0; t < threads.length; t++) {
+                final int seed = t;
+                threads[t] = new Thread() {
+                    public void run() {
+                        try {
+                            final Random random = new Random(100 + seed);
+                            for (int i = 0; i < 300; i++) {
+                                final Rectangle r = TestTrees.window(random);
+                                assertArrayEquals(TestTrees.matchingIds(all, r), TestTrees.ids(pooled.search(r)));
+                            }
+                        } catch (Throwable e) {
+                            failures[seed] = e;
+                        }
+                    }
+                };
+                threads[t].start();
+            }
+            for (int t = 0; t < threads.length; t++) {
+                threads[t].join();
+                if (failures[t] != null) {
+                    throw new AssertionError(failures[t]);
+                }
+            }
+            assertTrue(pooled.getBufferPool().getEvictions() > 0);
+        } finally {
+            pooled.close();
+        }
+    }
+
+    @Test
+    public void loadRebuildsTheSameTree() throws IOException {
+        final RTree rtree = TestTrees.tree(5000, 3, 0, 0, 5000, 5000);
+        final Path file = folder.getRoot().toPath().resolve("tree.pages");
+        rtree.save(file);
+        final ArrayList all = rtree.search(new Rectangle(0, 0, 5000, 5000));
+
+        final RTree loaded = TestTrees.emptyTree(8, 3);
+        loaded.load(file);
+        assertEquals(all.size(), TreeInvariants.check(loaded));
+        assertEquals(rtree.getNumberOfLevels(), loaded.getNumberOfLevels());
+        for (int i = 0; i < all.size(); i++) {
+            final DataObject d = (DataObject) all.get(i);
+            final DataObject copy = loaded.getDataObject(d.getId());
+            assertEquals(d.getBoundingBox(), copy.getBoundingBox());
+            assertTrue(Arrays.equals(d.getPolygon().xpoints, copy.getPolygon().xpoints));
+        }
+        // New data objects must not take the ids of the loaded ones
+        final DataObject added = TestTrees.dataObject(new Random(4), 0, 0, 5000, 5000);
+        assertEquals(null, loaded.getDataObject(added.getId()));
+        loaded.insertTreeElement(added);
+        assertSame(added, loaded.getDataObject(added.getId()));
+    }
+
+    @Test
+    public void readsVersionOneWithStableIds() throws IOException {
+        final RTree rtree = TestTrees.tree(3000, 5, 0, 0, 5000, 5000);
+        final Path file = folder.getRoot().toPath().resolve("tree.pages");
+        rtree.save(file);
+        final Path old = folder.getRoot().toPath().resolve("old.pages");
+        Files.write(old, versionOne(Files.readAllBytes(file)));
+        final ArrayList all = rtree.search(new Rectangle(0, 0, 5000, 5000));
+
+        final PagedRTree paged = PagedRTree.open(old);
+        try {
+            assertEquals(0, paged.getSequence());
+            final Random random = new Random(6);
+            for (int i = 0; i < 100; i++) {
+                final Rectangle r = TestTrees.window(random);
+                final ArrayList first = paged.search(r);
+                assertEquals(TestTrees.matchingIds(all, r).length, first.size());
+                // The same ids every time, and no two data objects share one
+                final int[] ids = TestTrees.ids(first);
+                assertArrayEquals(ids, TestTrees.ids(paged.search(r)));
+                for (int k = 1; k < ids.length; k++) {
+                    assertTrue(ids[k - 1] < ids[k]);
+                }
+            }
+        } finally {
+            paged.close();
+        }
+        final RTree loaded = TestTrees.emptyTree(8, 3);
+        loaded.load(old);
+        assertEquals(all.size(), TreeInvariants.check(loaded));
+    }
+
+    @Test
+    public void refusesDamagedFiles() throws IOException {
+        final Path file = folder.getRoot().toPath().resolve("tree.pages");
+        TestTrees.tree(1000, 7, 0, 0, 5000, 5000).save(file);
+        final byte[] bytes = Files.readAllBytes(file);
+
+        final Path damaged = folder.getRoot().toPath().resolve("damaged.pages");
+        Files.write(damaged, Arrays.copyOf(bytes, bytes.length - 1));
+        assertRefused(damaged);
+        Files.write(damaged, Arrays.copyOf(bytes, 10));
+        assertRefused(damaged);
+        final byte[] magic = bytes.clone();
+        magic[0] ^= 1;
+        Files.write(damaged, magic);
+        assertRefused(damaged);
+        final byte[] version = bytes.clone();
+        version[4] = 9;
+        Files.write(damaged, version);
+        assertRefused(damaged);
+    }
+
+    private static void assertRefused(final Path file) {
+        try {
+            PagedRTree.open(file).close();
+            fail("A damaged file was opened");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void failedSaveKeepsTheOldFile() throws IOException {
+        final Path file = folder.getRoot().toPath().resolve("tree.pages");
+        final RTree rtree = TestTrees.tree(1000, 8, 0, 0, 5000, 5000);
+        rtree.save(file);
+        final byte[] saved = Files.readAllBytes(file);
+
+        // A directory where the new file would be written makes the save fail
+        final Path blocker = Files.createDirectory(folder.getRoot().toPath().resolve("tree.pages.tmp"));
+        rtree.insertTreeElement(TestTrees.dataObject(new Random(9), 0, 0, 5000, 5000));
+        try {
+            rtree.save(file);
+            fail("The save should have failed");
+        } catch (IOException e) {
+            // Expected
+        }
+        assertArrayEquals(saved, Files.readAllBytes(file));
+
+        Files.delete(blocker);
+        rtree.save(file);
+        assertFalse(Files.exists(blocker));
+        final PagedRTree paged = PagedRTree.open(file);
+        try {
+            assertEquals(rtree.search(new Rectangle(0, 0, 5000, 5000)).size(), paged.size());
+        } finally {
+            paged.close();
+        }
+    }
+
+    /**
+     * Rewrites a file of the current version as the first version of the format wrote it: the
+     * same header without the sequence number, the same node pages, and polygon records without
+     * the id. The files here are far smaller than a segment, so no record moves to the next one.
+     */
+    private static byte[] versionOne(final byte[] file) {
+        final ByteBuffer b = ByteBuffer.wrap(file).order(ByteOrder.LITTLE_ENDIAN);
+        final int pageSize = b.getInt(8);
+        final int nodes = b.getInt(28);
+        final long dataOffset = b.getLong(32);
+        final ByteBuffer out = ByteBuffer.allocate(file.length).order(ByteOrder.LITTLE_ENDIAN);
+        out.put(file, 0, (int) dataOffset);
+        out.putInt(4, 1);
+        out.putLong(48, 0);
+        int offset = (int) dataOffset;
+        for (int page = 1; page <= nodes; page++) {
+            final int base = page * pageSize;
+            if (b.getInt(base) != 1) {
+                continue;
+            }
+            for (int i = 0, s = base + PagedRTree.NODE_HEADER_SIZE; i < b.getInt(base + 4); i++, s += PagedRTree.SLOT_SIZE) {
+                final int record = (int) b.getLong(s + 16);
+                final int length = 4 + 8 * b.getInt(record + 4);
+                System.arraycopy(file, record + 4, out.array(), offset, length);
+                out.putLong(s + 16, offset);
+                offset += length;
+            }
+        }
+        out.putLong(40, offset);
+        return Arrays.copyOf(out.array(), offset);
+    }
+}
@@ -0,0 +1,167 @@
+package RTre;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Random;
+
+/**
+ * Trees and data objects for the tests, and the brute force answers the tree is checked against.
+ */
+final class TestTrees {
+
+    private TestTrees() {
+    }
+
+    /**
+     * Creates an empty tree with the given M and m.
+     *
+     * @param max   M, the maximum number of children per node
+     * @param min   m, the minimum number of children per node
+     * @return      The empty tree
+     */
+    static RTree emptyTree(final int max, final int min) {
+        final RTree rtree = new RTree();
+        rtree.maxChildrenPerNode = max;
+        rtree.minimumChildrenPerNode = min;
+        // The root node is created with the default M, so it has to be recreated
+        rtree.clearTree();
+        return rtree;
+    }
+
+    /**
+     * Creates a tree of M 8 and m 3 with random data objects in the given area, inserted with
+     * insertAll. A third of them are then deleted again, so that the nodes are not just those of the
+     * inserts.
+     *
+     * @param size      The number of data objects inserted
+     * @param seed      The seed of the data objects
+     * @param x         The low x of the area
+     * @param y         The low y of the area
+     * @param width     The width of the area, more than 40
+     * @param height    The height of the area, more than 40
+     * @return          The tree
+     */
+    static RTree tree(final int size, final long seed, final int x, final int y, final int width, final int height) {
+        final Random random = new Random(seed);
+        final RTree rtree = emptyTree(8, 3);
+        final ArrayList all = new ArrayList();
+        for (int i = 0; i < size; i++) {
+            all.add(dataObject(random, x, y, width, height));
+        }
+        rtree.insertAll(all);
+        for (int i = 0; i < size / 3; i++) {
+            rtree.delete((DataObject) all.get(random.nextInt(size)));
+        }
+        return rtree;
+    }
+
+    /**
+     * Writes the nodes of a tree, with their levels and boxes, the ids and points of the data objects,
+     * and M and m, as a string. Two trees with the same string have the same shape and contents.
+     */
+    static String dump(final RTree rtree) {
+        final StringBuilder s = new StringBuilder();
+        dump(rtree.getRootNode(), s);
+        return s.append(rtree.maxChildrenPerNode).append('/').append(rtree.minimumChildrenPerNode).toString();
+    }
+
+    private static void dump(final Node n, final StringBuilder s) {
+        s.append('(').append(n.getLevel()).append(n.getBoundingBox());
+        for (int i = 0; i < n.getSize(); i++) {
+            final Object child = n.children.get(i);
+            if (child instanceof DataObject) {
+                final Polygon p = ((DataObject) child).getPolygon();
+                s.append(((DataObject) child).getId()).append(Arrays.toString(Arrays.copyOf(p.xpoints, p.npoints)))
+                        .append(Arrays.toString(Arrays.copyOf(p.ypoints, p.npoints)));
+            } else {
+                dump((Node) child, s);
+            }
+        }
+        s.append(')');
+    }
+
+    /**
+     * @return  A rectangle of up to 800 by 800 with its corner in the 5000 by 5000 area of most tests
+     */
+    static Rectangle window(final Random random) {
+        return new Rectangle(random.nextInt(5000), random.nextInt(5000), random.nextInt(800), random.nextInt(800));
+    }
+
+    /**
+     * @return  A rectangle inside the given area, at least 1 and at most a quarter of it wide and high
+     */
+    static Rectangle window(final Random random, final int x, final int y, final int width, final int height) {
+        final int w = 1 + random.nextInt(width / 4);
+        final int h = 1 + random.nextInt(height / 4);
+        return new Rectangle(x + random.nextInt(width - w), y + random.nextInt(height - h), w, h);
+    }
+
+    /**
+     * Creates a data object with a random polygon of three to six points. Its bounding box lies
+     * inside the given area and is at least one unit wide and high, so that a search finds it.
+     *
+     * @param random    The source of the polygon
+     * @param x         The low x of the area
+     * @param y         The low y of the area
+     * @param width     The width of the area, more than 40
+     * @param height    The height of the area, more than 40
+     * @return          The data object
+     */
+    static DataObject dataObject(final Random random, final int x, final int y, final int width, final int height) {
+        final int n = 3 + random.nextInt(4);
+        final int left = x + random.nextInt(width - 40);
+        final int top = y + random.nextInt(height - 40);
+        final int[] xs = new int[n];
+        final int[] ys = new int[n];
+        for (int i = 0; i < n; i++) {
+            xs[i] = left + random.nextInt(40);
+            ys[i] = top + random.nextInt(40);
+        }
+        // The first two points span the box, so it is never flat
+        xs[0] = left;
+        ys[0] = top;
+        xs[1] = left + 40;
+        ys[1] = top + 40;
+        return new DataObject(null, new Polygon(xs, ys, n));
+    }
+
+    /**
+     * @return  true if a search for the rectangle should find the data object
+     */
+    static boolean matches(final DataObject dataObject, final Rectangle r) {
+        return r.contains(dataObject.getBoundingBox()) || dataObject.intersects(r);
+    }
+
+    /**
+     * @return  The ids of the data objects in a collection, sorted
+     */
+    static int[] ids(final Collection dataObjects) {
+        final int[] ids = new int[dataObjects.size()];
+        int i = 0;
+        for (final Iterator it = dataObjects.iterator(); it.hasNext(); ) {
+            ids[i++] = ((DataObject) it.next()).getId();
+        }
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    /**
+     * @return  The ids of the data objects in a collection that a search for the rectangle should find, sorted
+     */
+    static int[] matchingIds(final Collection dataObjects, final Rectangle r) {
+        int[] ids = new int[dataObjects.size()];
+        int n = 0;
+        for (final Iterator it = dataObjects.iterator(); it.hasNext(); ) {
+            final DataObject d = (DataObject) it.next();
+            if (matches(d, r)) {
+                ids[n++] = d.getId();
+            }
+        }
+        ids = Arrays.copyOf(ids, n);
+        Arrays.sort(ids);
+        return ids;
+    }
+}
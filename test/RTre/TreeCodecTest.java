@@ -0,0 +1,161 @@
+package RTre;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Exports trees and restores them, whole and a few bytes at a time, alone and followed by other
+ * data in the same stream. A snapshot that is cut short or damaged must be refused, and leave the
+ * tree it was restored into as it was.
+ */
+public class TreeCodecTest {
+
+    // Far apart, so that the boxes of the nodes are large, and some of them negative
+    private static final int WORLD = 200000;
+
+    private static byte[] export(final RTree rtree) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        rtree.export(Channels.newChannel(out));
+        return out.toByteArray();
+    }
+
+    /**
+     * A channel that hands out at most a few bytes for each read, as a socket may.
+     */
+    private static ReadableByteChannel trickle(final InputStream in, final long seed) {
+        final Random random = new Random(seed);
+        final ReadableByteChannel channel = Channels.newChannel(in);
+        return new ReadableByteChannel() {
+            public int read(final ByteBuffer dst) throws IOException {
+                final ByteBuffer part = dst.duplicate();
+                part.limit(Math.min(dst.limit(), dst.position() + 1 + random.nextInt(7)));
+                final int read = channel.read(part);
+                if (read > 0) {
+                    dst.position(dst.position() + read);
+                }
+                return read;
+            }
+
+            public boolean isOpen() {
+                return true;
+            }
+
+            public void close() {
+            }
+        };
+    }
+
+    @Test
+    public void restoresTheSameTree() throws IOException {
+        final int[] sizes = {0, 1, 9, 20000};
+        for (int i = 0; i < sizes.length; i++) {
+            final RTree rtree = TestTrees.tree(sizes[i], i, -WORLD / 2, -WORLD / 2, WORLD, WORLD);
+            final byte[] bytes = export(rtree);
+
+            final RTree restored = TestTrees.emptyTree(4, 2);
+            restored.restore(Channels.newChannel(new ByteArrayInputStream(bytes)));
+            assertEquals(TestTrees.dump(rtree), TestTrees.dump(restored));
+            assertEquals(TreeInvariants.check(rtree), TreeInvariants.check(restored));
+
+            final RTree trickled = new RTree();
+            trickled.restore(trickle(new ByteArrayInputStream(bytes), i));
+            assertEquals(TestTrees.dump(rtree), TestTrees.dump(trickled));
+
+            // The restored tree takes new data objects, with new ids
+            final DataObject added = TestTrees.dataObject(new Random(i), 0, 0, 1000, 1000);
+            restored.insertTreeElement(added);
+            assertEquals(added, restored.getDataObject(added.getId()));
+        }
+    }
+
+    @Test
+    public void leavesWhatFollowsTheSnapshot() throws IOException {
+        final RTree first = TestTrees.tree(5000, 10, -WORLD / 2, -WORLD / 2, WORLD, WORLD);
+        final RTree second = TestTrees.tree(300, 11, -WORLD / 2, -WORLD / 2, WORLD, WORLD);
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeUTF("before");
+        out.flush();
+        first.export(Channels.newChannel(bytes));
+        out.writeLong(0x1234567890L);
+        second.export(Channels.newChannel(bytes));
+        out.writeUTF("after");
+        out.flush();
+
+        for (int trickled = 0; trickled < 2; trickled++) {
+            final InputStream stream = new ByteArrayInputStream(bytes.toByteArray());
+            final ReadableByteChannel channel = trickled == 0 ? Channels.newChannel(stream) : trickle(stream, 12);
+            final DataInputStream in = new DataInputStream(stream);
+            assertEquals("before", in.readUTF());
+            final RTree restored = new RTree();
+            restored.restore(channel);
+            assertEquals(TestTrees.dump(first), TestTrees.dump(restored));
+            assertEquals(0x1234567890L, in.readLong());
+            restored.restore(channel);
+            assertEquals(TestTrees.dump(second), TestTrees.dump(restored));
+            assertEquals("after", in.readUTF());
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test
+    public void refusesDamagedSnapshots() throws IOException {
+        final Random random = new Random(13);
+        final byte[] bytes = export(TestTrees.tree(2000, 14, -WORLD / 2, -WORLD / 2, WORLD, WORLD));
+        final RTree rtree = TestTrees.tree(50, 15, -WORLD / 2, -WORLD / 2, WORLD, WORLD);
+        final String before = TestTrees.dump(rtree);
+        for (int i = 0; i < 300; i++) {
+            final byte[] damaged;
+            if (i % 2 == 0) {
+                damaged = Arrays.copyOf(bytes, random.nextInt(bytes.length));
+            } else {
+                damaged = bytes.clone();
+                damaged[random.nextInt(damaged.length)] ^= (byte) (1 << random.nextInt(8));
+            }
+            try {
+                rtree.restore(Channels.newChannel(new ByteArrayInputStream(damaged)));
+                fail("A damaged snapshot was restored");
+            } catch (IOException e) {
+                // Expected
+            }
+            assertEquals(before, TestTrees.dump(rtree));
+        }
+    }
+
+    @Test
+    public void refusesHugePolygonsWithoutAllocatingThem() throws IOException {
+        // An empty tree of M 8 and m 3 but for the root, which claims a leaf with one data object
+        // of two billion points: the snapshot ends long before them
+        final ByteArrayOutputStream chunk = new ByteArrayOutputStream();
+        chunk.write(new byte[]{8, 3, 1, 1, 1, 0, 0, 0, 0, 0, (byte) 0xfe, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x07, 0, 0});
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(TreeCodec.MAGIC);
+        out.writeInt(TreeCodec.VERSION);
+        out.writeInt(chunk.size());
+        out.write(chunk.toByteArray());
+        out.writeInt(0);
+        out.writeInt(0);
+        try {
+            new RTree().restore(Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray())));
+            fail("A polygon of two billion points was restored");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("ends too early"));
+        }
+    }
+}
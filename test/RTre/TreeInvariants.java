@@ -0,0 +1,53 @@
+package RTre;
+
+import java.awt.*;
+
+/**
+ * Checks that a tree is still a valid R-tree, so that the tests that change the tree from several
+ * threads, or restore it from a file, can tell whether it survived. Every node must have the right
+ * level and parent, between m and M children (except the root), and a bounding box that is exactly
+ * the union of the boxes of its children.
+ */
+final class TreeInvariants {
+
+    private TreeInvariants() {
+    }
+
+    /**
+     * Walks the whole tree and throws an IllegalStateException at the first broken invariant.
+     *
+     * @param rtree     The tree to check
+     * @return          The number of data objects in the tree
+     */
+    static int check(final RTree rtree) {
+        final Node root = rtree.getRootNode();
+        if (root.getParent() != null) {
+            throw new IllegalStateException("The root node has a parent");
+        }
+        return check(rtree, root);
+    }
+
+    private static int check(final RTree rtree, final Node n) {
+        if (n != rtree.getRootNode() && (n.getSize() < rtree.minimumChildrenPerNode || n.getSize() > rtree.maxChildrenPerNode)) {
+            throw new IllegalStateException("A node on level " + n.getLevel() + " has " + n.getSize() + " children");
+        }
+        int dataObjects = 0;
+        Rectangle union = null;
+        for (int i = 0; i < n.getSize(); i++) {
+            final TreeElement child = (TreeElement) n.getChildren().get(i);
+            if (child.getParent() != n) {
+                throw new IllegalStateException("A child on level " + child.getLevel() + " has the wrong parent");
+            }
+            if (child.getLevel() != n.getLevel() - 1) {
+                throw new IllegalStateException("A child on level " + child.getLevel() + " is below level " + n.getLevel());
+            }
+            union = union == null ? new Rectangle(child.getBoundingBox()) : union.union(child.getBoundingBox());
+            dataObjects += child instanceof Node ? check(rtree, (Node) child) : 1;
+        }
+        if (union != null && !union.equals(n.getBoundingBox())) {
+            throw new IllegalStateException("A node on level " + n.getLevel() + " has the bounding box "
+                    + n.getBoundingBox() + " but its children cover " + union);
+        }
+        return dataObjects;
+    }
+}